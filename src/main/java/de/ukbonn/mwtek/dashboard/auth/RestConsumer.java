@@ -19,8 +19,10 @@
 package de.ukbonn.mwtek.dashboard.auth;
 
 import de.ukbonn.mwtek.dashboard.configuration.AbstractRestConfiguration;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import javax.net.ssl.SSLContext;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
@@ -33,7 +35,9 @@ import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
 import org.apache.hc.core5.http.config.Registry;
 import org.apache.hc.core5.http.config.RegistryBuilder;
 import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.client.support.BasicAuthenticationInterceptor;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.util.ResourceUtils;
@@ -91,7 +95,7 @@ public class RestConsumer {
    * @return a pre configured spring RestTemplate object
    */
   protected RestTemplate getRestTemplateNone() {
-    RestTemplate result = new RestTemplate();
+    RestTemplate result = new RestTemplate(createRequestFactory(restConfiguration));
     result.getMessageConverters().addFirst(new StringHttpMessageConverter(StandardCharsets.UTF_8));
     return result;
   }
@@ -102,7 +106,7 @@ public class RestConsumer {
    * @return a pre configured spring RestTemplate object
    */
   protected RestTemplate getRestTemplateBasicAuth() {
-    RestTemplate result = new RestTemplate();
+    RestTemplate result = new RestTemplate(createRequestFactory(restConfiguration));
     result
         .getInterceptors()
         .add(
@@ -168,8 +172,10 @@ public class RestConsumer {
       CloseableHttpClient httpClient =
           HttpClients.custom().setConnectionManager(connectionManager).build();
 
-      RestTemplate restTemplate =
-          new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+      HttpComponentsClientHttpRequestFactory requestFactory =
+          new HttpComponentsClientHttpRequestFactory(httpClient);
+      applyTimeouts(requestFactory, restConfiguration);
+      RestTemplate restTemplate = new RestTemplate(requestFactory);
 
       restTemplate
           .getMessageConverters()
@@ -182,4 +188,39 @@ public class RestConsumer {
       throw new RuntimeException("SSL initialization failed", ex);
     }
   }
+
+  /**
+   * Creates the request factory of the plain {@link RestTemplate rest templates} with the
+   * configured timeouts.
+   */
+  static ClientHttpRequestFactory createRequestFactory(
+      AbstractRestConfiguration restConfiguration) {
+    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+    Duration connectTimeout = RunControl.limit(restConfiguration.getConnectTimeout());
+    if (connectTimeout != null) {
+      requestFactory.setConnectTimeout(connectTimeout);
+    }
+    Duration readTimeout = RunControl.limit(restConfiguration.getReadTimeout());
+    if (readTimeout != null) {
+      requestFactory.setReadTimeout(readTimeout);
+    }
+    return requestFactory;
+  }
+
+  /**
+   * Sets the configured timeouts, limited to the remaining time of the current run, on a request
+   * factory that is based on the apache http client.
+   */
+  static void applyTimeouts(
+      HttpComponentsClientHttpRequestFactory requestFactory,
+      AbstractRestConfiguration restConfiguration) {
+    Duration connectTimeout = RunControl.limit(restConfiguration.getConnectTimeout());
+    if (connectTimeout != null) {
+      requestFactory.setConnectTimeout(connectTimeout);
+    }
+    Duration readTimeout = RunControl.limit(restConfiguration.getReadTimeout());
+    if (readTimeout != null) {
+      requestFactory.setReadTimeout(readTimeout);
+    }
+  }
 }
@@ -320,7 +320,8 @@ public class TokenAuthHelper {
    * @return a RestTemplate instance configured with the Bearer token.
    */
   private RestTemplate createRestTemplateWithToken() {
-    RestTemplate restTemplate = new RestTemplate();
+    RestTemplate restTemplate =
+        new RestTemplate(RestConsumer.createRequestFactory(restConfiguration));
     restTemplate
         .getInterceptors()
         .add(
@@ -18,6 +18,7 @@
 
 package de.ukbonn.mwtek.dashboard.configuration;
 
+import java.time.Duration;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.context.annotation.Configuration;
@@ -76,6 +77,15 @@ public abstract class AbstractRestConfiguration {
    */
   private TokenBasedAuth tokenBasedAuth;
 
+  /** The maximum duration for establishing a connection to the rest endpoint. */
+  private Duration connectTimeout = Duration.ofSeconds(30);
+
+  /**
+   * The maximum duration of inactivity while waiting for response data of the rest endpoint. Each
+   * request is additionally limited to the remaining time of a run with a deadline.
+   */
+  private Duration readTimeout = Duration.ofMinutes(15);
+
   @Getter
   @Setter
   public static class TokenBasedAuth {
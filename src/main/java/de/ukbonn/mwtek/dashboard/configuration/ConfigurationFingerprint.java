@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.configuration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hash over all configuration properties that have an influence on the generated output (e.g. code
+ * lists, excludes, thresholds or the server settings). Used to detect whether cached or persisted
+ * intermediate results were created with the same configuration.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Component
+public class ConfigurationFingerprint {
+
+  /** Prefixes of the properties that are relevant for the output. */
+  static final List<String> RELEVANT_PREFIXES =
+      List.of(
+          "provider.",
+          "global.",
+          "fhir.",
+          "acuwave.",
+          "data-items.",
+          "variants.",
+          "reports.");
+
+  /** The (shortened) SHA-256 hash of all relevant configuration properties. */
+  @Getter private final String hash;
+
+  public ConfigurationFingerprint(ConfigurableEnvironment environment) {
+    // Sorted map to get a stable hash; the first property source wins (= spring precedence)
+    Map<String, String> relevantProperties = new TreeMap<>();
+    for (PropertySource<?> propertySource : environment.getPropertySources()) {
+      if (propertySource instanceof EnumerablePropertySource<?> enumerablePropertySource) {
+        for (String name : enumerablePropertySource.getPropertyNames()) {
+          if (RELEVANT_PREFIXES.stream().anyMatch(name::startsWith)) {
+            Object value = enumerablePropertySource.getProperty(name);
+            relevantProperties.putIfAbsent(name, String.valueOf(value));
+          }
+        }
+      }
+    }
+    this.hash = hash(relevantProperties.toString());
+    log.debug(
+        "Configuration fingerprint {} (based on {} properties)", hash, relevantProperties.size());
+  }
+
+  private static String hash(String input) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of()
+          .formatHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)))
+          .substring(0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      // Every java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
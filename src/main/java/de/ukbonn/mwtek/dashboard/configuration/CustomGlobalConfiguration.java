@@ -22,6 +22,7 @@ import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.CURRE
 
 import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
 import de.ukbonn.mwtek.dashboardlogic.settings.GlobalConfiguration;
+import java.time.Duration;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -44,4 +45,23 @@ public class CustomGlobalConfiguration extends GlobalConfiguration {
    * potentially bypass server restrictions.
    */
   private String dsdVersion = CURRENT_DATASET_VERSION;
+
+  /**
+   * Should the json output of the /createJson endpoint get gzip-compressed if the client accepts it
+   * (via <code>Accept-Encoding: gzip</code>)?
+   */
+  private Boolean gzipResponse = true;
+
+  /**
+   * The maximum duration of a single run (e.g. <code>2h</code>). A run that exceeds it gets
+   * cancelled. If not set, the runs are unbounded. Can be overwritten per request via the <code>
+   * timeout</code> parameter of the /createJson endpoint.
+   */
+  private Duration runTimeout;
+
+  /**
+   * Should identical search requests that are in flight at the same time be coalesced into a
+   * single server request?
+   */
+  private Boolean coalesceSearchRequests = true;
 }
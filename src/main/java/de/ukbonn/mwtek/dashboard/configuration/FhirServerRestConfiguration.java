@@ -37,4 +37,20 @@ public class FhirServerRestConfiguration extends AbstractRestConfiguration {
 
   /** A prefix that should be added when the fhir server paging is using relative paths. */
   private String prefixPagination;
+
+  /**
+   * Should the search bundle pages be read by the {@link
+   * de.ukbonn.mwtek.dashboard.misc.StreamingBundleReader} instead of the HAPI parser? Entries with
+   * resource types or elements the reader doesn't know are still handed to the HAPI parser.
+   */
+  private boolean streamingReader = false;
+
+  /**
+   * Should large search bundle pages be split into chunks of entries that are parsed concurrently?
+   * Useful in combination with large page sizes, where the parse of a page is the bottleneck.
+   */
+  private boolean parallelParsing = false;
+
+  /** The maximum number of entries of a chunk; smaller pages are parsed in one piece. */
+  private int parallelParsingChunkSize = 250;
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.configuration;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the persistent cache of slow-changing reference resources (e.g. {@link
+ * ResourceType#Location locations}), so they don't need to be fetched again on each run.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "reference-cache")
+public class ReferenceCacheConfiguration {
+
+  /** Should the reference resources be cached on disk across runs? */
+  private Boolean enabled = false;
+
+  /** The directory of the cache. */
+  private String directory = System.getProperty("user.dir") + "/reference-cache";
+
+  /**
+   * The time to live per resource type. Within it, cached resources are used without any server
+   * request; afterward, they are revalidated via <code>_lastUpdated</code>.
+   */
+  private Map<ResourceType, Duration> timeToLive =
+      new EnumMap<>(
+          Map.of(
+              ResourceType.Location, Duration.ofDays(1),
+              ResourceType.Questionnaire, Duration.ofDays(7)));
+
+  /** The time to live of resource types without a dedicated entry in {@link #timeToLive}. */
+  private Duration defaultTimeToLive = Duration.ofDays(1);
+
+  /**
+   * Interval after which the cache gets refilled completely, to get rid of resources that were
+   * physically deleted on the server (which are not detectable via <code>_lastUpdated</code>).
+   */
+  private Duration fullRefreshInterval = Duration.ofDays(30);
+}
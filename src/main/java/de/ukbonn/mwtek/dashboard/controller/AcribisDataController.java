@@ -28,6 +28,7 @@ import de.ukbonn.mwtek.dashboard.configuration.ReportsConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.VariantConfiguration;
 import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
 import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
 import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
 import de.ukbonn.mwtek.dashboardlogic.AcribisDataItemGenerator;
@@ -37,7 +38,6 @@ import de.ukbonn.mwtek.dashboardlogic.models.DiseaseDataItem;
 import de.ukbonn.mwtek.dashboardlogic.models.PidTimestampCohortMap;
 import de.ukbonn.mwtek.dashboardlogic.settings.InputCodeSettings;
 import de.ukbonn.mwtek.dashboardlogic.settings.QualitativeLabCodesSettings;
-import de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiCondition;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiConsent;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
@@ -82,7 +82,7 @@ public class AcribisDataController {
 
     if (!miiConsents.isEmpty()) {
       // The FHIR search is a combination of encounter id and validity date
-      if (globalConfiguration.getServerType() == ServerTypeEnum.FHIR) {
+      if (globalConfiguration.getServerType() != ServerTypeEnum.ACUWAVE) {
         PidTimestampCohortMap pidTimestampMap = calculateValidTimestampsByPid(miiConsents);
         miiEncounters = dataRetrievalService.getEncounters(pidTimestampMap);
       }
@@ -93,7 +93,7 @@ public class AcribisDataController {
       processTimer.startLoggingTime(ResourceType.Condition);
       miiConditions =
           (List<MiiCondition>)
-              ResourceConverter.convert(dataRetrievalService.getConditions(miiEncounters, ACRIBIS));
+              MiiResourceTypes.toMii(dataRetrievalService.getConditions(miiEncounters, ACRIBIS));
       processTimer.stopLoggingTime(miiConditions);
 
       // Retrieval of procedure resources
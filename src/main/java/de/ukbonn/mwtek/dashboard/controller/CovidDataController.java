@@ -30,8 +30,10 @@ import de.ukbonn.mwtek.dashboard.configuration.DataItemsConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.ReportsConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.VariantConfiguration;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
 import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
 import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
+import de.ukbonn.mwtek.dashboard.store.EncounterTable;
 import de.ukbonn.mwtek.dashboardlogic.DataItemGenerator;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
 import de.ukbonn.mwtek.dashboardlogic.logic.CoronaResultFunctionality;
@@ -71,7 +73,11 @@ public class CovidDataController {
     processTimer.startLoggingTime(ResourceType.Observation);
     List<MiiObservation> miiObservations =
         (List<MiiObservation>)
-            ResourceConverter.convert(dataRetrievalService.getObservations(dataItemContext));
+            MiiResourceTypes.toMii(
+                dataRetrievalService.checkpointed(
+                    dataItemContext,
+                    ResourceType.Observation,
+                    () -> dataRetrievalService.getObservations(dataItemContext)));
     processTimer.stopLoggingTime(miiObservations);
 
     // Retrieval of the Condition resources
@@ -79,7 +85,11 @@ public class CovidDataController {
     // map fhir resources into ukb resources
     List<MiiCondition> miiConditions =
         (List<MiiCondition>)
-            ResourceConverter.convert(dataRetrievalService.getConditions(dataItemContext));
+            MiiResourceTypes.toMii(
+                dataRetrievalService.checkpointed(
+                    dataItemContext,
+                    ResourceType.Condition,
+                    () -> dataRetrievalService.getConditions(dataItemContext)));
     processTimer.stopLoggingTime(miiConditions);
 
     // If no conditions or observations were found, the following further data retrievals /
@@ -88,30 +98,33 @@ public class CovidDataController {
       // Retrieval of the Patient resources
       processTimer.startLoggingTime(ResourceType.Patient);
       List<MiiPatient> miiPatients =
-          dataRetrievalService.getPatients(miiObservations, miiConditions, dataItemContext);
+          dataRetrievalService.checkpointed(
+              dataItemContext,
+              ResourceType.Patient,
+              () ->
+                  dataRetrievalService.getPatients(
+                      miiObservations, miiConditions, dataItemContext));
       processTimer.stopLoggingTime(miiPatients);
 
-      // Retrieval of the Encounter resources
+      // Retrieval of the Encounter resources; they are held in their compact form until the
+      // processing logic needs them
       processTimer.startLoggingTime(ResourceType.Encounter);
-      List<MiiEncounter> miiEncounters =
-          (List<MiiEncounter>)
-              ResourceConverter.convert(
-                  dataRetrievalService.getEncounters(dataItemContext, miiPatients), true);
-      processTimer.stopLoggingTime(miiEncounters);
+      EncounterTable encounterTable =
+          dataRetrievalService.checkpointedEncounterTable(dataItemContext, miiPatients);
+      processTimer.stopLoggingTime(encounterTable.size());
 
       // Retrieval of the Location resources
       processTimer.startLoggingTime(ResourceType.Location);
       List<MiiLocation> miiLocations =
-          (List<MiiLocation>) ResourceConverter.convert(dataRetrievalService.getLocations());
+          (List<MiiLocation>)
+              ResourceConverter.convert(
+                  dataRetrievalService.checkpointed(
+                      dataItemContext, ResourceType.Location, dataRetrievalService::getLocations));
       processTimer.stopLoggingTime(miiLocations);
 
       // If at least one service provider entry was found or a corresponding contact type
       // => add a dummy icu location
-      addDummyIcuLocationIfNeeded(miiEncounters, miiLocations);
-
-      // If activated; use Patient.deceasedDateTime for the detection of deceased cases.
-      if (customGlobalConfiguration.getUsePatientDeceased())
-        addDeceasedStatusToEncounters(miiPatients, miiEncounters);
+      addDummyIcuLocationIfNeeded(encounterTable, miiLocations);
 
       // Retrieval of the Procedure resources
       List<MiiProcedure> miiProcedures = new ArrayList<>();
@@ -121,20 +134,30 @@ public class CovidDataController {
         miiProcedures =
             (List<MiiProcedure>)
                 ResourceConverter.convert(
-                    dataRetrievalService.getProcedures(
-                        miiEncounters,
-                        miiLocations,
-                        miiObservations,
-                        miiConditions,
-                        dataItemContext));
+                    dataRetrievalService.checkpointed(
+                        dataItemContext,
+                        ResourceType.Procedure,
+                        () ->
+                            dataRetrievalService.getProcedures(
+                                encounterTable,
+                                miiLocations,
+                                miiObservations,
+                                miiConditions,
+                                dataItemContext)));
         processTimer.stopLoggingTime(miiProcedures);
-
-        addFacilityContactLinkageToProcedures(miiProcedures, miiEncounters);
       } else
         log.info(
             "Skipping the retrieval of procedure resources, as the generation of"
                 + " icu_undifferentiated items is activated.");
 
+      // The retrieval is done, so the encounters are decoded for the processing logic
+      List<MiiEncounter> miiEncounters = encounterTable.toMiiEncounters();
+      addFacilityContactLinkageToProcedures(miiProcedures, miiEncounters);
+
+      // If activated; use Patient.deceasedDateTime for the detection of deceased cases.
+      if (customGlobalConfiguration.getUsePatientDeceased())
+        addDeceasedStatusToEncounters(miiPatients, miiEncounters);
+
       processTimer.startLoggingTime("Processing logic");
 
       // Start of the processing logic
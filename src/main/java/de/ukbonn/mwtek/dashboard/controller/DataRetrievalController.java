@@ -17,71 +17,47 @@
  */
 package de.ukbonn.mwtek.dashboard.controller;
 
-import static de.ukbonn.mwtek.dashboard.controller.UkbModelController.generateUkbModelData;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.ACRIBIS;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.BCT;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.COVID;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.INFLUENZA;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR_KJP;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR_PED;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.SNID;
-import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.UKB_MODEL;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import de.ukbonn.mwtek.dashboard.DashboardApplication;
-import de.ukbonn.mwtek.dashboard.configuration.AcuwaveSearchConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.AcuwaveServerRestConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.CustomGlobalConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.DataItemsConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.FhirSearchConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.FhirServerRestConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.ReportsConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.VariantConfiguration;
-import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
+import de.ukbonn.mwtek.dashboard.exceptions.RunCancelledException;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
-import de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer;
 import de.ukbonn.mwtek.dashboard.misc.LoggingHelper;
-import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
-import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.AcuwaveDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.AcuwaveSearchService;
-import de.ukbonn.mwtek.dashboard.services.FhirDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.FhirSearchService;
-import de.ukbonn.mwtek.dashboard.services.ProviderService;
+import de.ukbonn.mwtek.dashboard.misc.ResultJsonWriter;
+import de.ukbonn.mwtek.dashboard.services.DashboardExportService;
+import de.ukbonn.mwtek.dashboard.services.ExportResult;
+import de.ukbonn.mwtek.dashboard.services.ResultSnapshot;
+import de.ukbonn.mwtek.dashboard.services.ResultSnapshotCache;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
 import de.ukbonn.mwtek.dashboardlogic.models.DiseaseDataItem;
-import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.RenalReplacementRiskDataGenerator;
-import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.enums.RenalReplacementRiskParameters;
-import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
-import de.ukbonn.mwtek.dashboardlogic.settings.InputCodeSettings;
-import de.ukbonn.mwtek.dashboardlogic.settings.QualitativeLabCodesSettings;
-import de.ukbonn.mwtek.utilities.generic.time.DateTools;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.EnumSet;
+import java.time.Duration;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * Controller class for the "/createJson" REST endpoint with the main method to create the Json
@@ -113,250 +89,82 @@ public class DataRetrievalController {
   public static final String DATA_ITEMS = "dataitems";
   Logger logger = LoggerFactory.getLogger(DashboardApplication.class);
 
-  private final AcuwaveSearchService acuwaveSearchService;
-  private final FhirSearchService fhirSearchService;
-
-  private final ProviderService providerService;
+  private final DashboardExportService exportService;
+  private final ResultSnapshotCache resultSnapshotCache;
   @Autowired private CustomGlobalConfiguration customGlobalConfiguration;
-  @Autowired private DataItemsConfiguration exclDataItems;
-  @Autowired private FhirSearchConfiguration fhirSearchConfiguration;
-  @Autowired private FhirServerRestConfiguration fhirServerRestConfiguration;
-  @Autowired private ReportsConfiguration reportConfiguration;
-  @Autowired private AcuwaveServerRestConfiguration acuwaveServerConfiguration;
-  @Autowired private AcuwaveSearchConfiguration acuwaveSearchConfiguration;
-  @Autowired private VariantConfiguration variantConfiguration;
 
   @Autowired
   public DataRetrievalController(
-      AcuwaveSearchService acuwaveSearchService,
-      FhirSearchService fhirSearchService,
-      ProviderService providerService) {
-    this.acuwaveSearchService = acuwaveSearchService;
-    this.fhirSearchService = fhirSearchService;
-    this.providerService = providerService;
+      DashboardExportService exportService, ResultSnapshotCache resultSnapshotCache) {
+    this.exportService = exportService;
+    this.resultSnapshotCache = resultSnapshotCache;
   }
 
-  /** The result size of the REST response */
+  /** The (uncompressed) result size of the REST response. Only filled in debug mode. */
   protected long resultSize = 0;
 
+  /** A copy of the last REST response. Only filled in debug mode. */
   protected InputStream resultStream = null;
 
   /**
    * REST endpoint (/createJson) that handles FHIR server data retrieval as well as processing in
    * Ukb resources, calling dashboard logic and providing Json output.
    *
-   * @return String with the json corona dashboard specification or alternatively an error message
+   * <p>The json output is streamed directly to the client and gets gzip-compressed if the client
+   * accepts it and {@link CustomGlobalConfiguration#getGzipResponse() gzip-response} is activated.
+   * If the {@link ResultSnapshotCache result cache} is activated or a {@link
+   * de.ukbonn.mwtek.dashboard.services.ExportScheduler scheduled export} of the same scopes is
+   * available, the output is served from the cache and conditional requests (<code>If-None-Match
+   * </code>, <code>If-Modified-Since</code>) are answered with <code>304 Not Modified</code>.
+   *
+   * <p>Runs that exceed their deadline (see {@link CustomGlobalConfiguration#getRunTimeout()}) or
+   * that get cancelled via <code>DELETE /createJson</code> are answered with <code>503 Service
+   * Unavailable</code>.
+   *
+   * @param scopes Optional list of scopes that overwrites the yaml settings.
+   * @param timeout Optional maximum duration of an uncached run as ISO-8601 duration (e.g. <code>
+   *     PT2H</code>) that overwrites the yaml setting.
+   * @param acceptEncoding The <code>Accept-Encoding</code> header of the request.
+   * @param webRequest The current request, used for the evaluation of conditional requests.
+   * @return The json corona dashboard specification or alternatively an error message
    */
   @GetMapping
-  public ResponseEntity<String> createJson(@RequestParam(required = false) List<String> scopes) {
-
-    // initialize new request
-    ObjectMapper mapper = new ObjectMapper();
-    ObjectNode result = new ObjectMapper().createObjectNode();
-
-    // Result
-    List<DiseaseDataItem> dataItems = new ArrayList<>();
-
-    // timer for benchmarking purposes
-    ProcessTimer processTimer = new ProcessTimer();
-
-    boolean benchMarkRun = false;
+  public ResponseEntity<StreamingResponseBody> createJson(
+      @RequestParam(required = false) List<String> scopes,
+      @RequestParam(required = false) Duration timeout,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+      WebRequest webRequest) {
 
+    resultSize = 0;
     resultStream = null;
 
-    // Determine the data retrieval service for the server type used
-    AbstractDataRetrievalService dataRetrievalService = determineDataRetrievalService();
-
-    var config = dataRetrievalService.getCustomGlobalConfiguration();
-    // Checking if any scope is activated via rest parametrization -> if so, overwrite the yaml
-    // settings
-    boolean anyScopeActivated =
-        Stream.of(
-                COVID,
-                INFLUENZA,
-                KIDS_RADAR,
-                KIDS_RADAR_PED,
-                KIDS_RADAR_KJP,
-                UKB_MODEL,
-                ACRIBIS,
-                BCT,
-                SNID)
-            .anyMatch(scope -> isScopeActivatedViaParameters(scopes, scope));
-
-    boolean generateCovidData =
-        shouldGenerate(COVID, config.getGenerateCovidData(), scopes, anyScopeActivated);
-    boolean generateInfluenzaData =
-        shouldGenerate(INFLUENZA, config.getGenerateInfluenzaData(), scopes, anyScopeActivated);
-    // generateKidsRadarData = kiradar ped AND kjp data
-    boolean generateKidsRadarData =
-        shouldGenerate(KIDS_RADAR, config.getGenerateKidsRadarData(), scopes, anyScopeActivated);
-    boolean generateKidsRadarPedData =
-        shouldGenerate(
-            KIDS_RADAR_PED, config.getGenerateKidsRadarPedData(), scopes, anyScopeActivated);
-    boolean generateKidsRadarKjpData =
-        shouldGenerate(
-            KIDS_RADAR_KJP, config.getGenerateKidsRadarKjpData(), scopes, anyScopeActivated);
-    boolean generateUkbRenalReplacementModelData =
-        shouldGenerate(
-            UKB_MODEL, config.getGenerateUkbRenalReplacementModelData(), scopes, anyScopeActivated);
-    boolean generateAcribisData =
-        shouldGenerate(ACRIBIS, config.getGenerateAcribisData(), scopes, anyScopeActivated);
-    boolean generateBctData =
-        shouldGenerate(BCT, config.getGenerateBctData(), scopes, anyScopeActivated);
-    boolean generateSnidData =
-        shouldGenerate(SNID, config.getGenerateSnidData(), scopes, anyScopeActivated);
-
-    // If custom codes are set in the yaml file -> update the default values.
-    InputCodeSettings inputCodeSettings =
-        ConfigurationTransformer.extractInputCodeSettings(dataRetrievalService);
-
-    QualitativeLabCodesSettings qualitativeLabCodesSettings =
-        ConfigurationTransformer.extractQualitativeLabCodesSettings(dataRetrievalService);
+    Set<DataItemContext> contexts = exportService.determineContexts(scopes);
 
     try {
-      // Starting with the calculation of the prediction models to release the memory right after.
-      if (generateUkbRenalReplacementModelData) {
-        Map<RenalReplacementRiskParameters, List<CoreBaseDataItem>>
-            renalReplacementModelParameterSetMap =
-                generateUkbModelData(
-                    benchMarkRun,
-                    dataRetrievalService,
-                    processTimer,
-                    customGlobalConfiguration.getServerType());
-
-        // Postprocessing
-        if (renalReplacementModelParameterSetMap != null) {
-          dataItems.addAll(
-              RenalReplacementRiskDataGenerator.generateDataItems(
-                  renalReplacementModelParameterSetMap));
-        }
-      }
-
-      if (generateCovidData) {
-        dataItems.addAll(
-            CovidDataController.generateData(
-                COVID,
-                dataRetrievalService,
-                reportConfiguration,
-                processTimer,
-                customGlobalConfiguration,
-                variantConfiguration,
-                inputCodeSettings,
-                qualitativeLabCodesSettings,
-                exclDataItems,
-                result));
-        // End workflow if no resources were found
-        if (LoggingHelper.gotWorkflowAborted(COVID)) {
-          // Reset of the error level
-          LoggingHelper.resetAbortStatus();
-          return new ResponseEntity<>(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
-        }
-      }
-
-      if (generateInfluenzaData) {
-        dataItems.addAll(
-            InfluenzaDataController.generateData(
-                INFLUENZA,
-                dataRetrievalService,
-                reportConfiguration,
-                processTimer,
-                customGlobalConfiguration,
-                variantConfiguration,
-                inputCodeSettings,
-                qualitativeLabCodesSettings,
-                exclDataItems,
-                result));
-        // End workflow if no resources were found
-        if (LoggingHelper.gotWorkflowAborted(INFLUENZA)) {
-          // Reset of the error level
-          LoggingHelper.resetAbortStatus();
-          return new ResponseEntity<>(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
+      if (resultSnapshotCache.isEnabled()) {
+        ResultSnapshot snapshot = resultSnapshotCache.getOrLoad(contexts, timeout);
+        if (snapshot == null) {
+          return textResponse(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
         }
+        return snapshotResponse(snapshot, acceptEncoding, webRequest);
       }
 
-      // Determine which contexts to generate
-      Set<DataItemContext> dataItemContexts =
-          buildKidsRadarContexts(
-              generateKidsRadarData, generateKidsRadarPedData, generateKidsRadarKjpData);
-
-      // Only run workflow if at least one relevant context exists
-      if (!dataItemContexts.isEmpty()) {
-        dataItems.addAll(
-            KiRaDataController.generateData(
-                dataItemContexts,
-                dataRetrievalService,
-                reportConfiguration,
-                processTimer,
-                customGlobalConfiguration,
-                variantConfiguration,
-                inputCodeSettings,
-                qualitativeLabCodesSettings,
-                exclDataItems,
-                result));
-
-        // End workflow if no resources were found
-        if (LoggingHelper.gotWorkflowAborted(KIDS_RADAR)) {
-          // Reset of the error level
-          LoggingHelper.resetAbortStatus();
-          return new ResponseEntity<>(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
-        }
+      // Output of a scheduled export (if available)
+      ResultSnapshot scheduledSnapshot = resultSnapshotCache.get(contexts);
+      if (scheduledSnapshot != null) {
+        return snapshotResponse(scheduledSnapshot, acceptEncoding, webRequest);
       }
 
-      if (generateAcribisData) {
-        dataItems.addAll(
-            AcribisDataController.generateData(
-                ACRIBIS,
-                dataRetrievalService,
-                reportConfiguration,
-                processTimer,
-                customGlobalConfiguration,
-                variantConfiguration,
-                inputCodeSettings,
-                qualitativeLabCodesSettings,
-                exclDataItems,
-                result));
-        // End workflow if no resources were found
-        if (LoggingHelper.gotWorkflowAborted(ACRIBIS)) {
-          return new ResponseEntity<>(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
-        }
+      ExportResult exportResult = exportService.export(contexts, timeout);
+      if (exportResult.isAborted()) {
+        return textResponse(exportResult.abortMessage(), HttpStatus.NO_CONTENT);
       }
-
-      if (generateBctData) {
-        dataItems.addAll(
-            BctDataController.generateData(
-                BCT,
-                dataRetrievalService,
-                reportConfiguration,
-                processTimer,
-                customGlobalConfiguration,
-                variantConfiguration,
-                inputCodeSettings,
-                qualitativeLabCodesSettings,
-                exclDataItems,
-                result));
-        // End workflow if no resources were found
-        if (LoggingHelper.gotWorkflowAborted(BCT)) {
-          return new ResponseEntity<>(LoggingHelper.getAbortMessage(), HttpStatus.NO_CONTENT);
-        }
-      }
-
-      ArrayNode dataItemsArrayNode = mapper.valueToTree(dataItems);
-      result.putArray(DATA_ITEMS).addAll(dataItemsArrayNode);
-      result.put(PROVIDER, this.providerService.provConf.getName());
-      result.put(DASHBOARD_DATASET_VERSION, customGlobalConfiguration.getDsdVersion());
-      result.put(AUTHOR, this.providerService.provConf.getAuthor());
-      result.put(FILE_GENERATED_BY, FILE_GENERATOR);
-      result.put(DDP_VERSION, CURRENT_DDP_VERSION);
-      result.put(EXPORT_TIMESTAMP, DateTools.getCurrentUnixTime());
-
-      byte[] resultBuffer = result.toString().getBytes(StandardCharsets.UTF_8);
-      this.resultSize = resultBuffer.length;
-      this.resultStream = new ByteArrayInputStream(resultBuffer);
-
-      return new ResponseEntity<>(result.toString(), HttpStatus.OK);
+      return jsonResponse(exportResult.result(), exportResult.dataItems(), acceptEncoding);
     } catch (SearchException ex) {
       return handleError(
           ex, "Error occurred while requesting data:", HttpStatus.INTERNAL_SERVER_ERROR);
+    } catch (RunCancelledException ex) {
+      return handleError(ex, "The data retrieval was stopped:", HttpStatus.SERVICE_UNAVAILABLE);
     } catch (HttpClientErrorException ex) {
       // Wrong credentials
       return handleError(ex, "Connection to the FHIR server failed:", ex.getStatusCode());
@@ -372,101 +180,118 @@ public class DataRetrievalController {
     }
   }
 
+  /**
+   * REST endpoint (DELETE /createJson) that cancels the currently running export. The data
+   * retrieval stops before its next search call.
+   *
+   * @return <code>202 Accepted</code> if a running export gets cancelled, otherwise <code>404 Not
+   *     Found</code>.
+   */
+  @DeleteMapping
+  public ResponseEntity<String> cancel() {
+    if (exportService.cancel()) {
+      return ResponseEntity.accepted().body("The running export gets cancelled.");
+    }
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No export is running.");
+  }
+
   /**
    * Checks if a specific scope is activated via parameters, given a list of scopes and a data item
    * context.
    *
-   * @param scopes a list of scope names, which may include mixed case strings
-   * @param dataItemContext the context of the data item to check for activation
-   * @return true if the specified data item context is activated by one of the scopes; false
-   *     otherwise
+   * @see DashboardExportService#isScopeActivatedViaParameters(List, DataItemContext)
    */
   public static boolean isScopeActivatedViaParameters(
       List<String> scopes, DataItemContext dataItemContext) {
-    if (scopes == null) {
-      return false;
-    }
-
-    // Convert all elements of the list to lowercase using Stream API
-    List<String> lowerCaseScopes =
-        scopes.stream()
-            .map(String::toLowerCase) // Convert each element to lowercase
-            .toList();
-
-    // Use a switch expression for more concise code
-    return switch (dataItemContext) {
-      case COVID -> lowerCaseScopes.contains("covid");
-      case INFLUENZA -> lowerCaseScopes.contains("influenza");
-      case KIDS_RADAR -> lowerCaseScopes.contains("kiradar");
-      // May be used in the future to split the kidsradar-context up
-      case KIDS_RADAR_PED, KIDS_RADAR_PED_COV, KIDS_RADAR_PED_INFL, KIDS_RADAR_PED_RSV ->
-          lowerCaseScopes.contains("kiradar_ped");
-      case KIDS_RADAR_KJP -> lowerCaseScopes.contains("kiradar_kjp");
-      case UKB_MODEL -> lowerCaseScopes.contains("ukbmodel");
-      case ACRIBIS -> lowerCaseScopes.contains("acribis");
-      case BCT -> lowerCaseScopes.contains("bct");
-      case SNID -> lowerCaseScopes.contains("snid");
-    };
+    return DashboardExportService.isScopeActivatedViaParameters(scopes, dataItemContext);
   }
 
-  private AbstractDataRetrievalService determineDataRetrievalService() {
-    AbstractDataRetrievalService dataRetrievalService;
-    if (customGlobalConfiguration.getServerType() == ServerTypeEnum.ACUWAVE) {
-      dataRetrievalService =
-          new AcuwaveDataRetrievalService(
-              acuwaveSearchService,
-              this.acuwaveSearchConfiguration,
-              this.customGlobalConfiguration);
-    } else {
-      dataRetrievalService =
-          new FhirDataRetrievalService(
-              fhirSearchService,
-              this.fhirSearchConfiguration,
-              this.customGlobalConfiguration,
-              this.fhirServerRestConfiguration);
+  private ResponseEntity.BodyBuilder jsonResponseBuilder(boolean gzip) {
+    // The representation depends on the Accept-Encoding, even if the identity is sent, so caches
+    // must not hand one representation to a client that asked for the other one
+    ResponseEntity.BodyBuilder responseBuilder =
+        ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      responseBuilder.header(HttpHeaders.CONTENT_ENCODING, ResultJsonWriter.GZIP);
     }
-    return dataRetrievalService;
+    return responseBuilder;
   }
 
-  private ResponseEntity<String> handleError(Exception ex, String errorMessage, HttpStatus status) {
-    logger.error(WORKFLOW_ABORTED, ex); // Log the exception stack trace
-    return new ResponseEntity<>(errorMessage + "\n\n" + ex.getMessage(), status);
+  private boolean useGzip(String acceptEncoding) {
+    return customGlobalConfiguration.getGzipResponse()
+        && ResultJsonWriter.acceptsGzip(acceptEncoding);
   }
 
-  private ResponseEntity<String> handleError(
-      Exception ex, String errorMessage, HttpStatusCode httpStatusCode) {
-    logger.error(WORKFLOW_ABORTED, ex); // Log the exception stack trace
-    return new ResponseEntity<>(errorMessage + "\n\n" + ex.getMessage(), httpStatusCode);
+  /**
+   * Creates the response that streams the json output to the client. The in-memory copy of the
+   * output is only created in debug mode.
+   */
+  private ResponseEntity<StreamingResponseBody> jsonResponse(
+      ObjectNode result, List<DiseaseDataItem> dataItems, String acceptEncoding)
+      throws IOException {
+    boolean gzip = useGzip(acceptEncoding);
+    ResponseEntity.BodyBuilder responseBuilder = jsonResponseBuilder(gzip);
+
+    if (customGlobalConfiguration.getDebug()) {
+      byte[] resultBuffer = ResultJsonWriter.toBytes(result, dataItems);
+      this.resultSize = resultBuffer.length;
+      this.resultStream = new ByteArrayInputStream(resultBuffer);
+      return responseBuilder.body(
+          outputStream -> ResultJsonWriter.write(outputStream, resultBuffer, gzip));
+    }
+    return responseBuilder.body(
+        outputStream -> ResultJsonWriter.write(outputStream, result, dataItems, gzip));
   }
 
-  private boolean shouldGenerate(
-      DataItemContext scope, boolean configFlag, List<String> scopes, boolean anyScopeActivated) {
-    return isScopeActivatedViaParameters(scopes, scope) || (!anyScopeActivated && configFlag);
+  /** Creates the response from a cached snapshot, considering conditional request headers. */
+  private ResponseEntity<StreamingResponseBody> snapshotResponse(
+      ResultSnapshot snapshot, String acceptEncoding, WebRequest webRequest) {
+    snapshot.markAccessed(System.currentTimeMillis());
+    boolean gzip = useGzip(acceptEncoding);
+    String eTag = snapshot.getETag(gzip);
+    if (webRequest.checkNotModified(eTag, snapshot.getCreatedAt())) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+          .eTag(eTag)
+          .lastModified(snapshot.getCreatedAt())
+          .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+          .build();
+    }
+    if (customGlobalConfiguration.getDebug()) {
+      this.resultSize = snapshot.getJson().length;
+      this.resultStream = new ByteArrayInputStream(snapshot.getJson());
+    }
+    byte[] body = gzip ? snapshot.getGzipJson() : snapshot.getJson();
+    return jsonResponseBuilder(gzip)
+        .eTag(eTag)
+        .lastModified(snapshot.getCreatedAt())
+        .cacheControl(CacheControl.noCache())
+        .contentLength(body.length)
+        .body(
+            outputStream -> {
+              outputStream.write(body);
+              outputStream.flush();
+            });
   }
 
-  // Build the set of contexts to generate
-  private static Set<DataItemContext> buildKidsRadarContexts(
-      boolean generateKidsRadarData,
-      boolean generateKidsRadarPedData,
-      boolean generateKidsRadarKjpData) {
-
-    // Use EnumSet for enum-backed sets (memory- and performance-friendly)
-    EnumSet<DataItemContext> contexts = EnumSet.noneOf(DataItemContext.class);
+  private static ResponseEntity<StreamingResponseBody> textResponse(
+      String message, HttpStatusCode httpStatusCode) {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    return ResponseEntity.status(httpStatusCode)
+        .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+        .body(outputStream -> outputStream.write(body));
+  }
 
-    if (generateKidsRadarData) {
-      // KIDS_RADAR implies both sub-contexts
-      contexts.add(DataItemContext.KIDS_RADAR_PED);
-      contexts.add(DataItemContext.KIDS_RADAR_KJP);
-    } else {
-      // Add selected sub-contexts individually
-      if (generateKidsRadarPedData) {
-        contexts.add(DataItemContext.KIDS_RADAR_PED);
-      }
-      if (generateKidsRadarKjpData) {
-        contexts.add(DataItemContext.KIDS_RADAR_KJP);
-      }
-    }
+  private ResponseEntity<StreamingResponseBody> handleError(
+      Exception ex, String errorMessage, HttpStatus status) {
+    logger.error(WORKFLOW_ABORTED, ex); // Log the exception stack trace
+    return textResponse(errorMessage + "\n\n" + ex.getMessage(), status);
+  }
 
-    return contexts;
+  private ResponseEntity<StreamingResponseBody> handleError(
+      Exception ex, String errorMessage, HttpStatusCode httpStatusCode) {
+    logger.error(WORKFLOW_ABORTED, ex); // Log the exception stack trace
+    return textResponse(errorMessage + "\n\n" + ex.getMessage(), httpStatusCode);
   }
 }
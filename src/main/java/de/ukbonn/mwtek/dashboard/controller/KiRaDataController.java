@@ -32,8 +32,10 @@ import de.ukbonn.mwtek.dashboard.configuration.DataItemsConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.ReportsConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.VariantConfiguration;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
 import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
 import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
+import de.ukbonn.mwtek.dashboard.store.IdSet;
 import de.ukbonn.mwtek.dashboardlogic.DataItemGenerator;
 import de.ukbonn.mwtek.dashboardlogic.KidsRadarDataItemGenerator;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
@@ -50,7 +52,6 @@ import de.ukbonn.mwtek.utilities.fhir.resources.MiiProcedure;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.ResourceType;
 
@@ -81,7 +82,10 @@ public class KiRaDataController {
     processTimer.startLoggingTime(ResourceType.Patient);
     // This ped data specific call should include all the patients that we need for kjp as well
     List<MiiPatient> miiPatients =
-        dataRetrievalService.getPatients(MAX_AGE_AT_KJP_MERGE_PROCESS, KIDS_RADAR);
+        dataRetrievalService.checkpointed(
+            KIDS_RADAR,
+            ResourceType.Patient,
+            () -> dataRetrievalService.getPatients(MAX_AGE_AT_KJP_MERGE_PROCESS, KIDS_RADAR));
 
     // If no patients were found, the following further data retrievals / calculation steps are
     // irrelevant
@@ -89,23 +93,33 @@ public class KiRaDataController {
 
       // Retrieval of the Encounter resources
       processTimer.startLoggingTime(ResourceType.Encounter);
+      List<MiiPatient> cohortPatients = miiPatients;
       List<MiiEncounter> miiEncounters =
           (List<MiiEncounter>)
-              ResourceConverter.convert(
-                  dataRetrievalService.getEncounters(KIDS_RADAR, miiPatients), true);
+              MiiResourceTypes.toMii(
+                  dataRetrievalService.checkpointed(
+                      KIDS_RADAR,
+                      ResourceType.Encounter,
+                      () -> dataRetrievalService.getEncounters(KIDS_RADAR, cohortPatients)),
+                  true);
       processTimer.stopLoggingTime(miiEncounters);
 
       // Removing patients without inpatient encounters
-      Set<String> pidsWithInpatientEncounter =
-          miiEncounters.stream().map(MiiEncounter::getPatientId).collect(Collectors.toSet());
+      IdSet pidsWithInpatientEncounter =
+          miiEncounters.stream()
+              .map(MiiEncounter::getPatientId)
+              .collect(dataRetrievalService.getRunState().toIdSet());
       miiPatients =
           miiPatients.stream().filter(x -> pidsWithInpatientEncounter.contains(x.getId())).toList();
 
       processTimer.startLoggingTime(ResourceType.Condition);
       List<MiiCondition> ukbConditions =
           (List<MiiCondition>)
-              ResourceConverter.convert(
-                  dataRetrievalService.getConditions(miiEncounters, KIDS_RADAR));
+              MiiResourceTypes.toMii(
+                  dataRetrievalService.checkpointed(
+                      KIDS_RADAR,
+                      ResourceType.Condition,
+                      () -> dataRetrievalService.getConditions(miiEncounters, KIDS_RADAR)));
       processTimer.stopLoggingTime(ukbConditions);
 
       // OBSERVATIONS just needed for ped data; not for kjp
@@ -113,12 +127,16 @@ public class KiRaDataController {
         processTimer.startLoggingTime(ResourceType.Observation);
         ukbObservations =
             (List<MiiObservation>)
-                ResourceConverter.convert(
-                    dataRetrievalService.getObservations(
-                        miiEncounters,
+                MiiResourceTypes.toMii(
+                    dataRetrievalService.checkpointed(
                         KIDS_RADAR_PED,
-                        inputCodeSettings.getKidsRadarPedAllLoincCodes(),
-                        qualitativeLabCodesSettings));
+                        ResourceType.Observation,
+                        () ->
+                            dataRetrievalService.getObservations(
+                                miiEncounters,
+                                KIDS_RADAR_PED,
+                                inputCodeSettings.getKidsRadarPedAllLoincCodes(),
+                                qualitativeLabCodesSettings)));
         processTimer.stopLoggingTime(ukbObservations);
       } else log.info("Skipping observation retrieval since just kjp data is asked for.");
 
@@ -129,7 +147,11 @@ public class KiRaDataController {
           && !customGlobalConfiguration.getUseIcuUndifferentiated()) {
         processTimer.startLoggingTime(ResourceType.Procedure);
         // Retrieval of kira related procedures
-        miiProcedures = getUkbProcedures(KIDS_RADAR, dataRetrievalService, miiEncounters);
+        miiProcedures =
+            dataRetrievalService.checkpointed(
+                KIDS_RADAR,
+                ResourceType.Procedure,
+                () -> getUkbProcedures(KIDS_RADAR, dataRetrievalService, miiEncounters));
         addFacilityContactLinkageToProcedures(miiProcedures, miiEncounters);
         processTimer.stopLoggingTime(miiProcedures);
       } else
@@ -140,7 +162,10 @@ public class KiRaDataController {
       // Retrieval of the Location resources
       processTimer.startLoggingTime(ResourceType.Location);
       List<MiiLocation> miiLocations =
-          (List<MiiLocation>) ResourceConverter.convert(dataRetrievalService.getLocations());
+          (List<MiiLocation>)
+              ResourceConverter.convert(
+                  dataRetrievalService.checkpointed(
+                      KIDS_RADAR, ResourceType.Location, dataRetrievalService::getLocations));
       processTimer.stopLoggingTime(miiLocations);
 
       // If at least one service provider entry was found or a corresponding contact type
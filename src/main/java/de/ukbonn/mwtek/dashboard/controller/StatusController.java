@@ -21,17 +21,11 @@ import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.CURRE
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import de.ukbonn.mwtek.dashboard.configuration.AcuwaveSearchConfiguration;
-import de.ukbonn.mwtek.dashboard.configuration.CustomGlobalConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.FhirSearchConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.FhirServerRestConfiguration;
-import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
-import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.AcuwaveDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.AcuwaveSearchService;
-import de.ukbonn.mwtek.dashboard.services.FhirDataRetrievalService;
-import de.ukbonn.mwtek.dashboard.services.FhirSearchService;
 import de.ukbonn.mwtek.dashboard.services.ProviderService;
+import de.ukbonn.mwtek.dashboard.services.ServerHealth;
+import de.ukbonn.mwtek.dashboard.services.ServerHealthProber;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -70,6 +64,8 @@ public class StatusController {
       FHIR_SERVER + "_connection_status_code";
   public static final String FHIR_SERVER_NAME = FHIR_SERVER + "_name";
   public static final String FHIR_SERVER_VERSION = FHIR_SERVER + "_version";
+  public static final String FHIR_SERVER_LATENCY = FHIR_SERVER + "_latency_ms";
+  public static final String FHIR_SERVER_CHECKED_AT = FHIR_SERVER + "_checked_at";
   public static final String FHIR_SERVER_CONFIG_URL = FHIR_SERVER + "_config_url";
   public static final String FHIR_SERVER_CONFIG_AUTH_METHOD = FHIR_SERVER + "_config_auth_method";
   public static final String BATCH_SIZE = "batch_size";
@@ -77,25 +73,19 @@ public class StatusController {
   public static final String DDP_VERSION = "ddp_version";
   public static final String PROVIDER = "provider";
 
-  private final AcuwaveSearchService acuwaveSearchService;
-  private final FhirSearchService fhirSearchService;
+  private final ServerHealthProber serverHealthProber;
   private final ProviderService providerService;
 
-  @Autowired private CustomGlobalConfiguration customGlobalConfiguration;
   @Autowired private FhirSearchConfiguration fhirSearchConfiguration;
   @Autowired private FhirServerRestConfiguration fhirServerRestConfiguration;
-  @Autowired private AcuwaveSearchConfiguration acuwaveSearchConfiguration;
 
   protected long resultSize = 0;
   protected InputStream resultStream = null;
 
   @Autowired
   public StatusController(
-      AcuwaveSearchService acuwaveSearchService,
-      FhirSearchService fhirSearchService,
-      ProviderService providerService) {
-    this.acuwaveSearchService = acuwaveSearchService;
-    this.fhirSearchService = fhirSearchService;
+      ServerHealthProber serverHealthProber, ProviderService providerService) {
+    this.serverHealthProber = serverHealthProber;
     this.providerService = providerService;
   }
 
@@ -106,15 +96,17 @@ public class StatusController {
     ObjectNode result = new ObjectMapper().createObjectNode();
     resultStream = null;
 
-    AbstractDataRetrievalService dataRetrievalService = determineDataRetrievalService();
+    // Answered from the last background probe (if activated)
+    ServerHealth serverHealth = serverHealthProber.getHealth();
     HttpStatus status = HttpStatus.OK;
 
-    try {
-      CapabilityStatement cs = StatusDataController.generateData(dataRetrievalService);
-      appendCapabilityStatementInfo(result, cs);
-    } catch (Exception ex) {
-      status = appendErrorInfo(result, ex);
+    if (serverHealth.isUp()) {
+      appendCapabilityStatementInfo(result, serverHealth.capabilityStatement());
+    } else {
+      status = appendErrorInfo(result, serverHealth.error());
     }
+    result.put(FHIR_SERVER_LATENCY, serverHealth.latency().toMillis());
+    result.put(FHIR_SERVER_CHECKED_AT, serverHealth.checkedAt().toString());
 
     appendConfigurationInfo(result);
 
@@ -125,17 +117,6 @@ public class StatusController {
     return new ResponseEntity<>(result.toString(), status);
   }
 
-  private AbstractDataRetrievalService determineDataRetrievalService() {
-    return (customGlobalConfiguration.getServerType() == ServerTypeEnum.ACUWAVE)
-        ? new AcuwaveDataRetrievalService(
-            acuwaveSearchService, acuwaveSearchConfiguration, customGlobalConfiguration)
-        : new FhirDataRetrievalService(
-            fhirSearchService,
-            fhirSearchConfiguration,
-            customGlobalConfiguration,
-            fhirServerRestConfiguration);
-  }
-
   private void appendCapabilityStatementInfo(ObjectNode result, CapabilityStatement cs) {
     result.put(FHIR_SERVER_CONNECTION_STATUS, cs.getStatus().getDisplay());
     result.put(FHIR_SERVER_NAME, cs.getSoftware().getName());
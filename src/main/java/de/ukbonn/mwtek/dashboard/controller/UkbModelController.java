@@ -37,6 +37,8 @@ import de.ukbonn.mwtek.dashboard.misc.Interval;
 import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
 import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
 import de.ukbonn.mwtek.dashboard.services.AcuwaveDataRetrievalService;
+import de.ukbonn.mwtek.dashboard.services.RetrievalRunState;
+import de.ukbonn.mwtek.dashboard.store.IdSet;
 import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.enums.RenalReplacementRiskParameters;
 import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
 import de.ukbonn.mwtek.utilities.generic.time.DateTools;
@@ -86,11 +88,13 @@ public class UkbModelController {
     renalReplacementModelParameterSetMap.put(
         ENCOUNTER, extractCoreBaseDataOfFacilityEncounters(dataRetrievalService));
     // The case ids from the previous data retrieval step are the main input parameters for the
-    // following queries.
-    Set<String> icuLocalCaseIds =
+    // following queries. They are held as id sets of the run, so the filtering steps below just
+    // combine bitmaps.
+    RetrievalRunState runState = dataRetrievalService.getRunState();
+    IdSet icuLocalCaseIds =
         renalReplacementModelParameterSetMap.get(ENCOUNTER).parallelStream()
             .map(CoreBaseDataItem::hisCaseId)
-            .collect(Collectors.toSet());
+            .collect(runState.toIdSet());
     processTimer.stopLoggingTime(icuLocalCaseIds);
 
     processTimer.startLoggingTime(ResourceType.EpisodeOfCare, "icu episodes");
@@ -101,10 +105,10 @@ public class UkbModelController {
     // Cases without episodes are not usable at all (since its impossible to calculate 24h
     // intervals), so we can filter them directly
     log.debug("Number of icu case ids before episode filtering: {}", icuLocalCaseIds.size());
-    Set<String> casesWithEpisodes =
+    IdSet casesWithEpisodes =
         renalReplacementModelParameterSetMap.get(EPISODES).stream()
             .map(CoreBaseDataItem::hisCaseId)
-            .collect(Collectors.toSet());
+            .collect(runState.toIdSet());
     if (casesWithEpisodes.isEmpty()) {
       log.error("Unable to find any episode data. Skipping the generation of ukb model data.");
       return null;
@@ -132,8 +136,8 @@ public class UkbModelController {
             .map(CoreBaseDataItem::hisCaseId)
             .toList();
 
-    List<String> icuLocalCaseIdsWithoutRecents =
-        icuLocalCaseIds.stream().filter(x -> !recentCaseIds.contains(x)).toList();
+    IdSet icuLocalCaseIdsWithoutRecents =
+        icuLocalCaseIds.difference(runState.toIdSet(recentCaseIds));
     processTimer.stopLoggingTime(icuLocalCaseIds);
 
     log.debug("The amount of ALL cases is: " + icuLocalCaseIds.size());
@@ -150,7 +154,7 @@ public class UkbModelController {
           "The amount of ALL cases without current cases is: "
               + icuLocalCaseIdsWithoutRecents.size()
               + " [example case: "
-              + icuLocalCaseIdsWithoutRecents.get(0)
+              + icuLocalCaseIdsWithoutRecents.iterator().next()
               + " ]");
     }
 
@@ -186,24 +190,17 @@ public class UkbModelController {
     renalReplacementModelParameterSetMap =
         removeNonIcuLabValues(renalReplacementModelParameterSetMap);
 
-    Set<String> caseIdsWithAllLabValues =
-        getCaseIdsWithAllLabValues(renalReplacementModelParameterSetMap);
+    IdSet caseIdsWithAllLabValues =
+        getCaseIdsWithAllLabValues(runState, renalReplacementModelParameterSetMap);
 
     // processTimer.stopLoggingTime(listUkbObservations);
-    Set<String> filteredCaseIds =
-        icuLocalCaseIds.stream()
-            .filter(caseIdsWithAllLabValues::contains)
-            .collect(Collectors.toSet());
+    IdSet filteredCaseIds = icuLocalCaseIds.intersection(caseIdsWithAllLabValues);
 
-    Set<String> filteredRecentCaseIds =
-        recentCaseIds.stream()
-            .filter(caseIdsWithAllLabValues::contains)
-            .collect(Collectors.toSet());
+    IdSet filteredRecentCaseIds =
+        runState.toIdSet(recentCaseIds).intersection(caseIdsWithAllLabValues);
 
-    Set<String> filteredCaseIdsWithoutRecents =
-        icuLocalCaseIdsWithoutRecents.stream()
-            .filter(caseIdsWithAllLabValues::contains)
-            .collect(Collectors.toSet());
+    IdSet filteredCaseIdsWithoutRecents =
+        icuLocalCaseIdsWithoutRecents.intersection(caseIdsWithAllLabValues);
 
     for (String caseId : icuLocalCaseIds) {
       if (!filteredCaseIds.contains(caseId)) {
@@ -669,23 +666,24 @@ public class UkbModelController {
     }
   }
 
-  private static Set<String> getCaseIdsWithAllLabValues(
+  private static IdSet getCaseIdsWithAllLabValues(
+      RetrievalRunState runState,
       Map<RenalReplacementRiskParameters, List<CoreBaseDataItem>>
           renalReplacementModelParameterSetMap) {
 
     // reducing the input lists for any lab value to the case id
-    Set<String> caseIdsWithLabValues =
+    IdSet caseIdsWithLabValues =
         renalReplacementModelParameterSetMap.get(LACTATE).parallelStream()
             .map(CoreBaseDataItem::hisCaseId)
-            .collect(Collectors.toSet());
+            .collect(runState.toIdSet());
     caseIdsWithLabValues.retainAll(
         renalReplacementModelParameterSetMap.get(CREATININE).parallelStream()
             .map(CoreBaseDataItem::hisCaseId)
-            .collect(Collectors.toSet()));
+            .collect(runState.toIdSet()));
     caseIdsWithLabValues.retainAll(
         renalReplacementModelParameterSetMap.get(UREA).parallelStream()
             .map(CoreBaseDataItem::hisCaseId)
-            .collect(Collectors.toSet()));
+            .collect(runState.toIdSet()));
 
     return caseIdsWithLabValues;
   }
@@ -20,5 +20,7 @@ package de.ukbonn.mwtek.dashboard.enums;
 /** Enum class with all supported server types. */
 public enum ServerTypeEnum {
   FHIR,
-  ACUWAVE
+  ACUWAVE,
+  /** Local NDJSON and FHIR bundle files instead of a server. */
+  FILE
 }
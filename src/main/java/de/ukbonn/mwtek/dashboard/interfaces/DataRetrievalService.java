@@ -20,6 +20,7 @@ package de.ukbonn.mwtek.dashboard.interfaces;
 
 import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.store.EncounterTable;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
 import de.ukbonn.mwtek.dashboardlogic.models.PidTimestampCohortMap;
 import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
@@ -135,6 +136,17 @@ public interface DataRetrievalService {
    */
   List<MiiEncounter> getEncounters(DataItemContext dataItemContext, List<MiiPatient> patients);
 
+  /**
+   * The retrieval of FHIR {@link MiiEncounter} resources into a compact {@link EncounterTable}.
+   *
+   * @return A table of all FHIR encounter resources of the detected patients after a specified
+   *     cut-off date.
+   */
+  default EncounterTable getEncounterTable(
+      DataItemContext dataItemContext, List<MiiPatient> patients) {
+    return EncounterTable.of(getEncounters(dataItemContext, patients));
+  }
+
   /**
    * The retrieval of FHIR {@link MiiEncounter} resources.
    *
@@ -192,6 +204,25 @@ public interface DataRetrievalService {
       List<MiiCondition> listUkbConditions,
       DataItemContext dataItemContext);
 
+  /**
+   * The retrieval of FHIR {@link MiiProcedure} resources with the encounters in their compact
+   * form. By default, the encounters are decoded for the {@link #getProcedures(List, List, List,
+   * List, DataItemContext) list-based retrieval}.
+   */
+  default List<MiiProcedure> getProcedures(
+      EncounterTable encounterTable,
+      List<MiiLocation> listMiiLocations,
+      List<MiiObservation> listUkbObservations,
+      List<MiiCondition> listUkbConditions,
+      DataItemContext dataItemContext) {
+    return getProcedures(
+        encounterTable.toMiiEncounters(),
+        listMiiLocations,
+        listUkbObservations,
+        listUkbConditions,
+        dataItemContext);
+  }
+
   /**
    * The retrieval of FHIR {@link MiiLocation} resources.
    *
@@ -19,6 +19,7 @@
 package de.ukbonn.mwtek.dashboard.interfaces;
 
 import de.ukbonn.mwtek.dashboard.configuration.FhirSearchConfiguration;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
 import java.util.List;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleLinkComponent;
@@ -58,6 +59,17 @@ public interface SearchService {
    */
   Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType);
 
+  /**
+   * Like {@link #getInitialBundle(String, HttpMethod, String)}, but the entries that the given
+   * prefilter rejects are dropped before the full parse. Decorators have to pass the prefilter on
+   * to their delegate.
+   *
+   * @param prefilter The prefilter of the retrieval stage; <code>null</code> if all entries are
+   *     parsed.
+   */
+  Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter);
+
   /**
    * After execution, the initial FHIR search query returns the attributes "self" and "next" within
    * the attribute "link" if the number of resources to be retrieved is too large. These values can
@@ -73,6 +85,16 @@ public interface SearchService {
    */
   Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod);
 
+  /**
+   * Like {@link #getBundlePart(String, HttpMethod)}, but the entries that the given prefilter
+   * rejects are dropped before the full parse. Decorators have to pass the prefilter on to their
+   * delegate.
+   *
+   * @param prefilter The prefilter of the retrieval stage; <code>null</code> if all entries are
+   *     parsed.
+   */
+  Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter);
+
   /**
    * If the query of all entries of a particular FHIR resource needs to be split (for performance
    * reasons, for example), the meta-information must be retrieved at bundle level (e.g. the link to
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Pre-scan of the raw json of a search bundle that drops the entries which the processing of a
+ * retrieval stage would discard right after parsing (e.g. cancelled encounters or conditions
+ * without a needed icd code), so their full parse and conversion is skipped.
+ *
+ * <p>The scan just reads the resource type, the status and the codes of the codeable concepts that
+ * the {@link Criterion criterion} checks; all other elements are skipped without building any
+ * objects. The criteria are less strict than the checks of the processing, which still run on the
+ * parsed resources. An entry is only dropped if the processing would drop it as well; entries of
+ * other resource types and malformed bundles are kept.
+ *
+ * <p>Bundles that are already parsed (e.g. responses replayed from a search archive) are checked
+ * with the same criterion via {@link #apply(Bundle)}.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class BundlePrefilter {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String ENTRY = "entry";
+  private static final String RESOURCE = "resource";
+  private static final String RESOURCE_TYPE = "resourceType";
+  private static final String STATUS = "status";
+  private static final String CODING = "coding";
+  private static final String CODE = "code";
+
+  /**
+   * The elements of a raw resource that the prefilter reads.
+   *
+   * @param resourceType The resource type; <code>null</code> if missing.
+   * @param status The status code; <code>null</code> if missing or not a string.
+   * @param codes The codes of the codings per scanned codeable concept element.
+   */
+  public record ScannedResource(
+      String resourceType, String status, Map<String, List<String>> codes) {
+
+    /** The codes of all codings of the given element; empty if it has none. */
+    public List<String> codes(String element) {
+      return codes.getOrDefault(element, List.of());
+    }
+  }
+
+  /**
+   * The check of the resources that are needed.
+   *
+   * @param codeElements The codeable concept elements (or lists of them) whose codes are scanned.
+   * @param isNeeded Is the scanned resource needed? Entries that fail are dropped.
+   */
+  public record Criterion(Set<String> codeElements, Predicate<ScannedResource> isNeeded) {}
+
+  /** The name of the retrieval stage, used in the log output. */
+  @Getter private final String stage;
+
+  private final String resourceType;
+  private final Criterion criterion;
+  private final LongAdder scannedEntries = new LongAdder();
+  private final LongAdder skippedEntries = new LongAdder();
+
+  /**
+   * Creates a prefilter.
+   *
+   * @param stage The name of the retrieval stage (e.g. "KIDS_RADAR_Condition").
+   * @param resourceType The resource type whose entries are checked.
+   * @param criterion The check of the needed resources.
+   */
+  public BundlePrefilter(String stage, String resourceType, Criterion criterion) {
+    this.stage = stage;
+    this.resourceType = resourceType;
+    this.criterion = criterion;
+  }
+
+  /**
+   * Resources whose status is not one of the given ones.
+   *
+   * @param statusRequired Are resources without a status dropped as well?
+   * @param rejectedStatuses The fhir codes of the rejected statuses (e.g. "entered-in-error").
+   */
+  public static Criterion statusNotIn(boolean statusRequired, Set<String> rejectedStatuses) {
+    return new Criterion(
+        Set.of(),
+        resource ->
+            resource.status() == null
+                ? !statusRequired
+                : !rejectedStatuses.contains(resource.status()));
+  }
+
+  /**
+   * Resources with a code in the given element that starts with one of the given code prefixes.
+   * Codes are compared without punctuation and case, and trailing wildcards of the prefixes are
+   * ignored, so the check is less strict than the prefix wildcard checks of the processing.
+   * Resources without codes in the element are kept.
+   *
+   * @param element The codeable concept element (e.g. "code").
+   * @param codePrefixes The code prefixes; <code>null</code> if any code is needed.
+   */
+  public static Criterion anyCodeStartsWith(String element, Collection<String> codePrefixes) {
+    if (codePrefixes == null) {
+      return new Criterion(Set.of(), resource -> true);
+    }
+    List<String> prefixes = codePrefixes.stream().map(BundlePrefilter::normalizeCode).toList();
+    if (prefixes.contains("")) {
+      return new Criterion(Set.of(), resource -> true);
+    }
+    return new Criterion(
+        Set.of(element),
+        resource -> {
+          List<String> codes = resource.codes(element);
+          return codes.isEmpty()
+              || codes.stream()
+                  .map(BundlePrefilter::normalizeCode)
+                  .anyMatch(code -> prefixes.stream().anyMatch(code::startsWith));
+        });
+  }
+
+  /**
+   * Resources with one of the given codes in the given element. Resources without codes in the
+   * element are kept.
+   *
+   * @param element The codeable concept element (e.g. "valueCodeableConcept").
+   * @param codes The needed codes; <code>null</code> if any code is needed.
+   */
+  public static Criterion anyCodeIn(String element, Collection<String> codes) {
+    if (codes == null) {
+      return new Criterion(Set.of(), resource -> true);
+    }
+    Set<String> neededCodes = Set.copyOf(codes);
+    return new Criterion(
+        Set.of(element),
+        resource -> {
+          List<String> resourceCodes = resource.codes(element);
+          return resourceCodes.isEmpty() || resourceCodes.stream().anyMatch(neededCodes::contains);
+        });
+  }
+
+  /**
+   * Drops the entries that are not needed from the raw json of a search bundle.
+   *
+   * @param bundleJson The raw json of the bundle.
+   * @return The json without the dropped entries or the given json if no entry got dropped.
+   */
+  public String apply(String bundleJson) {
+    if (bundleJson == null) {
+      return null;
+    }
+    try (JsonParser parser = JSON_FACTORY.createParser(bundleJson)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return bundleJson;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if (ENTRY.equals(fieldName) && value == JsonToken.START_ARRAY) {
+          return filterEntries(bundleJson, parser);
+        }
+        parser.skipChildren();
+      }
+    } catch (IOException | RuntimeException e) {
+      // The full parse reports the malformed content
+      log.trace("Prefilter of stage {} skipped: {}", stage, e.getMessage());
+    }
+    return bundleJson;
+  }
+
+  /**
+   * Drops the entries that are not needed from a parsed search bundle. The elements that the raw
+   * json scan reads are taken from the parsed resources instead.
+   *
+   * @param bundle The parsed bundle, which gets modified.
+   * @return The given bundle without the dropped entries.
+   */
+  public Bundle apply(Bundle bundle) {
+    if (bundle != null) {
+      bundle.getEntry().removeIf(entry -> !isResourceNeeded(entry.getResource()));
+    }
+    return bundle;
+  }
+
+  private boolean isResourceNeeded(Resource resource) {
+    if (resource == null || !resourceType.equals(resource.fhirType())) {
+      return true;
+    }
+    Map<String, List<String>> codes = new HashMap<>();
+    for (String element : criterion.codeElements()) {
+      codes.put(
+          element,
+          propertyValues(resource, element).stream()
+              .filter(CodeableConcept.class::isInstance)
+              .flatMap(concept -> ((CodeableConcept) concept).getCoding().stream())
+              .map(Coding::getCode)
+              .filter(Objects::nonNull)
+              .toList());
+    }
+    String status =
+        propertyValues(resource, STATUS).stream()
+            .filter(Base::isPrimitive)
+            .map(Base::primitiveValue)
+            .findFirst()
+            .orElse(null);
+    return isNeeded(new ScannedResource(resource.fhirType(), status, codes));
+  }
+
+  /** The values of an element of a parsed resource; empty if the resource type has no such. */
+  private static List<Base> propertyValues(Resource resource, String element) {
+    Property property = resource.getNamedProperty(element);
+    return property == null ? List.of() : property.getValues();
+  }
+
+  private String filterEntries(String bundleJson, JsonParser parser) throws IOException {
+    int arrayStart = (int) parser.currentTokenLocation().getCharOffset() + 1;
+    List<int[]> keptRanges = new ArrayList<>();
+    boolean dropped = false;
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      int entryStart = (int) parser.currentTokenLocation().getCharOffset();
+      boolean needed = isEntryNeeded(parser);
+      int entryEnd = (int) parser.currentLocation().getCharOffset();
+      if (needed) {
+        keptRanges.add(new int[] {entryStart, entryEnd});
+      } else {
+        dropped = true;
+      }
+    }
+    if (parser.currentToken() != JsonToken.END_ARRAY || !dropped) {
+      return bundleJson;
+    }
+    int arrayEnd = (int) parser.currentTokenLocation().getCharOffset();
+    StringBuilder filtered = new StringBuilder(bundleJson.length());
+    filtered.append(bundleJson, 0, arrayStart);
+    for (int i = 0; i < keptRanges.size(); i++) {
+      if (i > 0) {
+        filtered.append(',');
+      }
+      filtered.append(bundleJson, keptRanges.get(i)[0], keptRanges.get(i)[1]);
+    }
+    return filtered.append(bundleJson, arrayEnd, bundleJson.length()).toString();
+  }
+
+  /** Scans an entry object up to its end and checks whether it's needed. */
+  private boolean isEntryNeeded(JsonParser parser) throws IOException {
+    ScannedResource resource = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      if (parser.nextToken() == JsonToken.START_OBJECT && RESOURCE.equals(fieldName)) {
+        resource = scanResource(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    expectEndOfObject(parser);
+    if (resource == null || !resourceType.equals(resource.resourceType())) {
+      return true;
+    }
+    return isNeeded(resource);
+  }
+
+  /** Checks a resource of the resource type of the prefilter and counts the dropped ones. */
+  private boolean isNeeded(ScannedResource resource) {
+    scannedEntries.increment();
+    if (criterion.isNeeded().test(resource)) {
+      return true;
+    }
+    skippedEntries.increment();
+    return false;
+  }
+
+  private ScannedResource scanResource(JsonParser parser) throws IOException {
+    String type = null;
+    String status = null;
+    Map<String, List<String>> codes = new HashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if (RESOURCE_TYPE.equals(fieldName) && value == JsonToken.VALUE_STRING) {
+        type = parser.getText();
+      } else if (STATUS.equals(fieldName) && value == JsonToken.VALUE_STRING) {
+        status = parser.getText();
+      } else if (criterion.codeElements().contains(fieldName)) {
+        List<String> elementCodes = new ArrayList<>();
+        scanCodes(parser, elementCodes);
+        codes.put(fieldName, elementCodes);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    expectEndOfObject(parser);
+    return new ScannedResource(type, status, codes);
+  }
+
+  /** Collects the codes of all codings of a codeable concept (or of a list of them). */
+  private static void scanCodes(JsonParser parser, List<String> codes) throws IOException {
+    if (parser.currentToken() == JsonToken.START_ARRAY) {
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        if (parser.currentToken() == null) {
+          throw new JsonParseException(parser, "Unexpected end of the bundle");
+        }
+        scanCodes(parser, codes);
+      }
+      return;
+    }
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && CODING.equals(fieldName)) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          scanCoding(parser, codes);
+        }
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+          throw new JsonParseException(parser, "Unexpected coding " + parser.currentToken());
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    expectEndOfObject(parser);
+  }
+
+  private static void scanCoding(JsonParser parser, List<String> codes) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.currentName();
+      if (parser.nextToken() == JsonToken.VALUE_STRING && CODE.equals(fieldName)) {
+        codes.add(parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    expectEndOfObject(parser);
+  }
+
+  private static void expectEndOfObject(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.END_OBJECT) {
+      throw new JsonParseException(parser, "Unexpected token " + parser.currentToken());
+    }
+  }
+
+  private static String normalizeCode(String code) {
+    return code.replaceAll("[^A-Za-z0-9]", "").toUpperCase(Locale.ROOT);
+  }
+
+  /** The number of entries of the resource type that were checked so far. */
+  public long getScannedEntries() {
+    return scannedEntries.sum();
+  }
+
+  /** The number of entries that were dropped so far. */
+  public long getSkippedEntries() {
+    return skippedEntries.sum();
+  }
+
+  /** Logs how many entries of the stage were dropped before the full parse. */
+  public void logStatistics() {
+    if (scannedEntries.sum() == 0) {
+      return;
+    }
+    log.info(
+        "Prefilter of stage {}: {} of {} {} entries dropped before parsing.",
+        stage,
+        skippedEntries.sum(),
+        scannedEntries.sum(),
+        resourceType);
+  }
+}
@@ -48,6 +48,11 @@ import org.apache.commons.lang3.StringUtils;
 @Slf4j
 public class ConfigurationTransformer {
 
+  /** The keys of the qualitative lab codes in the global configuration. */
+  public static final String QUALITATIVE_LAB_CODES_POSITIVE = "positive";
+
+  public static final String QUALITATIVE_LAB_CODES_SYSTEMS = "systems";
+
   public static final String DEFAULT_ICD_CODES_INFLUENZA = "J10.0,J10.1,J10.8,J09";
   public static final String DEFAULT_PCR_LOINC_INFLUENZA =
       "34487-9,60416-5,49521-8,49531-7," + "61365-3,48509-4,29909-9,40982-1";
@@ -306,7 +311,7 @@ public class ConfigurationTransformer {
     return new QualitativeLabCodesSettings(
         extractLabCodes(
             dataRetrievalService.getCustomGlobalConfiguration().getQualitativeLabCodes(),
-            "positive"),
+            QUALITATIVE_LAB_CODES_POSITIVE),
         extractLabCodes(
             dataRetrievalService.getCustomGlobalConfiguration().getQualitativeLabCodes(),
             "borderline"),
@@ -317,7 +322,7 @@ public class ConfigurationTransformer {
         dataRetrievalService
             .getCustomGlobalConfiguration()
             .getQualitativeLabCodes()
-            .getOrDefault("systems", List.of(SNOMED)));
+            .getOrDefault(QUALITATIVE_LAB_CODES_SYSTEMS, List.of(SNOMED)));
   }
 
   private static List<String> extractLabCodes(
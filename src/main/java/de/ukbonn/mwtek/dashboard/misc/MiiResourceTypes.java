@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import ca.uhn.fhir.parser.IParser;
+import de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiCondition;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Lets the json parsers deserialize observations, conditions and encounters straight into the
+ * {@link MiiObservation Mii} resource classes, so the intermediate HAPI object graph and the copy
+ * of {@link ResourceConverter#convert(Resource)} are skipped.
+ *
+ * <p>The parser needs resource classes with a {@link ResourceDef} annotation, so the Mii classes
+ * are registered via annotated subclasses without own state. They derive the ids of the referenced
+ * resources on first access, which the converter sets on conversion. If a fhir context doesn't
+ * accept them, its parsers keep creating the HAPI classes, which are converted as before.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class MiiResourceTypes {
+
+  /**
+   * An observation that is parsed as {@link MiiObservation}. The ids that {@link
+   * ResourceConverter#convert(Resource)} derives from the references are derived on first access.
+   */
+  @ResourceDef(name = "Observation")
+  public static class ParsedMiiObservation extends MiiObservation {
+
+    @Override
+    public String getPatientId() {
+      if (patientId == null && hasSubject()) {
+        patientId = ResourceConverter.extractReferenceId(getSubject());
+      }
+      return patientId;
+    }
+
+    @Override
+    public String getCaseId() {
+      if (caseId == null && hasEncounter()) {
+        caseId = ResourceConverter.extractReferenceId(getEncounter());
+      }
+      return caseId;
+    }
+  }
+
+  /**
+   * A condition that is parsed as {@link MiiCondition}. The ids that {@link
+   * ResourceConverter#convert(Resource)} derives from the references are derived on first access.
+   */
+  @ResourceDef(name = "Condition")
+  public static class ParsedMiiCondition extends MiiCondition {
+
+    @Override
+    public String getPatientId() {
+      if (patientId == null && hasSubject()) {
+        patientId = ResourceConverter.extractReferenceId(getSubject());
+      }
+      return patientId;
+    }
+
+    @Override
+    public String getCaseId() {
+      if (caseId == null && hasEncounter()) {
+        caseId = ResourceConverter.extractReferenceId(getEncounter());
+      }
+      return caseId;
+    }
+  }
+
+  /**
+   * An encounter that is parsed as {@link MiiEncounter}. The patient id that {@link
+   * ResourceConverter#convert(Resource)} derives from the subject is derived on first access.
+   */
+  @ResourceDef(name = "Encounter")
+  public static class ParsedMiiEncounter extends MiiEncounter {
+
+    @Override
+    public String getPatientId() {
+      if (patientId == null && hasSubject()) {
+        patientId = ResourceConverter.extractReferenceId(getSubject());
+      }
+      return patientId;
+    }
+  }
+
+  static final List<Class<? extends IBaseResource>> PREFERRED_TYPES =
+      List.of(ParsedMiiObservation.class, ParsedMiiCondition.class, ParsedMiiEncounter.class);
+
+  /** Does a fhir context accept the preferred types? Checked once per context. */
+  private static final Map<FhirContext, Boolean> supportingContexts =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * Creates a json parser that parses the supported resource types straight into the Mii classes.
+   * Parsers are not thread-safe, but cheap to create.
+   *
+   * @param fhirContext The fhir context of the parser.
+   * @return The json parser.
+   */
+  public static IParser newJsonParser(FhirContext fhirContext) {
+    IParser parser = fhirContext.newJsonParser();
+    if (supportingContexts.computeIfAbsent(fhirContext, MiiResourceTypes::isSupported)) {
+      parser.setPreferTypes(PREFERRED_TYPES);
+    }
+    return parser;
+  }
+
+  private static boolean isSupported(FhirContext fhirContext) {
+    try {
+      PREFERRED_TYPES.forEach(fhirContext::getResourceDefinition);
+      return true;
+    } catch (RuntimeException e) {
+      log.warn(
+          "Unable to parse resources straight into the Mii classes, they get converted after "
+              + "parsing: {}",
+          e.getMessage());
+      return false;
+    }
+  }
+
+  /** Is the given resource already an instance of its Mii class? */
+  public static boolean isMiiResource(Resource resource) {
+    return resource instanceof MiiObservation
+        || resource instanceof MiiCondition
+        || resource instanceof MiiEncounter;
+  }
+
+  /**
+   * Converts a resource into its Mii class unless it was already parsed (or converted) into it.
+   *
+   * @param resource The resource.
+   * @return The Mii resource.
+   */
+  public static Resource toMii(Resource resource) {
+    return isMiiResource(resource) ? resource : ResourceConverter.convert(resource);
+  }
+
+  /**
+   * Converts a resource into its Mii class unless it was already parsed (or converted) into it.
+   *
+   * @param resource The resource.
+   * @param converterOption The option that is passed to {@link ResourceConverter#convert(Resource,
+   *     boolean)} if a conversion is needed.
+   * @return The Mii resource.
+   */
+  public static Resource toMii(Resource resource, boolean converterOption) {
+    return isMiiResource(resource)
+        ? resource
+        : ResourceConverter.convert(resource, converterOption);
+  }
+
+  /**
+   * Converts resources into their Mii classes. A list that just holds Mii resources is returned as
+   * it is, which saves the copy of the list and its resources.
+   *
+   * @param resources The resources.
+   * @return The Mii resources.
+   */
+  public static List<? extends Resource> toMii(List<? extends Resource> resources) {
+    if (resources.stream().allMatch(MiiResourceTypes::isMiiResource)) {
+      return resources;
+    }
+    return ResourceConverter.convert(resources);
+  }
+
+  /**
+   * Converts resources into their Mii classes. A list that just holds Mii resources is returned as
+   * it is.
+   *
+   * @param resources The resources.
+   * @param converterOption The option that is passed to {@link ResourceConverter#convert(List,
+   *     boolean)} if a conversion is needed.
+   * @return The Mii resources.
+   */
+  public static List<? extends Resource> toMii(
+      List<? extends Resource> resources, boolean converterOption) {
+    if (resources.stream().allMatch(MiiResourceTypes::isMiiResource)) {
+      return resources;
+    }
+    return ResourceConverter.convert(resources, converterOption);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * Parses large search bundle pages concurrently. The entry array of the raw json is split into
+ * chunks of entries, each chunk is parsed as a bundle of its own and the entries are put back
+ * together in their original order. The remaining bundle (e.g. the links and the total) is parsed
+ * once without the entries.
+ *
+ * <p>Pages with no more entries than the chunk size and pages that can't be split (e.g. malformed
+ * json) are parsed as they are.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class ParallelBundleParser {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String ENTRY = "entry";
+  private static final String CHUNK_PREFIX = "{\"resourceType\":\"Bundle\",\"entry\":[";
+  private static final String CHUNK_SUFFIX = "]}";
+
+  private final Function<String, Bundle> pageParser;
+  private final int chunkSize;
+
+  /**
+   * Creates a parser.
+   *
+   * @param pageParser Parses the raw json of a bundle; it is called concurrently and therefore
+   *     needs to be thread-safe (e.g. by creating a new HAPI parser per call).
+   * @param chunkSize The maximum number of entries that are parsed in one piece.
+   */
+  public ParallelBundleParser(Function<String, Bundle> pageParser, int chunkSize) {
+    this.pageParser = pageParser;
+    this.chunkSize = Math.max(1, chunkSize);
+  }
+
+  /**
+   * Parses the raw json of a search bundle.
+   *
+   * @param bundleJson The raw json of the bundle.
+   * @return The bundle with the entries in their original order.
+   */
+  public Bundle parse(String bundleJson) {
+    List<String> pieces = split(bundleJson);
+    if (pieces == null) {
+      return pageParser.apply(bundleJson);
+    }
+    log.trace("Bundle page parsed in {} chunks.", pieces.size() - 1);
+    // The first piece is the bundle without its entries, the others are the chunks of entries
+    List<Bundle> bundles = pieces.parallelStream().map(pageParser).toList();
+    Bundle bundle = bundles.getFirst();
+    bundles.subList(1, bundles.size()).forEach(chunk -> bundle.getEntry().addAll(chunk.getEntry()));
+    return bundle;
+  }
+
+  /**
+   * Splits the raw json of a bundle into the bundle without its entries and the chunks of entries.
+   *
+   * @return The pieces or <code>null</code> if the bundle isn't split.
+   */
+  private List<String> split(String bundleJson) {
+    if (bundleJson == null) {
+      return null;
+    }
+    try (JsonParser parser = JSON_FACTORY.createParser(bundleJson)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if (ENTRY.equals(fieldName) && value == JsonToken.START_ARRAY) {
+          return splitEntries(bundleJson, parser);
+        }
+        parser.skipChildren();
+      }
+    } catch (IOException | RuntimeException e) {
+      // The page parser reports the malformed content
+      log.trace("Bundle page not split: {}", e.getMessage());
+    }
+    return null;
+  }
+
+  private List<String> splitEntries(String bundleJson, JsonParser parser) throws IOException {
+    int arrayStart = (int) parser.currentTokenLocation().getCharOffset() + 1;
+    List<int[]> entryRanges = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      int entryStart = (int) parser.currentTokenLocation().getCharOffset();
+      parser.skipChildren();
+      entryRanges.add(new int[] {entryStart, (int) parser.currentLocation().getCharOffset()});
+    }
+    if (parser.currentToken() != JsonToken.END_ARRAY || entryRanges.size() <= chunkSize) {
+      return null;
+    }
+    int arrayEnd = (int) parser.currentTokenLocation().getCharOffset();
+    List<String> pieces = new ArrayList<>();
+    pieces.add(bundleJson.substring(0, arrayStart) + bundleJson.substring(arrayEnd));
+    for (int from = 0; from < entryRanges.size(); from += chunkSize) {
+      List<int[]> chunkRanges =
+          entryRanges.subList(from, Math.min(from + chunkSize, entryRanges.size()));
+      int chunkStart = chunkRanges.getFirst()[0];
+      int chunkEnd = chunkRanges.getLast()[1];
+      StringBuilder chunk =
+          new StringBuilder(CHUNK_PREFIX.length() + chunkEnd - chunkStart + CHUNK_SUFFIX.length());
+      chunk.append(CHUNK_PREFIX);
+      for (int i = 0; i < chunkRanges.size(); i++) {
+        if (i > 0) {
+          chunk.append(',');
+        }
+        chunk.append(bundleJson, chunkRanges.get(i)[0], chunkRanges.get(i)[1]);
+      }
+      pieces.add(chunk.append(CHUNK_SUFFIX).toString());
+    }
+    return pieces;
+  }
+}
@@ -46,11 +46,20 @@ public class ProcessTimer {
    * @param listResources A collection of FHIR resources that have been retrieved.
    */
   public void stopLoggingTime(Collection<?> listResources) {
+    stopLoggingTime(listResources.size());
+  }
+
+  /**
+   * Logs the time taken to retrieve a number of FHIR resources.
+   *
+   * @param resourceCount The number of FHIR resources that have been retrieved.
+   */
+  public void stopLoggingTime(int resourceCount) {
     log.info(
         "Loading {}s took {} milliseconds for {} resources",
         fhirResourceType.name(),
         System.currentTimeMillis() - startTimeProcess,
-        listResources.size());
+        resourceCount);
   }
 
   /**
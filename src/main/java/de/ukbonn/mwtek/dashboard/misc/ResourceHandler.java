@@ -30,6 +30,9 @@ import de.ukbonn.mwtek.dashboard.DashboardApplication;
 import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
 import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
 import de.ukbonn.mwtek.dashboard.services.AbstractDataRetrievalService;
+import de.ukbonn.mwtek.dashboard.store.CompactEncounter;
+import de.ukbonn.mwtek.dashboard.store.EncounterTable;
+import de.ukbonn.mwtek.dashboard.store.ObservationTable;
 import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
 import de.ukbonn.mwtek.utilities.fhir.misc.LocationTools;
 import de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter;
@@ -72,6 +75,7 @@ import org.hl7.fhir.r4.model.Observation.ObservationStatus;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Procedure;
 import org.hl7.fhir.r4.model.Procedure.ProcedureStatus;
+import org.hl7.fhir.r4.model.Quantity;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
 import org.slf4j.Logger;
@@ -94,6 +98,8 @@ public class ResourceHandler {
    * @param bundleResponse A FHIR response bundle that contains {@link Observation} resources
    * @param observations List with FHIR-Observations in which the entries from the bundle are to be
    *     stored
+   * @param observationTable The columnar table to which the entries from the bundle are added as
+   *     well.
    * @param patientIds List of ids of the {@link Patient} resource to be extended by entries from
    *     the Observation resource.
    * @param encounterIds List of ids of the {@link Encounter} resource to be extended by entries
@@ -104,6 +110,7 @@ public class ResourceHandler {
   public static void handleObservationEntries(
       Bundle bundleResponse,
       Collection<Observation> observations,
+      ObservationTable observationTable,
       Set<String> patientIds,
       Set<String> encounterIds,
       ServerTypeEnum serverType) {
@@ -117,11 +124,38 @@ public class ResourceHandler {
                   storeObservationPatientKeys(
                       removeNotNeededAttributes(obs), patientIds, encounterIds, serverType);
                   observations.add(obs);
+                  addToObservationTable(observationTable, obs, serverType);
                 }
               }
             });
   }
 
+  /**
+   * Adds an observation to a columnar {@link ObservationTable}, keyed by the ids of the referenced
+   * patient and encounter.
+   *
+   * @param observationTable The table to extend.
+   * @param obs The observation to add.
+   * @param serverType The connected {@link ServerTypeEnum server type} that delivers the fhir
+   *     resources.
+   */
+  public static void addToObservationTable(
+      ObservationTable observationTable, Observation obs, ServerTypeEnum serverType) {
+    observationTable.add(
+        obs, extractKey(obs.getSubject(), serverType), extractKey(obs.getEncounter(), serverType));
+  }
+
+  /** The id of a referenced resource; <code>null</code> if it can't be determined. */
+  private static String extractKey(Reference reference, ServerTypeEnum serverType) {
+    try {
+      return serverType == ServerTypeEnum.ACUWAVE
+          ? reference.getIdentifier().getValue()
+          : extractReferenceId(reference);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
   /** Filtering of canceled + entered-in-error observations. */
   private static boolean isObservationStatusValid(Observation observation) {
     if (!observation.hasStatus()) return false;
@@ -132,27 +166,68 @@ public class ResourceHandler {
     }
   }
 
-  /** Removing non-needed attributes to optimize the heap space usage. */
+  /**
+   * Removing non-needed attributes to optimize the heap space usage. The codes and references that
+   * repeat across the resources are deduplicated via the {@link ResourceInterner}.
+   */
   public static Observation removeNotNeededAttributes(Observation obs) {
     obs.setMeta(null);
     obs.setCategory(null);
     obs.setIdentifier(null);
     obs.setInterpretation(null);
+    // The has-checks avoid the auto-creation of empty elements by the getters
+    if (obs.hasCode()) ResourceInterner.intern(obs.getCode());
+    if (obs.hasSubject()) ResourceInterner.intern(obs.getSubject());
+    if (obs.hasEncounter()) ResourceInterner.intern(obs.getEncounter());
+    if (obs.hasValueCodeableConcept()) {
+      ResourceInterner.intern(obs.getValueCodeableConcept());
+    } else if (obs.hasValueQuantity()) {
+      Quantity quantity = obs.getValueQuantity();
+      if (quantity.hasUnit()) quantity.setUnit(ResourceInterner.intern(quantity.getUnit()));
+      if (quantity.hasSystem()) quantity.setSystem(ResourceInterner.intern(quantity.getSystem()));
+      if (quantity.hasCode()) quantity.setCode(ResourceInterner.intern(quantity.getCode()));
+    }
     return obs;
   }
 
-  /** Removing non-needed attributes to optimize the heap space usage. */
+  /**
+   * Removing non-needed attributes to optimize the heap space usage. The codes and references that
+   * repeat across the resources are deduplicated via the {@link ResourceInterner}.
+   */
   public static Encounter removeNotNeededAttributes(Encounter enc) {
     enc.setMeta(null);
     enc.setExtension(null);
+    if (enc.hasClass_()) enc.setClass_(ResourceInterner.intern(enc.getClass_()));
+    if (enc.hasType()) ResourceInterner.internAll(enc.getType());
+    if (enc.hasServiceType()) ResourceInterner.intern(enc.getServiceType());
+    if (enc.hasSubject()) ResourceInterner.intern(enc.getSubject());
+    if (enc.hasServiceProvider()) ResourceInterner.intern(enc.getServiceProvider());
+    if (enc.hasPartOf()) ResourceInterner.intern(enc.getPartOf());
+    if (enc.hasIdentifier()) enc.getIdentifier().forEach(ResourceInterner::intern);
+    if (enc.hasLocation()) {
+      for (EncounterLocationComponent location : enc.getLocation()) {
+        if (location.hasLocation()) ResourceInterner.intern(location.getLocation());
+        if (location.hasPhysicalType()) ResourceInterner.intern(location.getPhysicalType());
+      }
+    }
+    if (enc.hasHospitalization() && enc.getHospitalization().hasAdmitSource()) {
+      ResourceInterner.intern(enc.getHospitalization().getAdmitSource());
+    }
     return enc;
   }
 
-  /** Removing non-needed attributes to optimize the heap space usage. */
+  /**
+   * Removing non-needed attributes to optimize the heap space usage. The codes and references that
+   * repeat across the resources are deduplicated via the {@link ResourceInterner}.
+   */
   public static Condition removeNotNeededAttributes(Condition cond) {
     cond.setMeta(null);
     cond.setClinicalStatus(null);
     cond.setExtension(null);
+    if (cond.hasCode()) ResourceInterner.intern(cond.getCode());
+    if (cond.hasVerificationStatus()) ResourceInterner.intern(cond.getVerificationStatus());
+    if (cond.hasSubject()) ResourceInterner.intern(cond.getSubject());
+    if (cond.hasEncounter()) ResourceInterner.intern(cond.getEncounter());
     return cond;
   }
 
@@ -452,7 +527,7 @@ public class ResourceHandler {
     Set<CoreBaseDataItem> icuEpisodes = ConcurrentHashMap.newKeySet();
     // Just the top level resources are needed
     List<MiiEncounter> facilityContacts =
-        ((List<MiiEncounter>) ResourceConverter.convert(dataRetrievalService.getIcuEncounters()))
+        ((List<MiiEncounter>) MiiResourceTypes.toMii(dataRetrievalService.getIcuEncounters()))
             .parallelStream().filter(MiiEncounter::isFacilityContact).toList();
 
     // To detect cases that are currently in ICU, we need to find the active transfers and check
@@ -552,7 +627,7 @@ public class ResourceHandler {
     } else if (entry.getResource() instanceof Encounter encounter) {
       // We just need the facility contacts
       try {
-        MiiEncounter miiEncounter = (MiiEncounter) ResourceConverter.convert(encounter, true);
+        MiiEncounter miiEncounter = (MiiEncounter) MiiResourceTypes.toMii(encounter, true);
         if (miiEncounter.isFacilityContact()) {
           encountersOutput.add(miiEncounter);
         }
@@ -646,6 +721,26 @@ public class ResourceHandler {
             .flatMap(encounter -> encounter.getLocation().stream())
             .anyMatch(location -> isDummyIcuLocation(location.getLocation()));
 
+    addDummyIcuLocationIfNeeded(
+        isServiceProviderUsed, isDummyIcuLocationReferencePresent, miiLocations);
+  }
+
+  /**
+   * Adds the dummy icu location like {@link #addDummyIcuLocationIfNeeded(List, List)}, based on
+   * the flags of the compact encounters.
+   */
+  public static void addDummyIcuLocationIfNeeded(
+      EncounterTable encounterTable, List<MiiLocation> miiLocations) {
+    addDummyIcuLocationIfNeeded(
+        encounterTable.anyHasFlag(CompactEncounter.SERVICE_PROVIDER),
+        encounterTable.anyHasFlag(CompactEncounter.DUMMY_ICU_LOCATION),
+        miiLocations);
+  }
+
+  private static void addDummyIcuLocationIfNeeded(
+      boolean isServiceProviderUsed,
+      boolean isDummyIcuLocationReferencePresent,
+      List<MiiLocation> miiLocations) {
     if (isServiceProviderUsed || isDummyIcuLocationReferencePresent) {
       miiLocations.add(LocationTools.createDummyIcuWardLocation());
       log.info(
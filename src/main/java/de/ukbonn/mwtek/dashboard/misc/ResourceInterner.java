@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+
+/**
+ * Deduplicates the strings that repeat in nearly every parsed resource (terminology systems, codes
+ * and references like <code>Patient/123</code>). The parsed resources just hold references to the
+ * canonical strings then, so the per-resource copies can be collected right after parsing.
+ *
+ * <p>Only the immutable strings are shared. The codings and other elements stay separate instances
+ * per resource, since resources may be modified after parsing (e.g. by the dashboard logic) and
+ * are processed by several threads.
+ *
+ * <p>Since runs are executed one after another, the state is held in static fields (like in
+ * {@link RunControl}) and is cleared at the end of each run. The number of canonical strings is
+ * bounded; strings beyond the limit are kept as they are.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class ResourceInterner {
+
+  /** The maximum number of canonical strings. */
+  static final int MAX_ENTRIES = 1 << 20;
+
+  /** The approximate heap size of a string (object, array header and fields) without content. */
+  private static final int STRING_OVERHEAD_BYTES = 40;
+
+  private static final Map<String, String> strings = new ConcurrentHashMap<>();
+  private static final LongAdder stringHits = new LongAdder();
+  private static final LongAdder savedBytes = new LongAdder();
+
+  /**
+   * The canonical instance of the given string.
+   *
+   * @param value The string; may be <code>null</code>.
+   * @return The canonical instance or the given string if the interner is full.
+   */
+  public static String intern(String value) {
+    if (value == null) {
+      return null;
+    }
+    String canonical = strings.get(value);
+    if (canonical == null) {
+      if (strings.size() >= MAX_ENTRIES) {
+        return value;
+      }
+      canonical = strings.putIfAbsent(value, value);
+      if (canonical == null) {
+        return value;
+      }
+    }
+    if (canonical != value) {
+      stringHits.increment();
+      savedBytes.add(STRING_OVERHEAD_BYTES + value.length());
+    }
+    return canonical;
+  }
+
+  /**
+   * Interns the strings of the given coding. The coding itself is not shared.
+   *
+   * @param coding The coding; may be <code>null</code>.
+   * @return The given coding.
+   */
+  public static Coding intern(Coding coding) {
+    if (coding == null) {
+      return null;
+    }
+    if (coding.hasSystem()) {
+      coding.setSystem(intern(coding.getSystem()));
+    }
+    if (coding.hasVersion()) {
+      coding.setVersion(intern(coding.getVersion()));
+    }
+    if (coding.hasCode()) {
+      coding.setCode(intern(coding.getCode()));
+    }
+    if (coding.hasDisplay()) {
+      coding.setDisplay(intern(coding.getDisplay()));
+    }
+    return coding;
+  }
+
+  /** Interns the strings of the codings and the text of the given concept. */
+  public static void intern(CodeableConcept concept) {
+    if (concept == null) {
+      return;
+    }
+    if (concept.hasCoding()) {
+      concept.getCoding().forEach(ResourceInterner::intern);
+    }
+    if (concept.hasText()) {
+      concept.setText(intern(concept.getText()));
+    }
+  }
+
+  /** Interns the strings of the given concepts. */
+  public static void internAll(List<CodeableConcept> concepts) {
+    if (concepts != null) {
+      concepts.forEach(ResourceInterner::intern);
+    }
+  }
+
+  /** Interns the reference string and the logical identifier of the given reference. */
+  public static void intern(Reference reference) {
+    if (reference == null) {
+      return;
+    }
+    if (reference.hasReference()) {
+      reference.setReference(intern(reference.getReference()));
+    }
+    if (reference.hasIdentifier()) {
+      intern(reference.getIdentifier());
+    }
+  }
+
+  /** Interns the system and the type of the given identifier (the value is mostly unique). */
+  public static void intern(Identifier identifier) {
+    if (identifier == null) {
+      return;
+    }
+    if (identifier.hasSystem()) {
+      identifier.setSystem(intern(identifier.getSystem()));
+    }
+    if (identifier.hasType()) {
+      intern(identifier.getType());
+    }
+  }
+
+  /** The number of strings that were replaced by their canonical instance in the current run. */
+  static long getDeduplicatedStrings() {
+    return stringHits.sum();
+  }
+
+  /** The approximate heap that the deduplication saved in the current run in bytes. */
+  static long getSavedBytes() {
+    return savedBytes.sum();
+  }
+
+  /** Logs the heap savings of the current run and releases the canonical instances. */
+  public static void finish() {
+    if (stringHits.sum() > 0) {
+      log.info(
+          "Interning deduplicated {} strings ({} canonical strings); approx. {} MB heap saved.",
+          stringHits.sum(),
+          strings.size(),
+          savedBytes.sum() / (1024 * 1024));
+    }
+    strings.clear();
+    stringHits.reset();
+    savedBytes.reset();
+  }
+}
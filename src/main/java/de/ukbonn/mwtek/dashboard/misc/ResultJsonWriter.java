@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.DATA_ITEMS;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.ukbonn.mwtek.dashboardlogic.models.DiseaseDataItem;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming serialization of the dashboard json output. Instead of building an {@link ObjectNode}
+ * tree of all data items and rendering it into a string (which creates several in-memory copies of
+ * a multi-megabyte document), the items are written one after another via a {@link JsonGenerator}
+ * directly to the target stream.
+ */
+public class ResultJsonWriter {
+
+  /** Shared, thread-safe mapper that is used for all serializations of the dashboard output. */
+  public static final ObjectMapper MAPPER =
+      new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  public static final String GZIP = "gzip";
+
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Writes the dashboard json output to the given stream. The stream itself is not closed.
+   *
+   * @param outputStream The target stream (e.g. the servlet output stream).
+   * @param result Object node with all the additional top level fields (provider information and
+   *     the debug information, if activated).
+   * @param dataItems The generated data items that will be written into the {@link
+   *     de.ukbonn.mwtek.dashboard.controller.DataRetrievalController#DATA_ITEMS} array.
+   * @param gzip Should the output get gzip-compressed?
+   * @throws IOException If writing to the target stream fails.
+   */
+  public static void write(
+      OutputStream outputStream, ObjectNode result, List<DiseaseDataItem> dataItems, boolean gzip)
+      throws IOException {
+    if (gzip) {
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
+      write(gzipOutputStream, result, dataItems);
+      // finish() instead of close() to leave the underlying stream open
+      gzipOutputStream.finish();
+    } else {
+      write(outputStream, result, dataItems);
+    }
+    outputStream.flush();
+  }
+
+  /**
+   * Writes an already serialized json output to the given stream. The stream itself is not closed.
+   *
+   * @param outputStream The target stream (e.g. the servlet output stream).
+   * @param json The uncompressed utf-8 encoded json output.
+   * @param gzip Should the output get gzip-compressed?
+   * @throws IOException If writing to the target stream fails.
+   */
+  public static void write(OutputStream outputStream, byte[] json, boolean gzip)
+      throws IOException {
+    if (gzip) {
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE);
+      gzipOutputStream.write(json);
+      gzipOutputStream.finish();
+    } else {
+      outputStream.write(json);
+    }
+    outputStream.flush();
+  }
+
+  private static void write(
+      OutputStream outputStream, ObjectNode result, List<DiseaseDataItem> dataItems)
+      throws IOException {
+    try (JsonGenerator generator =
+        MAPPER.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartObject();
+      // The (small) top level fields are written first, so consumers can read the metadata without
+      // having to parse the data items beforehand.
+      for (Map.Entry<String, JsonNode> field : result.properties()) {
+        generator.writeFieldName(field.getKey());
+        MAPPER.writeTree(generator, field.getValue());
+      }
+      generator.writeArrayFieldStart(DATA_ITEMS);
+      for (DiseaseDataItem dataItem : dataItems) {
+        MAPPER.writeValue(generator, dataItem);
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+  }
+
+  /**
+   * Serializes the dashboard json output into a byte array. Only needed if a copy of the output
+   * has to be kept (e.g. in debug mode).
+   *
+   * @param result Object node with all the additional top level fields.
+   * @param dataItems The generated data items.
+   * @return The uncompressed utf-8 encoded json output.
+   * @throws IOException If the serialization fails.
+   */
+  public static byte[] toBytes(ObjectNode result, List<DiseaseDataItem> dataItems)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    write(outputStream, result, dataItems, false);
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Checks whether the client accepts gzip-compressed content.
+   *
+   * @param acceptEncoding The value of the <code>Accept-Encoding</code> request header.
+   * @return <code>True</code>, if <code>gzip</code> is part of the header value.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String encoding : acceptEncoding.split(",")) {
+      String[] parts = encoding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase(GZIP)
+          && !(parts.length > 1 && parts[1].replace(" ", "").equals("q=0"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import de.ukbonn.mwtek.dashboard.exceptions.RunCancelledException;
+import java.time.Duration;
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deadline and cancellation state of the current run. Since runs are executed one after another,
+ * the state is held in static fields (like the abort status in {@link LoggingHelper}). The
+ * retrieval stages check the state cooperatively before each search call, so a cancelled or
+ * expired run stops issuing new requests and releases its worker threads.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class RunControl {
+
+  private static volatile boolean running;
+  private static volatile Instant deadline;
+  private static volatile String cancelReason;
+
+  /**
+   * Starts a new run.
+   *
+   * @param timeout The maximum duration of the run; <code>null</code> or a non-positive duration if
+   *     the run is unbounded.
+   */
+  public static void start(Duration timeout) {
+    running = true;
+    cancelReason = null;
+    deadline = timeout != null && timeout.isPositive() ? Instant.now().plus(timeout) : null;
+  }
+
+  /** Finishes the current run and resets its state. */
+  public static void finish() {
+    running = false;
+    deadline = null;
+    cancelReason = null;
+  }
+
+  /** Cancels the current run. The stages stop at their next cancellation check. */
+  public static void cancel(String reason) {
+    log.warn("Cancelling the current run: {}", reason);
+    cancelReason = reason;
+  }
+
+  /** Is a run currently in progress? */
+  public static boolean isRunning() {
+    return running;
+  }
+
+  /** Is the current run cancelled or has its deadline expired? */
+  public static boolean isCancelled() {
+    return cancelReason != null || (deadline != null && !Instant.now().isBefore(deadline));
+  }
+
+  /**
+   * Cooperative cancellation check of the retrieval stages.
+   *
+   * @throws RunCancelledException If the current run is cancelled or its deadline has expired.
+   */
+  public static void checkCancelled() {
+    String reason = cancelReason;
+    if (reason != null) {
+      throw new RunCancelledException("Run cancelled: " + reason);
+    }
+    if (deadline != null && !Instant.now().isBefore(deadline)) {
+      throw new RunCancelledException("Run exceeded its deadline of " + deadline);
+    }
+  }
+
+  /**
+   * Rethrows the exception if it's a {@link RunCancelledException}. The error handlers that log
+   * and skip a failed retrieval step call this first, so a cancellation isn't logged as a failure
+   * but ends the run.
+   */
+  public static void rethrowIfCancelled(Exception e) {
+    if (e instanceof RunCancelledException runCancelledException) {
+      throw runCancelledException;
+    }
+  }
+
+  /**
+   * Limits a timeout of a single request to the remaining time of the current run.
+   *
+   * @param timeout The configured timeout; <code>null</code> if unbounded.
+   * @return The smaller one of the configured timeout and the remaining run time, <code>null
+   *     </code> if both are unbounded.
+   */
+  public static Duration limit(Duration timeout) {
+    Instant currentDeadline = deadline;
+    if (currentDeadline == null) {
+      return timeout;
+    }
+    // At least one millisecond, since zero means an infinite timeout for the http clients
+    Duration remaining = Duration.between(Instant.now(), currentDeadline);
+    if (remaining.toMillis() < 1) {
+      remaining = Duration.ofMillis(1);
+    }
+    return timeout == null || remaining.compareTo(timeout) < 0 ? remaining : timeout;
+  }
+}
@@ -0,0 +1,911 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes.ParsedMiiCondition;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes.ParsedMiiEncounter;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes.ParsedMiiObservation;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.r4.model.Address;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryRequestComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryResponseComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleEntrySearchComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleLinkComponent;
+import org.hl7.fhir.r4.model.CodeType;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Consent;
+import org.hl7.fhir.r4.model.Consent.ConsentPolicyComponent;
+import org.hl7.fhir.r4.model.Consent.ProvisionComponent;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Element;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Encounter.DiagnosisComponent;
+import org.hl7.fhir.r4.model.Encounter.EncounterHospitalizationComponent;
+import org.hl7.fhir.r4.model.Encounter.EncounterLocationComponent;
+import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r4.model.Extension;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Meta;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.PositiveIntType;
+import org.hl7.fhir.r4.model.Procedure;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.UriType;
+
+/**
+ * Reads search bundle pages with a Jackson streaming parser straight into the resource classes,
+ * without the reflection of the generic HAPI parser.
+ *
+ * <p>The reader knows the elements of the observations, conditions, encounters, patients,
+ * procedures, locations and consents that the data items are based on. Resources of other types
+ * and resources with elements that the reader doesn't know (e.g. contained resources or extensions
+ * of primitive values) are handed to the HAPI parser, one by one, so the result holds the same
+ * data as the one of the HAPI parser. Only the narrative of the resources is skipped. A page that
+ * the reader can't read at all (e.g. malformed json) is parsed by the HAPI parser completely.
+ *
+ * <p>The resource ids are set like the HAPI parser sets them: qualified by the resource type and
+ * the version of the meta data, and with the server base of the full url of the bundle entry.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class StreamingBundleReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final FhirContext fhirContext;
+  private final LongAdder readResources = new LongAdder();
+  private final LongAdder delegatedResources = new LongAdder();
+  private final LongAdder delegatedPages = new LongAdder();
+
+  public StreamingBundleReader(FhirContext fhirContext) {
+    this.fhirContext = fhirContext;
+  }
+
+  /**
+   * Reads the raw json of a search bundle.
+   *
+   * @param bundleJson The raw json of the bundle.
+   * @return The bundle with the resources of the entries.
+   */
+  public Bundle read(String bundleJson) {
+    try (JsonParser parser = JSON_FACTORY.createParser(bundleJson)) {
+      return new PageReader(parser, bundleJson).bundle();
+    } catch (IOException | RuntimeException e) {
+      // The HAPI parser reports the malformed content
+      log.debug("Bundle page handed to the HAPI parser: {}", e.getMessage());
+      delegatedPages.increment();
+      return MiiResourceTypes.newJsonParser(fhirContext).parseResource(Bundle.class, bundleJson);
+    }
+  }
+
+  /** The number of resources that got read by the streaming reader. */
+  public long getReadResources() {
+    return readResources.sum();
+  }
+
+  /** The number of resources that got handed to the HAPI parser. */
+  public long getDelegatedResources() {
+    return delegatedResources.sum();
+  }
+
+  /** The number of bundle pages that got handed to the HAPI parser completely. */
+  public long getDelegatedPages() {
+    return delegatedPages.sum();
+  }
+
+  /** Sets the full url of a bundle entry as resource id, the way the HAPI parser does it. */
+  private static void applyFullUrl(BundleEntryComponent entry) {
+    String fullUrl = entry.getFullUrl();
+    Resource resource = entry.getResource();
+    if (fullUrl == null || resource == null) {
+      return;
+    }
+    IdType resourceId = resource.getIdElement();
+    if (StringUtils.isBlank(resourceId.getValue())) {
+      resourceId.setValue(fullUrl);
+    } else if (fullUrl.startsWith("urn:") && fullUrl.endsWith(":" + resourceId.getIdPart())) {
+      resourceId.setValue(fullUrl);
+    } else {
+      IdType fullUrlId = new IdType(fullUrl);
+      if (Objects.equals(fullUrlId.getIdPart(), resourceId.getIdPart())
+          && fullUrlId.hasBaseUrl()) {
+        resourceId.setValue(
+            resourceId
+                .withServerBase(fullUrlId.getBaseUrl(), resourceId.getResourceType())
+                .getValue());
+      }
+    }
+  }
+
+  /** Qualifies the id of a resource by its type and version, the way the HAPI parser does it. */
+  private static void qualifyId(DomainResource resource) {
+    IdType id = resource.getIdElement();
+    String versionId = resource.getMeta().getVersionId();
+    if (StringUtils.isBlank(id.getIdPart()) || id.getIdPart().startsWith("urn:")) {
+      return;
+    }
+    String qualifiedId = resource.getResourceType().name() + "/" + id.getIdPart();
+    id.setValue(
+        StringUtils.isNotBlank(versionId) ? qualifiedId + "/_history/" + versionId : qualifiedId);
+  }
+
+  /** An element that the reader doesn't know; the resource is handed to the HAPI parser. */
+  private static class UnknownElementException extends RuntimeException {
+    UnknownElementException(String name) {
+      super("Unknown element '" + name + "'");
+    }
+  }
+
+  /** Reads the element with the given name into the target; <code>false</code> if unknown. */
+  @FunctionalInterface
+  private interface ElementReader<T> {
+    boolean read(String name, T target) throws IOException;
+  }
+
+  /** Reads the value at the current token. */
+  @FunctionalInterface
+  private interface ValueReader {
+    void read() throws IOException;
+  }
+
+  /** The reading of a single bundle page. */
+  private class PageReader {
+
+    private final JsonParser parser;
+    private final String json;
+    private IParser hapiParser;
+
+    PageReader(JsonParser parser, String json) {
+      this.parser = parser;
+      this.json = json;
+    }
+
+    Bundle bundle() throws IOException {
+      parser.nextToken();
+      Bundle bundle = new Bundle();
+      readObject(bundle, this::bundleElement);
+      return bundle;
+    }
+
+    private boolean bundleElement(String name, Bundle bundle) throws IOException {
+      switch (name) {
+        case "resourceType" -> {
+          if (!"Bundle".equals(string())) {
+            throw new IllegalArgumentException("No bundle");
+          }
+        }
+        case "id" -> bundle.setId(string());
+        case "meta" -> bundle.setMeta(meta());
+        case "type" -> bundle.setType(Bundle.BundleType.fromCode(string()));
+        case "timestamp" -> bundle.setTimestampElement(new InstantType(string()));
+        case "total" -> bundle.setTotal(integer());
+        case "link" ->
+            readArray(
+                () -> bundle.addLink(readObject(new BundleLinkComponent(), this::linkElement)));
+        case "entry" -> readArray(() -> bundle.addEntry(entry()));
+        default -> {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private BundleEntryComponent entry() throws IOException {
+      BundleEntryComponent entry = readObject(new BundleEntryComponent(), this::entryElement);
+      applyFullUrl(entry);
+      return entry;
+    }
+
+    private boolean entryElement(String name, BundleEntryComponent entry) throws IOException {
+      switch (name) {
+        case "fullUrl" -> entry.setFullUrl(string());
+        case "resource" -> entry.setResource(resource());
+        case "search" ->
+            entry.setSearch(readObject(new BundleEntrySearchComponent(), this::searchElement));
+        case "request" ->
+            entry.setRequest(readObject(new BundleEntryRequestComponent(), this::requestElement));
+        case "response" ->
+            entry.setResponse(
+                readObject(new BundleEntryResponseComponent(), this::responseElement));
+        default -> {
+          return backboneElement(name, entry);
+        }
+      }
+      return true;
+    }
+
+    private boolean linkElement(String name, BundleLinkComponent link) throws IOException {
+      switch (name) {
+        case "relation" -> link.setRelation(string());
+        case "url" -> link.setUrl(string());
+        default -> {
+          return backboneElement(name, link);
+        }
+      }
+      return true;
+    }
+
+    private boolean searchElement(String name, BundleEntrySearchComponent search)
+        throws IOException {
+      switch (name) {
+        case "mode" -> search.setMode(Bundle.SearchEntryMode.fromCode(string()));
+        case "score" -> search.setScoreElement(decimal());
+        default -> {
+          return backboneElement(name, search);
+        }
+      }
+      return true;
+    }
+
+    private boolean requestElement(String name, BundleEntryRequestComponent request)
+        throws IOException {
+      switch (name) {
+        case "method" -> request.setMethod(Bundle.HTTPVerb.fromCode(string()));
+        case "url" -> request.setUrl(string());
+        case "ifNoneMatch" -> request.setIfNoneMatch(string());
+        case "ifModifiedSince" -> request.setIfModifiedSinceElement(new InstantType(string()));
+        case "ifMatch" -> request.setIfMatch(string());
+        case "ifNoneExist" -> request.setIfNoneExist(string());
+        default -> {
+          return backboneElement(name, request);
+        }
+      }
+      return true;
+    }
+
+    private boolean responseElement(String name, BundleEntryResponseComponent response)
+        throws IOException {
+      switch (name) {
+        case "status" -> response.setStatus(string());
+        case "location" -> response.setLocation(string());
+        case "etag" -> response.setEtag(string());
+        case "lastModified" -> response.setLastModifiedElement(new InstantType(string()));
+        default -> {
+          return backboneElement(name, response);
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Reads the resource of a bundle entry. Resources of other types or with unknown elements are
+     * handed to the HAPI parser.
+     */
+    private Resource resource() throws IOException {
+      expect(JsonToken.START_OBJECT);
+      int start = (int) parser.currentTokenLocation().getCharOffset();
+      int depth = parser.getParsingContext().getNestingDepth();
+      try {
+        DomainResource resource = newResource();
+        if (resource != null) {
+          parser.nextToken();
+          readFields(resource, this::resourceElement);
+          qualifyId(resource);
+          readResources.increment();
+          return resource;
+        }
+      } catch (RuntimeException e) {
+        log.trace("Resource handed to the HAPI parser: {}", e.getMessage());
+      }
+      // Skipping the rest of the resource, which is parsed from its raw json instead
+      while (parser.currentToken() != JsonToken.END_OBJECT
+          || parser.getParsingContext().getNestingDepth() >= depth) {
+        if (parser.nextToken() == null) {
+          throw new IOException("Unexpected end of the bundle");
+        }
+      }
+      int end = (int) parser.currentLocation().getCharOffset();
+      if (hapiParser == null) {
+        hapiParser = MiiResourceTypes.newJsonParser(fhirContext);
+      }
+      delegatedResources.increment();
+      return (Resource) hapiParser.parseResource(json.substring(start, end));
+    }
+
+    /**
+     * Creates the resource of the type that the first element of the resource names; <code>null
+     * </code> if the type is not read by the reader.
+     */
+    private DomainResource newResource() throws IOException {
+      if (parser.nextToken() != JsonToken.FIELD_NAME
+          || !"resourceType".equals(parser.currentName())) {
+        return null;
+      }
+      parser.nextToken();
+      return switch (string()) {
+        case "Observation" -> new ParsedMiiObservation();
+        case "Condition" -> new ParsedMiiCondition();
+        case "Encounter" -> new ParsedMiiEncounter();
+        case "Patient" -> new Patient();
+        case "Procedure" -> new Procedure();
+        case "Location" -> new Location();
+        case "Consent" -> new Consent();
+        default -> null;
+      };
+    }
+
+    private boolean resourceElement(String name, DomainResource resource) throws IOException {
+      return switch (resource) {
+        case Observation observation -> observationElement(name, observation);
+        case Condition condition -> conditionElement(name, condition);
+        case Encounter encounter -> encounterElement(name, encounter);
+        case Patient patient -> patientElement(name, patient);
+        case Procedure procedure -> procedureElement(name, procedure);
+        case Location location -> locationElement(name, location);
+        case Consent consent -> consentElement(name, consent);
+        default -> false;
+      };
+    }
+
+    private boolean domainResourceElement(String name, DomainResource resource)
+        throws IOException {
+      switch (name) {
+        case "id" -> resource.setId(string());
+        case "meta" -> resource.setMeta(meta());
+        case "implicitRules" -> resource.setImplicitRules(string());
+        case "language" -> resource.setLanguage(string());
+        // The narrative is not needed for the data items
+        case "text" -> parser.skipChildren();
+        case "extension" -> readArray(() -> resource.addExtension(extension()));
+        default -> {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean observationElement(String name, Observation observation) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> observation.addIdentifier(identifier()));
+        case "status" -> observation.setStatus(Observation.ObservationStatus.fromCode(string()));
+        case "category" -> readArray(() -> observation.addCategory(codeableConcept()));
+        case "code" -> observation.setCode(codeableConcept());
+        case "subject" -> observation.setSubject(reference());
+        case "encounter" -> observation.setEncounter(reference());
+        case "effectiveDateTime" -> observation.setEffective(dateTime());
+        case "effectivePeriod" -> observation.setEffective(period());
+        case "issued" -> observation.setIssuedElement(new InstantType(string()));
+        case "valueQuantity" -> observation.setValue(quantity());
+        case "valueCodeableConcept" -> observation.setValue(codeableConcept());
+        case "valueString" -> observation.setValue(new StringType(string()));
+        case "valueBoolean" -> observation.setValue(new BooleanType(bool()));
+        case "valueInteger" -> observation.setValue(new IntegerType(integer()));
+        case "valueDateTime" -> observation.setValue(dateTime());
+        case "dataAbsentReason" -> observation.setDataAbsentReason(codeableConcept());
+        case "interpretation" -> readArray(() -> observation.addInterpretation(codeableConcept()));
+        case "bodySite" -> observation.setBodySite(codeableConcept());
+        case "method" -> observation.setMethod(codeableConcept());
+        case "specimen" -> observation.setSpecimen(reference());
+        default -> {
+          return domainResourceElement(name, observation);
+        }
+      }
+      return true;
+    }
+
+    private boolean conditionElement(String name, Condition condition) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> condition.addIdentifier(identifier()));
+        case "clinicalStatus" -> condition.setClinicalStatus(codeableConcept());
+        case "verificationStatus" -> condition.setVerificationStatus(codeableConcept());
+        case "category" -> readArray(() -> condition.addCategory(codeableConcept()));
+        case "severity" -> condition.setSeverity(codeableConcept());
+        case "code" -> condition.setCode(codeableConcept());
+        case "bodySite" -> readArray(() -> condition.addBodySite(codeableConcept()));
+        case "subject" -> condition.setSubject(reference());
+        case "encounter" -> condition.setEncounter(reference());
+        case "onsetDateTime" -> condition.setOnset(dateTime());
+        case "onsetPeriod" -> condition.setOnset(period());
+        case "abatementDateTime" -> condition.setAbatement(dateTime());
+        case "abatementPeriod" -> condition.setAbatement(period());
+        case "recordedDate" -> condition.setRecordedDateElement(dateTime());
+        default -> {
+          return domainResourceElement(name, condition);
+        }
+      }
+      return true;
+    }
+
+    private boolean encounterElement(String name, Encounter encounter) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> encounter.addIdentifier(identifier()));
+        case "status" -> encounter.setStatus(Encounter.EncounterStatus.fromCode(string()));
+        case "class" -> encounter.setClass_(coding());
+        case "type" -> readArray(() -> encounter.addType(codeableConcept()));
+        case "serviceType" -> encounter.setServiceType(codeableConcept());
+        case "priority" -> encounter.setPriority(codeableConcept());
+        case "subject" -> encounter.setSubject(reference());
+        case "period" -> encounter.setPeriod(period());
+        case "reasonCode" -> readArray(() -> encounter.addReasonCode(codeableConcept()));
+        case "reasonReference" -> readArray(() -> encounter.addReasonReference(reference()));
+        case "diagnosis" ->
+            readArray(
+                () ->
+                    encounter.addDiagnosis(
+                        readObject(new DiagnosisComponent(), this::diagnosisElement)));
+        case "hospitalization" ->
+            encounter.setHospitalization(
+                readObject(new EncounterHospitalizationComponent(), this::hospitalizationElement));
+        case "location" ->
+            readArray(
+                () ->
+                    encounter.addLocation(
+                        readObject(
+                            new EncounterLocationComponent(), this::encounterLocationElement)));
+        case "serviceProvider" -> encounter.setServiceProvider(reference());
+        case "partOf" -> encounter.setPartOf(reference());
+        default -> {
+          return domainResourceElement(name, encounter);
+        }
+      }
+      return true;
+    }
+
+    private boolean diagnosisElement(String name, DiagnosisComponent diagnosis)
+        throws IOException {
+      switch (name) {
+        case "condition" -> diagnosis.setCondition(reference());
+        case "use" -> diagnosis.setUse(codeableConcept());
+        case "rank" -> diagnosis.setRankElement(new PositiveIntType(integer()));
+        default -> {
+          return backboneElement(name, diagnosis);
+        }
+      }
+      return true;
+    }
+
+    private boolean hospitalizationElement(
+        String name, EncounterHospitalizationComponent hospitalization) throws IOException {
+      switch (name) {
+        case "origin" -> hospitalization.setOrigin(reference());
+        case "admitSource" -> hospitalization.setAdmitSource(codeableConcept());
+        case "reAdmission" -> hospitalization.setReAdmission(codeableConcept());
+        case "destination" -> hospitalization.setDestination(reference());
+        case "dischargeDisposition" -> hospitalization.setDischargeDisposition(codeableConcept());
+        default -> {
+          return backboneElement(name, hospitalization);
+        }
+      }
+      return true;
+    }
+
+    private boolean encounterLocationElement(String name, EncounterLocationComponent location)
+        throws IOException {
+      switch (name) {
+        case "location" -> location.setLocation(reference());
+        case "status" ->
+            location.setStatus(Encounter.EncounterLocationStatus.fromCode(string()));
+        case "physicalType" -> location.setPhysicalType(codeableConcept());
+        case "period" -> location.setPeriod(period());
+        default -> {
+          return backboneElement(name, location);
+        }
+      }
+      return true;
+    }
+
+    private boolean patientElement(String name, Patient patient) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> patient.addIdentifier(identifier()));
+        case "active" -> patient.setActive(bool());
+        case "name" ->
+            readArray(() -> patient.addName(readObject(new HumanName(), this::nameElement)));
+        case "gender" -> patient.setGender(AdministrativeGender.fromCode(string()));
+        case "birthDate" -> patient.setBirthDateElement(new DateType(string()));
+        case "deceasedBoolean" -> patient.setDeceased(new BooleanType(bool()));
+        case "deceasedDateTime" -> patient.setDeceased(dateTime());
+        case "address" ->
+            readArray(() -> patient.addAddress(readObject(new Address(), this::addressElement)));
+        case "managingOrganization" -> patient.setManagingOrganization(reference());
+        default -> {
+          return domainResourceElement(name, patient);
+        }
+      }
+      return true;
+    }
+
+    private boolean nameElement(String name, HumanName humanName) throws IOException {
+      switch (name) {
+        case "use" -> humanName.setUse(HumanName.NameUse.fromCode(string()));
+        case "text" -> humanName.setText(string());
+        case "family" -> humanName.setFamily(string());
+        case "given" -> readArray(() -> humanName.addGiven(string()));
+        case "prefix" -> readArray(() -> humanName.addPrefix(string()));
+        case "suffix" -> readArray(() -> humanName.addSuffix(string()));
+        case "period" -> humanName.setPeriod(period());
+        default -> {
+          return element(name, humanName);
+        }
+      }
+      return true;
+    }
+
+    private boolean addressElement(String name, Address address) throws IOException {
+      switch (name) {
+        case "use" -> address.setUse(Address.AddressUse.fromCode(string()));
+        case "type" -> address.setType(Address.AddressType.fromCode(string()));
+        case "text" -> address.setText(string());
+        case "line" -> readArray(() -> address.addLine(string()));
+        case "city" -> address.setCity(string());
+        case "district" -> address.setDistrict(string());
+        case "state" -> address.setState(string());
+        case "postalCode" -> address.setPostalCode(string());
+        case "country" -> address.setCountry(string());
+        case "period" -> address.setPeriod(period());
+        default -> {
+          return element(name, address);
+        }
+      }
+      return true;
+    }
+
+    private boolean procedureElement(String name, Procedure procedure) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> procedure.addIdentifier(identifier()));
+        case "status" -> procedure.setStatus(Procedure.ProcedureStatus.fromCode(string()));
+        case "statusReason" -> procedure.setStatusReason(codeableConcept());
+        case "category" -> procedure.setCategory(codeableConcept());
+        case "code" -> procedure.setCode(codeableConcept());
+        case "subject" -> procedure.setSubject(reference());
+        case "encounter" -> procedure.setEncounter(reference());
+        case "performedDateTime" -> procedure.setPerformed(dateTime());
+        case "performedPeriod" -> procedure.setPerformed(period());
+        case "bodySite" -> readArray(() -> procedure.addBodySite(codeableConcept()));
+        case "outcome" -> procedure.setOutcome(codeableConcept());
+        default -> {
+          return domainResourceElement(name, procedure);
+        }
+      }
+      return true;
+    }
+
+    private boolean locationElement(String name, Location location) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> location.addIdentifier(identifier()));
+        case "status" -> location.setStatus(Location.LocationStatus.fromCode(string()));
+        case "operationalStatus" -> location.setOperationalStatus(coding());
+        case "name" -> location.setName(string());
+        case "alias" -> readArray(() -> location.addAlias(string()));
+        case "description" -> location.setDescription(string());
+        case "mode" -> location.setMode(Location.LocationMode.fromCode(string()));
+        case "type" -> readArray(() -> location.addType(codeableConcept()));
+        case "physicalType" -> location.setPhysicalType(codeableConcept());
+        case "managingOrganization" -> location.setManagingOrganization(reference());
+        case "partOf" -> location.setPartOf(reference());
+        default -> {
+          return domainResourceElement(name, location);
+        }
+      }
+      return true;
+    }
+
+    private boolean consentElement(String name, Consent consent) throws IOException {
+      switch (name) {
+        case "identifier" -> readArray(() -> consent.addIdentifier(identifier()));
+        case "status" -> consent.setStatus(Consent.ConsentState.fromCode(string()));
+        case "scope" -> consent.setScope(codeableConcept());
+        case "category" -> readArray(() -> consent.addCategory(codeableConcept()));
+        case "patient" -> consent.setPatient(reference());
+        case "dateTime" -> consent.setDateTimeElement(dateTime());
+        case "organization" -> readArray(() -> consent.addOrganization(reference()));
+        case "policy" ->
+            readArray(
+                () ->
+                    consent.addPolicy(
+                        readObject(new ConsentPolicyComponent(), this::policyElement)));
+        case "policyRule" -> consent.setPolicyRule(codeableConcept());
+        case "provision" -> consent.setProvision(provision());
+        default -> {
+          return domainResourceElement(name, consent);
+        }
+      }
+      return true;
+    }
+
+    private boolean policyElement(String name, ConsentPolicyComponent policy) throws IOException {
+      switch (name) {
+        case "authority" -> policy.setAuthority(string());
+        case "uri" -> policy.setUri(string());
+        default -> {
+          return backboneElement(name, policy);
+        }
+      }
+      return true;
+    }
+
+    private ProvisionComponent provision() throws IOException {
+      return readObject(new ProvisionComponent(), this::provisionElement);
+    }
+
+    private boolean provisionElement(String name, ProvisionComponent provision)
+        throws IOException {
+      switch (name) {
+        case "type" -> provision.setType(Consent.ConsentProvisionType.fromCode(string()));
+        case "period" -> provision.setPeriod(period());
+        case "code" -> readArray(() -> provision.addCode(codeableConcept()));
+        case "provision" -> readArray(() -> provision.addProvision(provision()));
+        default -> {
+          return backboneElement(name, provision);
+        }
+      }
+      return true;
+    }
+
+    private Meta meta() throws IOException {
+      return readObject(new Meta(), this::metaElement);
+    }
+
+    private boolean metaElement(String name, Meta meta) throws IOException {
+      switch (name) {
+        case "versionId" -> meta.setVersionId(string());
+        case "lastUpdated" -> meta.setLastUpdatedElement(new InstantType(string()));
+        case "source" -> meta.setSource(string());
+        case "profile" -> readArray(() -> meta.addProfile(string()));
+        default -> {
+          return element(name, meta);
+        }
+      }
+      return true;
+    }
+
+    private Extension extension() throws IOException {
+      return readObject(new Extension(), this::extensionElement);
+    }
+
+    private boolean extensionElement(String name, Extension extension) throws IOException {
+      switch (name) {
+        case "url" -> extension.setUrl(string());
+        case "valueCoding" -> extension.setValue(coding());
+        case "valueCodeableConcept" -> extension.setValue(codeableConcept());
+        case "valueReference" -> extension.setValue(reference());
+        case "valueIdentifier" -> extension.setValue(identifier());
+        case "valuePeriod" -> extension.setValue(period());
+        case "valueQuantity" -> extension.setValue(quantity());
+        case "valueDateTime" -> extension.setValue(dateTime());
+        case "valueDate" -> extension.setValue(new DateType(string()));
+        case "valueString" -> extension.setValue(new StringType(string()));
+        case "valueCode" -> extension.setValue(new CodeType(string()));
+        case "valueUri" -> extension.setValue(new UriType(string()));
+        case "valueBoolean" -> extension.setValue(new BooleanType(bool()));
+        case "valueInteger" -> extension.setValue(new IntegerType(integer()));
+        case "valueDecimal" -> extension.setValue(decimal());
+        default -> {
+          return element(name, extension);
+        }
+      }
+      return true;
+    }
+
+    private Coding coding() throws IOException {
+      return readObject(new Coding(), this::codingElement);
+    }
+
+    private boolean codingElement(String name, Coding coding) throws IOException {
+      switch (name) {
+        case "system" -> coding.setSystem(string());
+        case "version" -> coding.setVersion(string());
+        case "code" -> coding.setCode(string());
+        case "display" -> coding.setDisplay(string());
+        case "userSelected" -> coding.setUserSelected(bool());
+        default -> {
+          return element(name, coding);
+        }
+      }
+      return true;
+    }
+
+    private CodeableConcept codeableConcept() throws IOException {
+      return readObject(new CodeableConcept(), this::codeableConceptElement);
+    }
+
+    private boolean codeableConceptElement(String name, CodeableConcept concept)
+        throws IOException {
+      switch (name) {
+        case "coding" -> readArray(() -> concept.addCoding(coding()));
+        case "text" -> concept.setText(string());
+        default -> {
+          return element(name, concept);
+        }
+      }
+      return true;
+    }
+
+    private Reference reference() throws IOException {
+      return readObject(new Reference(), this::referenceElement);
+    }
+
+    private boolean referenceElement(String name, Reference reference) throws IOException {
+      switch (name) {
+        case "reference" -> reference.setReference(string());
+        case "type" -> reference.setType(string());
+        case "identifier" -> reference.setIdentifier(identifier());
+        case "display" -> reference.setDisplay(string());
+        default -> {
+          return element(name, reference);
+        }
+      }
+      return true;
+    }
+
+    private Identifier identifier() throws IOException {
+      return readObject(new Identifier(), this::identifierElement);
+    }
+
+    private boolean identifierElement(String name, Identifier identifier) throws IOException {
+      switch (name) {
+        case "use" -> identifier.setUse(Identifier.IdentifierUse.fromCode(string()));
+        case "type" -> identifier.setType(codeableConcept());
+        case "system" -> identifier.setSystem(string());
+        case "value" -> identifier.setValue(string());
+        case "period" -> identifier.setPeriod(period());
+        case "assigner" -> identifier.setAssigner(reference());
+        default -> {
+          return element(name, identifier);
+        }
+      }
+      return true;
+    }
+
+    private Period period() throws IOException {
+      return readObject(new Period(), this::periodElement);
+    }
+
+    private boolean periodElement(String name, Period period) throws IOException {
+      switch (name) {
+        case "start" -> period.setStartElement(dateTime());
+        case "end" -> period.setEndElement(dateTime());
+        default -> {
+          return element(name, period);
+        }
+      }
+      return true;
+    }
+
+    private Quantity quantity() throws IOException {
+      return readObject(new Quantity(), this::quantityElement);
+    }
+
+    private boolean quantityElement(String name, Quantity quantity) throws IOException {
+      switch (name) {
+        case "value" -> quantity.setValueElement(decimal());
+        case "comparator" ->
+            quantity.setComparator(Quantity.QuantityComparator.fromCode(string()));
+        case "unit" -> quantity.setUnit(string());
+        case "system" -> quantity.setSystem(string());
+        case "code" -> quantity.setCode(string());
+        default -> {
+          return element(name, quantity);
+        }
+      }
+      return true;
+    }
+
+    private boolean backboneElement(String name, Element element) throws IOException {
+      // Modifier extensions are left to the HAPI parser
+      return element(name, element);
+    }
+
+    private boolean element(String name, Element element) throws IOException {
+      switch (name) {
+        case "id" -> element.setId(string());
+        case "extension" -> readArray(() -> element.addExtension(extension()));
+        default -> {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Reads the object at the current token into the given target. */
+    private <T extends Base> T readObject(T target, ElementReader<T> elementReader)
+        throws IOException {
+      expect(JsonToken.START_OBJECT);
+      parser.nextToken();
+      readFields(target, elementReader);
+      return target;
+    }
+
+    /** Reads the fields of the current object, starting with the current token. */
+    private <T extends Base> void readFields(T target, ElementReader<T> elementReader)
+        throws IOException {
+      while (parser.currentToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        if (parser.nextToken() == JsonToken.VALUE_NULL || !elementReader.read(name, target)) {
+          throw new UnknownElementException(name);
+        }
+        parser.nextToken();
+      }
+      expect(JsonToken.END_OBJECT);
+    }
+
+    /** Reads the array at the current token; the value reader is called for each item. */
+    private void readArray(ValueReader valueReader) throws IOException {
+      expect(JsonToken.START_ARRAY);
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        valueReader.read();
+      }
+    }
+
+    private String string() throws IOException {
+      expect(JsonToken.VALUE_STRING);
+      return parser.getText();
+    }
+
+    private int integer() throws IOException {
+      expect(JsonToken.VALUE_NUMBER_INT);
+      return parser.getIntValue();
+    }
+
+    private boolean bool() throws IOException {
+      if (parser.currentToken() != JsonToken.VALUE_TRUE
+          && parser.currentToken() != JsonToken.VALUE_FALSE) {
+        throw new IllegalArgumentException("No boolean: " + parser.currentToken());
+      }
+      return parser.getBooleanValue();
+    }
+
+    private DecimalType decimal() throws IOException {
+      if (!parser.currentToken().isNumeric()) {
+        throw new IllegalArgumentException("No number: " + parser.currentToken());
+      }
+      // The text keeps the precision of the number, like the HAPI parser does
+      return new DecimalType(parser.getText());
+    }
+
+    private DateTimeType dateTime() throws IOException {
+      return new DateTimeType(string());
+    }
+
+    private void expect(JsonToken token) {
+      if (parser.currentToken() != token) {
+        throw new IllegalArgumentException(
+            "Expected " + token + " instead of " + parser.currentToken());
+      }
+    }
+  }
+}
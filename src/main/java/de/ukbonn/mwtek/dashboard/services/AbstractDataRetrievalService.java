@@ -19,20 +19,30 @@
 package de.ukbonn.mwtek.dashboard.services;
 
 import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.DEFAULT_KIDS_RADAR_PED_PERTUSSIS;
+import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.QUALITATIVE_LAB_CODES_POSITIVE;
+import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.QUALITATIVE_LAB_CODES_SYSTEMS;
 import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.extractInputCodeSettings;
 import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.extractQualitativeLabCodesSettings;
 import static de.ukbonn.mwtek.dashboardlogic.tools.KidsRadarTools.getIcdCodesAsString;
+import static de.ukbonn.mwtek.utilities.enums.TerminologySystems.SNOMED;
 
 import de.ukbonn.mwtek.dashboard.configuration.CustomGlobalConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.SearchConfiguration;
 import de.ukbonn.mwtek.dashboard.interfaces.DataRetrievalService;
 import de.ukbonn.mwtek.dashboard.interfaces.DataSourceType;
 import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.EncounterTable;
+import de.ukbonn.mwtek.dashboard.store.ObservationTable;
+import de.ukbonn.mwtek.dashboard.store.ResultCollector;
+import de.ukbonn.mwtek.dashboard.store.SpillableResourceSet;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
 import de.ukbonn.mwtek.dashboardlogic.logic.CoronaResultFunctionality;
 import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
 import de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiCondition;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiPatient;
 import java.util.ArrayList;
@@ -40,13 +50,15 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 
 /**
@@ -57,9 +69,11 @@ import org.hl7.fhir.r4.model.ResourceType;
 @Slf4j
 public abstract class AbstractDataRetrievalService implements DataRetrievalService {
 
-  protected Set<String> patientIds = ConcurrentHashMap.newKeySet();
-  protected Set<String> encounterIds = ConcurrentHashMap.newKeySet();
-  @Getter protected Set<String> locationIds = ConcurrentHashMap.newKeySet();
+  /**
+   * The state of the current run (e.g. the collected ids), which is replaced at the start of each
+   * run via {@link #beginRun(StageCheckpoints)} and dropped at its end via {@link #endRun()}.
+   */
+  @Getter private volatile RetrievalRunState runState = new RetrievalRunState(null);
 
   /**
    * Since the data retrieval service is independent of a dedicated server type, a corresponding
@@ -150,6 +164,79 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
   /** The loinc codes that are used in the ukb prediction model calculation. */
   @Getter @Setter private List<String> predictionModelUkbObservationCodes;
 
+  /** Watches the heap usage during the retrieval; <code>null</code> if not used. */
+  @Getter @Setter private MemoryGovernor memoryGovernor;
+
+  /**
+   * Starts a new run with an empty {@link RetrievalRunState state}.
+   *
+   * @param stageCheckpoints The checkpoints of the run; <code>null</code> if checkpointing is
+   *     deactivated.
+   */
+  public void beginRun(StageCheckpoints stageCheckpoints) {
+    runState = new RetrievalRunState(stageCheckpoints);
+  }
+
+  /**
+   * Ends the current run by dropping its {@link RetrievalRunState state}, so its id sets, caches
+   * and observation tables don't stay reachable until the next run.
+   */
+  public void endRun() {
+    runState = new RetrievalRunState(null);
+  }
+
+  /** The location ids that were found in the current run so far. */
+  public Set<String> getLocationIds() {
+    return runState.getLocationIds();
+  }
+
+  /**
+   * Runs a retrieval stage of the data controllers. If checkpointing is activated, the result is
+   * checkpointed or, if a failed run gets resumed, restored from a former checkpoint.
+   *
+   * @param dataItemContext The context of the stage (e.g. {@link DataItemContext#COVID}).
+   * @param resourceType The resource type that is retrieved in the stage.
+   * @param retrieval The retrieval of the stage.
+   * @return The result of the stage.
+   */
+  public <T extends Resource> List<T> checkpointed(
+      DataItemContext dataItemContext, ResourceType resourceType, Supplier<List<T>> retrieval) {
+    RunControl.checkCancelled();
+    RetrievalRunState currentRunState = runState;
+    if (currentRunState.getStageCheckpoints() == null) {
+      return retrieval.get();
+    }
+    return currentRunState
+        .getStageCheckpoints()
+        .run(dataItemContext.name() + "_" + resourceType.name(), currentRunState, retrieval);
+  }
+
+  /**
+   * Runs the encounter retrieval stage into a compact {@link EncounterTable}. With activated
+   * checkpointing, the stage runs {@link #checkpointed checkpointed} on the encounter list, which
+   * gets transferred into the table afterward.
+   *
+   * @param dataItemContext The context of the stage (e.g. {@link DataItemContext#COVID}).
+   * @param patients The patients whose encounters are retrieved.
+   * @return The encounters of the stage.
+   */
+  @SuppressWarnings("unchecked")
+  public EncounterTable checkpointedEncounterTable(
+      DataItemContext dataItemContext, List<MiiPatient> patients) {
+    RunControl.checkCancelled();
+    if (runState.getStageCheckpoints() == null) {
+      return getEncounterTable(dataItemContext, patients);
+    }
+    return EncounterTable.of(
+        (List<MiiEncounter>)
+            MiiResourceTypes.toMii(
+                checkpointed(
+                    dataItemContext,
+                    ResourceType.Encounter,
+                    () -> getEncounters(dataItemContext, patients)),
+                true));
+  }
+
   public abstract List<CoreBaseDataItem> getUkbRenalReplacementBodyWeight(
       Collection<String> encounterIds, DataSourceType dataSourceType);
 
@@ -159,6 +246,35 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
   public abstract List<CoreBaseDataItem> getUkbRenalReplacementUrineOutput(
       Collection<String> icuLocalCaseIds, DataSourceType dataSourceType);
 
+  /**
+   * Creates the result collector of a parallel retrieval. If the memory governor is activated, the
+   * collected resources are spilled to disk under memory pressure.
+   *
+   * @param restore Restores a spilled FHIR resource into the type of the collector.
+   */
+  protected <T extends Resource> ResultCollector<T> newResultCollector(
+      Function<Resource, T> restore) {
+    if (memoryGovernor == null || !memoryGovernor.isEnabled()) {
+      return new ResultCollector<>();
+    }
+    return new ResultCollector<>(
+        new SpillableResourceSet<>(
+            memoryGovernor::shouldSpill, memoryGovernor.getSpillDirectory(), restore));
+  }
+
+  /**
+   * Runs a fetch of a parallel retrieval, which is throttled under memory pressure. Fetches of a
+   * cancelled run are skipped.
+   */
+  protected void throttled(Runnable fetch) {
+    RunControl.checkCancelled();
+    if (memoryGovernor == null) {
+      fetch.run();
+    } else {
+      memoryGovernor.throttle(fetch);
+    }
+  }
+
   /** If a patient filter is activated, use the corresponding one. */
   protected Set<String> handleFilterPatientRetrieval(
       DataItemContext dataItemContext,
@@ -166,13 +282,32 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
       List<MiiObservation> ukbObservations,
       List<MiiCondition> ukbConditions) {
     if (filterEnabled) {
+      ObservationTable observationTable = runState.getObservationTable(dataItemContext);
+      Map<String, List<String>> qualitativeLabCodes =
+          customGlobalConfiguration.getQualitativeLabCodes();
+      List<String> positiveCodes = qualitativeLabCodes.get(QUALITATIVE_LAB_CODES_POSITIVE);
+      List<String> valueSystems =
+          qualitativeLabCodes.getOrDefault(QUALITATIVE_LAB_CODES_SYSTEMS, List.of(SNOMED));
+      // The table just reflects the given observations if they were retrieved by the observation
+      // stage of this run (and not restored from a checkpoint)
+      boolean useObservationTable =
+          positiveCodes != null && runState.isObservationTableValid(dataItemContext);
       Set<String> patientIdsPositive =
           CoronaResultFunctionality.getPidsPosFinding(
-              ukbObservations,
+              useObservationTable ? List.of() : ukbObservations,
               ukbConditions,
               extractInputCodeSettings(this),
               dataItemContext,
               extractQualitativeLabCodesSettings(this));
+      if (useObservationTable) {
+        // Patients with a qualitative positive finding, scanned without the HAPI objects
+        patientIdsPositive =
+            observationTable
+                .getPatientIds(
+                    observationTable.select(
+                        null, valueSystems, positiveCodes, ObservationTable.NO_DATE))
+                .union(runState.toIdSet(patientIdsPositive));
+      }
       if (!patientIdsPositive.isEmpty()) {
         return patientIdsPositive;
       } else {
@@ -182,7 +317,7 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
             dataItemContext);
       }
     }
-    return patientIds;
+    return runState.getPatientIds();
   }
 
   protected static void addUkbPatientToOutput(
@@ -192,7 +327,7 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
     patientsOutput.add(miiPatient);
   }
 
-  protected void handlePatientRessource(Bundle bundle, Set<MiiPatient> setPatients) {
+  protected void handlePatientRessource(Bundle bundle, ResultCollector<MiiPatient> setPatients) {
     bundle.getEntry().parallelStream()
         .forEach(
             singlePatient -> {
@@ -205,7 +340,8 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
   }
 
   protected void handlePatientRessource(
-      List<Bundle.BundleEntryComponent> bundleEntryComponents, Set<MiiPatient> setPatients) {
+      List<Bundle.BundleEntryComponent> bundleEntryComponents,
+      ResultCollector<MiiPatient> setPatients) {
     bundleEntryComponents.parallelStream()
         .forEach(
             singlePatient -> {
@@ -217,7 +353,13 @@ public abstract class AbstractDataRetrievalService implements DataRetrievalServi
             });
   }
 
+  /**
+   * Logs the failure of a retrieval step, which gets skipped. A {@link
+   * de.ukbonn.mwtek.dashboard.exceptions.RunCancelledException cancellation} is rethrown instead,
+   * since it has to end the run.
+   */
   public void logErrorRetrieval(String resourceType, Exception e) {
+    RunControl.rethrowIfCancelled(e);
     log.error(
         "Retrieval {} resources: Unable to build a json module chain: {}",
         resourceType,
@@ -68,7 +68,10 @@ import de.ukbonn.mwtek.dashboard.interfaces.DataSourceType;
 import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
 import de.ukbonn.mwtek.dashboard.misc.AcuwaveQuerySuffixBuilder;
 import de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
 import de.ukbonn.mwtek.dashboard.misc.ResourceHandler;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.ResultCollector;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
 import de.ukbonn.mwtek.dashboardlogic.enums.NumDashboardConstants.Covid;
 import de.ukbonn.mwtek.dashboardlogic.enums.NumDashboardConstants.KidsRadar;
@@ -231,7 +234,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
   @Override
   public List<Observation> getObservations(DataItemContext dataItemContext) {
 
-    Set<Observation> setObservations = ConcurrentHashMap.newKeySet();
+    ResultCollector<Observation> setObservations = new ResultCollector<>();
 
     setMonths.parallelStream()
         .forEach(
@@ -249,7 +252,10 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                       if (bundleEntry.getResource().getResourceType() == ResourceType.Observation) {
                         Observation obs = (Observation) bundleEntry.getResource();
                         ResourceHandler.storeObservationPatientKeys(
-                            obs, patientIds, encounterIds, this.getServerType());
+                            obs,
+                            getRunState().getPatientIds(),
+                            getRunState().getEncounterIds(),
+                            this.getServerType());
                         setObservations.add(removeNotNeededAttributes(obs));
                       }
                     });
@@ -260,10 +266,11 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                         + " server error: "
                         + e.getMessage());
               } catch (Exception e) {
+                RunControl.rethrowIfCancelled(e);
                 logger.error("Retrieval of the observation resources failed. {}", month, e);
               }
             });
-    return new ArrayList<>(setObservations);
+    return setObservations.toList();
   }
 
   @Override
@@ -274,7 +281,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       QualitativeLabCodesSettings qualitativeLabCodesSettings)
       throws RestClientException {
 
-    Set<MiiObservation> observations = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiObservation> observations = new ResultCollector<>();
     Set<String> encounterCaseIds =
         encounters.stream().map(CaseIdentifierValueProvider::getCaseId).collect(Collectors.toSet());
 
@@ -299,7 +306,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                         Observation obs = (Observation) bundleEntry.getResource();
                         removeNotNeededAttributes(obs);
                         MiiObservation ukbObservation =
-                            (MiiObservation) ResourceConverter.convert(obs);
+                            (MiiObservation) MiiResourceTypes.toMii(obs);
 
                         switch (dataItemContext) {
                           case KIDS_RADAR, KIDS_RADAR_PED -> {
@@ -324,17 +331,18 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
               }
             });
 
+    List<MiiObservation> result = observations.toList();
     log.debug(
         "{}/{} observations were filtered out because no 'positive' result were found.",
         nonPositiveCount.get(),
-        observations.size() + nonPositiveCount.get());
+        result.size() + nonPositiveCount.get());
 
-    return new ArrayList<>(observations);
+    return result;
   }
 
   @Override
   public List<Condition> getConditions(DataItemContext dataItemContext) {
-    Set<Condition> setConditions = ConcurrentHashMap.newKeySet();
+    ResultCollector<Condition> setConditions = new ResultCollector<>();
 
     setMonths.parallelStream()
         .forEach(
@@ -352,7 +360,10 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                       if (bundleEntry.getResource().getResourceType() == ResourceType.Condition) {
                         Condition cond = (Condition) bundleEntry.getResource();
                         ResourceHandler.storeConditionPatientKeys(
-                            cond, patientIds, encounterIds, this.getServerType());
+                            cond,
+                            getRunState().getPatientIds(),
+                            getRunState().getEncounterIds(),
+                            this.getServerType());
                         setConditions.add(removeNotNeededAttributes(cond));
                       }
                     });
@@ -360,14 +371,14 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                 logErrorRetrieval("Condition", e);
               }
             });
-    return new ArrayList<>(setConditions);
+    return setConditions.toList();
   }
 
   @Override
   public List<MiiCondition> getConditions(
       Collection<MiiEncounter> encounters, DataItemContext dataItemContext)
       throws RestClientException, OutOfMemoryError {
-    Set<MiiCondition> setConditions = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiCondition> setConditions = new ResultCollector<>();
     Set<String> encounterCaseIds =
         encounters.stream().map(CaseIdentifierValueProvider::getCaseId).collect(Collectors.toSet());
     AtomicInteger filteredConditions = new AtomicInteger(0);
@@ -388,7 +399,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                       if (bundleEntry.getResource().getResourceType() == ResourceType.Condition) {
                         Condition cond = (Condition) bundleEntry.getResource();
                         removeNotNeededAttributes(cond);
-                        MiiCondition ukbCondition = (MiiCondition) ResourceConverter.convert(cond);
+                        MiiCondition ukbCondition = (MiiCondition) MiiResourceTypes.toMii(cond);
                         switch (dataItemContext) {
                           case ACRIBIS -> {
                             if (isConditionNeededForAcribis(ukbCondition)) {
@@ -418,7 +429,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
     log.debug(
         "{} condition resources got filtered because no needed icd code was found.",
         filteredConditions.get());
-    return new ArrayList<>(setConditions);
+    return setConditions.toList();
   }
 
   @Override
@@ -428,33 +439,35 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       DataItemContext dataItemContext) {
 
     // A query is only useful if at least one patient id is specified.
-    if (!patientIdsCouldBeFound(patientIds, ResourceType.Patient)) {
+    if (!patientIdsCouldBeFound(getRunState().getPatientIds(), ResourceType.Patient)) {
       return new ArrayList<>();
     }
 
-    Set<MiiPatient> patientsOutput = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiPatient> patientsOutput = new ResultCollector<>();
     // Since the patient (and thus also the encounter) resources are just relevant for statistics
     // of SARS-CoV-2 patient it reduces the amount of encounter by a lot if its getting
     // prefiltered before
     switch (dataItemContext) {
       case COVID ->
-          patientIds =
-              handleFilterPatientRetrieval(
-                  dataItemContext,
-                  this.acuwaveSearchConfiguration.getFilterPatientRetrieval(),
-                  ukbObservations,
-                  ukbConditions);
+          getRunState()
+              .setPatientIds(
+                  handleFilterPatientRetrieval(
+                      dataItemContext,
+                      this.acuwaveSearchConfiguration.getFilterPatientRetrieval(),
+                      ukbObservations,
+                      ukbConditions));
       case INFLUENZA ->
-          patientIds =
-              handleFilterPatientRetrieval(
-                  dataItemContext,
-                  this.acuwaveSearchConfiguration.getInfluenzaFilterPatientRetrieval(),
-                  ukbObservations,
-                  ukbConditions);
+          getRunState()
+              .setPatientIds(
+                  handleFilterPatientRetrieval(
+                      dataItemContext,
+                      this.acuwaveSearchConfiguration.getInfluenzaFilterPatientRetrieval(),
+                      ukbObservations,
+                      ukbConditions));
     }
 
     // Splitting the entire list into smaller lists to parallelize requests
-    Set<String> stablePatientIds = new HashSet<>(patientIds);
+    Set<String> stablePatientIds = new HashSet<>(getRunState().getPatientIds());
     List<List<String>> patientIdSubLists =
         splitList(new ArrayList<>(stablePatientIds), this.getBatchSize());
 
@@ -473,13 +486,13 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                 logErrorRetrieval("Patient", e);
               }
             });
-    return new ArrayList<>(patientsOutput);
+    return patientsOutput.toList();
   }
 
   @Override
   public List<MiiPatient> getPatients(Integer maxAgeAtCutOffDate, DataItemContext dataItemContext) {
 
-    Set<MiiPatient> patientsOutput = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiPatient> patientsOutput = new ResultCollector<>();
     LocalDate startingDate;
     // Since the patient (and thus also the encounter) resources are just relevant for statistics
     // of SARS-CoV-2 patient, it reduces the amount of encounter by a lot if its getting
@@ -514,12 +527,14 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
             });
 
     // The patient ids will be the input filter of further calls in the pipeline
-    patientIds =
-        patientsOutput.stream()
-            .map(PatientIdentifierValueProvider::getPatientId)
-            .collect(Collectors.toSet());
-
-    return new ArrayList<>(patientsOutput);
+    List<MiiPatient> patients = patientsOutput.toList();
+    getRunState()
+        .setPatientIds(
+            patients.stream()
+                .map(PatientIdentifierValueProvider::getPatientId)
+                .collect(Collectors.toSet()));
+
+    return patients;
   }
 
   @Override
@@ -527,11 +542,11 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       List<MiiProcedure> ukbProcedures, List<MiiCondition> ukbConditions) {
 
     // A query is only useful if at least one patient id is specified.
-    if (!patientIdsCouldBeFound(patientIds, ResourceType.Patient)) {
+    if (!patientIdsCouldBeFound(getRunState().getPatientIds(), ResourceType.Patient)) {
       return new ArrayList<>();
     }
     List<String> patientIds = getPidsByProceduresAndConditions(ukbProcedures, ukbConditions);
-    Set<MiiPatient> patientsOutput = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiPatient> patientsOutput = new ResultCollector<>();
 
     // Splitting the entire list into smaller lists to parallelize requests
     List<List<String>> patientIdSubLists =
@@ -553,20 +568,21 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                 logErrorRetrieval("Patient", e);
               }
             });
-    return new ArrayList<>(patientsOutput);
+    return patientsOutput.toList();
   }
 
   @Override
   public List<MiiEncounter> getEncounters(DataItemContext dataItemContext) {
-    Set<MiiEncounter> setEncounters = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiEncounter> setEncounters = new ResultCollector<>();
 
     // A query is only useful if at least one patient id is specified.
-    if (!patientIdsCouldBeFound(patientIds, ResourceType.Encounter)) {
+    if (!patientIdsCouldBeFound(getRunState().getPatientIds(), ResourceType.Encounter)) {
       return new ArrayList<>();
     }
 
     // Splitting the entire list into smaller lists to parallelize requests
-    List<List<String>> patientIdSubLists = safeSplit(patientIds, this.getBatchSize());
+    List<List<String>> patientIdSubLists =
+        safeSplit(getRunState().getPatientIds(), this.getBatchSize());
 
     patientIdSubLists.parallelStream()
         .forEach(
@@ -598,11 +614,11 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
 
     // ACRIBIS project just needs facility contacts
     if (dataItemContext == ACRIBIS)
-      return setEncounters.stream()
+      return setEncounters.toList().stream()
           .filter(ResourceHandler::isEncounterInpatientFacilityContact)
           .toList();
 
-    return new ArrayList<>(setEncounters);
+    return setEncounters.toList();
   }
 
   @Override
@@ -618,13 +634,15 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
   }
 
   private void handleEncounterEntry(
-      BundleEntryComponent bundleEntry, Set<MiiEncounter> setEncounters) {
+      BundleEntryComponent bundleEntry, ResultCollector<MiiEncounter> setEncounters) {
     Encounter encounter = (Encounter) bundleEntry.getResource();
     encounter
         .getLocation()
-        .forEach(loc -> locationIds.add(loc.getLocation().getReference().split("/")[1]));
+        .forEach(
+            loc ->
+                getRunState().getLocationIds().add(loc.getLocation().getReference().split("/")[1]));
     setEncounters.add(
-        (MiiEncounter) ResourceConverter.convert(removeNotNeededAttributes(encounter)));
+        (MiiEncounter) MiiResourceTypes.toMii(removeNotNeededAttributes(encounter)));
   }
 
   @Override
@@ -635,7 +653,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
   @Override
   public List<MiiProcedure> getProcedures(
       Collection<MiiEncounter> encounters, DataItemContext dataItemContext) {
-    Set<MiiProcedure> setProcedures = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiProcedure> setProcedures = new ResultCollector<>();
     Set<String> encounterCaseIds =
         encounters.stream().map(CaseIdentifierValueProvider::getCaseId).collect(Collectors.toSet());
     AtomicInteger filteredProcedures = new AtomicInteger(0);
@@ -670,7 +688,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
     log.debug(
         "{} procedure resources got filtered because a non used ops code was found.",
         filteredProcedures.get());
-    return new ArrayList<>(setProcedures);
+    return setProcedures.toList();
   }
 
   @Override
@@ -678,7 +696,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       Collection<MiiEncounter> encounters,
       DataItemContext dataItemContext,
       Boolean activeEncountersOnly) {
-    Set<MiiProcedure> setProcedures = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiProcedure> setProcedures = new ResultCollector<>();
     Set<String> encounterCaseIds =
         encounters.stream().map(CaseIdentifierValueProvider::getCaseId).collect(Collectors.toSet());
     AtomicInteger filteredProcedures = new AtomicInteger(0);
@@ -731,7 +749,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
     log.debug(
         "{} procedure resources got filtered because a non used snomed code was found.",
         filteredProcedures.get());
-    return new ArrayList<>(setProcedures);
+    return setProcedures.toList();
   }
 
   @Override
@@ -744,11 +762,11 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
 
     // If no case ids could be found, no procedures need to be determined, because the evaluation
     // logic is based on data from the encounter resource.
-    if (!patientIdsCouldBeFound(encounterIds, ResourceType.Procedure)) {
+    if (!patientIdsCouldBeFound(getRunState().getEncounterIds(), ResourceType.Procedure)) {
       return new ArrayList<>();
     }
 
-    Set<MiiProcedure> setProcedures = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiProcedure> setProcedures = new ResultCollector<>();
 
     // The finally used encounter id list which can differ from the original encounter id list
     // due to filtering steps
@@ -820,13 +838,13 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
     } else
     // use total list then
     {
-      encounterIdsInput = encounterIds;
+      encounterIdsInput = getRunState().getEncounterIds();
     }
 
     List<List<String>> encounterIdSubLists =
         splitList(new ArrayList<>(encounterIdsInput), this.getBatchSize());
     // A query is only useful if at least one encounter id is specified.
-    if (!encounterIds.isEmpty()) {
+    if (!getRunState().getEncounterIds().isEmpty()) {
       encounterIdSubLists.parallelStream()
           .forEach(
               encounterIds -> {
@@ -862,7 +880,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
               + " input filters (Observation + Condition).");
     }
 
-    return new ArrayList<>(setProcedures);
+    return setProcedures.toList();
   }
 
   private static boolean doesEncounterLinkToAnyIcuLocation(
@@ -896,14 +914,14 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
 
     // If no case ids could be found, no procedures need to be determined, because the evaluation
     // logic is based on data from the encounter resource.
-    if (!locationIdsCouldBeFound(locationIds, ResourceType.Location)) {
+    if (!locationIdsCouldBeFound(getRunState().getLocationIds(), ResourceType.Location)) {
       return new ArrayList<>();
     }
 
-    Set<Location> setLocations = ConcurrentHashMap.newKeySet();
+    ResultCollector<Location> setLocations = new ResultCollector<>();
     // the location module requires location id as number
     List<Integer> locationIdsNumber =
-        locationIds.stream().map(Integer::parseInt).collect(Collectors.toList());
+        getRunState().getLocationIds().stream().map(Integer::parseInt).collect(Collectors.toList());
     List<List<Integer>> locationIdSublists = splitList(locationIdsNumber, getBatchSize());
 
     locationIdSublists.parallelStream()
@@ -927,7 +945,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                 logErrorRetrieval("Location", e);
               }
             });
-    return new ArrayList<>(setLocations);
+    return setLocations.toList();
   }
 
   @Override
@@ -941,7 +959,11 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       listTemp.forEach(
           bundleEntry ->
               addValidConsentEntries(
-                  consents, miiEncounters, patientIds, ServerTypeEnum.ACUWAVE, bundleEntry));
+                  consents,
+                  miiEncounters,
+                  getRunState().getPatientIds(),
+                  ServerTypeEnum.ACUWAVE,
+                  bundleEntry));
     } catch (Exception e) {
       logErrorRetrieval("Retrieval consent resources: Unable to build a json module chain: {}", e);
     }
@@ -972,7 +994,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       return new ArrayList<>();
     }
 
-    Set<MiiQuestionnaireResponse> fhirResources = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiQuestionnaireResponse> fhirResources = new ResultCollector<>();
 
     List<List<String>> patientIdSubLists =
         splitList(new ArrayList<>(patientIds), this.getBatchSize());
@@ -1010,7 +1032,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
               + " determined.");
     }
 
-    return new ArrayList<>(fhirResources);
+    return fhirResources.toList();
   }
 
   public final ServerTypeEnum getServerType() {
@@ -1024,7 +1046,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
 
   @Override
   public List<Encounter> getIcuEncounters() throws SearchException {
-    Set<Encounter> encounters = ConcurrentHashMap.newKeySet();
+    ResultCollector<Encounter> encounters = new ResultCollector<>();
 
     try {
       // If case ids are set in the settings file the search will run case by case, not periodically
@@ -1074,11 +1096,12 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
       }
 
     } catch (Exception e) {
+      RunControl.rethrowIfCancelled(e);
       // Rethrow the exception as a more specific exception
       throw new SearchException("Error occurred while searching for ICU encounters", e);
     }
 
-    return new ArrayList<>(encounters);
+    return encounters.toList();
   }
 
   /**
@@ -1119,7 +1142,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                               // "getCaseId"
                               // method
                               MiiEncounter miiEncounter =
-                                  (MiiEncounter) ResourceConverter.convert(encounter);
+                                  (MiiEncounter) MiiResourceTypes.toMii(encounter);
                               encounter
                                   .getEpisodeOfCare()
                                   .forEach(
@@ -1132,6 +1155,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
                         });
               });
     } catch (Exception e) {
+      RunControl.rethrowIfCancelled(e);
       // Rethrow the exception as a more specific exception
       throw new SearchException("Error occurred while searching for ICU episodes", e);
     }
@@ -1218,6 +1242,7 @@ public class AcuwaveDataRetrievalService extends AbstractDataRetrievalService {
   }
 
   private void logErrorMessageRenalReplacement(Exception e) {
+    RunControl.rethrowIfCancelled(e);
     logger.error(
         "Error while getting and processing the renal replacement resources: {}", e.getMessage());
   }
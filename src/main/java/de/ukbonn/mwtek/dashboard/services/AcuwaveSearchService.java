@@ -25,6 +25,9 @@ import ca.uhn.fhir.parser.IParser;
 import de.ukbonn.mwtek.dashboard.auth.RestConsumer;
 import de.ukbonn.mwtek.dashboard.configuration.AcuwaveServerRestConfiguration;
 import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.r4.model.Bundle;
@@ -33,6 +36,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -67,7 +71,8 @@ public class AcuwaveSearchService extends RestConsumer implements SearchService
    */
   public List<Bundle.BundleEntryComponent> getBundleData(
       String querySuffix, HttpMethod httpMethod, String resourceType) {
-    IParser parser = ctx.newJsonParser();
+    RunControl.checkCancelled();
+    IParser parser = MiiResourceTypes.newJsonParser(ctx);
     String acuwaveServerEndpoint = this.acuwaveServerConf.getRestUrl();
 
     RestTemplate rest = this.getRestTemplate();
@@ -77,6 +82,9 @@ public class AcuwaveSearchService extends RestConsumer implements SearchService
       ResponseEntity<String> searchRequest = rest.getForEntity(queryUrl, String.class);
       Bundle requestBundle = parser.parseResource(Bundle.class, searchRequest.getBody());
       return requestBundle.getEntry();
+    } catch (ResourceAccessException ex) {
+      // Timeouts and connection failures must not be mistaken for empty results
+      throw ex;
     } catch (Exception ex) {
       logParsingResourceException(ex, queryUrl);
     }
@@ -88,11 +96,24 @@ public class AcuwaveSearchService extends RestConsumer implements SearchService
     return null;
   }
 
+  /** The Acuwave retrieval neither uses paging nor prefilters. */
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    return getInitialBundle(querySuffix, httpMethod, resourceType);
+  }
+
   @Override
   public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
     return null;
   }
 
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    return getBundlePart(linkToNextPart, httpMethod);
+  }
+
   @Override
   public CapabilityStatement getCapabilityStatement(
       String querySuffix, HttpMethod httpMethod, String resourceType) {
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import de.ukbonn.mwtek.dashboard.configuration.BulkExportConfiguration;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.ResultJsonWriter;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Client of the FHIR Bulk Data API. An export gets kicked off via <code>$export</code> (system- or
+ * group-level) with <code>_type</code> and <code>_typeFilter</code>, the status endpoint is polled
+ * until the export is complete and the NDJSON files of the manifest are streamed in parallel,
+ * line by line, to a resource consumer. So the resources of a file never need to be held in memory
+ * as a whole.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class BulkExportClient {
+
+  public static final MediaType FHIR_JSON = MediaType.parseMediaType("application/fhir+json");
+  public static final MediaType FHIR_NDJSON = MediaType.parseMediaType("application/fhir+ndjson");
+  public static final String PREFER_RESPOND_ASYNC = "respond-async";
+  private static final String EXPORT_OPERATION = "$export";
+  private static final String PREFER = "Prefer";
+  private static final String RETRY_AFTER = "Retry-After";
+  private static final String X_PROGRESS = "X-Progress";
+  private static final Duration CANCELLATION_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+  /** Creating a fhir context is expensive, so it's done once and only if an export is used. */
+  private static final class FhirContextHolder {
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+  }
+
+  private final Supplier<RestTemplate> restTemplate;
+  private final String baseUrl;
+  private final BulkExportConfiguration bulkExportConfiguration;
+
+  /**
+   * Creates a client of the FHIR server.
+   *
+   * @param restTemplate Provides the (authenticated) rest template of the FHIR server.
+   * @param baseUrl The base url of the FHIR server.
+   * @param bulkExportConfiguration The settings of the export.
+   */
+  public BulkExportClient(
+      Supplier<RestTemplate> restTemplate,
+      String baseUrl,
+      BulkExportConfiguration bulkExportConfiguration) {
+    this.restTemplate = restTemplate;
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.bulkExportConfiguration = bulkExportConfiguration;
+  }
+
+  /**
+   * Exports the resources of the given types and passes them to the consumer. The consumer gets
+   * called from several threads in parallel. Once the server accepted the export, it gets deleted
+   * on the server afterward, even if the export failed or the run was cancelled.
+   *
+   * @param resourceTypes The resource types to export.
+   * @param typeFilters FHIR search queries (e.g. <code>Observation?code=1234-5</code>) that
+   *     restrict the exported resources; the filters of a type are combined with OR. Parameters
+   *     that start with an underscore (e.g. <code>_count</code>) are removed.
+   * @param resourceConsumer Receives the exported resources.
+   * @return The number of exported resources.
+   */
+  public long export(
+      Collection<ResourceType> resourceTypes,
+      Collection<String> typeFilters,
+      Consumer<Resource> resourceConsumer) {
+    URI statusUri = kickOff(resourceTypes, typeFilters);
+    try {
+      JsonNode manifest = awaitManifest(statusUri);
+      List<String> outputUrls = new ArrayList<>();
+      manifest.path("output").forEach(output -> outputUrls.add(output.path("url").asText()));
+      manifest
+          .path("error")
+          .forEach(error -> log.warn("Bulk export error file: {}", error.path("url").asText()));
+      log.info("Bulk export of {} complete with {} files", resourceTypes, outputUrls.size());
+      return download(outputUrls, resourceConsumer);
+    } finally {
+      // Otherwise the export job and its files would remain on the server
+      deleteExport(statusUri);
+    }
+  }
+
+  /** Removes the parameters that are not allowed within a <code>_typeFilter</code>. */
+  static String toTypeFilter(String query) {
+    int questionMark = query.indexOf('?');
+    String type = query.substring(0, questionMark + 1);
+    String parameters =
+        List.of(query.substring(questionMark + 1).split("&")).stream()
+            .filter(parameter -> !parameter.isBlank() && !parameter.startsWith("_"))
+            .collect(Collectors.joining("&"));
+    return type + parameters;
+  }
+
+  private URI kickOff(Collection<ResourceType> resourceTypes, Collection<String> typeFilters) {
+    StringBuilder url = new StringBuilder(baseUrl);
+    if (bulkExportConfiguration.getGroupId() != null) {
+      url.append("/Group/").append(bulkExportConfiguration.getGroupId());
+    }
+    url.append('/').append(EXPORT_OPERATION);
+    url.append("?_outputFormat=").append(encode(FHIR_NDJSON.toString()));
+    String types = resourceTypes.stream().map(ResourceType::name).collect(Collectors.joining(","));
+    url.append("&_type=").append(encode(types));
+    typeFilters.forEach(
+        typeFilter -> url.append("&_typeFilter=").append(encode(toTypeFilter(typeFilter))));
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setAccept(List.of(FHIR_JSON));
+    headers.set(PREFER, PREFER_RESPOND_ASYNC);
+    RunControl.checkCancelled();
+    ResponseEntity<String> response =
+        restTemplate
+            .get()
+            .exchange(
+                URI.create(url.toString()),
+                HttpMethod.GET,
+                new HttpEntity<>(headers),
+                String.class);
+    String contentLocation = response.getHeaders().getFirst(HttpHeaders.CONTENT_LOCATION);
+    if (response.getStatusCode() != HttpStatus.ACCEPTED || contentLocation == null) {
+      throw new RestClientException(
+          "The bulk export was not accepted by the server (status "
+              + response.getStatusCode()
+              + ")");
+    }
+    log.debug("Bulk export kicked off: {}", url);
+    return URI.create(contentLocation);
+  }
+
+  private JsonNode awaitManifest(URI statusUri) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+    while (true) {
+      RunControl.checkCancelled();
+      ResponseEntity<String> response =
+          restTemplate
+              .get()
+              .exchange(statusUri, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+      if (response.getStatusCode() == HttpStatus.OK) {
+        try {
+          return ResultJsonWriter.MAPPER.readTree(response.getBody());
+        } catch (IOException e) {
+          throw new RestClientException("Unreadable bulk export manifest", e);
+        }
+      }
+      log.debug(
+          "Bulk export in progress: {}",
+          response.getHeaders().getFirst(X_PROGRESS) != null
+              ? response.getHeaders().getFirst(X_PROGRESS)
+              : response.getStatusCode());
+      waitFor(retryAfter(response.getHeaders()));
+    }
+  }
+
+  /** The delay of the next status request; the Retry-After header is used if given in seconds. */
+  private Duration retryAfter(HttpHeaders headers) {
+    String retryAfter = headers.getFirst(RETRY_AFTER);
+    if (retryAfter != null) {
+      try {
+        return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+      } catch (NumberFormatException e) {
+        // An http date is not worth the parsing; the configured interval is used instead
+      }
+    }
+    return bulkExportConfiguration.getPollInterval();
+  }
+
+  /** Waits while checking the cancellation of the run. */
+  private static void waitFor(Duration duration) {
+    long end = System.nanoTime() + duration.toNanos();
+    long remaining;
+    while ((remaining = end - System.nanoTime()) > 0) {
+      RunControl.checkCancelled();
+      try {
+        Thread.sleep(Math.min(remaining / 1_000_000 + 1, CANCELLATION_CHECK_INTERVAL.toMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for the bulk export", e);
+      }
+    }
+  }
+
+  /** Streams the export files in parallel to the consumer. */
+  private long download(List<String> outputUrls, Consumer<Resource> resourceConsumer) {
+    int parallelDownloads =
+        Math.min(bulkExportConfiguration.getParallelDownloads(), outputUrls.size());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelDownloads));
+    try {
+      List<Callable<Long>> downloads =
+          outputUrls.stream()
+              .<Callable<Long>>map(outputUrl -> () -> downloadFile(outputUrl, resourceConsumer))
+              .toList();
+      long exportedResources = 0;
+      for (Future<Long> download : executor.invokeAll(downloads)) {
+        exportedResources += download.get();
+      }
+      return exportedResources;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while downloading the bulk export", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException("Download of the bulk export failed", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long downloadFile(String outputUrl, Consumer<Resource> resourceConsumer) {
+    Long parsedResources =
+        restTemplate
+            .get()
+            .execute(
+                URI.create(outputUrl),
+                HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(FHIR_NDJSON)),
+                response -> {
+                  // Parsers are not thread-safe, but cheap to create
+                  IParser parser = MiiResourceTypes.newJsonParser(FhirContextHolder.FHIR_CONTEXT);
+                  long count = 0;
+                  try (BufferedReader reader =
+                      new BufferedReader(
+                          new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                      RunControl.checkCancelled();
+                      if (!line.isBlank()) {
+                        resourceConsumer.accept((Resource) parser.parseResource(line));
+                        count++;
+                      }
+                    }
+                  } catch (IOException e) {
+                    throw new UncheckedIOException("Download of " + outputUrl + " failed", e);
+                  }
+                  return count;
+                });
+    log.debug("Bulk export file {}: {} resources", outputUrl, parsedResources);
+    return parsedResources == null ? 0 : parsedResources;
+  }
+
+  /**
+   * Signals the server that the export job and its files are no longer needed. Failures are just
+   * logged, so they don't hide the outcome of the export itself.
+   */
+  private void deleteExport(URI statusUri) {
+    try {
+      restTemplate.get().delete(statusUri);
+    } catch (RuntimeException e) {
+      log.warn("Unable to delete the bulk export {}: {}", statusUri, e.getMessage());
+    }
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.CheckpointConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.ConfigurationFingerprint;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Management of the {@link StageCheckpoints} of the export runs. The checkpoints of a run are kept
+ * in a directory that is keyed by the run id (the requested contexts) and the configuration hash,
+ * so a repeated run with the same scopes and settings resumes a former run that failed.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class CheckpointService {
+
+  private final CheckpointConfiguration checkpointConfiguration;
+  private final ConfigurationFingerprint configurationFingerprint;
+
+  public CheckpointService(
+      CheckpointConfiguration checkpointConfiguration,
+      ConfigurationFingerprint configurationFingerprint) {
+    this.checkpointConfiguration = checkpointConfiguration;
+    this.configurationFingerprint = configurationFingerprint;
+  }
+
+  /**
+   * Starts a run.
+   *
+   * @param contexts The contexts that are generated in the run.
+   * @return The checkpoints of the run or <code>null</code> if checkpointing is deactivated.
+   */
+  public StageCheckpoints beginRun(Set<DataItemContext> contexts) {
+    if (!checkpointConfiguration.getEnabled()) {
+      return null;
+    }
+    String runId =
+        contexts.stream().map(Enum::name).sorted().collect(Collectors.joining("_"))
+            + "-"
+            + configurationFingerprint.getHash();
+    Path runDirectory = Path.of(checkpointConfiguration.getDirectory(), runId);
+    if (Files.isDirectory(runDirectory)) {
+      log.info("Checkpoints of a former run found in {}; trying to resume it.", runDirectory);
+    }
+    return new StageCheckpoints(runDirectory, checkpointConfiguration.getMaxAge());
+  }
+
+  /**
+   * Completes a run. Its checkpoints are no longer needed.
+   *
+   * @param stageCheckpoints The checkpoints of the run (may be <code>null</code>).
+   */
+  public void complete(StageCheckpoints stageCheckpoints) {
+    if (stageCheckpoints == null || !Files.isDirectory(stageCheckpoints.getRunDirectory())) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(stageCheckpoints.getRunDirectory())) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      log.warn(
+          "Unable to delete the checkpoints in {}: {}",
+          stageCheckpoints.getRunDirectory(),
+          e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Decorator of a {@link SearchService} that coalesces identical searches that are in flight at the
+ * same time (same operation, http method and query suffix or POST body) into a single server
+ * request. This happens e.g. if parallel batch workers or consecutive stages ask for the same
+ * location batch or bundle page.
+ *
+ * <p>The first caller executes the request, all others wait for its result. Since the parsed
+ * resources get modified in the further processing, each caller of a coalesced request receives
+ * its own deep copy. A failure of the request is passed to all waiting callers. Nothing is cached
+ * beyond the duration of the request.
+ *
+ * <p>The number of executed and coalesced requests is exposed as the metric <code>
+ * dashboard.search.requests</code> with the tag <code>outcome</code>.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class CoalescingSearchService implements SearchService, MeterBinder {
+
+  private final SearchService delegate;
+  private final Map<RequestKey, InFlightRequest> requestsInFlight = new ConcurrentHashMap<>();
+  private final LongAdder executedRequests = new LongAdder();
+  private final LongAdder coalescedRequests = new LongAdder();
+
+  public CoalescingSearchService(SearchService delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public List<BundleEntryComponent> getBundleData(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return coalesce(
+        new RequestKey("bundleData", httpMethod, querySuffix, resourceType),
+        () -> delegate.getBundleData(querySuffix, httpMethod, resourceType),
+        entries -> entries.stream().map(BundleEntryComponent::copy).toList());
+  }
+
+  @Override
+  public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return getInitialBundle(querySuffix, httpMethod, resourceType, null);
+  }
+
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    return coalesce(
+        new RequestKey(
+            operation("initialBundle", prefilter), httpMethod, querySuffix, resourceType),
+        () -> delegate.getInitialBundle(querySuffix, httpMethod, resourceType, prefilter),
+        Bundle::copy);
+  }
+
+  @Override
+  public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
+    return getBundlePart(linkToNextPart, httpMethod, null);
+  }
+
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    return coalesce(
+        new RequestKey(operation("bundlePart", prefilter), httpMethod, linkToNextPart, null),
+        () -> delegate.getBundlePart(linkToNextPart, httpMethod, prefilter),
+        Bundle::copy);
+  }
+
+  /** Prefiltered results differ from the unfiltered ones and are coalesced per stage only. */
+  private static String operation(String operation, BundlePrefilter prefilter) {
+    return prefilter == null ? operation : operation + ":" + prefilter.getStage();
+  }
+
+  @Override
+  public CapabilityStatement getCapabilityStatement(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return coalesce(
+        new RequestKey("capabilityStatement", httpMethod, querySuffix, resourceType),
+        () -> delegate.getCapabilityStatement(querySuffix, httpMethod, resourceType),
+        CapabilityStatement::copy);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("dashboard.search.requests", executedRequests, LongAdder::sum)
+        .tag("outcome", "executed")
+        .description("Search requests that were sent to the server")
+        .register(registry);
+    FunctionCounter.builder("dashboard.search.requests", coalescedRequests, LongAdder::sum)
+        .tag("outcome", "coalesced")
+        .description("Search requests that were answered by an identical request in flight")
+        .register(registry);
+  }
+
+  /** The number of search requests that were sent to the server. */
+  public long getExecutedRequests() {
+    return executedRequests.sum();
+  }
+
+  /** The number of search requests that were answered by an identical request in flight. */
+  public long getCoalescedRequests() {
+    return coalescedRequests.sum();
+  }
+
+  /**
+   * Executes the request or waits for the identical request that is already in flight.
+   *
+   * @param requestKey The identity of the request.
+   * @param request The server request.
+   * @param copy Creates an independent copy of the result for a caller.
+   * @return The result of the request.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T coalesce(RequestKey requestKey, Supplier<T> request, UnaryOperator<T> copy) {
+    InFlightRequest ownRequest = new InFlightRequest();
+    // Registering as a waiter is atomic with the removal of the request, so the waiter count is
+    // final as soon as the request is no longer in flight
+    InFlightRequest requestInFlight =
+        requestsInFlight.compute(
+            requestKey, (key, existing) -> existing == null ? ownRequest : existing.addWaiter());
+    if (requestInFlight != ownRequest) {
+      coalescedRequests.increment();
+      log.trace("Coalescing the search request {}", requestKey);
+      try {
+        T result = (T) requestInFlight.result().join();
+        return result == null ? null : copy.apply(result);
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+          throw runtimeException;
+        }
+        throw e;
+      }
+    }
+    executedRequests.increment();
+    T result;
+    try {
+      result = request.get();
+    } catch (RuntimeException | Error e) {
+      requestsInFlight.remove(requestKey, ownRequest);
+      ownRequest.result().completeExceptionally(e);
+      throw e;
+    }
+    requestsInFlight.remove(requestKey, ownRequest);
+    ownRequest.result().complete(result);
+    // The original result stays untouched as long as waiting callers copy it
+    return ownRequest.waiters().get() == 0 || result == null ? result : copy.apply(result);
+  }
+
+  /** A request in flight with the number of callers that wait for its result. */
+  private record InFlightRequest(CompletableFuture<Object> result, AtomicInteger waiters) {
+
+    private InFlightRequest() {
+      this(new CompletableFuture<>(), new AtomicInteger());
+    }
+
+    private InFlightRequest addWaiter() {
+      waiters.incrementAndGet();
+      return this;
+    }
+  }
+
+  /** The identity of a search request. */
+  private record RequestKey(
+      String operation, HttpMethod httpMethod, String query, String resourceType) {}
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.AUTHOR;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.CURRENT_DDP_VERSION;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.DASHBOARD_DATASET_VERSION;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.DDP_VERSION;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.EXPORT_TIMESTAMP;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.FILE_GENERATED_BY;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.FILE_GENERATOR;
+import static de.ukbonn.mwtek.dashboard.controller.DataRetrievalController.PROVIDER;
+import static de.ukbonn.mwtek.dashboard.controller.UkbModelController.generateUkbModelData;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.ACRIBIS;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.BCT;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.COVID;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.INFLUENZA;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR_KJP;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.KIDS_RADAR_PED;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.SNID;
+import static de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext.UKB_MODEL;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.ukbonn.mwtek.dashboard.configuration.CustomGlobalConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.DataItemsConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.ReportsConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.VariantConfiguration;
+import de.ukbonn.mwtek.dashboard.controller.AcribisDataController;
+import de.ukbonn.mwtek.dashboard.controller.BctDataController;
+import de.ukbonn.mwtek.dashboard.controller.CovidDataController;
+import de.ukbonn.mwtek.dashboard.controller.InfluenzaDataController;
+import de.ukbonn.mwtek.dashboard.controller.KiRaDataController;
+import de.ukbonn.mwtek.dashboard.exceptions.RunCancelledException;
+import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer;
+import de.ukbonn.mwtek.dashboard.misc.LoggingHelper;
+import de.ukbonn.mwtek.dashboard.misc.ProcessTimer;
+import de.ukbonn.mwtek.dashboard.misc.ResourceInterner;
+import de.ukbonn.mwtek.dashboard.misc.ResultJsonWriter;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import de.ukbonn.mwtek.dashboardlogic.models.DiseaseDataItem;
+import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.RenalReplacementRiskDataGenerator;
+import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.enums.RenalReplacementRiskParameters;
+import de.ukbonn.mwtek.dashboardlogic.predictiondata.ukb.renalreplacement.models.CoreBaseDataItem;
+import de.ukbonn.mwtek.dashboardlogic.settings.InputCodeSettings;
+import de.ukbonn.mwtek.dashboardlogic.settings.QualitativeLabCodesSettings;
+import de.ukbonn.mwtek.utilities.generic.time.DateTools;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service that runs the whole dashboard workflow (data retrieval, processing and generation of the
+ * data items) for a given set of {@link DataItemContext contexts}. Used by the /createJson endpoint
+ * and every other component that needs a complete export.
+ *
+ * <p>Since parts of the workflow (e.g. the abort status in {@link LoggingHelper}) are held in
+ * static fields, runs are executed one after another and never in parallel.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class DashboardExportService {
+
+  private final DataRetrievalServiceProvider dataRetrievalServiceProvider;
+  private final ProviderService providerService;
+  private final IncrementalRetrieval incrementalRetrieval;
+  private final CheckpointService checkpointService;
+  @Autowired private CustomGlobalConfiguration customGlobalConfiguration;
+  @Autowired private DataItemsConfiguration exclDataItems;
+  @Autowired private ReportsConfiguration reportConfiguration;
+  @Autowired private VariantConfiguration variantConfiguration;
+
+  /** Lock that guarantees that only one workflow is running at a time. */
+  private final ReentrantLock runLock = new ReentrantLock();
+
+  @Autowired
+  public DashboardExportService(
+      DataRetrievalServiceProvider dataRetrievalServiceProvider,
+      ProviderService providerService,
+      IncrementalRetrieval incrementalRetrieval,
+      CheckpointService checkpointService) {
+    this.dataRetrievalServiceProvider = dataRetrievalServiceProvider;
+    this.providerService = providerService;
+    this.incrementalRetrieval = incrementalRetrieval;
+    this.checkpointService = checkpointService;
+  }
+
+  /**
+   * Determination of the contexts that need to be generated. If any scope is activated via rest
+   * parametrization, the yaml settings are overwritten.
+   *
+   * @param scopes a list of scope names (e.g. "covid" or "kiradar_ped"), which may be
+   *     <code>null</code>
+   * @return The effective set of contexts that need to be generated. The kids radar scope is
+   *     resolved into its sub-contexts {@link DataItemContext#KIDS_RADAR_PED} and {@link
+   *     DataItemContext#KIDS_RADAR_KJP}.
+   */
+  public Set<DataItemContext> determineContexts(List<String> scopes) {
+    var config = customGlobalConfiguration;
+    // Checking if any scope is activated via rest parametrization -> if so, overwrite the yaml
+    // settings
+    boolean anyScopeActivated =
+        Stream.of(
+                COVID,
+                INFLUENZA,
+                KIDS_RADAR,
+                KIDS_RADAR_PED,
+                KIDS_RADAR_KJP,
+                UKB_MODEL,
+                ACRIBIS,
+                BCT,
+                SNID)
+            .anyMatch(scope -> isScopeActivatedViaParameters(scopes, scope));
+
+    EnumSet<DataItemContext> contexts = EnumSet.noneOf(DataItemContext.class);
+    if (shouldGenerate(
+        UKB_MODEL, config.getGenerateUkbRenalReplacementModelData(), scopes, anyScopeActivated)) {
+      contexts.add(UKB_MODEL);
+    }
+    if (shouldGenerate(COVID, config.getGenerateCovidData(), scopes, anyScopeActivated)) {
+      contexts.add(COVID);
+    }
+    if (shouldGenerate(INFLUENZA, config.getGenerateInfluenzaData(), scopes, anyScopeActivated)) {
+      contexts.add(INFLUENZA);
+    }
+    // generateKidsRadarData = kiradar ped AND kjp data
+    contexts.addAll(
+        buildKidsRadarContexts(
+            shouldGenerate(
+                KIDS_RADAR, config.getGenerateKidsRadarData(), scopes, anyScopeActivated),
+            shouldGenerate(
+                KIDS_RADAR_PED, config.getGenerateKidsRadarPedData(), scopes, anyScopeActivated),
+            shouldGenerate(
+                KIDS_RADAR_KJP,
+                config.getGenerateKidsRadarKjpData(),
+                scopes,
+                anyScopeActivated)));
+    if (shouldGenerate(ACRIBIS, config.getGenerateAcribisData(), scopes, anyScopeActivated)) {
+      contexts.add(ACRIBIS);
+    }
+    if (shouldGenerate(BCT, config.getGenerateBctData(), scopes, anyScopeActivated)) {
+      contexts.add(BCT);
+    }
+    // SNID is not part of the workflow yet and is therefore not added.
+    return contexts;
+  }
+
+  /**
+   * Runs the dashboard workflow for the given contexts. If another run is currently in progress,
+   * the call blocks until it is finished.
+   *
+   * @param contexts The contexts to generate (see {@link #determineContexts(List)}).
+   * @return The generated data items and top level fields or the abort reason.
+   * @throws SearchException If the data retrieval fails.
+   */
+  public ExportResult export(Set<DataItemContext> contexts) throws SearchException {
+    return export(contexts, null);
+  }
+
+  /**
+   * Runs the dashboard workflow for the given contexts with a deadline. If another run is currently
+   * in progress, the call blocks until it is finished.
+   *
+   * @param contexts The contexts to generate (see {@link #determineContexts(List)}).
+   * @param timeout The maximum duration of the run; if <code>null</code>, the {@link
+   *     CustomGlobalConfiguration#getRunTimeout() configured run timeout} is used.
+   * @return The generated data items and top level fields or the abort reason.
+   * @throws SearchException If the data retrieval fails.
+   * @throws RunCancelledException If the run got cancelled or exceeded its deadline.
+   */
+  public ExportResult export(Set<DataItemContext> contexts, Duration timeout)
+      throws SearchException {
+    runLock.lock();
+    boolean incremental = incrementalRetrieval.isEnabled();
+    boolean successful = false;
+    try {
+      RunControl.start(timeout != null ? timeout : customGlobalConfiguration.getRunTimeout());
+      if (incremental) {
+        incrementalRetrieval.beginRun();
+      }
+      StageCheckpoints stageCheckpoints = checkpointService.beginRun(contexts);
+      ExportResult exportResult = runWorkflow(contexts, stageCheckpoints);
+      // A cancelled run must neither complete its checkpoints nor commit or cache its results
+      RunControl.checkCancelled();
+      // Checkpoints are just kept if the run failed with an exception
+      checkpointService.complete(stageCheckpoints);
+      successful = !exportResult.isAborted();
+      return exportResult;
+    } finally {
+      // The resource stores are only updated if the whole run succeeded
+      if (incremental) {
+        if (successful) {
+          incrementalRetrieval.commit();
+        } else {
+          incrementalRetrieval.discard();
+        }
+      }
+      // The state of the run is not needed anymore and would otherwise be held until the next run
+      dataRetrievalServiceProvider.getDataRetrievalService().endRun();
+      RunControl.finish();
+      ResourceInterner.finish();
+      runLock.unlock();
+    }
+  }
+
+  /** Is a workflow currently running? */
+  public boolean isRunning() {
+    return runLock.isLocked();
+  }
+
+  /**
+   * Cancels the currently running workflow. The retrieval stops before its next search call; the
+   * checkpoints of the stages finished so far are kept.
+   *
+   * @return <code>false</code> if no workflow is running.
+   */
+  public boolean cancel() {
+    if (!isRunning()) {
+      return false;
+    }
+    RunControl.cancel("cancelled by request");
+    return true;
+  }
+
+  private ExportResult runWorkflow(
+      Set<DataItemContext> contexts, StageCheckpoints stageCheckpoints) throws SearchException {
+    // initialize new request
+    ObjectNode result = ResultJsonWriter.MAPPER.createObjectNode();
+
+    // Result
+    List<DiseaseDataItem> dataItems = new ArrayList<>();
+
+    // timer for benchmarking purposes
+    ProcessTimer processTimer = new ProcessTimer();
+
+    boolean benchMarkRun = false;
+
+    // Determine the data retrieval service for the server type used
+    AbstractDataRetrievalService dataRetrievalService =
+        dataRetrievalServiceProvider.getDataRetrievalService();
+    dataRetrievalService.beginRun(stageCheckpoints);
+
+    // If custom codes are set in the yaml file -> update the default values.
+    InputCodeSettings inputCodeSettings =
+        ConfigurationTransformer.extractInputCodeSettings(dataRetrievalService);
+
+    QualitativeLabCodesSettings qualitativeLabCodesSettings =
+        ConfigurationTransformer.extractQualitativeLabCodesSettings(dataRetrievalService);
+
+    // Starting with the calculation of the prediction models to release the memory right after.
+    if (contexts.contains(UKB_MODEL)) {
+      Map<RenalReplacementRiskParameters, List<CoreBaseDataItem>>
+          renalReplacementModelParameterSetMap =
+              generateUkbModelData(
+                  benchMarkRun,
+                  dataRetrievalService,
+                  processTimer,
+                  customGlobalConfiguration.getServerType());
+
+      // Postprocessing
+      if (renalReplacementModelParameterSetMap != null) {
+        dataItems.addAll(
+            RenalReplacementRiskDataGenerator.generateDataItems(
+                renalReplacementModelParameterSetMap));
+      }
+    }
+
+    if (contexts.contains(COVID)) {
+      dataItems.addAll(
+          CovidDataController.generateData(
+              COVID,
+              dataRetrievalService,
+              reportConfiguration,
+              processTimer,
+              customGlobalConfiguration,
+              variantConfiguration,
+              inputCodeSettings,
+              qualitativeLabCodesSettings,
+              exclDataItems,
+              result));
+      // End workflow if no resources were found
+      if (LoggingHelper.gotWorkflowAborted(COVID)) {
+        // Reset of the error level
+        LoggingHelper.resetAbortStatus();
+        return ExportResult.aborted(LoggingHelper.getAbortMessage());
+      }
+    }
+
+    if (contexts.contains(INFLUENZA)) {
+      dataItems.addAll(
+          InfluenzaDataController.generateData(
+              INFLUENZA,
+              dataRetrievalService,
+              reportConfiguration,
+              processTimer,
+              customGlobalConfiguration,
+              variantConfiguration,
+              inputCodeSettings,
+              qualitativeLabCodesSettings,
+              exclDataItems,
+              result));
+      // End workflow if no resources were found
+      if (LoggingHelper.gotWorkflowAborted(INFLUENZA)) {
+        // Reset of the error level
+        LoggingHelper.resetAbortStatus();
+        return ExportResult.aborted(LoggingHelper.getAbortMessage());
+      }
+    }
+
+    // Determine which kids radar contexts to generate
+    Set<DataItemContext> dataItemContexts = EnumSet.noneOf(DataItemContext.class);
+    contexts.stream()
+        .filter(context -> context == KIDS_RADAR_PED || context == KIDS_RADAR_KJP)
+        .forEach(dataItemContexts::add);
+
+    // Only run workflow if at least one relevant context exists
+    if (!dataItemContexts.isEmpty()) {
+      dataItems.addAll(
+          KiRaDataController.generateData(
+              dataItemContexts,
+              dataRetrievalService,
+              reportConfiguration,
+              processTimer,
+              customGlobalConfiguration,
+              variantConfiguration,
+              inputCodeSettings,
+              qualitativeLabCodesSettings,
+              exclDataItems,
+              result));
+
+      // End workflow if no resources were found
+      if (LoggingHelper.gotWorkflowAborted(KIDS_RADAR)) {
+        // Reset of the error level
+        LoggingHelper.resetAbortStatus();
+        return ExportResult.aborted(LoggingHelper.getAbortMessage());
+      }
+    }
+
+    if (contexts.contains(ACRIBIS)) {
+      dataItems.addAll(
+          AcribisDataController.generateData(
+              ACRIBIS,
+              dataRetrievalService,
+              reportConfiguration,
+              processTimer,
+              customGlobalConfiguration,
+              variantConfiguration,
+              inputCodeSettings,
+              qualitativeLabCodesSettings,
+              exclDataItems,
+              result));
+      // End workflow if no resources were found
+      if (LoggingHelper.gotWorkflowAborted(ACRIBIS)) {
+        return ExportResult.aborted(LoggingHelper.getAbortMessage());
+      }
+    }
+
+    if (contexts.contains(BCT)) {
+      dataItems.addAll(
+          BctDataController.generateData(
+              BCT,
+              dataRetrievalService,
+              reportConfiguration,
+              processTimer,
+              customGlobalConfiguration,
+              variantConfiguration,
+              inputCodeSettings,
+              qualitativeLabCodesSettings,
+              exclDataItems,
+              result));
+      // End workflow if no resources were found
+      if (LoggingHelper.gotWorkflowAborted(BCT)) {
+        return ExportResult.aborted(LoggingHelper.getAbortMessage());
+      }
+    }
+
+    result.put(PROVIDER, this.providerService.provConf.getName());
+    result.put(DASHBOARD_DATASET_VERSION, customGlobalConfiguration.getDsdVersion());
+    result.put(AUTHOR, this.providerService.provConf.getAuthor());
+    result.put(FILE_GENERATED_BY, FILE_GENERATOR);
+    result.put(DDP_VERSION, CURRENT_DDP_VERSION);
+    result.put(EXPORT_TIMESTAMP, DateTools.getCurrentUnixTime());
+
+    return new ExportResult(result, dataItems, null);
+  }
+
+  /**
+   * Checks if a specific scope is activated via parameters, given a list of scopes and a data item
+   * context.
+   *
+   * @param scopes a list of scope names, which may include mixed case strings
+   * @param dataItemContext the context of the data item to check for activation
+   * @return true if the specified data item context is activated by one of the scopes; false
+   *     otherwise
+   */
+  public static boolean isScopeActivatedViaParameters(
+      List<String> scopes, DataItemContext dataItemContext) {
+    if (scopes == null) {
+      return false;
+    }
+
+    // Convert all elements of the list to lowercase using Stream API
+    List<String> lowerCaseScopes =
+        scopes.stream()
+            .map(String::toLowerCase) // Convert each element to lowercase
+            .toList();
+
+    // Use a switch expression for more concise code
+    return switch (dataItemContext) {
+      case COVID -> lowerCaseScopes.contains("covid");
+      case INFLUENZA -> lowerCaseScopes.contains("influenza");
+      case KIDS_RADAR -> lowerCaseScopes.contains("kiradar");
+      // May be used in the future to split the kidsradar-context up
+      case KIDS_RADAR_PED, KIDS_RADAR_PED_COV, KIDS_RADAR_PED_INFL, KIDS_RADAR_PED_RSV ->
+          lowerCaseScopes.contains("kiradar_ped");
+      case KIDS_RADAR_KJP -> lowerCaseScopes.contains("kiradar_kjp");
+      case UKB_MODEL -> lowerCaseScopes.contains("ukbmodel");
+      case ACRIBIS -> lowerCaseScopes.contains("acribis");
+      case BCT -> lowerCaseScopes.contains("bct");
+      case SNID -> lowerCaseScopes.contains("snid");
+    };
+  }
+
+  private static boolean shouldGenerate(
+      DataItemContext scope, boolean configFlag, List<String> scopes, boolean anyScopeActivated) {
+    return isScopeActivatedViaParameters(scopes, scope) || (!anyScopeActivated && configFlag);
+  }
+
+  // Build the set of contexts to generate
+  private static Set<DataItemContext> buildKidsRadarContexts(
+      boolean generateKidsRadarData,
+      boolean generateKidsRadarPedData,
+      boolean generateKidsRadarKjpData) {
+
+    // Use EnumSet for enum-backed sets (memory- and performance-friendly)
+    EnumSet<DataItemContext> contexts = EnumSet.noneOf(DataItemContext.class);
+
+    if (generateKidsRadarData) {
+      // KIDS_RADAR implies both sub-contexts
+      contexts.add(DataItemContext.KIDS_RADAR_PED);
+      contexts.add(DataItemContext.KIDS_RADAR_KJP);
+    } else {
+      // Add selected sub-contexts individually
+      if (generateKidsRadarPedData) {
+        contexts.add(DataItemContext.KIDS_RADAR_PED);
+      }
+      if (generateKidsRadarKjpData) {
+        contexts.add(DataItemContext.KIDS_RADAR_KJP);
+      }
+    }
+
+    return contexts;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.AcuwaveSearchConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.BulkExportConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.CustomGlobalConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.FhirSearchConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.FhirServerRestConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.FileSourceConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.SearchArchiveConfiguration;
+import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.store.SearchArchive;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Provides the data retrieval service of the configured {@link ServerTypeEnum server type}. The
+ * service is created once at startup, so the parsing of the code settings from the configuration
+ * is not repeated on each request. The state of a single run is held in a separate {@link
+ * RetrievalRunState}.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class DataRetrievalServiceProvider {
+
+  /** The data retrieval service of the configured server type. */
+  @Getter private final AbstractDataRetrievalService dataRetrievalService;
+
+  /** The archive of the recorded server responses; <code>null</code> if not used. */
+  private final SearchArchive searchArchive;
+
+  @Autowired
+  public DataRetrievalServiceProvider(
+      AcuwaveSearchService acuwaveSearchService,
+      FhirSearchService fhirSearchService,
+      AcuwaveSearchConfiguration acuwaveSearchConfiguration,
+      FhirSearchConfiguration fhirSearchConfiguration,
+      FhirServerRestConfiguration fhirServerRestConfiguration,
+      CustomGlobalConfiguration customGlobalConfiguration,
+      IncrementalRetrieval incrementalRetrieval,
+      ReferenceCache referenceCache,
+      MemoryGovernor memoryGovernor,
+      SearchArchiveConfiguration searchArchiveConfiguration,
+      FileSourceConfiguration fileSourceConfiguration,
+      BulkExportConfiguration bulkExportConfiguration,
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    searchArchive = openSearchArchive(searchArchiveConfiguration);
+    if (customGlobalConfiguration.getServerType() == ServerTypeEnum.ACUWAVE) {
+      dataRetrievalService =
+          new AcuwaveDataRetrievalService(
+              decorate(acuwaveSearchService, customGlobalConfiguration, meterRegistry),
+              acuwaveSearchConfiguration,
+              customGlobalConfiguration);
+    } else {
+      // The file data source answers the same FHIR searches from local files
+      SearchService searchService =
+          customGlobalConfiguration.getServerType() == ServerTypeEnum.FILE
+              ? new FileSearchService(fileSourceConfiguration)
+              : fhirSearchService;
+      FhirDataRetrievalService fhirDataRetrievalService =
+          new FhirDataRetrievalService(
+              decorate(searchService, customGlobalConfiguration, meterRegistry),
+              fhirSearchConfiguration,
+              customGlobalConfiguration,
+              fhirServerRestConfiguration);
+      fhirDataRetrievalService.setIncrementalRetrieval(incrementalRetrieval);
+      fhirDataRetrievalService.setReferenceCache(referenceCache);
+      // The export files are downloaded directly from the server, bypassing the search service
+      if (bulkExportConfiguration.getEnabled() && searchService == fhirSearchService) {
+        fhirDataRetrievalService.setBulkExportClient(
+            new BulkExportClient(
+                fhirSearchService::getRestTemplate,
+                fhirServerRestConfiguration.getRestUrl(),
+                bulkExportConfiguration));
+      }
+      dataRetrievalService = fhirDataRetrievalService;
+    }
+    dataRetrievalService.setMemoryGovernor(memoryGovernor);
+    log.debug(
+        "Initialized the data retrieval service for server type {}",
+        customGlobalConfiguration.getServerType());
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (searchArchive != null) {
+      searchArchive.close();
+    }
+  }
+
+  /** Opens the search archive for recording or replay, if activated. */
+  private static SearchArchive openSearchArchive(
+      SearchArchiveConfiguration searchArchiveConfiguration) {
+    Path file = Path.of(searchArchiveConfiguration.getFile());
+    try {
+      return switch (searchArchiveConfiguration.getMode()) {
+        case RECORD -> SearchArchive.openForRecording(file);
+        case REPLAY -> SearchArchive.openForReplay(file);
+        case OFF -> null;
+      };
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open the search archive " + file, e);
+    }
+  }
+
+  /**
+   * Wraps the search service into a {@link RecordingSearchService} or replaces it by a {@link
+   * ReplaySearchService}, depending on the search archive mode, and into a {@link
+   * CoalescingSearchService}, if activated.
+   */
+  private SearchService decorate(
+      SearchService searchService,
+      CustomGlobalConfiguration customGlobalConfiguration,
+      ObjectProvider<MeterRegistry> meterRegistry) {
+    SearchService archivedSearchService =
+        searchArchive == null
+            ? searchService
+            : searchArchive.isReplay()
+                ? new ReplaySearchService(searchArchive)
+                : new RecordingSearchService(searchService, searchArchive);
+    if (!customGlobalConfiguration.getCoalesceSearchRequests()) {
+      return archivedSearchService;
+    }
+    CoalescingSearchService coalescingSearchService =
+        new CoalescingSearchService(archivedSearchService);
+    meterRegistry.ifAvailable(coalescingSearchService::bindTo);
+    return coalescingSearchService;
+  }
+}
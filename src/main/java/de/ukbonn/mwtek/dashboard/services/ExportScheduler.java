@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.ExportScheduleConfiguration;
+import de.ukbonn.mwtek.dashboard.configuration.ResultCacheConfiguration;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Service;
+
+/**
+ * Background generation of the /createJson output according to the cron entries of the {@link
+ * ExportScheduleConfiguration}. The results are written to the {@link ResultSnapshotCache}, so
+ * requests for the same scopes can be answered instantly.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class ExportScheduler {
+
+  /** Key of a cron entry that uses the scopes activated in the global configuration. */
+  public static final String DEFAULT_SCOPES = "default";
+
+  private final DashboardExportService exportService;
+  private final ResultSnapshotCache resultSnapshotCache;
+  private final ExportScheduleConfiguration exportScheduleConfiguration;
+  private final ResultCacheConfiguration resultCacheConfiguration;
+
+  private ThreadPoolTaskScheduler taskScheduler;
+
+  public ExportScheduler(
+      DashboardExportService exportService,
+      ResultSnapshotCache resultSnapshotCache,
+      ExportScheduleConfiguration exportScheduleConfiguration,
+      ResultCacheConfiguration resultCacheConfiguration) {
+    this.exportService = exportService;
+    this.resultSnapshotCache = resultSnapshotCache;
+    this.exportScheduleConfiguration = exportScheduleConfiguration;
+    this.resultCacheConfiguration = resultCacheConfiguration;
+  }
+
+  /** Registration of the configured cron entries once the application is ready. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleExports() {
+    Map<String, String> cronEntries = exportScheduleConfiguration.getCron();
+    if (!exportScheduleConfiguration.getEnabled() || cronEntries.isEmpty()) {
+      return;
+    }
+    taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.setPoolSize(cronEntries.size());
+    taskScheduler.setThreadNamePrefix("export-schedule-");
+    taskScheduler.initialize();
+
+    cronEntries.forEach(
+        (scopes, cron) -> {
+          // "default" = the generate-*-data settings of the global configuration
+          List<String> scopeList =
+              scopes.equalsIgnoreCase(DEFAULT_SCOPES)
+                  ? null
+                  : Arrays.stream(scopes.split(",")).map(String::trim).toList();
+          boolean validScopes =
+              scopeList == null
+                  || Arrays.stream(DataItemContext.values())
+                      .anyMatch(
+                          context ->
+                              DashboardExportService.isScopeActivatedViaParameters(
+                                  scopeList, context));
+          Set<DataItemContext> contexts = exportService.determineContexts(scopeList);
+          if (!validScopes || contexts.isEmpty() || !CronExpression.isValidExpression(cron)) {
+            log.warn("Skipping invalid export schedule entry '{}: {}'", scopes, cron);
+            return;
+          }
+          ScheduledExport scheduledExport = new ScheduledExport(contexts, cron);
+          taskScheduler.schedule(scheduledExport, new CronTrigger(cron));
+          if (exportScheduleConfiguration.getRunOnStartup()) {
+            taskScheduler.execute(scheduledExport);
+          }
+          log.info("Scheduled the export of {} with cron expression '{}'", contexts, cron);
+        });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (taskScheduler != null) {
+      taskScheduler.shutdown();
+    }
+  }
+
+  /** A single cron entry with its own overlap protection. */
+  private class ScheduledExport implements Runnable {
+
+    private final Set<DataItemContext> contexts;
+    private final CronExpression cronExpression;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private ScheduledExport(Set<DataItemContext> contexts, String cron) {
+      this.contexts = contexts;
+      this.cronExpression = CronExpression.parse(cron);
+    }
+
+    @Override
+    public void run() {
+      // Skip the run if the previous one is still going
+      if (!running.compareAndSet(false, true)) {
+        log.warn("Skipping the scheduled export of {}: previous run still in progress", contexts);
+        return;
+      }
+      try {
+        log.info("Starting the scheduled export of {}", contexts);
+        ExportResult exportResult = exportService.export(contexts);
+        if (exportResult.isAborted()) {
+          log.warn(
+              "Scheduled export of {} got aborted: {}", contexts, exportResult.abortMessage());
+          return;
+        }
+        resultSnapshotCache.put(contexts, exportResult, calculateExpiration());
+      } catch (Exception ex) {
+        log.error("Scheduled export of {} failed", contexts, ex);
+      } finally {
+        running.set(false);
+      }
+    }
+
+    /**
+     * The snapshot stays valid until the next scheduled execution plus the configured ttl as grace
+     * period, so a failing run doesn't invalidate the last successful output immediately.
+     */
+    private long calculateExpiration() {
+      ZoneId zoneId = ZoneId.systemDefault();
+      LocalDateTime nextExecution = cronExpression.next(LocalDateTime.now(zoneId));
+      long nextExecutionMillis =
+          nextExecution != null
+              ? nextExecution.atZone(zoneId).toInstant().toEpochMilli()
+              : System.currentTimeMillis();
+      return nextExecutionMillis + resultCacheConfiguration.getTtl().toMillis();
+    }
+  }
+}
@@ -61,8 +61,16 @@ import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
 import de.ukbonn.mwtek.dashboard.interfaces.DataSourceType;
 import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
 import de.ukbonn.mwtek.dashboard.misc.AcribisChecks;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
 import de.ukbonn.mwtek.dashboard.misc.FhirServerQuerySuffixBuilder;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
 import de.ukbonn.mwtek.dashboard.misc.ResourceHandler;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.EncounterTable;
+import de.ukbonn.mwtek.dashboard.store.ObservationTable;
+import de.ukbonn.mwtek.dashboard.store.ResourceStore;
+import de.ukbonn.mwtek.dashboard.store.ResultCollector;
+import de.ukbonn.mwtek.dashboardlogic.enums.AcribisCohortIcdCodes;
 import de.ukbonn.mwtek.dashboardlogic.enums.AcribisCohortOpsCodes;
 import de.ukbonn.mwtek.dashboardlogic.enums.DashboardLogicFixedValues;
 import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
@@ -82,11 +90,11 @@ import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiPatient;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiProcedure;
 import de.ukbonn.mwtek.utilities.fhir.resources.MiiQuestionnaireResponse;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -95,6 +103,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -127,14 +136,28 @@ import org.springframework.web.client.RestClientException;
 public class FhirDataRetrievalService extends AbstractDataRetrievalService {
 
   public static final String NEXT = "next";
+
+  /** Encounter states that are discarded anyway and can be dropped before the full parse. */
+  private static final Set<String> REJECTED_ENCOUNTER_STATUSES =
+      Set.of("cancelled", "entered-in-error");
+
+  /** Procedure states that are discarded anyway and can be dropped before the full parse. */
+  private static final Set<String> REJECTED_PROCEDURE_STATUSES =
+      Set.of("entered-in-error", "not-done");
   private final FhirSearchConfiguration fhirSearchConfiguration;
   private final FhirServerQuerySuffixBuilder fhirServerQuerySuffixBuilder =
       new FhirServerQuerySuffixBuilder();
   private final FhirServerRestConfiguration fhirServerRestConfiguration;
   Logger logger = LoggerFactory.getLogger(DashboardApplication.class);
 
-  /** List with the entries of the bundles returned per FHIR search query */
-  List<BundleEntryComponent> reqBundleEntry = null;
+  /** Incremental data retrieval; <code>null</code> if not used. */
+  private IncrementalRetrieval incrementalRetrieval;
+
+  /** Persistent cache of the reference resources; <code>null</code> if not used. */
+  private ReferenceCache referenceCache;
+
+  /** Retrieval via the FHIR Bulk Data API; <code>null</code> if not used. */
+  private BulkExportClient bulkExportClient;
 
   public FhirDataRetrievalService(
       SearchService searchService,
@@ -186,11 +209,129 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         extractInputCodes(customGlobalConfiguration, KIDS_RADAR_OPS_BASE).getFirst());
   }
 
+  /**
+   * Activates the incremental data retrieval, where only resources that changed since the last run
+   * are fetched and merged with the local resource store (for the observation, condition, encounter
+   * and procedure retrieval).
+   */
+  public void setIncrementalRetrieval(IncrementalRetrieval incrementalRetrieval) {
+    this.incrementalRetrieval = incrementalRetrieval;
+  }
+
+  /**
+   * Activates the persistent cache of the reference resources (e.g. locations) that are reused
+   * across runs.
+   */
+  public void setReferenceCache(ReferenceCache referenceCache) {
+    this.referenceCache = referenceCache;
+  }
+
+  /**
+   * Activates the retrieval via <code>$export</code> instead of the paged FHIR search for the
+   * complete retrievals (observations and conditions of a context and the patient cohort of the
+   * Kids Radar).
+   */
+  public void setBulkExportClient(BulkExportClient bulkExportClient) {
+    this.bulkExportClient = bulkExportClient;
+  }
+
+  private boolean useBulkExport() {
+    return bulkExportClient != null;
+  }
+
+  /**
+   * Retrieves resources via <code>$export</code>. The streamed resources are slimmed and passed
+   * to the page handler in bundles of the batch size, like the pages of a FHIR search.
+   *
+   * @param resourceType The resource type to export.
+   * @param typeFilters The FHIR search queries that define the resources to export.
+   * @param pageHandler Processes the bundles; it's never called concurrently.
+   */
+  private void bulkExport(
+      ResourceType resourceType, List<String> typeFilters, Consumer<Bundle> pageHandler) {
+    List<BundleEntryComponent> page = new ArrayList<>();
+    long exportedResources =
+        bulkExportClient.export(
+            List.of(resourceType),
+            typeFilters,
+            resource -> {
+              BundleEntryComponent entry =
+                  new BundleEntryComponent()
+                      .setResource(removeNotNeededAttributesOfResource(resource));
+              synchronized (page) {
+                page.add(entry);
+                if (page.size() >= this.getBatchSize()) {
+                  pageHandler.accept(toSearchSetBundle(page));
+                  page.clear();
+                }
+              }
+            });
+    if (!page.isEmpty()) {
+      pageHandler.accept(toSearchSetBundle(page));
+    }
+    log.info("{} {} resources retrieved via bulk export", exportedResources, resourceType);
+  }
+
+  private static Bundle toSearchSetBundle(List<BundleEntryComponent> entries) {
+    Bundle bundle = new Bundle();
+    bundle.setType(Bundle.BundleType.SEARCHSET);
+    bundle.setEntry(new ArrayList<>(entries));
+    bundle.setTotal(entries.size());
+    return bundle;
+  }
+
+  private boolean useIncrementalRetrieval() {
+    return incrementalRetrieval != null && incrementalRetrieval.isEnabled();
+  }
+
   @Override
   public List<Observation> getObservations(DataItemContext dataItemContext) {
 
     HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
     boolean useGet = httpMethod.equals(GET);
+    // The table of the context is refilled with the result of this stage
+    ObservationTable observationTable = getRunState().resetObservationTable(dataItemContext);
+
+    if (useBulkExport()) {
+      List<Observation> listObservations = new ArrayList<>();
+      bulkExport(
+          ResourceType.Observation,
+          List.of(
+              fhirServerQuerySuffixBuilder.getObservations(
+                  this, null, false, dataItemContext, true)),
+          bundle ->
+              ResourceHandler.handleObservationEntries(
+                  bundle,
+                  listObservations,
+                  observationTable,
+                  getRunState().getPatientIds(),
+                  getRunState().getEncounterIds(),
+                  this.getServerType()));
+      getRunState().setObservationTableValid(dataItemContext, true);
+      return listObservations;
+    }
+
+    if (useIncrementalRetrieval()) {
+      List<Observation> listObservations = new ArrayList<>();
+      ResourceStore store =
+          incrementalRetrieval.getStore(dataItemContext, ResourceType.Observation);
+      fetchIntoStore(
+          store,
+          fhirServerQuerySuffixBuilder.getObservations(this, null, false, dataItemContext, useGet),
+          httpMethod,
+          ResourceType.Observation,
+          true);
+      // The merged set is processed like a single search result
+      ResourceHandler.handleObservationEntries(
+          store.toBundle(null),
+          listObservations,
+          observationTable,
+          getRunState().getPatientIds(),
+          getRunState().getEncounterIds(),
+          this.getServerType());
+      getRunState().setObservationTableValid(dataItemContext, true);
+      return listObservations;
+    }
 
     Bundle initialBundle =
         this.getSearchService()
@@ -223,7 +364,12 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       // Parsing the retrieved resources and reading out the patients and Encounter Ids for later
       // data queries.
       ResourceHandler.handleObservationEntries(
-          initialBundle, listObservations, patientIds, encounterIds, this.getServerType());
+          initialBundle,
+          listObservations,
+          observationTable,
+          getRunState().getPatientIds(),
+          getRunState().getEncounterIds(),
+          this.getServerType());
       initialBundle =
           this.getSearchService()
               .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
@@ -233,8 +379,14 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     }
     // No next link given? -> just add the results to the lists and go on
     ResourceHandler.handleObservationEntries(
-        initialBundle, listObservations, patientIds, encounterIds, this.getServerType());
+        initialBundle,
+        listObservations,
+        observationTable,
+        getRunState().getPatientIds(),
+        getRunState().getEncounterIds(),
+        this.getServerType());
 
+    getRunState().setObservationTableValid(dataItemContext, true);
     return listObservations;
   }
 
@@ -246,7 +398,11 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       QualitativeLabCodesSettings qualitativeLabCodesSettings)
       throws RestClientException, OutOfMemoryError {
 
-    Set<MiiObservation> observations = ConcurrentHashMap.newKeySet();
+    // The table of the context gets extended beyond the result of its observation stage
+    getRunState().setObservationTableValid(dataItemContext, false);
+    ResultCollector<MiiObservation> observations =
+        newResultCollector(
+            resource -> (MiiObservation) MiiResourceTypes.toMii((Observation) resource));
     Set<String> encounterCaseIds =
         encounters.stream().map(Resource::getId).collect(Collectors.toSet());
     AtomicInteger filteredObservations = new AtomicInteger(0);
@@ -254,47 +410,52 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         splitList(new ArrayList<>(encounterCaseIds), this.getBatchSize());
     encounterIdSubsets.parallelStream()
         .forEach(
-            subList -> {
-              var initialBundle = new Bundle();
-              try {
-                HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-                boolean useGet = httpMethod.equals(GET);
-                initialBundle =
-                    this.getSearchService()
-                        .getInitialBundle(
-                            fhirServerQuerySuffixBuilder.getObservations(
-                                this, dataItemContext, loincCodes, subList, useGet),
-                            httpMethod,
-                            ResourceType.Observation.name());
-
-                processObservationBundle(
-                    initialBundle,
-                    observations,
-                    filteredObservations,
-                    dataItemContext,
-                    qualitativeLabCodesSettings);
-
-                while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
-                  initialBundle =
-                      this.getSearchService()
-                          .getBundlePart(
-                              getNextUrl(fhirServerRestConfiguration, initialBundle), httpMethod);
-                  processObservationBundle(
-                      initialBundle,
-                      observations,
-                      filteredObservations,
-                      dataItemContext,
-                      qualitativeLabCodesSettings);
-                }
-              } catch (Exception e) {
-                logErrorRetrieval("Condition", e);
-              }
-            });
+            subList ->
+                throttled(
+                    () -> {
+                      var initialBundle = new Bundle();
+                      try {
+                        HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
+                        boolean useGet = httpMethod.equals(GET);
+                        initialBundle =
+                            this.getSearchService()
+                                .getInitialBundle(
+                                    fhirServerQuerySuffixBuilder.getObservations(
+                                        this, dataItemContext, loincCodes, subList, useGet),
+                                    httpMethod,
+                                    ResourceType.Observation.name());
+
+                        processObservationBundle(
+                            initialBundle,
+                            observations,
+                            getRunState().getObservationTable(dataItemContext),
+                            filteredObservations,
+                            dataItemContext,
+                            qualitativeLabCodesSettings);
+
+                        while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
+                          initialBundle =
+                              this.getSearchService()
+                                  .getBundlePart(
+                                      getNextUrl(fhirServerRestConfiguration, initialBundle),
+                                      httpMethod);
+                          processObservationBundle(
+                              initialBundle,
+                              observations,
+                              getRunState().getObservationTable(dataItemContext),
+                              filteredObservations,
+                              dataItemContext,
+                              qualitativeLabCodesSettings);
+                        }
+                      } catch (Exception e) {
+                        logErrorRetrieval("Condition", e);
+                      }
+                    }));
 
     log.debug(
         "{} observations resources got filtered because no positive value was found.",
         filteredObservations.get());
-    return new ArrayList<>(observations);
+    return observations.toList();
   }
 
   @Override
@@ -306,6 +467,42 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
     boolean useGet = httpMethod.equals(GET);
 
+    // The variant with the included encounter resources can't be exported
+    if (useBulkExport() && !isUseEncounterConditionReference) {
+      List<Condition> listConditions = new ArrayList<>();
+      bulkExport(
+          ResourceType.Condition,
+          List.of(
+              fhirServerQuerySuffixBuilder.getConditions(this, null, false, dataItemContext, true)),
+          bundle ->
+              ResourceHandler.handleConditionEntries(
+                  bundle,
+                  listConditions,
+                  getRunState().getPatientIds(),
+                  getRunState().getEncounterIds(),
+                  this.getServerType()));
+      return listConditions;
+    }
+
+    // The variant with the included encounter resources is always retrieved completely
+    if (useIncrementalRetrieval() && !isUseEncounterConditionReference) {
+      List<Condition> listConditions = new ArrayList<>();
+      ResourceStore store = incrementalRetrieval.getStore(dataItemContext, ResourceType.Condition);
+      fetchIntoStore(
+          store,
+          fhirServerQuerySuffixBuilder.getConditions(this, null, false, dataItemContext, useGet),
+          httpMethod,
+          ResourceType.Condition,
+          true);
+      ResourceHandler.handleConditionEntries(
+          store.toBundle(null),
+          listConditions,
+          getRunState().getPatientIds(),
+          getRunState().getEncounterIds(),
+          this.getServerType());
+      return listConditions;
+    }
+
     // Since the condition.encounter reference is not mandatory, it's possible to link encounter
     // and condition via encounter.diagnosis.
     Bundle initialBundle =
@@ -349,7 +546,11 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         // Parsing the retrieved resources and reading out the patients and Encounter Ids for later
         // data queries.
         ResourceHandler.handleConditionEntries(
-            initialBundle, listConditions, patientIds, encounterIds, this.getServerType());
+            initialBundle,
+            listConditions,
+            getRunState().getPatientIds(),
+            getRunState().getEncounterIds(),
+            this.getServerType());
       } else {
         // Gather the condition and encounter resources in corresponding lists.
         ResourceHandler.storeConditionAndEncounterResources(
@@ -365,12 +566,20 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // no next link existent? -> just add the results to the lists and go further on
     if (!isUseEncounterConditionReference) {
       ResourceHandler.handleConditionEntries(
-          initialBundle, listConditions, patientIds, encounterIds, this.getServerType());
+          initialBundle,
+          listConditions,
+          getRunState().getPatientIds(),
+          getRunState().getEncounterIds(),
+          this.getServerType());
     } else {
       ResourceHandler.storeConditionAndEncounterResources(
           initialBundle, listConditions, listEncounters, this.getServerType());
       ResourceHandler.handleConditionEntriesWithEncounterRefSetting(
-          listConditions, listEncounters, patientIds, encounterIds, this.getServerType());
+          listConditions,
+          listEncounters,
+          getRunState().getPatientIds(),
+          getRunState().getEncounterIds(),
+          this.getServerType());
     }
     return listConditions;
   }
@@ -398,43 +607,48 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       return List.of();
     }
 
-    Set<MiiCondition> setConditions = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiCondition> conditions = new ResultCollector<>();
     AtomicInteger filteredConditions = new AtomicInteger(0);
 
     List<List<String>> encounterIdSubsets =
         splitList(new ArrayList<>(encounterCaseIds), this.getBatchSize());
+    BundlePrefilter prefilter = createConditionPrefilter(dataItemContext);
 
     encounterIdSubsets.parallelStream()
         .forEach(
             subList -> {
               try {
                 Bundle firstPage =
-                    fetchInitialConditionsBundle(subList, isUseEncounterConditionReference);
+                    fetchInitialConditionsBundle(
+                        subList, isUseEncounterConditionReference, prefilter);
                 forEachBundlePage(
                     firstPage,
+                    prefilter,
                     page ->
                         processConditionBundle(
-                            page, setConditions, filteredConditions, dataItemContext));
+                            page, conditions, filteredConditions, dataItemContext));
 
               } catch (Exception e) {
                 logErrorRetrieval("Condition", e);
               }
             });
+    prefilter.logStatistics();
+    List<MiiCondition> listConditions = conditions.toList();
 
     // Add condition.encounter references by encounter.diagnosis references if activated
     if (isUseEncounterConditionReference) {
-      linkConditionsToEncounters(setConditions, encounters);
+      linkConditionsToEncounters(listConditions, encounters);
     }
 
     log.debug(
         "{} condition resources got filtered because no needed icd code was found.",
         filteredConditions.get());
 
-    return new ArrayList<>(setConditions);
+    return listConditions;
   }
 
   private Bundle fetchInitialConditionsBundle(
-      List<String> encounterIds, boolean useEncounterDiagnosis) {
+      List<String> encounterIds, boolean useEncounterDiagnosis, BundlePrefilter prefilter) {
     HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
 
     if (httpMethod != GET && httpMethod != POST) {
@@ -456,17 +670,145 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     HttpMethod methodToUse = httpMethodGet ? GET : POST;
 
     // For the Encounter-based variant we still only consume Condition resources out of the bundle.
-    return getSearchService().getInitialBundle(suffix, methodToUse, endpointName);
+    return getSearchService().getInitialBundle(suffix, methodToUse, endpointName, prefilter);
+  }
+
+  /**
+   * Drops the conditions without any icd code prefix of the data item context before the full
+   * parse; <code>null</code> prefixes keep all conditions.
+   */
+  private BundlePrefilter createConditionPrefilter(DataItemContext dataItemContext) {
+    Collection<String> icdCodePrefixes =
+        switch (dataItemContext) {
+          case ACRIBIS -> AcribisCohortIcdCodes.ALL_CODES_PREFIXES;
+          case KIDS_RADAR ->
+              getKidsRadarIcdCodesKjp() == null || getKidsRadarIcdCodesPed() == null
+                  ? null
+                  : Stream.concat(
+                          getKidsRadarIcdCodesKjp().stream(), getKidsRadarIcdCodesPed().stream())
+                      .toList();
+          case KIDS_RADAR_PED -> getKidsRadarIcdCodesPed();
+          case KIDS_RADAR_KJP -> getKidsRadarIcdCodesKjp();
+          default -> null;
+        };
+    return new BundlePrefilter(
+        dataItemContext + "_" + ResourceType.Condition.name(),
+        ResourceType.Condition.name(),
+        BundlePrefilter.anyCodeStartsWith("code", icdCodePrefixes));
+  }
+
+  /**
+   * Retrieves all pages of a fhir search query and adds the (slimmed) resources of the given type
+   * to the store of the incremental data retrieval.
+   *
+   * @param store The store of the retrieval stage.
+   * @param querySuffix The query suffix (GET) or body (POST) of the search.
+   * @param httpMethod The http method of the initial search.
+   * @param resourceType The resource type of the stage.
+   * @param onlyChanges Should only the changes since the last run be fetched (if the store allows
+   *     it)?
+   */
+  private void fetchIntoStore(
+      ResourceStore store,
+      String querySuffix,
+      HttpMethod httpMethod,
+      ResourceType resourceType,
+      boolean onlyChanges) {
+    String effectiveQuerySuffix =
+        onlyChanges ? incrementalRetrieval.restrictToChanges(querySuffix, store) : querySuffix;
+    Bundle firstPage =
+        getSearchService()
+            .getInitialBundle(effectiveQuerySuffix, httpMethod, resourceType.name());
+    AtomicInteger fetchedResources = new AtomicInteger(0);
+    forEachBundlePage(
+        firstPage,
+        page ->
+            page.getEntry().stream()
+                .map(BundleEntryComponent::getResource)
+                .filter(resource -> resource != null && resource.getResourceType() == resourceType)
+                .forEach(
+                    resource -> {
+                      store.put(removeNotNeededAttributesOfResource(resource));
+                      fetchedResources.incrementAndGet();
+                    }));
+    log.debug(
+        "Retrieval into the store {}: {} resources fetched ({}), {} resources in the store",
+        store.getKey(),
+        fetchedResources.get(),
+        onlyChanges && store.isDeltaRetrieval() ? "changes only" : "complete",
+        store.size());
+  }
+
+  /**
+   * Retrieves the resources of a patient-based stage for the incremental data retrieval. Patients
+   * that were already covered by a former run only get their changes fetched. In a {@link
+   * ResourceStore#isRunScoped() run-scoped} store, covered patients are not queried at all.
+   *
+   * @param store The store of the retrieval stage.
+   * @param patientIds The patient ids of the current run.
+   * @param querySuffixBuilder Creates the query suffix (GET) or body (POST) for a patient batch.
+   * @param resourceType The resource type of the stage.
+   * @return A bundle with the merged resources of the given patients.
+   */
+  private Bundle fetchPatientResourcesIntoStore(
+      ResourceStore store,
+      Collection<String> patientIds,
+      Function<List<String>, String> querySuffixBuilder,
+      ResourceType resourceType) {
+    HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
+    Set<String> coveredPatientIds =
+        store.isDeltaRetrieval() || store.isRunScoped() ? store.getCoveredPatientIds() : Set.of();
+    Map<Boolean, List<String>> patientIdsByCoverage =
+        patientIds.stream().collect(Collectors.partitioningBy(coveredPatientIds::contains));
+    patientIdsByCoverage.forEach(
+        (onlyChanges, patientIdList) -> {
+          // Another context of the run already retrieved the complete data of these patients
+          if (onlyChanges && store.isRunScoped()) {
+            return;
+          }
+          splitList(patientIdList, this.getBatchSize()).parallelStream()
+              .forEach(
+                  patientIdSubList ->
+                      throttled(
+                          () ->
+                              fetchIntoStore(
+                                  store,
+                                  querySuffixBuilder.apply(patientIdSubList),
+                                  httpMethod,
+                                  resourceType,
+                                  onlyChanges)));
+        });
+    store.addCoveredPatientIds(patientIds);
+    return store.toBundle(patientIds);
+  }
+
+  /** Removing non-needed attributes of the resource types that are part of the resource store. */
+  private static Resource removeNotNeededAttributesOfResource(Resource resource) {
+    return switch (resource) {
+      case Observation observation -> removeNotNeededAttributes(observation);
+      case Condition condition -> removeNotNeededAttributes(condition);
+      case Encounter encounter -> removeNotNeededAttributes(encounter);
+      default -> resource;
+    };
   }
 
   /** Iterates over all bundle pages and applies the consumer to each page. */
   private void forEachBundlePage(Bundle firstPage, Consumer<Bundle> pageConsumer) {
+    forEachBundlePage(firstPage, null, pageConsumer);
+  }
+
+  /**
+   * Iterates over all bundle pages and applies the consumer to each page. The entries of the
+   * following pages are prefiltered by the given prefilter (if not <code>null</code>).
+   */
+  private void forEachBundlePage(
+      Bundle firstPage, BundlePrefilter prefilter, Consumer<Bundle> pageConsumer) {
     Bundle current = firstPage;
     while (current != null) {
       pageConsumer.accept(current);
       if (current.hasLink() && current.getLink(NEXT) != null) {
         String nextUrl = getNextUrl(fhirServerRestConfiguration, current);
-        current = this.getSearchService().getBundlePart(nextUrl, GET);
+        current = this.getSearchService().getBundlePart(nextUrl, GET, prefilter);
       } else {
         current = null;
       }
@@ -479,10 +821,10 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       List<MiiCondition> ukbConditions,
       DataItemContext dataItemContext) {
 
-    // The Initialization of the outgoing set
-    Set<MiiPatient> setPatients = ConcurrentHashMap.newKeySet();
+    // The Initialization of the outgoing collector
+    ResultCollector<MiiPatient> setPatients = new ResultCollector<>();
 
-    if (!patientIdsCouldBeFound(patientIds, ResourceType.Patient)) {
+    if (!patientIdsCouldBeFound(getRunState().getPatientIds(), ResourceType.Patient)) {
       return new ArrayList<>();
     }
 
@@ -491,57 +833,32 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // prefiltered before
     switch (dataItemContext) {
       case COVID ->
-          patientIds =
-              handleFilterPatientRetrieval(
-                  dataItemContext,
-                  this.fhirSearchConfiguration.getFilterPatientRetrieval(),
-                  ukbObservations,
-                  ukbConditions);
+          getRunState()
+              .setPatientIds(
+                  handleFilterPatientRetrieval(
+                      dataItemContext,
+                      this.fhirSearchConfiguration.getFilterPatientRetrieval(),
+                      ukbObservations,
+                      ukbConditions));
       case INFLUENZA ->
-          patientIds =
-              handleFilterPatientRetrieval(
-                  dataItemContext,
-                  this.fhirSearchConfiguration.getInfluenzaFilterPatientRetrieval(),
-                  ukbObservations,
-                  ukbConditions);
+          getRunState()
+              .setPatientIds(
+                  handleFilterPatientRetrieval(
+                      dataItemContext,
+                      this.fhirSearchConfiguration.getInfluenzaFilterPatientRetrieval(),
+                      ukbObservations,
+                      ukbConditions));
     }
 
-    // Put (unique) pids into a list to facilitate the creation of subsets
-    List<String> patientIdList = new ArrayList<>(patientIds);
-    List<List<String>> patientIdSublists = splitList(patientIdList, this.getBatchSize());
-
-    AtomicInteger counter = new AtomicInteger(0);
-    patientIdSublists.forEach(
-        patientSubList -> {
-          logStatusDataRetrievalParallel(
-              patientIdList.size(), counter.getAndIncrement(), FHIRAllTypes.PATIENT.getDisplay());
-
-          HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-          if (httpMethod.equals(GET)) {
-            reqBundleEntry =
-                this.getSearchService()
-                    .getBundleData(
-                        fhirServerQuerySuffixBuilder.getPatients(this, patientSubList),
-                        GET,
-                        ResourceType.Patient.name());
-          } else if (httpMethod.equals(POST)) {
-            reqBundleEntry =
-                this.getSearchService()
-                    .getBundleData(
-                        fhirServerQuerySuffixBuilder.getPatientsPost(this, patientSubList),
-                        POST,
-                        ResourceType.Patient.name());
-          }
-
-          handlePatientRessource(reqBundleEntry, setPatients);
-        });
-    return new ArrayList<>(setPatients);
+    // Patients that were already retrieved for another context of the run are taken from the cache
+    handlePatientRessource(fetchPatientsIntoRunCache(getRunState().getPatientIds()), setPatients);
+    return setPatients.toList();
   }
 
   @Override
   public List<MiiPatient> getPatients(Integer maxAgeAtCutOffDate, DataItemContext dataItemContext) {
 
-    Set<MiiPatient> patientsOutput = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiPatient> patientsOutput = new ResultCollector<>();
     LocalDate startingDate;
     // Since the patient (and thus also the encounter) resources are just relevant for statistics
     // of SARS-CoV-2 patient, it reduces the amount of encounter by a lot if its getting
@@ -557,54 +874,66 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     int cutoffYear = startingDate.minusYears(maxAgeAtCutOffDate).getYear();
     int currentYear = LocalDate.now().getYear();
 
-    // Parallel query for each year since cut-off-year till the current year
-    IntStream.rangeClosed(cutoffYear, currentYear)
-        .parallel()
-        .forEach(
-            year -> {
-              var initialBundle = new Bundle();
-              try {
-                initialBundle =
-                    this.getSearchService()
-                        .getInitialBundle(
-                            fhirServerQuerySuffixBuilder.getPatients(this, year),
-                            GET,
-                            ResourceType.Patient.name());
-                handlePatientRessource(initialBundle, patientsOutput);
-
-                // Handle pagination for additional pages of patient resources
-                while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
+    if (useBulkExport()) {
+      // One export with a type filter per calendar year
+      bulkExport(
+          ResourceType.Patient,
+          IntStream.rangeClosed(cutoffYear, currentYear)
+              .mapToObj(year -> fhirServerQuerySuffixBuilder.getPatients(this, year))
+              .toList(),
+          bundle -> handlePatientRessource(bundle, patientsOutput));
+    } else {
+      // Parallel query for each year since cut-off-year till the current year
+      IntStream.rangeClosed(cutoffYear, currentYear)
+          .parallel()
+          .forEach(
+              year -> {
+                var initialBundle = new Bundle();
+                try {
                   initialBundle =
                       this.getSearchService()
-                          .getBundlePart(
-                              getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+                          .getInitialBundle(
+                              fhirServerQuerySuffixBuilder.getPatients(this, year),
+                              GET,
+                              ResourceType.Patient.name());
                   handlePatientRessource(initialBundle, patientsOutput);
+
+                  // Handle pagination for additional pages of patient resources
+                  while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
+                    initialBundle =
+                        this.getSearchService()
+                            .getBundlePart(
+                                getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+                    handlePatientRessource(initialBundle, patientsOutput);
+                  }
+                } catch (Exception e) {
+                  logErrorRetrieval("Patient query for calendar year " + year, e);
                 }
-              } catch (Exception e) {
-                logErrorRetrieval("Patient query for calendar year " + year, e);
-              }
-            });
+              });
+    }
 
     // The patient ids will be the input filter of further calls in the pipeline
-    patientIds =
-        patientsOutput.stream()
-            .map(PatientIdentifierValueProvider::getPatientId)
-            .collect(Collectors.toSet());
-
-    return new ArrayList<>(patientsOutput);
+    List<MiiPatient> patients = patientsOutput.toList();
+    getRunState()
+        .setPatientIds(
+            patients.stream()
+                .map(PatientIdentifierValueProvider::getPatientId)
+                .collect(Collectors.toSet()));
+
+    return patients;
   }
 
   @Override
   public List<MiiPatient> getPatients(
       List<MiiProcedure> ukbProcedures, List<MiiCondition> ukbConditions) {
 
-    // The Initialization of the outgoing set
-    Set<MiiPatient> setPatients = ConcurrentHashMap.newKeySet();
+    // The Initialization of the outgoing collector
+    ResultCollector<MiiPatient> setPatients = new ResultCollector<>();
 
-    if (!patientIdsCouldBeFound(patientIds, ResourceType.Patient)) {
+    if (!patientIdsCouldBeFound(getRunState().getPatientIds(), ResourceType.Patient)) {
       return new ArrayList<>();
     }
-    // Put (unique) pids into a list to facilitate the creation of subsets
+    // Unique pids of the procedures and conditions
     List<String> patientIdList =
         Stream.concat(
                 ukbProcedures.stream().map(MiiProcedure::getPatientId),
@@ -612,41 +941,27 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
             .distinct()
             .collect(Collectors.toList());
 
-    List<List<String>> patientIdSublists = splitList(patientIdList, this.getBatchSize());
-
-    AtomicInteger counter = new AtomicInteger(0);
-
-    patientIdSublists.forEach(
-        patientSubList -> {
-          var initialBundle = new Bundle();
-          logStatusDataRetrievalParallel(
-              patientIdList.size(), counter.getAndIncrement(), FHIRAllTypes.PATIENT.getDisplay());
-
-          HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-          if (httpMethod.equals(GET)) {
-            initialBundle =
-                this.getSearchService()
-                    .getInitialBundle(
-                        fhirServerQuerySuffixBuilder.getPatients(this, patientSubList), GET, null);
-          } else if (httpMethod.equals(POST)) {
-            initialBundle =
-                this.getSearchService()
-                    .getInitialBundle(
-                        fhirServerQuerySuffixBuilder.getPatientsPost(this, patientSubList),
-                        POST,
-                        ResourceType.Patient.name());
-          }
-          handlePatientRessource(initialBundle, setPatients);
+    handlePatientRessource(fetchPatientsIntoRunCache(patientIdList), setPatients);
+    return setPatients.toList();
+  }
 
-          // Handle pagination for additional pages of patient resources
-          while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
-            initialBundle =
-                this.getSearchService()
-                    .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
-            handlePatientRessource(initialBundle, setPatients);
-          }
-        });
-    return new ArrayList<>(setPatients);
+  /**
+   * Retrieves the patient resources of the given ids via the run-scoped cache, so patients that
+   * were already retrieved for another data item context of the run are not queried again.
+   *
+   * @param patientIds The ids of the requested patients.
+   * @return A bundle with the requested patient resources.
+   */
+  private Bundle fetchPatientsIntoRunCache(Collection<String> patientIds) {
+    boolean useGet = fhirSearchConfiguration.getHttpMethod().equals(GET);
+    return fetchPatientResourcesIntoStore(
+        getRunState().getResourceCache(ResourceType.Patient),
+        patientIds,
+        pidSubList ->
+            useGet
+                ? fhirServerQuerySuffixBuilder.getPatients(this, pidSubList)
+                : fhirServerQuerySuffixBuilder.getPatientsPost(this, pidSubList),
+        ResourceType.Patient);
   }
 
   @Override
@@ -657,6 +972,31 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
   @Override
   public List<MiiEncounter> getEncounters(
       DataItemContext dataItemContext, List<MiiPatient> patients) {
+    // The Initialization of the outgoing collector
+    ResultCollector<MiiEncounter> encounters =
+        newResultCollector(resource -> (MiiEncounter) MiiResourceTypes.toMii((Encounter) resource));
+    retrieveEncounters(dataItemContext, patients, encounters::add);
+    return encounters.toList();
+  }
+
+  @Override
+  public EncounterTable getEncounterTable(
+      DataItemContext dataItemContext, List<MiiPatient> patients) {
+    // The encounters are added in their compact form right after the conversion of the bundle
+    // entries, so the HAPI objects of a page can be collected as soon as the page is processed
+    EncounterTable encounterTable = new EncounterTable();
+    retrieveEncounters(dataItemContext, patients, encounterTable::add);
+    return encounterTable;
+  }
+
+  /**
+   * Retrieves the encounters of the given patients (or, if none are given, of the patients found
+   * in the run so far) and passes the valid ones to the sink.
+   */
+  private void retrieveEncounters(
+      DataItemContext dataItemContext,
+      List<MiiPatient> patients,
+      Consumer<MiiEncounter> encounterSink) {
 
     // Retrieve ICU-specific configuration for identifying ICU locations via service providers
     Set<String> icuLocationIdsServiceProvider =
@@ -666,12 +1006,43 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // Check if patient IDs are available for retrieving Encounter resources
     if (patientIdsCouldBeFound(patients, ResourceType.Patient)) {
 
-      // The Initialization of the outgoing set
-      Set<MiiEncounter> encounters = ConcurrentHashMap.newKeySet();
-
       // Reduce to patient id
       Set<String> patientIds = patients.stream().map(MiiPatient::getId).collect(Collectors.toSet());
 
+      // Without the date filter, the encounter query is the same for each context, so the
+      // encounters of patients that were already retrieved in the run can be taken from the cache
+      if (useIncrementalRetrieval() || !getFilterResourcesByDate()) {
+        boolean useGet = fhirSearchConfiguration.getHttpMethod().equals(GET);
+        Bundle mergedBundle =
+            fetchPatientResourcesIntoStore(
+                useIncrementalRetrieval()
+                    ? incrementalRetrieval.getStore(dataItemContext, ResourceType.Encounter)
+                    : getRunState().getResourceCache(ResourceType.Encounter),
+                patientIds,
+                pidSubList ->
+                    useGet
+                        ? fhirServerQuerySuffixBuilder.getEncounters(
+                            this,
+                            pidSubList,
+                            dataItemContext,
+                            false,
+                            getKickOffDateStringFormat(dataItemContext))
+                        : fhirServerQuerySuffixBuilder.getEncountersPost(
+                            this,
+                            pidSubList,
+                            dataItemContext,
+                            getKickOffDateStringFormat(dataItemContext)),
+                ResourceType.Encounter);
+        processEncounterBundle(
+            mergedBundle,
+            encounterSink,
+            icuLocationIdsServiceProvider,
+            serviceProviderIdentifierFound,
+            dataItemContext,
+            getCustomGlobalConfiguration().getUseOutpatientEncounterWithStatusUnknown());
+        return;
+      }
+
       // Split the patient IDs into manageable sublists based on the configured batch size
       List<List<String>> patientIdSublists =
           splitList(new ArrayList<>(patientIds), this.getBatchSize());
@@ -679,75 +1050,91 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       // The encounter data retrieval needs to be done one-by-one since each pid will have an
       // individual date.
       AtomicInteger counter = new AtomicInteger(0);
+      BundlePrefilter prefilter = createEncounterPrefilter(dataItemContext);
       // TODO Maybe remove IMP + date filter in the fhir search query and do this on code base;
       // could speed up a lot
       patientIdSublists.parallelStream()
           .forEach(
-              pidSubList -> {
-                var initialBundle = new Bundle();
-                logStatusDataRetrievalSequential(
-                    0, counter.getAndIncrement(), FHIRAllTypes.ENCOUNTER.getDisplay());
-
-                HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-                if (httpMethod.equals(GET)) {
-                  initialBundle =
-                      this.getSearchService()
-                          .getInitialBundle(
-                              fhirServerQuerySuffixBuilder.getEncounters(
-                                  this,
-                                  pidSubList,
-                                  dataItemContext,
-                                  false,
-                                  getKickOffDateStringFormat(dataItemContext)),
-                              GET,
-                              ResourceType.Encounter.name());
-                } else if (httpMethod.equals(POST)) {
-                  initialBundle =
-                      this.getSearchService()
-                          .getInitialBundle(
-                              fhirServerQuerySuffixBuilder.getEncountersPost(
-                                  this,
-                                  pidSubList,
-                                  dataItemContext,
-                                  getKickOffDateStringFormat(dataItemContext)),
-                              POST,
-                              ResourceType.Encounter.name());
-                }
-                processEncounterBundle(
-                    initialBundle,
-                    encounters,
-                    icuLocationIdsServiceProvider,
-                    serviceProviderIdentifierFound,
-                    dataItemContext,
-                    getCustomGlobalConfiguration().getUseOutpatientEncounterWithStatusUnknown());
-                // Handle pagination for additional pages of encounter resources
-                while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
-                  initialBundle =
-                      this.getSearchService()
-                          .getBundlePart(
-                              getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
-                  processEncounterBundle(
-                      initialBundle,
-                      encounters,
-                      icuLocationIdsServiceProvider,
-                      serviceProviderIdentifierFound,
-                      dataItemContext,
-                      getCustomGlobalConfiguration().getUseOutpatientEncounterWithStatusUnknown());
-                }
-              });
-      return new ArrayList<>(encounters);
+              pidSubList ->
+                  throttled(
+                      () -> {
+                        var initialBundle = new Bundle();
+                        logStatusDataRetrievalSequential(
+                            0, counter.getAndIncrement(), FHIRAllTypes.ENCOUNTER.getDisplay());
+
+                        HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
+                        if (httpMethod.equals(GET)) {
+                          initialBundle =
+                              this.getSearchService()
+                                  .getInitialBundle(
+                                      fhirServerQuerySuffixBuilder.getEncounters(
+                                          this,
+                                          pidSubList,
+                                          dataItemContext,
+                                          false,
+                                          getKickOffDateStringFormat(dataItemContext)),
+                                      GET,
+                                      ResourceType.Encounter.name(),
+                                      prefilter);
+                        } else if (httpMethod.equals(POST)) {
+                          initialBundle =
+                              this.getSearchService()
+                                  .getInitialBundle(
+                                      fhirServerQuerySuffixBuilder.getEncountersPost(
+                                          this,
+                                          pidSubList,
+                                          dataItemContext,
+                                          getKickOffDateStringFormat(dataItemContext)),
+                                      POST,
+                                      ResourceType.Encounter.name(),
+                                      prefilter);
+                        }
+                        processEncounterBundle(
+                            initialBundle,
+                            encounterSink,
+                            icuLocationIdsServiceProvider,
+                            serviceProviderIdentifierFound,
+                            dataItemContext,
+                            getCustomGlobalConfiguration()
+                                .getUseOutpatientEncounterWithStatusUnknown());
+                        // Handle pagination for additional pages of encounter resources
+                        while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
+                          initialBundle =
+                              this.getSearchService()
+                                  .getBundlePart(
+                                      getNextUrl(fhirServerRestConfiguration, initialBundle),
+                                      GET,
+                                      prefilter);
+                          processEncounterBundle(
+                              initialBundle,
+                              encounterSink,
+                              icuLocationIdsServiceProvider,
+                              serviceProviderIdentifierFound,
+                              dataItemContext,
+                              getCustomGlobalConfiguration()
+                                  .getUseOutpatientEncounterWithStatusUnknown());
+                        }
+                      }));
+      prefilter.logStatistics();
+      return;
     }
 
     // Initialize counters for logging and tracking
     AtomicLong countProcessedEncounter =
         new AtomicLong(0); // Tracks the number of processed sublists
     AtomicLong overallTotal = new AtomicLong(0); // Tracks the total number of expected encounters
-    Set<MiiEncounter> encounterSet = ConcurrentHashMap.newKeySet();
+    AtomicLong retrievedEncounters = new AtomicLong(0);
+    Consumer<MiiEncounter> countingSink =
+        encounter -> {
+          retrievedEncounters.incrementAndGet();
+          encounterSink.accept(encounter);
+        };
 
     // Split the patient IDs into manageable sublists based on the configured batch size
     List<List<String>> patientIdSublists =
-        splitList(new ArrayList<>(patientIds), this.getBatchSize());
+        splitList(new ArrayList<>(getRunState().getPatientIds()), this.getBatchSize());
 
+    BundlePrefilter prefilter = createEncounterPrefilter(dataItemContext);
     // Process each patient sublist in parallel
     patientIdSublists.forEach(
         patientIdSublist -> {
@@ -756,39 +1143,40 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
             processSublist(
                 patientIdSublist,
                 dataItemContext,
-                encounterSet,
+                countingSink,
                 overallTotal,
                 icuLocationIdsServiceProvider,
                 serviceProviderIdentifierFound,
-                getCustomGlobalConfiguration().getUseOutpatientEncounterWithStatusUnknown());
+                getCustomGlobalConfiguration().getUseOutpatientEncounterWithStatusUnknown(),
+                prefilter);
           } catch (Exception e) {
+            RunControl.rethrowIfCancelled(e);
             // Log any errors encountered while processing the sublist
             log.error(
                 "Error processing patient sublist {}: {}", patientIdSublist, e.getMessage(), e);
           }
           // Log progress after processing each sublist
           logStatusDataRetrievalParallel(
-              patientIds.size(),
+              getRunState().getPatientIds().size(),
               countProcessedEncounter.getAndIncrement(),
               FHIRAllTypes.ENCOUNTER.getDisplay());
         });
 
+    prefilter.logStatistics();
+
     // Log the total and successfully retrieved encounters
     if (overallTotal.get() != 0)
       log.debug("Tried to retrieve {} encounter resources.", overallTotal.get());
-    log.debug("Retrieved {} encounter resources.", encounterSet.size());
+    log.debug("Retrieved {} encounter resources.", retrievedEncounters.get());
 
     // Warn if there is a mismatch between the expected and retrieved encounter counts
-    if (overallTotal.get() != encounterSet.size()
+    if (overallTotal.get() != retrievedEncounters.get()
         && fhirSearchConfiguration.getHttpMethod() == GET) {
       log.warn(
           "Mismatch between total and retrieved encounters. {} possibly missing due to batch size"
               + " issues.",
-          overallTotal.get() - encounterSet.size());
+          overallTotal.get() - retrievedEncounters.get());
     }
-
-    // Return the retrieved encounters as a list
-    return new ArrayList<>(encounterSet);
   }
 
   @Override
@@ -804,6 +1192,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // The encounter data retrieval needs to be done one-by-one since each pid will have an
     // individual date.
     AtomicInteger counter = new AtomicInteger(0);
+    BundlePrefilter prefilter = createEncounterPrefilter(ACRIBIS);
     pidTimestampMap.forEach(
         (pid, timestamp) -> {
           var initialBundle = new Bundle();
@@ -818,7 +1207,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                         fhirServerQuerySuffixBuilder.getEncounters(
                             this, List.of(pid), ACRIBIS, false, dateToFhirSearchSyntax(timestamp)),
                         GET,
-                        ResourceType.Encounter.name());
+                        ResourceType.Encounter.name(),
+                        prefilter);
           } else if (httpMethod.equals(POST)) {
             initialBundle =
                 this.getSearchService()
@@ -826,17 +1216,20 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                         fhirServerQuerySuffixBuilder.getEncountersPost(
                             this, List.of(pid), ACRIBIS, dateToFhirSearchSyntax(timestamp)),
                         POST,
-                        ResourceType.Encounter.name());
+                        ResourceType.Encounter.name(),
+                        prefilter);
           }
           handleEncountersByContext(initialBundle, ACRIBIS, encounters);
           // Handle pagination for additional pages of encounter resources
           while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
             initialBundle =
                 this.getSearchService()
-                    .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+                    .getBundlePart(
+                        getNextUrl(fhirServerRestConfiguration, initialBundle), GET, prefilter);
             handleEncountersByContext(initialBundle, ACRIBIS, encounters);
           }
         });
+    prefilter.logStatistics();
     return new ArrayList<>(encounters);
   }
 
@@ -848,7 +1241,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
             bundleEntry -> {
               // We just need the 'Einrichtungskontakt' resources
               if (bundleEntry.getResource() instanceof Encounter encounter) {
-                MiiEncounter miiEncounter = (MiiEncounter) ResourceConverter.convert(encounter);
+                MiiEncounter miiEncounter = (MiiEncounter) MiiResourceTypes.toMii(encounter);
                 // encounter needs to be valid, facility contact and inpatient or post-stationary
                 if (miiEncounter.isEncounterStatusValid()) {
                   // By default, add but maybe check other conditions based on context.
@@ -868,11 +1261,12 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
   private void processSublist(
       List<String> patientIdSublist,
       DataItemContext dataItemContext,
-      Set<MiiEncounter> encounterSet,
+      Consumer<MiiEncounter> encounterSink,
       AtomicLong overallTotal,
       Set<String> icuLocationIdsServiceProvider,
       boolean serviceProviderIdentifierFound,
-      boolean useOutpatientEncounterWithStatusUnknown) {
+      boolean useOutpatientEncounterWithStatusUnknown,
+      BundlePrefilter prefilter) {
     var totalBundle = new Bundle();
     var initialBundle = new Bundle();
     HttpMethod httpMethod =
@@ -896,7 +1290,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                   fhirServerQuerySuffixBuilder.getEncounters(
                       this, patientIdSublist, dataItemContext, false, null),
                   GET,
-                  null);
+                  null,
+                  prefilter);
     } else if (httpMethod.equals(POST)) {
       initialBundle =
           this.getSearchService()
@@ -904,12 +1299,13 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                   fhirServerQuerySuffixBuilder.getEncountersPost(
                       this, patientIdSublist, dataItemContext, null),
                   POST,
-                  ResourceType.Encounter.name());
+                  ResourceType.Encounter.name(),
+                  prefilter);
     }
 
     processEncounterBundle(
         initialBundle,
-        encounterSet,
+        encounterSink,
         icuLocationIdsServiceProvider,
         serviceProviderIdentifierFound,
         dataItemContext,
@@ -919,10 +1315,11 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
       initialBundle =
           this.getSearchService()
-              .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+              .getBundlePart(
+                  getNextUrl(fhirServerRestConfiguration, initialBundle), GET, prefilter);
       processEncounterBundle(
           initialBundle,
-          encounterSet,
+          encounterSink,
           icuLocationIdsServiceProvider,
           serviceProviderIdentifierFound,
           dataItemContext,
@@ -932,7 +1329,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
 
   private void processEncounterBundle(
       Bundle bundle,
-      Set<MiiEncounter> encounterSet,
+      Consumer<MiiEncounter> encounterSink,
       Set<String> icuLocationIdsServiceProvider,
       boolean serviceProviderIdentifierFound,
       DataItemContext dataItemContext,
@@ -944,7 +1341,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
             bundleEntry -> {
               if (bundleEntry.getResource() instanceof Encounter encounter) {
                 MiiEncounter miiEncounter =
-                    (MiiEncounter) ResourceConverter.convert(removeNotNeededAttributes(encounter));
+                    (MiiEncounter) MiiResourceTypes.toMii(removeNotNeededAttributes(encounter));
                 updateEncounterStatusIfNeeded(
                     useOutpatientEncounterWithStatusUnknown, miiEncounter);
                 // Filtering of canceled / entered-in-error encounters
@@ -959,14 +1356,23 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                       if (!miiEncounter.isCaseClassInpatient()) return;
                     }
                   }
-                  encounterSet.add(miiEncounter);
                   processEncounterLocations(
                       encounter, icuLocationIdsServiceProvider, serviceProviderIdentifierFound);
+                  // Added after the location handling, since a sink may take a compact copy
+                  encounterSink.accept(miiEncounter);
                 }
               }
             });
   }
 
+  /** Drops cancelled and entered-in-error encounters before the full parse. */
+  private static BundlePrefilter createEncounterPrefilter(DataItemContext dataItemContext) {
+    return new BundlePrefilter(
+        dataItemContext + "_" + ResourceType.Encounter.name(),
+        ResourceType.Encounter.name(),
+        BundlePrefilter.statusNotIn(false, REJECTED_ENCOUNTER_STATUSES));
+  }
+
   /**
    * Updates the encounter status to {@link EncounterStatus#FINISHED} if the given encounter is an
    * outpatient case and currently has the status {@link EncounterStatus#UNKNOWN}, and the feature
@@ -988,7 +1394,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
 
   private void processConditionBundle(
       Bundle bundle,
-      Set<MiiCondition> conditions,
+      ResultCollector<MiiCondition> conditions,
       AtomicInteger filteredConditions,
       DataItemContext dataItemContext) {
     Predicate<MiiCondition> isNeeded = isConditionNeededForContext(dataItemContext);
@@ -998,7 +1404,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         .filter(Condition.class::isInstance)
         .map(Condition.class::cast)
         .peek(ResourceHandler::removeNotNeededAttributes)
-        .map(c -> (MiiCondition) ResourceConverter.convert(c))
+        .map(c -> (MiiCondition) MiiResourceTypes.toMii(c))
         .forEach(
             ukb -> {
               if (isNeeded.test(ukb)) {
@@ -1029,7 +1435,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
 
   private void processObservationBundle(
       Bundle bundle,
-      Set<MiiObservation> observations,
+      ResultCollector<MiiObservation> observations,
+      ObservationTable observationTable,
       AtomicInteger filteredConditions,
       DataItemContext dataItemContext,
       QualitativeLabCodesSettings qualitativeLabCodesSettings) {
@@ -1039,12 +1446,13 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         .filter(Observation.class::isInstance)
         .map(Observation.class::cast)
         .peek(ResourceHandler::removeNotNeededAttributes)
-        .map(c -> (MiiObservation) ResourceConverter.convert(c))
+        .map(c -> (MiiObservation) MiiResourceTypes.toMii(c))
         .forEach(
             ukb -> {
               if (ObservationFilter.isObservationValueGivenType(
                   ukb, DashboardLogicFixedValues.POSITIVE, qualitativeLabCodesSettings)) {
                 observations.add(ukb);
+                ResourceHandler.addToObservationTable(observationTable, ukb, getServerType());
               } else {
                 filteredConditions.incrementAndGet();
               }
@@ -1061,7 +1469,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         .forEach(
             locEntry -> {
               if (locEntry.hasLocation() && locEntry.getLocation().hasReference()) {
-                locationIds.add(extractIdFromReference(locEntry.getLocation()));
+                getRunState().getLocationIds().add(extractIdFromReference(locEntry.getLocation()));
               } else {
                 log.warn(
                     "Unable to extract location reference for encounter {}", encounter.getId());
@@ -1078,97 +1486,138 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
 
     // If no case ids could be found, no procedures need to be determined, because the evaluation
     // logic is based on data from the encounter resource.
-    if (!encounterIdsCouldBeFound(encounterIds, ResourceType.Procedure)) {
+    if (!encounterIdsCouldBeFound(getRunState().getEncounterIds(), ResourceType.Procedure)) {
       return new ArrayList<>();
     }
 
     // Logging progress
     AtomicLong countProcessedProcedures = new AtomicLong(0);
 
-    // Initialization of the outgoing set
-    Set<MiiProcedure> setProcedures = ConcurrentHashMap.newKeySet();
+    // Initialization of the outgoing collector
+    ResultCollector<MiiProcedure> setProcedures =
+        newResultCollector(
+            resource -> (MiiProcedure) ResourceConverter.convert((Procedure) resource));
 
     // Sum of all the encounter resources found
     AtomicLong overallTotal = new AtomicLong(0);
 
     // Input handling
-    List<String> patientIdList = new ArrayList<>(patientIds);
+    List<String> patientIdList = new ArrayList<>(getRunState().getPatientIds());
+
+    if (useIncrementalRetrieval()) {
+      boolean useGet = fhirSearchConfiguration.getHttpMethod().equals(GET);
+      String procedureCodesSystemUrl = fhirSearchConfiguration.getProcedureCodesSystemUrl();
+      Bundle mergedBundle =
+          fetchPatientResourcesIntoStore(
+              incrementalRetrieval.getStore(dataItemContext, ResourceType.Procedure),
+              patientIdList,
+              patientIdSublist ->
+                  useGet
+                      ? fhirServerQuerySuffixBuilder.getProcedures(
+                          this,
+                          patientIdSublist,
+                          null,
+                          procedureCodesSystemUrl,
+                          false,
+                          null,
+                          dataItemContext)
+                      : fhirServerQuerySuffixBuilder.getProceduresPost(
+                          this, patientIdSublist, null, procedureCodesSystemUrl, dataItemContext),
+              ResourceType.Procedure);
+      mergedBundle
+          .getEntry()
+          .forEach(bundleEntry -> handleProcedureResources(bundleEntry, setProcedures, null));
+      return setProcedures.toList();
+    }
+
     List<List<String>> patientIdSublists = splitList(patientIdList, this.getBatchSize());
+    BundlePrefilter prefilter = createProcedurePrefilter(dataItemContext);
 
     patientIdSublists.parallelStream()
         .forEach(
-            patientIdSublist -> {
-              var initialBundle = new Bundle();
-              var totalBundle = new Bundle();
-              HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-              if (httpMethod.equals(
-                  GET)) { // Ask the total count to track if in the end the numbers are the same
-                totalBundle =
-                    this.getSearchService()
-                        .getInitialBundle(
-                            fhirServerQuerySuffixBuilder.getProcedures(
-                                this,
-                                patientIdSublist,
-                                null,
-                                fhirSearchConfiguration.getProcedureCodesSystemUrl(),
-                                true,
-                                null,
-                                dataItemContext),
-                            GET,
-                            null);
-                initialBundle =
-                    this.getSearchService()
-                        .getInitialBundle(
-                            fhirServerQuerySuffixBuilder.getProcedures(
-                                this,
-                                patientIdSublist,
-                                null,
-                                fhirSearchConfiguration.getProcedureCodesSystemUrl(),
-                                false,
-                                null,
-                                dataItemContext),
-                            GET,
-                            null);
-                log.debug("Procedures found for this part bundle: {}", totalBundle.getTotal());
-              } else if (httpMethod.equals(POST)) {
-                initialBundle =
-                    this.getSearchService()
-                        .getInitialBundle(
-                            fhirServerQuerySuffixBuilder.getProceduresPost(
-                                this,
-                                patientIdSublist,
-                                null,
-                                fhirSearchConfiguration.getProcedureCodesSystemUrl(),
-                                dataItemContext),
-                            POST,
-                            ResourceType.Procedure.name());
-                log.debug(
-                    "Initial procedures found for this part bundle: {}",
-                    initialBundle.getEntry().size());
-              }
-              overallTotal.addAndGet(totalBundle.getTotal());
-
-              // Collecting the encounter resources
-              initialBundle
-                  .getEntry()
-                  .forEach(
-                      bundleEntry -> handleProcedureResources(bundleEntry, setProcedures, null));
-              // Pagination through follow pages if existing
-              while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
-                initialBundle =
-                    this.getSearchService()
-                        .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
-                initialBundle
-                    .getEntry()
-                    .forEach(
-                        bundleEntry -> handleProcedureResources(bundleEntry, setProcedures, null));
-              }
-              logStatusDataRetrievalParallel(
-                  patientIdList.size(),
-                  countProcessedProcedures.getAndIncrement(),
-                  FHIRAllTypes.PROCEDURE.getDisplay());
-            });
-    return new ArrayList<>(setProcedures);
+            patientIdSublist ->
+                throttled(
+                    () -> {
+                      var initialBundle = new Bundle();
+                      var totalBundle = new Bundle();
+                      HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
+                      // Ask the total count to track if in the end the numbers are the same
+                      if (httpMethod.equals(GET)) {
+                        totalBundle =
+                            this.getSearchService()
+                                .getInitialBundle(
+                                    fhirServerQuerySuffixBuilder.getProcedures(
+                                        this,
+                                        patientIdSublist,
+                                        null,
+                                        fhirSearchConfiguration.getProcedureCodesSystemUrl(),
+                                        true,
+                                        null,
+                                        dataItemContext),
+                                    GET,
+                                    null);
+                        initialBundle =
+                            this.getSearchService()
+                                .getInitialBundle(
+                                    fhirServerQuerySuffixBuilder.getProcedures(
+                                        this,
+                                        patientIdSublist,
+                                        null,
+                                        fhirSearchConfiguration.getProcedureCodesSystemUrl(),
+                                        false,
+                                        null,
+                                        dataItemContext),
+                                    GET,
+                                    null,
+                                    prefilter);
+                        log.debug(
+                            "Procedures found for this part bundle: {}", totalBundle.getTotal());
+                      } else if (httpMethod.equals(POST)) {
+                        initialBundle =
+                            this.getSearchService()
+                                .getInitialBundle(
+                                    fhirServerQuerySuffixBuilder.getProceduresPost(
+                                        this,
+                                        patientIdSublist,
+                                        null,
+                                        fhirSearchConfiguration.getProcedureCodesSystemUrl(),
+                                        dataItemContext),
+                                    POST,
+                                    ResourceType.Procedure.name(),
+                                    prefilter);
+                        log.debug(
+                            "Initial procedures found for this part bundle: {}",
+                            initialBundle.getEntry().size());
+                      }
+                      overallTotal.addAndGet(totalBundle.getTotal());
+
+                      // Collecting the encounter resources
+                      initialBundle
+                          .getEntry()
+                          .forEach(
+                              bundleEntry ->
+                                  handleProcedureResources(bundleEntry, setProcedures, null));
+                      // Pagination through follow pages if existing
+                      while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
+                        initialBundle =
+                            this.getSearchService()
+                                .getBundlePart(
+                                    getNextUrl(fhirServerRestConfiguration, initialBundle),
+                                    GET,
+                                    prefilter);
+                        initialBundle
+                            .getEntry()
+                            .forEach(
+                                bundleEntry ->
+                                    handleProcedureResources(bundleEntry, setProcedures, null));
+                      }
+                      logStatusDataRetrievalParallel(
+                          patientIdList.size(),
+                          countProcessedProcedures.getAndIncrement(),
+                          FHIRAllTypes.PROCEDURE.getDisplay());
+                    }));
+    prefilter.logStatistics();
+    return setProcedures.toList();
   }
 
   @Override
@@ -1187,14 +1636,15 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // Logging progress
     AtomicLong countProcessedProcedures = new AtomicLong(0);
 
-    // Initialization of the outgoing set
-    Set<MiiProcedure> setProcedures = ConcurrentHashMap.newKeySet();
+    // Initialization of the outgoing collector
+    ResultCollector<MiiProcedure> setProcedures = new ResultCollector<>();
 
     // Sum of all the encounter resources found
     AtomicLong overallTotal = new AtomicLong(0);
 
     // Input handling
     List<List<String>> facilityContactsSubList = splitList(facilityContactIds, this.getBatchSize());
+    BundlePrefilter prefilter = createProcedurePrefilter(dataItemContext);
 
     facilityContactsSubList.parallelStream()
         .forEach(
@@ -1234,7 +1684,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                                 null,
                                 dataItemContext),
                             httpMethod,
-                            resourceType);
+                            resourceType,
+                            prefilter);
 
                 log.debug("Procedures for this part bundle (total): {}", totalBundle.getTotal());
               } else {
@@ -1249,7 +1700,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                                 fhirSearchConfiguration.getProcedureCodesSystemUrl(),
                                 dataItemContext),
                             httpMethod,
-                            resourceType);
+                            resourceType,
+                            prefilter);
                 log.debug(
                     "Initial procedures for this part bundle: {}", initialBundle.getEntry().size());
               }
@@ -1267,7 +1719,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
               while (initialBundle.hasLink() && initialBundle.getLink(NEXT) != null) {
                 initialBundle =
                     this.getSearchService()
-                        .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+                        .getBundlePart(
+                            getNextUrl(fhirServerRestConfiguration, initialBundle), GET, prefilter);
                 initialBundle
                     .getEntry()
                     .forEach(
@@ -1280,18 +1733,20 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                   countProcessedProcedures.getAndIncrement(),
                   FHIRAllTypes.PROCEDURE.getDisplay());
             });
-    return new ArrayList<>(setProcedures);
+    prefilter.logStatistics();
+    return setProcedures.toList();
   }
 
   @Override
   public List<MiiProcedure> getProcedures(
       Collection<MiiEncounter> encounters, DataItemContext dataItemContext, Boolean activeOnly) {
 
-    Set<MiiProcedure> procedures = ConcurrentHashMap.newKeySet();
+    ResultCollector<MiiProcedure> procedures = new ResultCollector<>();
     Set<String> encounterCaseIds =
         encounters.stream().map(Resource::getId).collect(Collectors.toSet());
     List<List<String>> encounterIdSubsets =
         splitList(new ArrayList<>(encounterCaseIds), this.getBatchSize());
+    BundlePrefilter prefilter = createProcedurePrefilter(dataItemContext);
     encounterIdSubsets.parallelStream()
         .forEach(
             subList -> {
@@ -1310,7 +1765,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                                 useGet,
                                 false),
                             httpMethod,
-                            ResourceType.Procedure.name());
+                            ResourceType.Procedure.name(),
+                            prefilter);
                 switch (dataItemContext) {
                   case KIDS_RADAR -> procedures.addAll(getKiraProceduresFromBundle(initialBundle));
                   default -> throw new Exception("No implemented yet");
@@ -1320,7 +1776,9 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                   initialBundle =
                       this.getSearchService()
                           .getBundlePart(
-                              getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
+                              getNextUrl(fhirServerRestConfiguration, initialBundle),
+                              GET,
+                              prefilter);
                   switch (dataItemContext) {
                     case KIDS_RADAR ->
                         procedures.addAll(getKiraProceduresFromBundle(initialBundle));
@@ -1331,7 +1789,8 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
                 logErrorRetrieval("Procedure", e);
               }
             });
-    return new ArrayList<>(procedures);
+    prefilter.logStatistics();
+    return procedures.toList();
   }
 
   private Collection<? extends MiiProcedure> getKiraProceduresFromBundle(Bundle initialBundle) {
@@ -1355,8 +1814,18 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
         .collect(Collectors.toCollection(ArrayList::new));
   }
 
+  /** Drops the procedures without a valid status before the full parse. */
+  private static BundlePrefilter createProcedurePrefilter(DataItemContext dataItemContext) {
+    return new BundlePrefilter(
+        dataItemContext + "_" + ResourceType.Procedure.name(),
+        ResourceType.Procedure.name(),
+        BundlePrefilter.statusNotIn(true, REJECTED_PROCEDURE_STATUSES));
+  }
+
   private static void handleProcedureResources(
-      BundleEntryComponent bundleEntry, Set<MiiProcedure> setProcedures, List<String> opsCodes) {
+      BundleEntryComponent bundleEntry,
+      ResultCollector<MiiProcedure> setProcedures,
+      List<String> opsCodes) {
     if (bundleEntry.getResource() instanceof Procedure procedure) {
       if (isProcedureStatusValid(procedure)) {
         MiiProcedure ukbProcedure = (MiiProcedure) ResourceConverter.convert(procedure);
@@ -1420,47 +1889,71 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     return getProcedures(dataItemContext);
   }
 
+  @Override
+  public List<MiiProcedure> getProcedures(
+      EncounterTable encounterTable,
+      List<MiiLocation> listMiiLocations,
+      List<MiiObservation> listUkbObservations,
+      List<MiiCondition> listUkbConditions,
+      DataItemContext dataItemContext) {
+    // The procedures are retrieved via the patients of the run; no need to decode the encounters
+    return getProcedures(dataItemContext);
+  }
+
   @Override
   public List<Location> getLocations() {
 
     // If no case ids could be found, no procedures need to be determined, because the evaluation
     // logic is based on data from the encounter resource.
-    if (!locationIdsCouldBeFound(locationIds, ResourceType.Location)) {
+    if (!locationIdsCouldBeFound(getRunState().getLocationIds(), ResourceType.Location)) {
       return new ArrayList<>();
     }
 
-    // Initialization of the outgoing set
-    Set<Location> setLocations = ConcurrentHashMap.newKeySet();
+    // Locations are shared by all contexts of the run (and, if the reference cache is active,
+    // by the following runs), so only unknown ids need to be queried
+    boolean useReferenceCache = referenceCache != null && referenceCache.isEnabled();
+    ResourceStore locationCache =
+        useReferenceCache
+            ? referenceCache.getStore(ResourceType.Location)
+            : getRunState().getResourceCache(ResourceType.Location);
+    boolean revalidate =
+        useReferenceCache && referenceCache.needsRevalidation(locationCache, ResourceType.Location);
+    Instant retrievalStart = Instant.now();
+    List<String> missingLocationIds =
+        getRunState().getLocationIds().stream()
+            .filter(locationId -> !locationCache.containsId(locationId))
+            .toList();
+
+    if (revalidate && locationCache.size() > 0) {
+      // Just the cached locations that changed since the last revalidation are fetched
+      fetchLocationsIntoStore(locationCache, new ArrayList<>(locationCache.getIds()), true);
+    }
+    fetchLocationsIntoStore(locationCache, missingLocationIds, false);
+    if (useReferenceCache && (revalidate || !missingLocationIds.isEmpty())) {
+      referenceCache.save(
+          locationCache, revalidate ? retrievalStart : locationCache.getHighWaterMark());
+    }
 
-    List<List<String>> locationIdSublists =
-        splitList(new ArrayList<>(locationIds), this.getBatchSize());
+    return getRunState().getLocationIds().stream()
+        .map(locationId -> locationCache.getById(locationId, Location.class::cast))
+        .filter(Objects::nonNull)
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
 
-    locationIdSublists.forEach(
-        locationIdSubList -> {
-          HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
-          if (httpMethod.equals(GET)) {
-            reqBundleEntry =
-                this.getSearchService()
-                    .getBundleData(
-                        fhirServerQuerySuffixBuilder.getLocations(this, locationIdSubList, true),
-                        GET,
-                        ResourceType.Location.name());
-          } else if (httpMethod.equals(POST)) {
-            reqBundleEntry =
-                this.getSearchService()
-                    .getBundleData(
-                        fhirServerQuerySuffixBuilder.getLocations(this, locationIdSubList, false),
-                        POST,
-                        ResourceType.Location.name());
-          }
-          reqBundleEntry.forEach(
-              bundleEntry -> {
-                if (bundleEntry.getResource() instanceof Location location) {
-                  setLocations.add(location);
-                }
-              });
-        });
-    return new ArrayList<>(setLocations);
+  /** Retrieves the given locations in batches and adds them to the store. */
+  private void fetchLocationsIntoStore(
+      ResourceStore store, List<String> locationIds, boolean onlyChanges) {
+    HttpMethod httpMethod = fhirSearchConfiguration.getHttpMethod();
+    splitList(locationIds, this.getBatchSize())
+        .forEach(
+            locationIdSubList ->
+                fetchIntoStore(
+                    store,
+                    fhirServerQuerySuffixBuilder.getLocations(
+                        this, locationIdSubList, httpMethod.equals(GET)),
+                    httpMethod,
+                    ResourceType.Location,
+                    onlyChanges));
   }
 
   @Override
@@ -1488,7 +1981,11 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
       // Parsing the retrieved resources and reading out the patients and Encounter Ids for later
       // data queries.
       ResourceHandler.handleConsentEntries(
-          initialBundle, consents, miiEncounters, patientIds, this.getServerType());
+          initialBundle,
+          consents,
+          miiEncounters,
+          getRunState().getPatientIds(),
+          this.getServerType());
       initialBundle =
           this.getSearchService()
               .getBundlePart(getNextUrl(fhirServerRestConfiguration, initialBundle), GET);
@@ -1497,7 +1994,11 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     }
     // no next link existent? -> just add the results to the lists and go further on
     ResourceHandler.handleConsentEntries(
-        initialBundle, consents, miiEncounters, patientIds, this.getServerType());
+        initialBundle,
+        consents,
+        miiEncounters,
+        getRunState().getPatientIds(),
+        this.getServerType());
     return consents;
   }
 
@@ -1528,8 +2029,6 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     return broadConsents;
   }
 
-  Set<String> followUpQuestionnaireIds = new HashSet<>();
-
   @Override
   public List<MiiQuestionnaireResponse> getQuestionnaireResponses(List<String> patientIds) {
 
@@ -1547,7 +2046,7 @@ public class FhirDataRetrievalService extends AbstractDataRetrievalService {
     // Input handling
     List<List<String>> patientIdSubLists = splitList(patientIds, this.getBatchSize());
 
-    followUpQuestionnaireIds = new HashSet<>();
+    Set<String> followUpQuestionnaireIds = ConcurrentHashMap.newKeySet();
 
     patientIdSubLists.parallelStream()
         .forEach(
@@ -26,6 +26,11 @@ import de.ukbonn.mwtek.dashboard.auth.RestConsumer;
 import de.ukbonn.mwtek.dashboard.configuration.FhirSearchConfiguration;
 import de.ukbonn.mwtek.dashboard.configuration.FhirServerRestConfiguration;
 import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.ParallelBundleParser;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.misc.StreamingBundleReader;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.List;
@@ -57,10 +62,24 @@ public class FhirSearchService extends RestConsumer implements SearchService {
 
   protected FhirServerRestConfiguration fhirServerConf;
 
+  /** Reads the search bundle pages if enabled via the configuration; otherwise {@code null}. */
+  private final StreamingBundleReader streamingReader;
+
+  /** Splits large bundle pages if enabled via the configuration; otherwise {@code null}. */
+  private final ParallelBundleParser parallelParser;
+
   @Autowired
   public FhirSearchService(FhirServerRestConfiguration fhirServerConf) {
     super(fhirServerConf);
     this.fhirServerConf = fhirServerConf;
+    this.streamingReader =
+        fhirServerConf.isStreamingReader() ? new StreamingBundleReader(ctx) : null;
+    this.parallelParser =
+        fhirServerConf.isParallelParsing()
+            ? new ParallelBundleParser(
+                json -> parsePage(MiiResourceTypes.newJsonParser(ctx), json),
+                fhirServerConf.getParallelParsingChunkSize())
+            : null;
   }
 
   /**
@@ -76,8 +95,8 @@ public class FhirSearchService extends RestConsumer implements SearchService {
    */
   public List<BundleEntryComponent> getBundleData(
       String parametersInputString, HttpMethod httpMethod, String resourceType) {
-
-    IParser parser = ctx.newJsonParser();
+    RunControl.checkCancelled();
+    IParser parser = MiiResourceTypes.newJsonParser(ctx);
     String fhirServerEndpoint = this.fhirServerConf.getRestUrl();
     RestTemplate rest = this.getRestTemplate();
 
@@ -114,7 +133,14 @@ public class FhirSearchService extends RestConsumer implements SearchService {
    * @return The response from the FHIR search query, parsed into a FHIR {@link Bundle} object
    */
   public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
-    IParser parser = ctx.newJsonParser();
+    return getInitialBundle(querySuffix, httpMethod, resourceType, null);
+  }
+
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    RunControl.checkCancelled();
+    IParser parser = MiiResourceTypes.newJsonParser(ctx);
     String fhirServerEndpoint = this.fhirServerConf.getRestUrl();
     RestTemplate rest = this.getRestTemplate();
     switch (httpMethod.name()) {
@@ -122,7 +148,7 @@ public class FhirSearchService extends RestConsumer implements SearchService {
         String restUrl = fhirServerEndpoint + querySuffix;
         log.debug(restUrl);
         ResponseEntity<String> searchRequest = rest.getForEntity(restUrl, String.class);
-        return parser.parseResource(Bundle.class, searchRequest.getBody());
+        return parseBundle(parser, searchRequest.getBody(), prefilter);
       }
       case "POST" -> {
         String restUrl = fhirServerEndpoint + resourceType + "/_search";
@@ -131,7 +157,7 @@ public class FhirSearchService extends RestConsumer implements SearchService {
         header.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
         HttpEntity<String> entity = new HttpEntity<>(querySuffix, header);
         ResponseEntity<String> searchRequest = rest.postForEntity(restUrl, entity, String.class);
-        return parser.parseResource(Bundle.class, searchRequest.getBody());
+        return parseBundle(parser, searchRequest.getBody(), prefilter);
       }
     }
     return null;
@@ -155,7 +181,15 @@ public class FhirSearchService extends RestConsumer implements SearchService {
    * @return The response from the FHIR search query, parsed into a FHIR {@link Bundle} object.
    */
   public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
-    IParser parser = ctx.newJsonParser();
+    return getBundlePart(linkToNextPart, httpMethod, null);
+  }
+
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    // Checked before each page, which stops every pagination chain of a cancelled run
+    RunControl.checkCancelled();
+    IParser parser = MiiResourceTypes.newJsonParser(ctx);
     RestTemplate rest = this.getRestTemplate();
     // The resource.link.next URL can be URL encoded (e.g. on the Blaze server). This allows, for
     // example, comma-separated code arrays to be interpreted as a single string. That's why we
@@ -164,7 +198,27 @@ public class FhirSearchService extends RestConsumer implements SearchService {
     log.debug(linkToNextPartDecoded);
 
     ResponseEntity<String> searchRequest = rest.getForEntity(linkToNextPartDecoded, String.class);
-    return parser.parseResource(Bundle.class, searchRequest.getBody());
+    return parseBundle(parser, searchRequest.getBody(), prefilter);
+  }
+
+  /**
+   * Parses a search bundle; the entries that the prefilter rejects are dropped beforehand. The
+   * streaming reader is used instead of the HAPI parser if it is enabled, and large pages are
+   * parsed in parallel chunks if that is enabled.
+   */
+  private Bundle parseBundle(IParser parser, String body, BundlePrefilter prefilter) {
+    String json = prefilter != null ? prefilter.apply(body) : body;
+    if (parallelParser != null) {
+      return parallelParser.parse(json);
+    }
+    return parsePage(parser, json);
+  }
+
+  private Bundle parsePage(IParser parser, String json) {
+    if (streamingReader != null) {
+      return streamingReader.read(json);
+    }
+    return parser.parseResource(Bundle.class, json);
   }
 
   @Override
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import static de.ukbonn.mwtek.dashboardlogic.logic.CoronaResultFunctionality.extractIdFromReference;
+
+import de.ukbonn.mwtek.dashboard.configuration.FileSourceConfiguration;
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.FhirFileIndex;
+import de.ukbonn.mwtek.dashboard.store.ResourceStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.BaseDateTimeType;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CapabilityStatement.CapabilityStatementSoftwareComponent;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Consent;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Encounter.DiagnosisComponent;
+import org.hl7.fhir.r4.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Procedure;
+import org.hl7.fhir.r4.model.Questionnaire;
+import org.hl7.fhir.r4.model.QuestionnaireResponse;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Type;
+import org.springframework.http.HttpMethod;
+
+/**
+ * {@link SearchService} of the {@link de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum#FILE file data
+ * source}, which answers the FHIR searches of the {@link FhirDataRetrievalService} from a {@link
+ * FhirFileIndex} instead of a server. The files are indexed on the first search.
+ *
+ * <p>The search parameters that the retrieval uses are supported:
+ *
+ * <ul>
+ *   <li><code>_id</code>, <code>subject</code>/<code>patient</code> and <code>encounter</code>
+ *   <li><code>code</code> and <code>category</code> as <code>code</code> or <code>system|code
+ *       </code> tokens
+ *   <li><code>date</code>, <code>recorded-date</code>, <code>birthdate</code> and <code>
+ *       _lastUpdated</code> (taken from <code>meta.lastUpdated</code>) with the prefixes <code>eq
+ *       </code>, <code>ne</code>, <code>gt</code>, <code>lt</code>, <code>ge</code> and <code>le
+ *       </code>
+ *   <li><code>questionnaire</code> and <code>url</code>
+ *   <li><code>_summary=count</code> and the (rev)include of <code>Encounter:diagnosis</code>
+ * </ul>
+ *
+ * <p><code>_count</code> and <code>_pretty</code> are ignored, since all matches are returned in a
+ * single bundle without pagination. Any other parameter or value is rejected with an {@link
+ * IllegalArgumentException}, since ignoring a filter would silently return too many resources.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class FileSearchService implements SearchService {
+
+  private static final String SOFTWARE_NAME = "FHIR files";
+  private static final String INCLUDE_ENCOUNTER_DIAGNOSIS = "Encounter:diagnosis";
+  private static final Set<String> DATE_PREFIXES = Set.of("eq", "ne", "gt", "lt", "ge", "le");
+  private static final String LAST_UPDATED = "_lastUpdated";
+  private static final String SUMMARY = "_summary";
+  private static final String INCLUDE = "_include";
+  private static final String REV_INCLUDE = "_revinclude";
+
+  /** The parameters that restrict the matches. */
+  private static final Set<String> FILTER_PARAMETERS =
+      Set.of(
+          "_id",
+          "subject",
+          "patient",
+          "encounter",
+          "code",
+          "category",
+          "date",
+          "recorded-date",
+          "birthdate",
+          LAST_UPDATED,
+          "questionnaire",
+          "url");
+
+  /** The parameters that just shape the result bundle. */
+  private static final Set<String> RESULT_PARAMETERS =
+      Set.of("_count", "_pretty", SUMMARY, INCLUDE, REV_INCLUDE);
+
+  private final FileSourceConfiguration fileSourceConfiguration;
+  private volatile FhirFileIndex fhirFileIndex;
+
+  public FileSearchService(FileSourceConfiguration fileSourceConfiguration) {
+    this.fileSourceConfiguration = fileSourceConfiguration;
+  }
+
+  @Override
+  public List<BundleEntryComponent> getBundleData(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return search(querySuffix, resourceType).getEntry();
+  }
+
+  @Override
+  public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return search(querySuffix, resourceType);
+  }
+
+  /** The resources of the index are already parsed, so the prefilter is applied to the result. */
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    Bundle bundle = search(querySuffix, resourceType);
+    return prefilter == null ? bundle : prefilter.apply(bundle);
+  }
+
+  @Override
+  public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
+    // The search results never contain a link to a next page
+    throw new IllegalStateException("The file data source has no paging: " + linkToNextPart);
+  }
+
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    return getBundlePart(linkToNextPart, httpMethod);
+  }
+
+  @Override
+  public CapabilityStatement getCapabilityStatement(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    Path directory = Path.of(fileSourceConfiguration.getDirectory());
+    if (!Files.isDirectory(directory)) {
+      throw new IllegalStateException("The directory " + directory + " does not exist");
+    }
+    CapabilityStatement capabilityStatement = new CapabilityStatement();
+    capabilityStatement.setStatus(PublicationStatus.ACTIVE);
+    capabilityStatement.setSoftware(
+        new CapabilityStatementSoftwareComponent()
+            .setName(SOFTWARE_NAME)
+            .setVersion(directory.toString()));
+    return capabilityStatement;
+  }
+
+  /** Returns the index of the resource files, which gets created on first use. */
+  private FhirFileIndex getFhirFileIndex() {
+    FhirFileIndex index = fhirFileIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = fhirFileIndex;
+        if (index == null) {
+          try {
+            index =
+                FhirFileIndex.load(
+                    Path.of(fileSourceConfiguration.getDirectory()),
+                    Path.of(fileSourceConfiguration.getIndexDirectory()));
+          } catch (IOException e) {
+            throw new UncheckedIOException("Unable to index the resource files", e);
+          }
+          fhirFileIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Evaluates a search.
+   *
+   * @param querySuffix The query suffix (e.g. <code>Observation?code=1234-5</code>) or the POST
+   *     body with just the parameters.
+   * @param resourceType The resource type, if the query suffix doesn't start with it.
+   * @return A search set bundle with all matches.
+   */
+  private Bundle search(String querySuffix, String resourceType) {
+    RunControl.checkCancelled();
+    String query = querySuffix;
+    String type = resourceType;
+    int questionMark = query.indexOf('?');
+    if (questionMark >= 0 && !query.substring(0, questionMark).contains("=")) {
+      type = query.substring(0, questionMark);
+      query = query.substring(questionMark + 1);
+    }
+    if (type == null) {
+      throw new IllegalArgumentException("Unknown resource type of the search " + querySuffix);
+    }
+    ResourceType searchedType = ResourceType.fromCode(type);
+    Map<String, List<String>> parameters = parseParameters(query);
+    checkParameters(parameters, querySuffix);
+    List<Map.Entry<String, List<String>>> filters =
+        parameters.entrySet().stream()
+            .filter(parameter -> FILTER_PARAMETERS.contains(parameter.getKey()))
+            .toList();
+
+    List<Resource> matches =
+        findCandidates(searchedType, parameters).stream()
+            .filter(resource -> filters.stream().allMatch(filter -> matches(resource, filter)))
+            .toList();
+
+    Bundle bundle = new Bundle();
+    bundle.setType(BundleType.SEARCHSET);
+    bundle.setTotal(matches.size());
+    if (parameters.getOrDefault(SUMMARY, List.of()).contains("count")) {
+      return bundle;
+    }
+    matches.forEach(resource -> addEntry(bundle, resource, SearchEntryMode.MATCH));
+    if (parameters.containsKey(INCLUDE)) {
+      includeDiagnoses(bundle, matches);
+    }
+    if (parameters.containsKey(REV_INCLUDE)) {
+      revIncludeEncounters(bundle, matches);
+    }
+    return bundle;
+  }
+
+  /** Rejects the parameters and values that the search can't evaluate. */
+  private static void checkParameters(Map<String, List<String>> parameters, String querySuffix) {
+    for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+      String name = parameter.getKey();
+      List<String> values = parameter.getValue();
+      boolean supported =
+          switch (name) {
+            case SUMMARY -> values.stream().allMatch(value -> value.matches("count|false"));
+            case INCLUDE, REV_INCLUDE ->
+                values.stream().allMatch(INCLUDE_ENCOUNTER_DIAGNOSIS::equals);
+            default -> FILTER_PARAMETERS.contains(name) || RESULT_PARAMETERS.contains(name);
+          };
+      if (!supported) {
+        throw new IllegalArgumentException(
+            "Unsupported search parameter " + name + "=" + values + " in " + querySuffix);
+      }
+    }
+  }
+
+  /** Splits the query into its (url-decoded) parameters; a parameter can occur repeatedly. */
+  private static Map<String, List<String>> parseParameters(String query) {
+    Map<String, List<String>> parameters = new LinkedHashMap<>();
+    for (String parameter : query.split("&")) {
+      int equals = parameter.indexOf('=');
+      if (equals <= 0) {
+        continue;
+      }
+      parameters
+          .computeIfAbsent(decode(parameter.substring(0, equals)), k -> new ArrayList<>())
+          .add(decode(parameter.substring(equals + 1)));
+    }
+    return parameters;
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+  /** Uses the most selective index that the parameters allow. */
+  private List<Resource> findCandidates(
+      ResourceType resourceType, Map<String, List<String>> parameters) {
+    ResourceStore store = getFhirFileIndex().getStore(resourceType);
+    if (store == null) {
+      return List.of();
+    }
+    Function<Resource, Resource> identity = Function.identity();
+    if (parameters.containsKey("_id")) {
+      return values(parameters.get("_id")).stream()
+          .map(id -> store.getById(id, identity))
+          .filter(Objects::nonNull)
+          .toList();
+    }
+    List<String> patientIds =
+        parameters.containsKey("subject") ? parameters.get("subject") : parameters.get("patient");
+    if (patientIds != null) {
+      return store.getByPatientIds(referencedIds(patientIds), identity);
+    }
+    if (parameters.containsKey("encounter")) {
+      return store.getByEncounterIds(referencedIds(parameters.get("encounter")), identity);
+    }
+    return store.getAll(identity);
+  }
+
+  private static boolean matches(Resource resource, Map.Entry<String, List<String>> parameter) {
+    return parameter.getValue().stream()
+        .allMatch(
+            value ->
+                switch (parameter.getKey()) {
+                  case "_id" -> values(value).contains(resource.getIdElement().getIdPart());
+                  case "subject", "patient" ->
+                      referencedIds(List.of(value)).contains(patientId(resource));
+                  case "encounter" ->
+                      referencedIds(List.of(value)).contains(encounterId(resource));
+                  case "code" -> matchesCodes(codes(resource), values(value));
+                  case "category" -> matchesCodes(categories(resource), values(value));
+                  case "date", "recorded-date", "birthdate", LAST_UPDATED ->
+                      matchesDate(dateRange(resource, parameter.getKey()), value);
+                  case "questionnaire" ->
+                      resource instanceof QuestionnaireResponse questionnaireResponse
+                          && values(value).contains(questionnaireResponse.getQuestionnaire());
+                  case "url" ->
+                      resource instanceof Questionnaire questionnaire
+                          && values(value).contains(questionnaire.getUrl());
+                  default ->
+                      throw new IllegalArgumentException(
+                          "Unsupported search parameter " + parameter.getKey());
+                });
+  }
+
+  /** Splits a comma-separated parameter value. */
+  private static List<String> values(String value) {
+    return Arrays.asList(value.split(","));
+  }
+
+  private static List<String> values(Collection<String> parameterValues) {
+    return parameterValues.stream().flatMap(value -> values(value).stream()).toList();
+  }
+
+  /** Reduces references like <code>Patient/123</code> to the ids. */
+  private static Set<String> referencedIds(Collection<String> parameterValues) {
+    return values(parameterValues).stream()
+        .map(value -> value.substring(value.lastIndexOf('/') + 1))
+        .collect(Collectors.toSet());
+  }
+
+  private static String patientId(Resource resource) {
+    return switch (resource) {
+      case Patient patient -> patient.getIdElement().getIdPart();
+      case Observation observation -> referencedId(observation.getSubject());
+      case Condition condition -> referencedId(condition.getSubject());
+      case Encounter encounter -> referencedId(encounter.getSubject());
+      case Procedure procedure -> referencedId(procedure.getSubject());
+      case Consent consent -> referencedId(consent.getPatient());
+      case QuestionnaireResponse questionnaireResponse ->
+          referencedId(questionnaireResponse.getSubject());
+      default -> null;
+    };
+  }
+
+  private static String encounterId(Resource resource) {
+    return switch (resource) {
+      case Encounter encounter -> encounter.getIdElement().getIdPart();
+      case Observation observation -> referencedId(observation.getEncounter());
+      case Condition condition -> referencedId(condition.getEncounter());
+      case Procedure procedure -> referencedId(procedure.getEncounter());
+      case QuestionnaireResponse questionnaireResponse ->
+          referencedId(questionnaireResponse.getEncounter());
+      default -> null;
+    };
+  }
+
+  private static String referencedId(Reference reference) {
+    return reference != null && reference.hasReference()
+        ? extractIdFromReference(reference)
+        : null;
+  }
+
+  private static List<CodeableConcept> codes(Resource resource) {
+    return switch (resource) {
+      case Observation observation -> List.of(observation.getCode());
+      case Condition condition -> List.of(condition.getCode());
+      case Procedure procedure -> List.of(procedure.getCode());
+      default -> List.of();
+    };
+  }
+
+  private static List<CodeableConcept> categories(Resource resource) {
+    return switch (resource) {
+      case Observation observation -> observation.getCategory();
+      case Condition condition -> condition.getCategory();
+      case Procedure procedure -> List.of(procedure.getCategory());
+      case Consent consent -> consent.getCategory();
+      default -> List.of();
+    };
+  }
+
+  /** Does one of the codings match one of the tokens (code or system|code)? */
+  private static boolean matchesCodes(List<CodeableConcept> concepts, List<String> tokens) {
+    return concepts.stream()
+        .flatMap(concept -> concept.getCoding().stream())
+        .anyMatch(
+            coding ->
+                tokens.stream()
+                    .anyMatch(
+                        token -> {
+                          int pipe = token.indexOf('|');
+                          return pipe < 0
+                              ? token.equals(coding.getCode())
+                              : token.substring(pipe + 1).equals(coding.getCode())
+                                  && (pipe == 0
+                                      || token.substring(0, pipe).equals(coding.getSystem()));
+                        }));
+  }
+
+  /**
+   * The time range of the date that a date parameter searches; <code>null</code> if the resource
+   * has no such date.
+   */
+  private static Date[] dateRange(Resource resource, String parameterName) {
+    if (parameterName.equals(LAST_UPDATED)) {
+      Date lastUpdated = resource.getMeta().getLastUpdated();
+      return lastUpdated == null ? null : new Date[] {lastUpdated, lastUpdated};
+    }
+    Type date =
+        switch (resource) {
+          case Observation observation -> observation.getEffective();
+          case Encounter encounter -> encounter.getPeriod();
+          case Procedure procedure -> procedure.getPerformed();
+          case Consent consent -> consent.getDateTimeElement();
+          case Condition condition when parameterName.equals("recorded-date") ->
+              condition.getRecordedDateElement();
+          case Patient patient -> patient.getBirthDateElement();
+          default -> null;
+        };
+    return switch (date) {
+      case Period period when period.hasStart() || period.hasEnd() ->
+          new Date[] {period.getStart(), period.getEnd()};
+      case BaseDateTimeType dateTime when dateTime.getValue() != null ->
+          new Date[] {dateTime.getValue(), dateTime.getValue()};
+      case null, default -> null;
+    };
+  }
+
+  /**
+   * Compares a date range with a date parameter value (e.g. <code>ge2020-01-01</code>). Open ends
+   * of a period match the corresponding comparisons.
+   */
+  private static boolean matchesDate(Date[] range, String value) {
+    if (range == null) {
+      return false;
+    }
+    String prefix = value.length() > 2 ? value.substring(0, 2) : "";
+    boolean hasPrefix = DATE_PREFIXES.contains(prefix);
+    Date date = new DateTimeType(hasPrefix ? value.substring(2) : value).getValue();
+    Date start = range[0];
+    Date end = range[1];
+    return switch (hasPrefix ? prefix : "eq") {
+      case "ge" -> end == null || !end.before(date);
+      case "gt" -> end == null || end.after(date);
+      case "le" -> start == null || !start.after(date);
+      case "lt" -> start == null || start.before(date);
+      case "ne" -> !matchesDate(range, "eq" + value.substring(2));
+      default -> (start == null || !start.after(date)) && (end == null || !end.before(date));
+    };
+  }
+
+  private static void addEntry(Bundle bundle, Resource resource, SearchEntryMode mode) {
+    bundle
+        .addEntry()
+        .setFullUrl(resource.getResourceType().name() + "/" + resource.getIdElement().getIdPart())
+        .setResource(resource)
+        .getSearch()
+        .setMode(mode);
+  }
+
+  /** Adds the conditions that are referenced as diagnoses of the matching encounters. */
+  private void includeDiagnoses(Bundle bundle, List<Resource> matches) {
+    ResourceStore conditionStore = getFhirFileIndex().getStore(ResourceType.Condition);
+    if (conditionStore == null) {
+      return;
+    }
+    matches.stream()
+        .filter(Encounter.class::isInstance)
+        .flatMap(resource -> ((Encounter) resource).getDiagnosis().stream())
+        .map(diagnosis -> referencedId(diagnosis.getCondition()))
+        .filter(Objects::nonNull)
+        .distinct()
+        .map(conditionId -> conditionStore.getById(conditionId, Function.identity()))
+        .filter(Objects::nonNull)
+        .forEach(condition -> addEntry(bundle, condition, SearchEntryMode.INCLUDE));
+  }
+
+  /** Adds the encounters that reference one of the matching conditions as diagnosis. */
+  private void revIncludeEncounters(Bundle bundle, List<Resource> matches) {
+    ResourceStore encounterStore = getFhirFileIndex().getStore(ResourceType.Encounter);
+    if (encounterStore == null) {
+      return;
+    }
+    Set<String> conditionIds =
+        matches.stream()
+            .map(resource -> resource.getIdElement().getIdPart())
+            .collect(Collectors.toSet());
+    Set<String> patientIds =
+        matches.stream()
+            .map(FileSearchService::patientId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+    encounterStore.getByPatientIds(patientIds, Encounter.class::cast).stream()
+        .filter(
+            encounter ->
+                encounter.getDiagnosis().stream()
+                    .map(DiagnosisComponent::getCondition)
+                    .map(FileSearchService::referencedId)
+                    .anyMatch(conditionIds::contains))
+        .forEach(encounter -> addEntry(bundle, encounter, SearchEntryMode.INCLUDE));
+  }
+}
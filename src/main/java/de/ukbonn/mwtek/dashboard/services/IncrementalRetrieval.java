@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.ConfigurationFingerprint;
+import de.ukbonn.mwtek.dashboard.configuration.IncrementalRetrievalConfiguration;
+import de.ukbonn.mwtek.dashboard.store.ResourceStore;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.stereotype.Service;
+
+/**
+ * Management of the {@link ResourceStore resource stores} of the incremental data retrieval. The
+ * stores of a run are loaded on first use and only written back to disk if the whole run succeeded,
+ * so a failed run gets repeated from the former high-water mark.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class IncrementalRetrieval {
+
+  public static final String LAST_UPDATED_GE = "&_lastUpdated=ge";
+
+  private final IncrementalRetrievalConfiguration incrementalRetrievalConfiguration;
+  private final ConfigurationFingerprint configurationFingerprint;
+
+  /** The stores that were used in the current run. */
+  private final Map<String, ResourceStore> runStores = new ConcurrentHashMap<>();
+
+  private Instant runStart;
+
+  public IncrementalRetrieval(
+      IncrementalRetrievalConfiguration incrementalRetrievalConfiguration,
+      ConfigurationFingerprint configurationFingerprint) {
+    this.incrementalRetrievalConfiguration = incrementalRetrievalConfiguration;
+    this.configurationFingerprint = configurationFingerprint;
+  }
+
+  public boolean isEnabled() {
+    return incrementalRetrievalConfiguration.getEnabled();
+  }
+
+  /** Starts a new run. Changes of a former run that was not committed are discarded. */
+  public void beginRun() {
+    runStores.clear();
+    runStart = Instant.now();
+  }
+
+  /**
+   * Returns the store of a retrieval stage for the current run.
+   *
+   * @param dataItemContext The context of the retrieval (e.g. {@link DataItemContext#COVID}).
+   * @param resourceType The resource type of the stage.
+   * @return The (possibly empty) store of the stage.
+   */
+  public ResourceStore getStore(DataItemContext dataItemContext, ResourceType resourceType) {
+    String key = dataItemContext.name() + "_" + resourceType.name();
+    return runStores.computeIfAbsent(
+        key,
+        k ->
+            ResourceStore.load(
+                k,
+                Path.of(incrementalRetrievalConfiguration.getStoreDirectory()),
+                configurationFingerprint.getHash(),
+                runStart.minus(incrementalRetrievalConfiguration.getFullRefreshInterval())));
+  }
+
+  /**
+   * Restricts a fhir search query to the resources that were changed since the last run of the
+   * store (minus the configured overlap). Works for both the GET query suffix and the POST body.
+   *
+   * @param querySuffix The query suffix or POST body.
+   * @param store The store of the retrieval stage.
+   * @return The query with an additional <code>_lastUpdated</code> parameter or the unchanged query
+   *     if the stage needs a full retrieval.
+   */
+  public String restrictToChanges(String querySuffix, ResourceStore store) {
+    if (!store.isDeltaRetrieval()) {
+      return querySuffix;
+    }
+    Instant since =
+        store
+            .getHighWaterMark()
+            .minus(incrementalRetrievalConfiguration.getOverlap())
+            .truncatedTo(ChronoUnit.SECONDS);
+    return querySuffix + LAST_UPDATED_GE + DateTimeFormatter.ISO_INSTANT.format(since);
+  }
+
+  /** Persists all stores of the current run with the start of the run as new high-water mark. */
+  public void commit() {
+    runStores
+        .values()
+        .forEach(
+            store -> {
+              try {
+                store.save(configurationFingerprint.getHash(), runStart);
+              } catch (IOException e) {
+                // The next run will just do a full retrieval of this stage
+                log.error("Unable to save the resource store {}", store.getKey(), e);
+              }
+            });
+    runStores.clear();
+  }
+
+  /** Discards all changes of the current run. */
+  public void discard() {
+    runStores.clear();
+  }
+}
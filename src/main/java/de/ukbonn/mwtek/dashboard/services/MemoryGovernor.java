@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.MemoryGovernorConfiguration;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Watches the heap usage during the data retrieval. Under memory pressure, the parallel fetches
+ * of the retrieval services are throttled to a single one at a time and large result sets are
+ * spilled to disk (see {@link de.ukbonn.mwtek.dashboard.store.SpillableResourceSet}).
+ *
+ * <p>The heap usage is measured via the usage of the tenured memory pools after the last garbage
+ * collection, since the current usage includes garbage that would be collected anyway.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class MemoryGovernor {
+
+  /** Interval in which throttled fetches re-check the heap usage. */
+  private static final long THROTTLE_CHECK_MILLIS = 500;
+
+  private final MemoryGovernorConfiguration memoryGovernorConfiguration;
+
+  /** The heap pools whose usage after a collection is known (usually just the old generation). */
+  private final List<MemoryPoolMXBean> tenuredPools =
+      ManagementFactory.getMemoryPoolMXBeans().stream()
+          .filter(pool -> pool.getType() == MemoryType.HEAP)
+          .filter(MemoryPoolMXBean::isUsageThresholdSupported)
+          .filter(MemoryPoolMXBean::isCollectionUsageThresholdSupported)
+          .toList();
+
+  private final Object throttleMonitor = new Object();
+  private int activeFetches;
+  private boolean throttling;
+
+  public MemoryGovernor(MemoryGovernorConfiguration memoryGovernorConfiguration) {
+    this.memoryGovernorConfiguration = memoryGovernorConfiguration;
+  }
+
+  public boolean isEnabled() {
+    return memoryGovernorConfiguration.getEnabled();
+  }
+
+  /**
+   * The share of the maximum heap that is occupied by live objects, based on the tenured pools
+   * after the last garbage collection (or the whole heap if this is not available).
+   */
+  public double getHeapUsage() {
+    double usage = 0;
+    for (MemoryPoolMXBean pool : tenuredPools) {
+      MemoryUsage collectionUsage = pool.getCollectionUsage();
+      if (collectionUsage != null && collectionUsage.getMax() > 0) {
+        usage = Math.max(usage, (double) collectionUsage.getUsed() / collectionUsage.getMax());
+      }
+    }
+    if (usage > 0) {
+      return usage;
+    }
+    MemoryUsage heapUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long max = heapUsage.getMax() > 0 ? heapUsage.getMax() : heapUsage.getCommitted();
+    return (double) heapUsage.getUsed() / max;
+  }
+
+  /** Is the heap usage above the configured high watermark? */
+  public boolean isUnderPressure() {
+    return isEnabled() && getHeapUsage() >= memoryGovernorConfiguration.getHighWatermark();
+  }
+
+  /**
+   * Runs a fetch of a parallel data retrieval. Under memory pressure, the fetch waits until no
+   * other fetch is running anymore or the pressure dropped.
+   *
+   * @param fetch The fetch (e.g. the paging through the results of a patient id batch).
+   */
+  public void throttle(Runnable fetch) {
+    if (!isEnabled()) {
+      fetch.run();
+      return;
+    }
+    acquire();
+    try {
+      fetch.run();
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Should a result set with the given number of resources in memory be spilled to disk?
+   *
+   * @param bufferedResources The number of resources that are currently held in memory.
+   */
+  public boolean shouldSpill(int bufferedResources) {
+    if (!isEnabled() || bufferedResources < memoryGovernorConfiguration.getMinSpillSize()) {
+      return false;
+    }
+    int spillThreshold = memoryGovernorConfiguration.getSpillThreshold();
+    return (spillThreshold > 0 && bufferedResources >= spillThreshold) || isUnderPressure();
+  }
+
+  public Path getSpillDirectory() {
+    return Path.of(memoryGovernorConfiguration.getSpillDirectory());
+  }
+
+  private void acquire() {
+    synchronized (throttleMonitor) {
+      while (activeFetches > 0 && isUnderPressure() && !RunControl.isCancelled()) {
+        if (!throttling) {
+          throttling = true;
+          log.info(
+              "Heap usage at {}%; throttling the data retrieval to a single fetch.",
+              Math.round(getHeapUsage() * 100));
+        }
+        try {
+          throttleMonitor.wait(THROTTLE_CHECK_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (throttling && !isUnderPressure()) {
+        throttling = false;
+        log.info("Heap usage back to normal; the data retrieval continues in parallel.");
+      }
+      activeFetches++;
+    }
+  }
+
+  private void release() {
+    synchronized (throttleMonitor) {
+      activeFetches--;
+      throttleMonitor.notifyAll();
+    }
+  }
+}
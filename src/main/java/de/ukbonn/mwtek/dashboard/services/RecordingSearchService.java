@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.SearchArchive;
+import java.util.ArrayList;
+import java.util.List;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Decorator of a {@link SearchService} that records each server response in a {@link
+ * SearchArchive}, so the searches can be replayed later via a {@link ReplaySearchService}.
+ *
+ * <p>Prefiltered responses are recorded per retrieval stage, since they differ from the unfiltered
+ * ones.
+ *
+ * <p>Capability statements are just recorded during an export run, since the server status is
+ * also requested periodically in the background, which would let the archive grow forever.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class RecordingSearchService implements SearchService {
+
+  private final SearchService delegate;
+  private final SearchArchive searchArchive;
+
+  public RecordingSearchService(SearchService delegate, SearchArchive searchArchive) {
+    this.delegate = delegate;
+    this.searchArchive = searchArchive;
+  }
+
+  @Override
+  public List<BundleEntryComponent> getBundleData(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    List<BundleEntryComponent> entries =
+        delegate.getBundleData(querySuffix, httpMethod, resourceType);
+    // The entries are archived as a bundle, since the archive stores resources
+    Bundle bundle = new Bundle();
+    bundle.setEntry(new ArrayList<>(entries));
+    searchArchive.record(
+        ReplaySearchService.bundleDataKey(querySuffix, httpMethod, resourceType), bundle);
+    return entries;
+  }
+
+  @Override
+  public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return getInitialBundle(querySuffix, httpMethod, resourceType, null);
+  }
+
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    Bundle bundle = delegate.getInitialBundle(querySuffix, httpMethod, resourceType, prefilter);
+    searchArchive.record(
+        ReplaySearchService.initialBundleKey(querySuffix, httpMethod, resourceType, prefilter),
+        bundle);
+    return bundle;
+  }
+
+  @Override
+  public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
+    return getBundlePart(linkToNextPart, httpMethod, null);
+  }
+
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    Bundle bundle = delegate.getBundlePart(linkToNextPart, httpMethod, prefilter);
+    searchArchive.record(
+        ReplaySearchService.bundlePartKey(linkToNextPart, httpMethod, prefilter), bundle);
+    return bundle;
+  }
+
+  @Override
+  public CapabilityStatement getCapabilityStatement(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    CapabilityStatement capabilityStatement =
+        delegate.getCapabilityStatement(querySuffix, httpMethod, resourceType);
+    if (capabilityStatement != null && RunControl.isRunning()) {
+      searchArchive.record(
+          ReplaySearchService.capabilityStatementKey(querySuffix, httpMethod, resourceType),
+          capabilityStatement);
+    }
+    return capabilityStatement;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.ConfigurationFingerprint;
+import de.ukbonn.mwtek.dashboard.configuration.ReferenceCacheConfiguration;
+import de.ukbonn.mwtek.dashboard.store.ResourceStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.springframework.stereotype.Service;
+
+/**
+ * Persistent cache of slow-changing reference resources (e.g. locations) across runs. Each resource
+ * type is held in its own {@link ResourceStore}. Within the configured time to live, the cached
+ * resources are used without any server request and just unknown ids are fetched. Afterward, the
+ * cached resources are revalidated by fetching the ones that changed since the last revalidation.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class ReferenceCache {
+
+  private static final String KEY_PREFIX = "Reference_";
+
+  private final ReferenceCacheConfiguration referenceCacheConfiguration;
+  private final ConfigurationFingerprint configurationFingerprint;
+
+  /** The stores that were loaded so far; they are kept (memory-mapped) between the runs. */
+  private final Map<ResourceType, ResourceStore> stores = new ConcurrentHashMap<>();
+
+  public ReferenceCache(
+      ReferenceCacheConfiguration referenceCacheConfiguration,
+      ConfigurationFingerprint configurationFingerprint) {
+    this.referenceCacheConfiguration = referenceCacheConfiguration;
+    this.configurationFingerprint = configurationFingerprint;
+  }
+
+  public boolean isEnabled() {
+    return referenceCacheConfiguration.getEnabled();
+  }
+
+  /**
+   * Returns the store of a resource type. A store whose full refresh interval is reached gets
+   * reloaded, which empties it.
+   */
+  public ResourceStore getStore(ResourceType resourceType) {
+    Instant fullRetrievalNeededBefore =
+        Instant.now().minus(referenceCacheConfiguration.getFullRefreshInterval());
+    return stores.compute(
+        resourceType,
+        (type, store) ->
+            store == null
+                    || (store.getLastFullRetrieval() != null
+                        && store.getLastFullRetrieval().isBefore(fullRetrievalNeededBefore))
+                ? ResourceStore.load(
+                    KEY_PREFIX + type.name(),
+                    Path.of(referenceCacheConfiguration.getDirectory()),
+                    configurationFingerprint.getHash(),
+                    fullRetrievalNeededBefore)
+                : store);
+  }
+
+  /** Is the time to live of the cached resources of the given type exceeded? */
+  public boolean needsRevalidation(ResourceStore store, ResourceType resourceType) {
+    Duration timeToLive =
+        referenceCacheConfiguration
+            .getTimeToLive()
+            .getOrDefault(resourceType, referenceCacheConfiguration.getDefaultTimeToLive());
+    return !store.isDeltaRetrieval()
+        || store.getHighWaterMark().plus(timeToLive).isBefore(Instant.now());
+  }
+
+  /**
+   * Persists a store after new resources were added.
+   *
+   * @param store The store of the resource type.
+   * @param validAt The timestamp up to which the cached resources were validated.
+   */
+  public void save(ResourceStore store, Instant validAt) {
+    try {
+      store.save(configurationFingerprint.getHash(), validAt);
+    } catch (IOException e) {
+      // The resources just get fetched again by the next run
+      log.warn("Unable to save the reference cache {}: {}", store.getKey(), e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.SearchArchive;
+import java.util.List;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.Resource;
+import org.springframework.http.HttpMethod;
+
+/**
+ * {@link SearchService} that answers the searches with the responses of a {@link SearchArchive}
+ * that were recorded via a {@link RecordingSearchService}, without any server request. A rerun
+ * needs the same searches as the recorded run; a search that was not recorded fails.
+ *
+ * <p>The prefilter of a search is applied to the replayed bundle as well, so a rerun with changed
+ * prefilter criteria drops the same entries as a server search would.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class ReplaySearchService implements SearchService {
+
+  private final SearchArchive searchArchive;
+
+  public ReplaySearchService(SearchArchive searchArchive) {
+    this.searchArchive = searchArchive;
+  }
+
+  @Override
+  public List<BundleEntryComponent> getBundleData(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return replay(bundleDataKey(querySuffix, httpMethod, resourceType), Bundle.class, querySuffix)
+        .getEntry();
+  }
+
+  @Override
+  public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return getInitialBundle(querySuffix, httpMethod, resourceType, null);
+  }
+
+  @Override
+  public Bundle getInitialBundle(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    return prefilter(
+        replay(
+            initialBundleKey(querySuffix, httpMethod, resourceType, prefilter),
+            Bundle.class,
+            querySuffix),
+        prefilter);
+  }
+
+  @Override
+  public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
+    return getBundlePart(linkToNextPart, httpMethod, null);
+  }
+
+  @Override
+  public Bundle getBundlePart(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    return prefilter(
+        replay(
+            bundlePartKey(linkToNextPart, httpMethod, prefilter), Bundle.class, linkToNextPart),
+        prefilter);
+  }
+
+  @Override
+  public CapabilityStatement getCapabilityStatement(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    Resource capabilityStatement =
+        searchArchive.replay(capabilityStatementKey(querySuffix, httpMethod, resourceType));
+    return (CapabilityStatement) capabilityStatement;
+  }
+
+  static String bundleDataKey(String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return SearchArchive.key("bundleData", httpMethod, querySuffix, resourceType);
+  }
+
+  static String initialBundleKey(
+      String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+    return SearchArchive.key(
+        operation("initialBundle", prefilter), httpMethod, querySuffix, resourceType);
+  }
+
+  static String bundlePartKey(
+      String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+    return SearchArchive.key(operation("bundlePart", prefilter), httpMethod, linkToNextPart);
+  }
+
+  /** Prefiltered responses differ from the unfiltered ones and are recorded per stage. */
+  private static String operation(String operation, BundlePrefilter prefilter) {
+    return prefilter == null ? operation : operation + ":" + prefilter.getStage();
+  }
+
+  private static Bundle prefilter(Bundle bundle, BundlePrefilter prefilter) {
+    return prefilter == null ? bundle : prefilter.apply(bundle);
+  }
+
+  static String capabilityStatementKey(
+      String querySuffix, HttpMethod httpMethod, String resourceType) {
+    return SearchArchive.key("capabilityStatement", httpMethod, querySuffix, resourceType);
+  }
+
+  private <T extends Resource> T replay(String key, Class<T> type, String query) {
+    RunControl.checkCancelled();
+    Resource response = searchArchive.replay(key);
+    if (response == null) {
+      throw new IllegalStateException("The search was not recorded in the archive: " + query);
+    }
+    return type.cast(response);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import lombok.Getter;
+
+/**
+ * A serialized, immutable output of the dashboard workflow including the metadata needed for
+ * conditional requests.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Getter
+public class ResultSnapshot {
+
+  /** The contexts the output was generated for. */
+  private final Set<DataItemContext> contexts;
+
+  /** The uncompressed utf-8 encoded json output. */
+  private final byte[] json;
+
+  /** SHA-256 hash of the json output, which the entity tags are derived from. */
+  private final String hash;
+
+  /** Creation time in epoch millis that is used as <code>Last-Modified</code> value. */
+  private final long createdAt;
+
+  /** Expiration time in epoch millis. */
+  private final long expiresAt;
+
+  /** Time of the last delivery in epoch millis. */
+  private volatile long lastAccess;
+
+  /** Lazily created gzip-compressed variant of the output. */
+  private byte[] gzipJson;
+
+  public ResultSnapshot(
+      Set<DataItemContext> contexts, byte[] json, long createdAt, long expiresAt) {
+    this.contexts = Set.copyOf(contexts);
+    this.json = json;
+    this.hash = sha256(json);
+    this.createdAt = createdAt;
+    this.expiresAt = expiresAt;
+    this.lastAccess = 0;
+  }
+
+  public boolean isExpired(long now) {
+    return now >= expiresAt;
+  }
+
+  /** Was the snapshot delivered at least once? */
+  public boolean wasAccessed() {
+    return lastAccess > 0;
+  }
+
+  public void markAccessed(long now) {
+    this.lastAccess = now;
+  }
+
+  /**
+   * The strong entity tag of a representation of the output. A strong validator has to differ per
+   * content coding, so the gzip variant gets its own tag.
+   *
+   * @param gzip Is the tag of the gzip-compressed representation needed?
+   * @return The quoted entity tag (e.g. <code>"&lt;hash&gt;-gzip"</code>).
+   */
+  public String getETag(boolean gzip) {
+    return "\"" + hash + (gzip ? "-gzip" : "") + "\"";
+  }
+
+  /** The gzip-compressed output, which is created only once on the first request. */
+  public synchronized byte[] getGzipJson() {
+    if (gzipJson == null) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(json.length / 8);
+      try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+        gzipOutputStream.write(json);
+      } catch (IOException e) {
+        // Can't happen on an in-memory stream
+        throw new UncheckedIOException(e);
+      }
+      gzipJson = outputStream.toByteArray();
+    }
+    return gzipJson;
+  }
+
+  private static String sha256(byte[] input) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(input));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.ConfigurationFingerprint;
+import de.ukbonn.mwtek.dashboard.configuration.ResultCacheConfiguration;
+import de.ukbonn.mwtek.dashboard.exceptions.SearchException;
+import de.ukbonn.mwtek.dashboard.misc.ResultJsonWriter;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cache of the serialized /createJson output, keyed by the effective set of contexts and the
+ * {@link ConfigurationFingerprint configuration hash}. Concurrent requests for the same key while
+ * the output is generated are coalesced into a single workflow run.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class ResultSnapshotCache {
+
+  private final DashboardExportService exportService;
+  private final ResultCacheConfiguration resultCacheConfiguration;
+  private final ConfigurationFingerprint configurationFingerprint;
+
+  private final Map<String, ResultSnapshot> snapshots = new ConcurrentHashMap<>();
+  private final Map<String, ReentrantLock> keyLocks = new ConcurrentHashMap<>();
+
+  /** Executor for the background refresh (only initialized if the refresh is activated). */
+  private final ScheduledExecutorService refreshExecutor;
+
+  public ResultSnapshotCache(
+      DashboardExportService exportService,
+      ResultCacheConfiguration resultCacheConfiguration,
+      ConfigurationFingerprint configurationFingerprint) {
+    this.exportService = exportService;
+    this.resultCacheConfiguration = resultCacheConfiguration;
+    this.configurationFingerprint = configurationFingerprint;
+    this.refreshExecutor =
+        resultCacheConfiguration.getRefreshAhead()
+            ? Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "result-cache-refresh");
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+  }
+
+  public boolean isEnabled() {
+    return resultCacheConfiguration.getEnabled();
+  }
+
+  /**
+   * Creates the cache key for the given contexts.
+   *
+   * @param contexts The effective set of contexts.
+   * @return The key, consisting of the sorted context names and the configuration hash.
+   */
+  public String createKey(Set<DataItemContext> contexts) {
+    Set<DataItemContext> sortedContexts =
+        contexts.isEmpty() ? EnumSet.noneOf(DataItemContext.class) : EnumSet.copyOf(contexts);
+    return sortedContexts.stream().map(Enum::name).collect(Collectors.joining(","))
+        + "@"
+        + configurationFingerprint.getHash();
+  }
+
+  /**
+   * Returns a valid snapshot for the given contexts, if available.
+   *
+   * @param contexts The effective set of contexts.
+   * @return The snapshot or <code>null</code> if no valid snapshot exists.
+   */
+  public ResultSnapshot get(Set<DataItemContext> contexts) {
+    String key = createKey(contexts);
+    ResultSnapshot snapshot = snapshots.get(key);
+    if (snapshot == null) {
+      return null;
+    }
+    if (snapshot.isExpired(System.currentTimeMillis())) {
+      snapshots.remove(key, snapshot);
+      return null;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns a valid snapshot for the given contexts or runs the workflow to create it.
+   *
+   * @param contexts The effective set of contexts.
+   * @param timeout The maximum duration of the workflow run if no valid snapshot exists; if <code>
+   *     null</code>, the configured run timeout is used.
+   * @return The snapshot or <code>null</code> if the workflow got aborted (the reason is available
+   *     via {@link de.ukbonn.mwtek.dashboard.misc.LoggingHelper#getAbortMessage()}).
+   * @throws SearchException If the data retrieval fails.
+   */
+  public ResultSnapshot getOrLoad(Set<DataItemContext> contexts, Duration timeout)
+      throws SearchException {
+    ResultSnapshot snapshot = get(contexts);
+    if (snapshot != null) {
+      return snapshot;
+    }
+    ReentrantLock keyLock = keyLocks.computeIfAbsent(createKey(contexts), k -> new ReentrantLock());
+    keyLock.lock();
+    try {
+      // Another request may have created the snapshot in the meantime
+      snapshot = get(contexts);
+      if (snapshot != null) {
+        return snapshot;
+      }
+      ExportResult exportResult = exportService.export(contexts, timeout);
+      if (exportResult.isAborted()) {
+        return null;
+      }
+      return put(contexts, exportResult);
+    } finally {
+      keyLock.unlock();
+    }
+  }
+
+  /**
+   * Serializes the output of a workflow run and stores it as the current snapshot of the given
+   * contexts.
+   *
+   * @param contexts The effective set of contexts.
+   * @param exportResult The (not aborted) workflow result.
+   * @return The new snapshot.
+   */
+  public ResultSnapshot put(Set<DataItemContext> contexts, ExportResult exportResult) {
+    long now = System.currentTimeMillis();
+    ResultSnapshot snapshot =
+        put(contexts, exportResult, now + resultCacheConfiguration.getTtl().toMillis());
+    scheduleRefresh(snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Stores the output of a workflow run with an explicit expiration time (e.g. for scheduled runs
+   * that are refreshed by their own schedule).
+   *
+   * @param contexts The effective set of contexts.
+   * @param exportResult The (not aborted) workflow result.
+   * @param expiresAt Expiration time in epoch millis.
+   * @return The new snapshot.
+   */
+  public ResultSnapshot put(
+      Set<DataItemContext> contexts, ExportResult exportResult, long expiresAt) {
+    byte[] json;
+    try {
+      json = ResultJsonWriter.toBytes(exportResult.result(), exportResult.dataItems());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to serialize the workflow result", e);
+    }
+    ResultSnapshot snapshot =
+        new ResultSnapshot(contexts, json, System.currentTimeMillis(), expiresAt);
+    snapshots.put(createKey(contexts), snapshot);
+    log.info(
+        "Stored result snapshot for {} ({} bytes, valid until {})",
+        contexts,
+        json.length,
+        Instant.ofEpochMilli(expiresAt));
+    return snapshot;
+  }
+
+  private void scheduleRefresh(ResultSnapshot snapshot) {
+    if (refreshExecutor == null) {
+      return;
+    }
+    long delay =
+        Math.max(
+            0,
+            snapshot.getExpiresAt()
+                - resultCacheConfiguration.getRefreshBefore().toMillis()
+                - System.currentTimeMillis());
+    refreshExecutor.schedule(() -> refresh(snapshot), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void refresh(ResultSnapshot snapshot) {
+    Set<DataItemContext> contexts = snapshot.getContexts();
+    // Snapshots that nobody requested are left to expire
+    if (!snapshot.wasAccessed() || snapshots.get(createKey(contexts)) != snapshot) {
+      return;
+    }
+    log.info("Refreshing the result snapshot for {} in the background", contexts);
+    try {
+      ExportResult exportResult = exportService.export(contexts);
+      if (exportResult.isAborted()) {
+        log.warn(
+            "Background refresh of {} got aborted: {}", contexts, exportResult.abortMessage());
+        return;
+      }
+      put(contexts, exportResult);
+    } catch (Exception ex) {
+      log.error("Background refresh of the result snapshot for {} failed", contexts, ex);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (refreshExecutor != null) {
+      refreshExecutor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.store.IdSet;
+import de.ukbonn.mwtek.dashboard.store.ObservationTable;
+import de.ukbonn.mwtek.dashboard.store.ResourceStore;
+import de.ukbonn.mwtek.dashboard.store.StringDictionary;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collector;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.hl7.fhir.r4.model.ResourceType;
+
+/**
+ * The state of a single run of a {@link AbstractDataRetrievalService data retrieval service}, e.g.
+ * the ids that were collected in the stages so far and that are the input filter of the following
+ * stages. A new state is created at the start of each run, so the data retrieval services
+ * themselves just hold the settings that were derived from the configuration at startup.
+ *
+ * <p>The id sets of a run share one {@link StringDictionary dictionary}, so they are held as
+ * compressed {@link IdSet bitmaps} that get intersected without comparing the id strings.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Getter
+public class RetrievalRunState {
+
+  /** The dictionary that encodes all ids of the run. */
+  private final StringDictionary idDictionary = new StringDictionary();
+
+  /** The patient ids that were found in the run so far. */
+  private IdSet patientIds = new IdSet(idDictionary);
+
+  /** The encounter ids that were found in the run so far. */
+  private IdSet encounterIds = new IdSet(idDictionary);
+
+  /** The location ids that were found in the run so far. */
+  private IdSet locationIds = new IdSet(idDictionary);
+
+  /** The checkpoints of the run; <code>null</code> if checkpointing is deactivated. */
+  private final StageCheckpoints stageCheckpoints;
+
+  /**
+   * Caches of the resources whose retrieval doesn't depend on the data item context (e.g. patients
+   * and locations), so contexts of the same run just query the ids that are not known yet.
+   */
+  @Getter(AccessLevel.NONE)
+  private final Map<ResourceType, ResourceStore> resourceCaches = new ConcurrentHashMap<>();
+
+  /** The columnar tables of the observations that were retrieved per data item context. */
+  @Getter(AccessLevel.NONE)
+  private final Map<DataItemContext, ObservationTable> observationTables =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The contexts whose observation table holds exactly the result of their observation stage in
+   * this run and may be scanned instead of the observation list.
+   */
+  @Getter(AccessLevel.NONE)
+  private final Set<DataItemContext> validObservationTables = ConcurrentHashMap.newKeySet();
+
+  public RetrievalRunState(StageCheckpoints stageCheckpoints) {
+    this.stageCheckpoints = stageCheckpoints;
+  }
+
+  public void setPatientIds(Set<String> patientIds) {
+    this.patientIds = toIdSet(patientIds);
+  }
+
+  public void setEncounterIds(Set<String> encounterIds) {
+    this.encounterIds = toIdSet(encounterIds);
+  }
+
+  public void setLocationIds(Set<String> locationIds) {
+    this.locationIds = toIdSet(locationIds);
+  }
+
+  /** Collects ids into a set that is encoded with the dictionary of the run. */
+  public Collector<String, ?, IdSet> toIdSet() {
+    return IdSet.collector(idDictionary);
+  }
+
+  /** The given ids as a set of the run dictionary; sets of the dictionary are taken as they are. */
+  public IdSet toIdSet(Collection<String> ids) {
+    if (ids instanceof IdSet idSet && idSet.getDictionary() == idDictionary) {
+      return idSet;
+    }
+    return IdSet.of(idDictionary, ids);
+  }
+
+  /** The run-scoped cache of the given resource type, created on first use. */
+  public ResourceStore getResourceCache(ResourceType resourceType) {
+    return resourceCaches.computeIfAbsent(
+        resourceType, type -> ResourceStore.createRunScoped("Run_" + type.name()));
+  }
+
+  /** The observation table of the given data item context, created on first use. */
+  public ObservationTable getObservationTable(DataItemContext dataItemContext) {
+    return observationTables.computeIfAbsent(
+        dataItemContext, context -> new ObservationTable(idDictionary));
+  }
+
+  /**
+   * Replaces the observation table of the given context with an empty one at the start of its
+   * observation stage. The new table is not valid until the stage {@link
+   * #setObservationTableValid marks it as complete}.
+   */
+  public ObservationTable resetObservationTable(DataItemContext dataItemContext) {
+    validObservationTables.remove(dataItemContext);
+    ObservationTable observationTable = new ObservationTable(idDictionary);
+    observationTables.put(dataItemContext, observationTable);
+    return observationTable;
+  }
+
+  /**
+   * Marks the observation table of the given context as (in)valid. A table is valid if it got
+   * filled by the observation stage of its context in this run and nothing else.
+   */
+  public void setObservationTableValid(DataItemContext dataItemContext, boolean valid) {
+    if (valid) {
+      validObservationTables.add(dataItemContext);
+    } else {
+      validObservationTables.remove(dataItemContext);
+    }
+  }
+
+  /** Does the observation table of the given context reflect its observation stage? */
+  public boolean isObservationTableValid(DataItemContext dataItemContext) {
+    return validObservationTables.contains(dataItemContext);
+  }
+
+  /**
+   * Invalidates the observation tables of all contexts, e.g. if stage results got restored from a
+   * checkpoint instead of being retrieved.
+   */
+  public void invalidateObservationTables() {
+    validObservationTables.clear();
+  }
+}
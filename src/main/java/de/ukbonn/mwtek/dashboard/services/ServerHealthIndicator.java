@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator health indicator (<code>/actuator/health</code>) of the data source server, backed by
+ * the {@link ServerHealthProber}.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Component("dataSourceServer")
+public class ServerHealthIndicator implements HealthIndicator {
+
+  private final ServerHealthProber serverHealthProber;
+
+  public ServerHealthIndicator(ServerHealthProber serverHealthProber) {
+    this.serverHealthProber = serverHealthProber;
+  }
+
+  @Override
+  public Health health() {
+    ServerHealth serverHealth = serverHealthProber.getHealth();
+    Health.Builder builder = serverHealth.isUp() ? Health.up() : Health.down(serverHealth.error());
+    CapabilityStatement capabilityStatement = serverHealth.capabilityStatement();
+    if (capabilityStatement != null && capabilityStatement.hasSoftware()) {
+      builder
+          .withDetail("name", capabilityStatement.getSoftware().getName())
+          .withDetail("version", capabilityStatement.getSoftware().getVersion());
+    }
+    return builder
+        .withDetail("latencyMs", serverHealth.latency().toMillis())
+        .withDetail("checkedAt", serverHealth.checkedAt().toString())
+        .build();
+  }
+}
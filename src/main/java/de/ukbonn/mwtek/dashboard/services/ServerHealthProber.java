@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.configuration.HealthProbeConfiguration;
+import de.ukbonn.mwtek.dashboard.controller.StatusDataController;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+/**
+ * Probes the status of the data source server (via its capability statement) in the background,
+ * so status requests can be answered from the last result instead of a server round trip each.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+@Service
+public class ServerHealthProber {
+
+  private final DataRetrievalServiceProvider dataRetrievalServiceProvider;
+  private final HealthProbeConfiguration healthProbeConfiguration;
+
+  private ThreadPoolTaskScheduler taskScheduler;
+
+  /** The result of the last probe; <code>null</code> until the first probe is finished. */
+  private volatile ServerHealth lastHealth;
+
+  public ServerHealthProber(
+      DataRetrievalServiceProvider dataRetrievalServiceProvider,
+      HealthProbeConfiguration healthProbeConfiguration) {
+    this.dataRetrievalServiceProvider = dataRetrievalServiceProvider;
+    this.healthProbeConfiguration = healthProbeConfiguration;
+  }
+
+  /** Start of the background probes once the application is ready. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void scheduleProbes() {
+    if (!healthProbeConfiguration.getEnabled()) {
+      return;
+    }
+    taskScheduler = new ThreadPoolTaskScheduler();
+    taskScheduler.setPoolSize(1);
+    taskScheduler.setThreadNamePrefix("health-probe-");
+    taskScheduler.initialize();
+    taskScheduler.scheduleWithFixedDelay(this::refresh, healthProbeConfiguration.getInterval());
+    log.info(
+        "Probing the server status every {} in the background",
+        healthProbeConfiguration.getInterval());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (taskScheduler != null) {
+      taskScheduler.shutdown();
+    }
+  }
+
+  /**
+   * The current server status. If the background probes are activated, the result of the last
+   * probe is returned; otherwise (or before the first probe is finished) the server is probed
+   * directly.
+   */
+  public ServerHealth getHealth() {
+    ServerHealth health = lastHealth;
+    if (health == null || !healthProbeConfiguration.getEnabled()) {
+      return probe();
+    }
+    return health;
+  }
+
+  private void refresh() {
+    ServerHealth previousHealth = lastHealth;
+    ServerHealth health = probe();
+    lastHealth = health;
+    // Just log the changes, since the probes are running all the time
+    if (previousHealth == null || previousHealth.isUp() != health.isUp()) {
+      if (health.isUp()) {
+        log.info("The server is available (latency: {} ms)", health.latency().toMillis());
+      } else {
+        log.warn("The server is not available: {}", health.error().getMessage());
+      }
+    }
+  }
+
+  private ServerHealth probe() {
+    long start = System.nanoTime();
+    CapabilityStatement capabilityStatement = null;
+    Exception error = null;
+    try {
+      capabilityStatement =
+          StatusDataController.generateData(dataRetrievalServiceProvider.getDataRetrievalService());
+      if (capabilityStatement == null) {
+        error = new IllegalStateException("The server provided no capability statement");
+      }
+    } catch (Exception ex) {
+      error = ex;
+    }
+    return new ServerHealth(
+        capabilityStatement, error, Duration.ofNanos(System.nanoTime() - start), Instant.now());
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.RunControl;
+import de.ukbonn.mwtek.dashboard.store.CheckpointFile;
+import de.ukbonn.mwtek.dashboard.store.CheckpointFile.Content;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * The checkpoints of the retrieval stages of a single run. As long as a run resumes a former one,
+ * stages with a valid checkpoint are restored instead of retrieved. The first stage without a
+ * checkpoint ends the resumption, since all following stages depend on its result.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class StageCheckpoints {
+
+  private static final String CHECKPOINT_SUFFIX = ".ckpt";
+  private static final String PATIENT_IDS = "patientIds";
+  private static final String ENCOUNTER_IDS = "encounterIds";
+  private static final String LOCATION_IDS = "locationIds";
+
+  @Getter private final Path runDirectory;
+  private final Instant validAfter;
+  private boolean resuming = true;
+
+  StageCheckpoints(Path runDirectory, Duration maxAge) {
+    this.runDirectory = runDirectory;
+    this.validAfter = Instant.now().minus(maxAge);
+  }
+
+  /**
+   * Runs a retrieval stage or restores its result (and the ids that the data retrieval service
+   * collected up to this stage) from a checkpoint.
+   *
+   * @param stage The unique name of the stage within the run (e.g. "COVID_Observation").
+   * @param runState The state of the run that holds the collected ids.
+   * @param retrieval The retrieval of the stage.
+   * @return The (retrieved or restored) result of the stage.
+   */
+  @SuppressWarnings("unchecked")
+  <T extends Resource> List<T> run(
+      String stage, RetrievalRunState runState, Supplier<List<T>> retrieval) {
+    Path file = runDirectory.resolve(stage + CHECKPOINT_SUFFIX);
+    if (resuming) {
+      Content content = restore(file);
+      if (content != null) {
+        Map<String, Set<String>> idSets = content.idSets();
+        runState.setPatientIds(restoreIds(idSets.get(PATIENT_IDS)));
+        runState.setEncounterIds(restoreIds(idSets.get(ENCOUNTER_IDS)));
+        runState.setLocationIds(restoreIds(idSets.get(LOCATION_IDS)));
+        // The observation tables were not filled with the restored resources
+        runState.invalidateObservationTables();
+        log.info(
+            "Stage {} restored from its checkpoint ({} resources).",
+            stage,
+            content.resources().size());
+        // Converted resources are restored in their converted form
+        return content.converted()
+            ? (List<T>) MiiResourceTypes.toMii(content.resources())
+            : (List<T>) content.resources();
+      }
+      resuming = false;
+    }
+    List<T> result = retrieval.get();
+    // A retrieval that swallowed the cancellation must not leave a checkpoint of partial data
+    RunControl.checkCancelled();
+    try {
+      CheckpointFile.write(
+          file,
+          result,
+          Map.of(
+              PATIENT_IDS, runState.getPatientIds(),
+              ENCOUNTER_IDS, runState.getEncounterIds(),
+              LOCATION_IDS, runState.getLocationIds()));
+    } catch (IOException e) {
+      // The run itself is not affected; it just can't be resumed from this stage
+      log.warn("Unable to write the checkpoint of stage {}: {}", stage, e.getMessage());
+    }
+    return result;
+  }
+
+  private Content restore(Path file) {
+    try {
+      if (!Files.exists(file) || Files.getLastModifiedTime(file).toInstant().isBefore(validAfter)) {
+        return null;
+      }
+      return CheckpointFile.read(file);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to read the checkpoint {}: {}", file, e.getMessage());
+      return null;
+    }
+  }
+
+  /** The ids of a checkpoint, which the run state re-encodes with its own dictionary. */
+  private static Set<String> restoreIds(Set<String> ids) {
+    return ids != null ? ids : Set.of();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.readString;
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.writeString;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Reading and writing of the checkpoint of a completed retrieval stage: the retrieved resources in
+ * the {@link ResourceCodec compact binary encoding} plus named id sets (e.g. the patient ids that
+ * were collected up to this stage).
+ *
+ * <p>Files are written to a temporary file first and moved atomically, so a checkpoint either
+ * exists completely or not at all.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public final class CheckpointFile {
+
+  private static final int MAGIC = 0x44445043; // "DDPC"
+  private static final int VERSION = 1;
+
+  /**
+   * The content of a checkpoint.
+   *
+   * @param converted Were the checkpointed resources converted (e.g. {@link
+   *     de.ukbonn.mwtek.utilities.fhir.resources.MiiPatient}) ones? They are always restored as
+   *     their FHIR base type.
+   * @param idSets The named id sets.
+   * @param resources The restored FHIR resources.
+   */
+  public record Content(
+      boolean converted, Map<String, Set<String>> idSets, List<Resource> resources) {}
+
+  private CheckpointFile() {}
+
+  /**
+   * Writes a checkpoint.
+   *
+   * @param file The checkpoint file.
+   * @param resources The result of the stage.
+   * @param idSets Named id sets that need to be restored along with the resources.
+   */
+  public static void write(
+      Path file, Collection<? extends Resource> resources, Map<String, Set<String>> idSets)
+      throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    boolean converted =
+        resources.stream()
+            .findFirst()
+            .map(resource -> !resource.getClass().isAnnotationPresent(ResourceDef.class))
+            .orElse(false);
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeBoolean(converted);
+      out.writeInt(idSets.size());
+      for (Map.Entry<String, Set<String>> idSet : idSets.entrySet()) {
+        writeString(out, idSet.getKey());
+        List<String> ids = new ArrayList<>(idSet.getValue());
+        out.writeInt(ids.size());
+        for (String id : ids) {
+          writeString(out, id);
+        }
+      }
+      out.writeInt(resources.size());
+      for (Resource resource : resources) {
+        byte[] payload = ResourceCodec.encode(resource).toArray(JAVA_BYTE);
+        out.writeInt(payload.length);
+        out.write(payload);
+      }
+    }
+    Files.move(
+        tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a checkpoint.
+   *
+   * @param file The checkpoint file.
+   * @return The content of the checkpoint.
+   * @throws IOException If the file is missing or can't be read.
+   */
+  public static Content read(Path file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unknown checkpoint format of " + file);
+      }
+      boolean converted = in.readBoolean();
+      Map<String, Set<String>> idSets = new LinkedHashMap<>();
+      int idSetCount = in.readInt();
+      for (int i = 0; i < idSetCount; i++) {
+        String name = readString(in);
+        int idCount = in.readInt();
+        Set<String> ids = new HashSet<>(idCount * 2);
+        for (int j = 0; j < idCount; j++) {
+          ids.add(readString(in));
+        }
+        idSets.put(name, ids);
+      }
+      int resourceCount = in.readInt();
+      List<Resource> resources = new ArrayList<>(resourceCount);
+      for (int i = 0; i < resourceCount; i++) {
+        byte[] payload = new byte[in.readInt()];
+        in.readFully(payload);
+        resources.add(ResourceCodec.decode(MemorySegment.ofArray(payload)));
+      }
+      return new Content(converted, idSets, resources);
+    }
+  }
+}
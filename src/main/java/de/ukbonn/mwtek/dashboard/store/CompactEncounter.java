@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
+import java.lang.foreign.MemorySegment;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Encounter.EncounterStatus;
+
+/**
+ * Flyweight of a {@link MiiEncounter} in an {@link EncounterTable}. The attributes the retrieval
+ * works with are held in a compact form, the complete resource just as {@link ResourceCodec
+ * encoded} payload, which gets decoded when the processing logic needs the HAPI object.
+ *
+ * @param id The logical id of the encounter.
+ * @param patientId The id of the referenced patient (interned).
+ * @param visitNumber The value of the visit number identifier (if given).
+ * @param caseClass The code of <code>Encounter.class</code> (interned).
+ * @param status The ordinal of the {@link EncounterStatus}; <code>-1</code> if not given.
+ * @param periodStart The start of the period in epoch millis; {@link #NO_DATE} if not given.
+ * @param periodEnd The end of the period in epoch millis; {@link #NO_DATE} if not given.
+ * @param locationIds The ids of the referenced locations (interned).
+ * @param flags The bit flags of the encounter (e.g. {@link #FACILITY_CONTACT}).
+ * @param payload The encoded encounter.
+ */
+public record CompactEncounter(
+    String id,
+    String patientId,
+    String visitNumber,
+    String caseClass,
+    byte status,
+    long periodStart,
+    long periodEnd,
+    String[] locationIds,
+    byte flags,
+    MemorySegment payload) {
+
+  public static final long NO_DATE = Long.MIN_VALUE;
+  public static final byte FACILITY_CONTACT = 1;
+  public static final byte SUPPLY_CONTACT = 1 << 1;
+  public static final byte SERVICE_PROVIDER = 1 << 2;
+  public static final byte DUMMY_ICU_LOCATION = 1 << 3;
+
+  public EncounterStatus getStatus() {
+    return status < 0 ? null : EncounterStatus.values()[status];
+  }
+
+  public boolean isFacilityContact() {
+    return hasFlag(FACILITY_CONTACT);
+  }
+
+  public boolean isSupplyContact() {
+    return hasFlag(SUPPLY_CONTACT);
+  }
+
+  public boolean hasFlag(byte flag) {
+    return (flags & flag) != 0;
+  }
+
+  /** Decodes the encounter into a new {@link MiiEncounter}. */
+  public MiiEncounter toMiiEncounter() {
+    return (MiiEncounter) MiiResourceTypes.toMii((Encounter) ResourceCodec.decode(payload));
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.utilities.fhir.misc.LocationTools.isDummyIcuLocation;
+import static de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter.extractReferenceId;
+
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.hl7.fhir.r4.model.Encounter.EncounterLocationComponent;
+
+/**
+ * Compact, thread-safe collection of the encounters of a data item context. The encounters are
+ * held as {@link CompactEncounter flyweights} with interned ids, so the retrieval doesn't need to
+ * keep tens of thousands of HAPI object graphs while the location and procedure resources are
+ * retrieved. The processing logic works on the HAPI objects, so {@link #toMiiEncounters()}
+ * decodes all of them at once; the saving therefore applies to the retrieval stages and not to the
+ * peak heap of the processing. Encounters with the same id are held once, in insertion order.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class EncounterTable {
+
+  private static final String[] NO_LOCATIONS = new String[0];
+
+  /** Guarded by itself; the insertion order keeps the decoded encounter list reproducible. */
+  private final Map<String, CompactEncounter> encountersById = new LinkedHashMap<>();
+
+  /** Patient ids, classes and location ids recur in many encounters. */
+  private final Map<String, String> interned = new ConcurrentHashMap<>();
+
+  /** Creates a table with the given encounters. */
+  public static EncounterTable of(Collection<MiiEncounter> miiEncounters) {
+    EncounterTable encounterTable = new EncounterTable();
+    miiEncounters.forEach(encounterTable::add);
+    return encounterTable;
+  }
+
+  /**
+   * Adds an encounter in its compact form. Later changes of the given object are not reflected in
+   * the table.
+   *
+   * @param miiEncounter The encounter to add.
+   */
+  public void add(MiiEncounter miiEncounter) {
+    synchronized (encountersById) {
+      if (encountersById.containsKey(miiEncounter.getId())) {
+        return;
+      }
+    }
+    byte flags = 0;
+    if (miiEncounter.isFacilityContact()) {
+      flags |= CompactEncounter.FACILITY_CONTACT;
+    }
+    if (miiEncounter.isSupplyContact()) {
+      flags |= CompactEncounter.SUPPLY_CONTACT;
+    }
+    if (miiEncounter.hasServiceProvider()) {
+      flags |= CompactEncounter.SERVICE_PROVIDER;
+    }
+    String[] locationIds = NO_LOCATIONS;
+    if (miiEncounter.hasLocation()) {
+      List<EncounterLocationComponent> locations = miiEncounter.getLocation();
+      if (locations.stream().anyMatch(location -> isDummyIcuLocation(location.getLocation()))) {
+        flags |= CompactEncounter.DUMMY_ICU_LOCATION;
+      }
+      locationIds =
+          locations.stream()
+              .filter(EncounterLocationComponent::hasLocation)
+              .map(location -> intern(extractReferenceId(location.getLocation())))
+              .filter(Objects::nonNull)
+              .toArray(String[]::new);
+    }
+    // The encoding is the expensive part and is done outside the lock
+    CompactEncounter compactEncounter =
+        new CompactEncounter(
+            miiEncounter.getId(),
+            intern(miiEncounter.getPatientId()),
+            miiEncounter.getVisitNumberIdentifierValue(),
+            miiEncounter.hasClass_() ? intern(miiEncounter.getClass_().getCode()) : null,
+            miiEncounter.hasStatus() ? (byte) miiEncounter.getStatus().ordinal() : -1,
+            miiEncounter.hasPeriod() && miiEncounter.getPeriod().hasStart()
+                ? miiEncounter.getPeriod().getStart().getTime()
+                : CompactEncounter.NO_DATE,
+            miiEncounter.hasPeriod() && miiEncounter.getPeriod().hasEnd()
+                ? miiEncounter.getPeriod().getEnd().getTime()
+                : CompactEncounter.NO_DATE,
+            locationIds,
+            flags,
+            ResourceCodec.encode(miiEncounter));
+    synchronized (encountersById) {
+      encountersById.putIfAbsent(miiEncounter.getId(), compactEncounter);
+    }
+  }
+
+  public int size() {
+    synchronized (encountersById) {
+      return encountersById.size();
+    }
+  }
+
+  public boolean isEmpty() {
+    synchronized (encountersById) {
+      return encountersById.isEmpty();
+    }
+  }
+
+  /** Streams a snapshot of the encounters in insertion order. */
+  public Stream<CompactEncounter> stream() {
+    return snapshot().stream();
+  }
+
+  /** Is at least one encounter of the table flagged with the given flag? */
+  public boolean anyHasFlag(byte flag) {
+    return stream().anyMatch(encounter -> encounter.hasFlag(flag));
+  }
+
+  /**
+   * Decodes all encounters of the table. Each call creates new objects, so this should be done
+   * once, where the processing logic needs the HAPI objects. From then on the decoded objects
+   * occupy the heap just like a list that was never compacted.
+   *
+   * @return A modifiable list of the decoded encounters in insertion order.
+   */
+  public List<MiiEncounter> toMiiEncounters() {
+    // The parallel decoding keeps the encounter order of the snapshot list
+    return snapshot().parallelStream()
+        .map(CompactEncounter::toMiiEncounter)
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  private List<CompactEncounter> snapshot() {
+    synchronized (encountersById) {
+      return new ArrayList<>(encountersById.values());
+    }
+  }
+
+  private String intern(String value) {
+    return value == null ? null : interned.computeIfAbsent(value, key -> key);
+  }
+}
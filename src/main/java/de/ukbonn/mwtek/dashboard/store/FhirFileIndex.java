@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+
+/**
+ * Index of the FHIR resources of a directory tree with NDJSON files (one resource per line) and
+ * JSON files (a bundle or a single resource). The resources are held in one {@link ResourceStore}
+ * per resource type, which provides the indexes by id, patient id and encounter id.
+ *
+ * <p>The files are read in parallel. NDJSON files are memory-mapped and split into lines that get
+ * parsed in parallel, so a single large file doesn't need to be read into the heap as a whole.
+ * After the parsing, the stores are saved in the index directory and read from there via a
+ * memory-mapped snapshot. As long as the resource files are unchanged, the next start reuses these
+ * snapshots without parsing the files again.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class FhirFileIndex {
+
+  private static final String KEY_PREFIX = "File_";
+  private static final String NDJSON_SUFFIX = ".ndjson";
+  private static final String JSON_SUFFIX = ".json";
+  private static final byte NEW_LINE = '\n';
+
+  /** Creating a fhir context is expensive, so it's done once and only if the index is used. */
+  private static final class FhirContextHolder {
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+  }
+
+  private final Map<ResourceType, ResourceStore> stores = new EnumMap<>(ResourceType.class);
+
+  private FhirFileIndex() {}
+
+  /**
+   * Reads the resource files of a directory tree or reuses the saved index of the same files.
+   *
+   * @param directory The directory with the resource files.
+   * @param indexDirectory The directory of the saved index.
+   * @return The index of the resources.
+   */
+  public static FhirFileIndex load(Path directory, Path indexDirectory) throws IOException {
+    List<Path> files = listResourceFiles(directory);
+    String filesHash = hash(directory, files);
+    FhirFileIndex index = new FhirFileIndex();
+    for (ResourceType resourceType : ResourceType.values()) {
+      ResourceStore store =
+          ResourceStore.load(
+              KEY_PREFIX + resourceType.name(), indexDirectory, filesHash, Instant.EPOCH);
+      // A delta store was saved from the same files
+      if (store.isDeltaRetrieval()) {
+        index.stores.put(resourceType, store);
+      }
+    }
+    if (!index.stores.isEmpty()) {
+      log.info("Reusing the index of {} resource files in {}", files.size(), directory);
+      return index;
+    }
+    log.info("Reading {} resource files in {}", files.size(), directory);
+    Map<ResourceType, ResourceStore> readStores = new EnumMap<>(ResourceType.class);
+    AtomicLong resourceCount = new AtomicLong();
+    files.parallelStream()
+        .forEach(
+            file ->
+                readFile(file)
+                    .forEach(
+                        resource -> {
+                          ResourceStore store;
+                          synchronized (readStores) {
+                            store =
+                                readStores.computeIfAbsent(
+                                    resource.getResourceType(),
+                                    type ->
+                                        ResourceStore.load(
+                                            KEY_PREFIX + type.name(),
+                                            indexDirectory,
+                                            filesHash,
+                                            Instant.EPOCH));
+                          }
+                          store.put(resource);
+                          resourceCount.incrementAndGet();
+                        }));
+    Instant indexed = Instant.now();
+    for (ResourceStore store : readStores.values()) {
+      store.save(filesHash, indexed);
+    }
+    index.stores.putAll(readStores);
+    log.info("Indexed {} resources of {} types", resourceCount.get(), readStores.size());
+    return index;
+  }
+
+  /** The store with the resources of the given type or <code>null</code> if there are none. */
+  public ResourceStore getStore(ResourceType resourceType) {
+    return stores.get(resourceType);
+  }
+
+  private static List<Path> listResourceFiles(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(
+              path ->
+                  path.toString().endsWith(NDJSON_SUFFIX) || path.toString().endsWith(JSON_SUFFIX))
+          .sorted()
+          .toList();
+    }
+  }
+
+  /** Hash over the names, sizes and modification times of the files to detect changes. */
+  private static String hash(Path directory, List<Path> files) throws IOException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (Path file : files) {
+        digest.update(
+            (directory.relativize(file)
+                    + "|"
+                    + Files.size(file)
+                    + "|"
+                    + Files.getLastModifiedTime(file).toMillis()
+                    + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /** Reads the resources of a file; bundles are split into their entries. */
+  private static Stream<Resource> readFile(Path file) {
+    try {
+      return file.toString().endsWith(NDJSON_SUFFIX) ? readNdjson(file) : readJson(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the resource file " + file, e);
+    }
+  }
+
+  private static Stream<Resource> readNdjson(Path file) throws IOException {
+    MemorySegment segment;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping is released as soon as no line references it anymore
+      segment = channel.map(MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+    }
+    List<MemorySegment> lines = new ArrayList<>();
+    long lineStart = 0;
+    for (long position = 0; position < segment.byteSize(); position++) {
+      if (segment.get(JAVA_BYTE, position) == NEW_LINE) {
+        lines.add(segment.asSlice(lineStart, position - lineStart));
+        lineStart = position + 1;
+      }
+    }
+    lines.add(segment.asSlice(lineStart));
+    return lines.parallelStream()
+        .map(line -> new String(line.toArray(JAVA_BYTE), StandardCharsets.UTF_8))
+        .filter(line -> !line.isBlank())
+        .map(line -> (Resource) newJsonParser().parseResource(line));
+  }
+
+  private static Stream<Resource> readJson(Path file) throws IOException {
+    Resource resource;
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      resource = (Resource) newJsonParser().parseResource(reader);
+    }
+    if (resource instanceof Bundle bundle) {
+      return bundle.getEntry().stream()
+          .map(BundleEntryComponent::getResource)
+          .filter(entryResource -> entryResource != null);
+    }
+    return Stream.of(resource);
+  }
+
+  private static IParser newJsonParser() {
+    // Parsers are not thread-safe, but cheap to create
+    return MiiResourceTypes.newJsonParser(FhirContextHolder.FHIR_CONTEXT);
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of non-negative int values in the style of a roaring bitmap: the values are
+ * partitioned by their upper 16 bits, and each partition is held either as sorted array (if
+ * sparse) or as plain bitmap (if dense). Not thread-safe.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+final class IdBitmap {
+
+  /** Above this cardinality, a bitmap container needs less memory than an array container. */
+  private static final int MAX_ARRAY_CARDINALITY = 4096;
+
+  private static final int BITMAP_WORDS = 1 << 10;
+
+  private char[] keys = new char[0];
+  private Container[] containers = new Container[0];
+  private int size;
+
+  IdBitmap() {}
+
+  private IdBitmap(char[] keys, Container[] containers, int size) {
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+  }
+
+  boolean add(int value) {
+    char key = (char) (value >>> 16);
+    int index = indexOf(key);
+    if (index < 0) {
+      index = -index - 1;
+      insertContainer(index, key, new ArrayContainer());
+    }
+    Container container = containers[index];
+    int cardinality = container.cardinality;
+    containers[index] = container.add((char) value);
+    return containers[index].cardinality != cardinality;
+  }
+
+  boolean remove(int value) {
+    int index = indexOf((char) (value >>> 16));
+    if (index < 0) {
+      return false;
+    }
+    Container container = containers[index];
+    int cardinality = container.cardinality;
+    containers[index] = container.remove((char) value);
+    if (containers[index].cardinality == 0) {
+      removeContainer(index);
+      return true;
+    }
+    return containers[index].cardinality != cardinality;
+  }
+
+  boolean contains(int value) {
+    int index = indexOf((char) (value >>> 16));
+    return index >= 0 && containers[index].contains((char) value);
+  }
+
+  int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality;
+    }
+    return cardinality;
+  }
+
+  void forEach(IntConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      containers[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  int[] toArray() {
+    int[] values = new int[cardinality()];
+    int[] position = {0};
+    forEach(value -> values[position[0]++] = value);
+    return values;
+  }
+
+  IdBitmap copy() {
+    Container[] copies = new Container[size];
+    for (int i = 0; i < size; i++) {
+      copies[i] = containers[i].copy();
+    }
+    return new IdBitmap(Arrays.copyOf(keys, size), copies, size);
+  }
+
+  /** The values that are in both bitmaps. */
+  static IdBitmap and(IdBitmap left, IdBitmap right) {
+    IdBitmap result = new IdBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < left.size && j < right.size) {
+      if (left.keys[i] < right.keys[j]) {
+        i++;
+      } else if (left.keys[i] > right.keys[j]) {
+        j++;
+      } else {
+        Container container = left.containers[i].and(right.containers[j]);
+        if (container.cardinality > 0) {
+          result.insertContainer(result.size, left.keys[i], container);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /** The values that are in at least one of the bitmaps. */
+  static IdBitmap or(IdBitmap left, IdBitmap right) {
+    IdBitmap result = new IdBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < left.size || j < right.size) {
+      if (j == right.size || (i < left.size && left.keys[i] < right.keys[j])) {
+        result.insertContainer(result.size, left.keys[i], left.containers[i++].copy());
+      } else if (i == left.size || left.keys[i] > right.keys[j]) {
+        result.insertContainer(result.size, right.keys[j], right.containers[j++].copy());
+      } else {
+        result.insertContainer(
+            result.size, left.keys[i], left.containers[i++].or(right.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /** The values of the left bitmap that are not in the right one. */
+  static IdBitmap andNot(IdBitmap left, IdBitmap right) {
+    IdBitmap result = new IdBitmap();
+    int j = 0;
+    for (int i = 0; i < left.size; i++) {
+      while (j < right.size && right.keys[j] < left.keys[i]) {
+        j++;
+      }
+      Container container =
+          j < right.size && right.keys[j] == left.keys[i]
+              ? left.containers[i].andNot(right.containers[j])
+              : left.containers[i].copy();
+      if (container.cardinality > 0) {
+        result.insertContainer(result.size, left.keys[i], container);
+      }
+    }
+    return result;
+  }
+
+  private int indexOf(char key) {
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  private void insertContainer(int index, char key, Container container) {
+    if (size == keys.length) {
+      int capacity = Math.max(4, size * 2);
+      keys = Arrays.copyOf(keys, capacity);
+      containers = Arrays.copyOf(containers, capacity);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = container;
+    size++;
+  }
+
+  private void removeContainer(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+    containers[--size] = null;
+  }
+
+  /** The lower 16 bits of the values of a partition. */
+  private abstract static class Container {
+
+    int cardinality;
+
+    abstract boolean contains(char value);
+
+    /** Adds the value; returns the container that holds the result (possibly converted). */
+    abstract Container add(char value);
+
+    /** Removes the value; returns the container that holds the result (possibly converted). */
+    abstract Container remove(char value);
+
+    abstract void forEach(int high, IntConsumer consumer);
+
+    abstract Container copy();
+
+    abstract BitmapContainer toBitmap();
+
+    Container and(Container other) {
+      ArrayContainer result = new ArrayContainer();
+      // Scanning the values of the smaller container
+      Container smaller = cardinality <= other.cardinality ? this : other;
+      Container larger = smaller == this ? other : this;
+      if (smaller instanceof ArrayContainer array) {
+        for (int i = 0; i < array.cardinality; i++) {
+          if (larger.contains(array.values[i])) {
+            result.append(array.values[i]);
+          }
+        }
+        return result;
+      }
+      return ((BitmapContainer) smaller).and((BitmapContainer) larger).normalize();
+    }
+
+    Container or(Container other) {
+      if (this instanceof ArrayContainer left
+          && other instanceof ArrayContainer right
+          && left.cardinality + right.cardinality <= MAX_ARRAY_CARDINALITY) {
+        return left.merge(right);
+      }
+      BitmapContainer result = toBitmap();
+      other.forEach(0, value -> result.set((char) value));
+      return result.normalize();
+    }
+
+    Container andNot(Container other) {
+      if (this instanceof ArrayContainer array) {
+        ArrayContainer result = new ArrayContainer();
+        for (int i = 0; i < array.cardinality; i++) {
+          if (!other.contains(array.values[i])) {
+            result.append(array.values[i]);
+          }
+        }
+        return result;
+      }
+      BitmapContainer result = (BitmapContainer) copy();
+      other.forEach(0, value -> result.clear((char) value));
+      return result.normalize();
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+
+    private char[] values = new char[4];
+
+    @Override
+    boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    @Override
+    Container add(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return this;
+      }
+      if (cardinality == MAX_ARRAY_CARDINALITY) {
+        BitmapContainer bitmap = toBitmap();
+        bitmap.set(value);
+        return bitmap;
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(cardinality * 2, MAX_ARRAY_CARDINALITY));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+        cardinality--;
+      }
+      return this;
+    }
+
+    /** Appends a value that is greater than all values of the container. */
+    void append(char value) {
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, cardinality * 2);
+      }
+      values[cardinality++] = value;
+    }
+
+    ArrayContainer merge(ArrayContainer other) {
+      ArrayContainer result = new ArrayContainer();
+      result.values = new char[Math.max(4, cardinality + other.cardinality)];
+      int i = 0;
+      int j = 0;
+      while (i < cardinality || j < other.cardinality) {
+        if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+          result.values[result.cardinality++] = values[i++];
+        } else if (i == cardinality || values[i] > other.values[j]) {
+          result.values[result.cardinality++] = other.values[j++];
+        } else {
+          result.values[result.cardinality++] = values[i++];
+          j++;
+        }
+      }
+      return result;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+      for (int i = 0; i < cardinality; i++) {
+        consumer.accept(high | values[i]);
+      }
+    }
+
+    @Override
+    Container copy() {
+      ArrayContainer copy = new ArrayContainer();
+      copy.values = Arrays.copyOf(values, Math.max(4, cardinality));
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < cardinality; i++) {
+        bitmap.set(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+
+    private final long[] words = new long[BITMAP_WORDS];
+
+    @Override
+    boolean contains(char value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container add(char value) {
+      set(value);
+      return this;
+    }
+
+    @Override
+    Container remove(char value) {
+      clear(value);
+      return normalize();
+    }
+
+    void set(char value) {
+      long word = words[value >>> 6];
+      long changed = word | (1L << value);
+      if (changed != word) {
+        words[value >>> 6] = changed;
+        cardinality++;
+      }
+    }
+
+    void clear(char value) {
+      long word = words[value >>> 6];
+      long changed = word & ~(1L << value);
+      if (changed != word) {
+        words[value >>> 6] = changed;
+        cardinality--;
+      }
+    }
+
+    BitmapContainer and(BitmapContainer other) {
+      BitmapContainer result = new BitmapContainer();
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        result.words[i] = words[i] & other.words[i];
+        result.cardinality += Long.bitCount(result.words[i]);
+      }
+      return result;
+    }
+
+    /** Converts the container into an array container if it got sparse. */
+    Container normalize() {
+      if (cardinality > MAX_ARRAY_CARDINALITY) {
+        return this;
+      }
+      ArrayContainer array = new ArrayContainer();
+      array.values = new char[Math.max(4, cardinality)];
+      forEach(0, value -> array.append((char) value));
+      return array;
+    }
+
+    @Override
+    void forEach(int high, IntConsumer consumer) {
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          consumer.accept(high | ((i << 6) + Long.numberOfTrailingZeros(word)));
+          word &= word - 1;
+        }
+      }
+    }
+
+    @Override
+    Container copy() {
+      BitmapContainer copy = new BitmapContainer();
+      System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+      copy.cardinality = cardinality;
+      return copy;
+    }
+
+    @Override
+    BitmapContainer toBitmap() {
+      return (BitmapContainer) copy();
+    }
+  }
+}
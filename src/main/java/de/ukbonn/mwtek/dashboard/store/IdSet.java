@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Collector;
+
+/**
+ * Thread-safe set of ids (e.g. patient or encounter ids) that holds the {@link StringDictionary
+ * dictionary} codes of the ids in a {@link IdBitmap compressed bitmap}. Sets of the same dictionary
+ * are intersected, united and subtracted on the bitmaps, without touching the strings.
+ *
+ * <p>Iterators work on a snapshot of the set, so the set can be changed while being iterated.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class IdSet extends AbstractSet<String> {
+
+  private final StringDictionary dictionary;
+  private IdBitmap bitmap;
+
+  /**
+   * Creates an empty set.
+   *
+   * @param dictionary The dictionary that encodes the ids.
+   */
+  public IdSet(StringDictionary dictionary) {
+    this(dictionary, new IdBitmap());
+  }
+
+  private IdSet(StringDictionary dictionary, IdBitmap bitmap) {
+    this.dictionary = dictionary;
+    this.bitmap = bitmap;
+  }
+
+  /** The dictionary that encodes the ids of the set. */
+  public StringDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Creates a set with the given ids. <code>null</code> ids (e.g. of resources without a case id)
+   * are skipped, like in {@link #collector}.
+   */
+  public static IdSet of(StringDictionary dictionary, Collection<String> ids) {
+    IdSet idSet = new IdSet(dictionary);
+    if (ids instanceof IdSet) {
+      idSet.addAll(ids);
+    } else {
+      ids.forEach(idSet::addIfNotNull);
+    }
+    return idSet;
+  }
+
+  /**
+   * Collects ids into a set of the given dictionary. <code>null</code> ids are skipped, so the ids
+   * of resources can be collected without checking each resource for a missing id.
+   */
+  public static Collector<String, ?, IdSet> collector(StringDictionary dictionary) {
+    return Collector.of(
+        () -> new IdSet(dictionary),
+        IdSet::addIfNotNull,
+        (left, right) -> {
+          left.addAll(right);
+          return left;
+        },
+        Collector.Characteristics.UNORDERED);
+  }
+
+  @Override
+  public boolean add(String id) {
+    if (id == null) {
+      throw new NullPointerException("An id set can't hold null");
+    }
+    return addCode(dictionary.encode(id));
+  }
+
+  private void addIfNotNull(String id) {
+    if (id != null) {
+      add(id);
+    }
+  }
+
+  synchronized boolean addCode(int code) {
+    return bitmap.add(code);
+  }
+
+  @Override
+  public boolean contains(Object id) {
+    if (!(id instanceof String stringId)) {
+      return false;
+    }
+    int code = dictionary.lookup(stringId);
+    return code != StringDictionary.NONE && containsCode(code);
+  }
+
+  private synchronized boolean containsCode(int code) {
+    return bitmap.contains(code);
+  }
+
+  @Override
+  public boolean remove(Object id) {
+    if (!(id instanceof String stringId)) {
+      return false;
+    }
+    int code = dictionary.lookup(stringId);
+    return code != StringDictionary.NONE && removeCode(code);
+  }
+
+  private synchronized boolean removeCode(int code) {
+    return bitmap.remove(code);
+  }
+
+  @Override
+  public synchronized int size() {
+    return bitmap.cardinality();
+  }
+
+  @Override
+  public synchronized void clear() {
+    bitmap = new IdBitmap();
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends String> ids) {
+    IdBitmap other = sameDictionaryBitmap(ids);
+    if (other == null) {
+      return super.addAll(ids);
+    }
+    synchronized (this) {
+      int size = bitmap.cardinality();
+      bitmap = IdBitmap.or(bitmap, other);
+      return bitmap.cardinality() != size;
+    }
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> ids) {
+    IdBitmap other = sameDictionaryBitmap(ids);
+    if (other == null) {
+      return super.retainAll(ids);
+    }
+    synchronized (this) {
+      int size = bitmap.cardinality();
+      bitmap = IdBitmap.and(bitmap, other);
+      return bitmap.cardinality() != size;
+    }
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> ids) {
+    IdBitmap other = sameDictionaryBitmap(ids);
+    if (other == null) {
+      return super.removeAll(ids);
+    }
+    synchronized (this) {
+      int size = bitmap.cardinality();
+      bitmap = IdBitmap.andNot(bitmap, other);
+      return bitmap.cardinality() != size;
+    }
+  }
+
+  /** A new set with the ids that are in this and the other set. */
+  public IdSet intersection(IdSet other) {
+    return new IdSet(dictionary, IdBitmap.and(snapshot(), other.snapshotFor(dictionary)));
+  }
+
+  /** A new set with the ids that are in this or the other set. */
+  public IdSet union(IdSet other) {
+    return new IdSet(dictionary, IdBitmap.or(snapshot(), other.snapshotFor(dictionary)));
+  }
+
+  /** A new set with the ids of this set that are not in the other set. */
+  public IdSet difference(IdSet other) {
+    return new IdSet(dictionary, IdBitmap.andNot(snapshot(), other.snapshotFor(dictionary)));
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    int[] codes;
+    synchronized (this) {
+      codes = bitmap.toArray();
+    }
+    return new Iterator<>() {
+      private int position;
+
+      @Override
+      public boolean hasNext() {
+        return position < codes.length;
+      }
+
+      @Override
+      public String next() {
+        if (position == codes.length) {
+          throw new NoSuchElementException();
+        }
+        return dictionary.decode(codes[position++]);
+      }
+
+      @Override
+      public void remove() {
+        if (position == 0) {
+          throw new IllegalStateException();
+        }
+        removeCode(codes[position - 1]);
+      }
+    };
+  }
+
+  private synchronized IdBitmap snapshot() {
+    return bitmap.copy();
+  }
+
+  /** A copy of the bitmap, which is re-encoded if the given dictionary is another one. */
+  private IdBitmap snapshotFor(StringDictionary targetDictionary) {
+    if (targetDictionary == dictionary) {
+      return snapshot();
+    }
+    return of(targetDictionary, this).snapshot();
+  }
+
+  /** The bitmap of the given ids if they are an id set of the same dictionary. */
+  private IdBitmap sameDictionaryBitmap(Collection<?> ids) {
+    if (ids instanceof IdSet idSet && idSet.dictionary == dictionary) {
+      return idSet == this ? null : idSet.snapshot();
+    }
+    return null;
+  }
+}
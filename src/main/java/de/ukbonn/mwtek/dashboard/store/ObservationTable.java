@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+
+/**
+ * Columnar, thread-safe table of the observation attributes that the patient filtering and the
+ * positivity checks work with. Each observation is a row (or one row per combination of its
+ * codings) of parallel primitive columns with dictionary-encoded ids and codes and epoch
+ * timestamps, so these checks can scan the table instead of the HAPI objects.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class ObservationTable {
+
+  public static final long NO_DATE = Long.MIN_VALUE;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final StringDictionary ids;
+  private final StringDictionary codes = new StringDictionary();
+
+  private int size;
+  private int[] patientColumn = new int[INITIAL_CAPACITY];
+  private int[] encounterColumn = new int[INITIAL_CAPACITY];
+  private int[] codeColumn = new int[INITIAL_CAPACITY];
+  private int[] valueSystemColumn = new int[INITIAL_CAPACITY];
+  private int[] valueCodeColumn = new int[INITIAL_CAPACITY];
+  private long[] effectiveColumn = new long[INITIAL_CAPACITY];
+
+  /** Creates a table whose patient and encounter ids are encoded with its own dictionary. */
+  public ObservationTable() {
+    this(new StringDictionary());
+  }
+
+  /**
+   * Creates a table.
+   *
+   * @param ids The dictionary of the patient and encounter ids.
+   */
+  public ObservationTable(StringDictionary ids) {
+    this.ids = ids;
+  }
+
+  /**
+   * Adds an observation. An observation with several codings in its code or value is added as one
+   * row per combination, so each of its codings can be selected.
+   *
+   * @param observation The observation.
+   * @param patientId The id of the referenced patient.
+   * @param encounterId The id of the referenced encounter.
+   */
+  public void add(Observation observation, String patientId, String encounterId) {
+    List<Coding> codeCodings =
+        codedCodings(observation.hasCode() ? observation.getCode().getCoding() : null);
+    List<Coding> valueCodings =
+        codedCodings(
+            observation.hasValueCodeableConcept()
+                ? observation.getValueCodeableConcept().getCoding()
+                : null);
+    long effective =
+        observation.hasEffectiveDateTimeType() && observation.getEffectiveDateTimeType().hasValue()
+            ? observation.getEffectiveDateTimeType().getValue().getTime()
+            : NO_DATE;
+    // Encoding outside the lock; the dictionaries are thread-safe
+    int patient = ids.encode(patientId);
+    int encounter = ids.encode(encounterId);
+    int[] codeValues = new int[codeCodings.size()];
+    for (int i = 0; i < codeValues.length; i++) {
+      codeValues[i] = codes.encode(codeCodings.get(i).getCode());
+    }
+    int[] valueSystems = new int[valueCodings.size()];
+    int[] valueCodes = new int[valueCodings.size()];
+    for (int i = 0; i < valueCodes.length; i++) {
+      valueSystems[i] = codes.encode(valueCodings.get(i).getSystem());
+      valueCodes[i] = codes.encode(valueCodings.get(i).getCode());
+    }
+    synchronized (this) {
+      // Missing codings are stored as a single empty cell
+      for (int code = 0; code < Math.max(codeValues.length, 1); code++) {
+        for (int value = 0; value < Math.max(valueCodes.length, 1); value++) {
+          if (size == patientColumn.length) {
+            grow();
+          }
+          patientColumn[size] = patient;
+          encounterColumn[size] = encounter;
+          codeColumn[size] = codeValues.length == 0 ? StringDictionary.NONE : codeValues[code];
+          valueSystemColumn[size] =
+              valueCodes.length == 0 ? StringDictionary.NONE : valueSystems[value];
+          valueCodeColumn[size] =
+              valueCodes.length == 0 ? StringDictionary.NONE : valueCodes[value];
+          effectiveColumn[size] = effective;
+          size++;
+        }
+      }
+    }
+  }
+
+  /** The number of rows, which can exceed the number of observations with several codings. */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Selects the rows that match all given criteria.
+   *
+   * @param observationCodes The codes of <code>Observation.code</code>; <code>null</code> for any.
+   * @param valueSystems The systems of <code>Observation.valueCodeableConcept</code>; <code>null
+   *     </code> for any.
+   * @param valueCodes The codes of <code>Observation.valueCodeableConcept</code>; <code>null</code>
+   *     for any.
+   * @param effectiveFrom The earliest effective date in epoch millis (inclusive); {@link #NO_DATE}
+   *     for any.
+   * @return The matching rows.
+   */
+  public synchronized BitSet select(
+      Collection<String> observationCodes,
+      Collection<String> valueSystems,
+      Collection<String> valueCodes,
+      long effectiveFrom) {
+    BitSet codeFilter = toCodeFilter(observationCodes);
+    BitSet systemFilter = toCodeFilter(valueSystems);
+    BitSet valueFilter = toCodeFilter(valueCodes);
+    BitSet rows = new BitSet(size);
+    for (int row = 0; row < size; row++) {
+      if (matches(codeFilter, codeColumn[row])
+          && matches(systemFilter, valueSystemColumn[row])
+          && matches(valueFilter, valueCodeColumn[row])
+          && (effectiveFrom == NO_DATE || effectiveColumn[row] >= effectiveFrom)) {
+        rows.set(row);
+      }
+    }
+    return rows;
+  }
+
+  /** The patient ids of the given rows. */
+  public synchronized IdSet getPatientIds(BitSet rows) {
+    return decodeIds(rows, patientColumn);
+  }
+
+  /** The encounter ids of the given rows. */
+  public synchronized IdSet getEncounterIds(BitSet rows) {
+    return decodeIds(rows, encounterColumn);
+  }
+
+  private IdSet decodeIds(BitSet rows, int[] column) {
+    // The codes are taken over as they are, since the set shares the dictionary of the table
+    IdSet result = new IdSet(ids);
+    rows.stream()
+        .filter(row -> row < size)
+        .map(row -> column[row])
+        .filter(id -> id != StringDictionary.NONE)
+        .forEach(result::addCode);
+    return result;
+  }
+
+  /** The dictionary codes of the given strings as bit set; <code>null</code> if not filtered. */
+  private BitSet toCodeFilter(Collection<String> values) {
+    if (values == null) {
+      return null;
+    }
+    BitSet filter = new BitSet();
+    values.stream()
+        .mapToInt(codes::lookup)
+        .filter(code -> code != StringDictionary.NONE)
+        .forEach(filter::set);
+    return filter;
+  }
+
+  private static boolean matches(BitSet filter, int code) {
+    return filter == null || (code != StringDictionary.NONE && filter.get(code));
+  }
+
+  private static List<Coding> codedCodings(List<Coding> codings) {
+    if (codings == null) {
+      return List.of();
+    }
+    return codings.stream().filter(Coding::hasCode).toList();
+  }
+
+  private void grow() {
+    int capacity = patientColumn.length * 2;
+    patientColumn = Arrays.copyOf(patientColumn, capacity);
+    encounterColumn = Arrays.copyOf(encounterColumn, capacity);
+    codeColumn = Arrays.copyOf(codeColumn, capacity);
+    valueSystemColumn = Arrays.copyOf(valueSystemColumn, capacity);
+    valueCodeColumn = Arrays.copyOf(valueCodeColumn, capacity);
+    effectiveColumn = Arrays.copyOf(effectiveColumn, capacity);
+  }
+}
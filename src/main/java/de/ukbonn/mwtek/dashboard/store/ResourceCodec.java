@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.annotation.ResourceDef;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Compact binary encoding of the resources in the {@link ResourceStore}: the (slimmed) FHIR json
+ * of a resource, deflated and prefixed with its uncompressed length.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+final class ResourceCodec {
+
+  static final ValueLayout.OfInt INT_BE =
+      ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+  private static final int LENGTH_PREFIX = Integer.BYTES;
+
+  /** Creating a fhir context is expensive, so it's done once and only if a store is used. */
+  private static final class FhirContextHolder {
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+  }
+
+  private ResourceCodec() {}
+
+  /**
+   * Encodes a resource. Converted resources (e.g. {@link
+   * de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation}) are stored as their FHIR base type,
+   * since the additional attributes are derived from the FHIR content on conversion anyway.
+   *
+   * @param resource The resource to encode.
+   * @return The encoded resource as heap segment.
+   */
+  static MemorySegment encode(Resource resource) {
+    Resource fhirResource =
+        resource.getClass().isAnnotationPresent(ResourceDef.class) ? resource : resource.copy();
+    byte[] json =
+        FhirContextHolder.FHIR_CONTEXT
+            .newJsonParser()
+            .encodeResourceToString(fhirResource)
+            .getBytes(StandardCharsets.UTF_8);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(json);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(LENGTH_PREFIX + json.length / 3);
+      out.writeBytes(new byte[LENGTH_PREFIX]);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      MemorySegment payload = MemorySegment.ofArray(out.toByteArray());
+      payload.set(INT_BE, 0, json.length);
+      return payload;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decodes a resource that was encoded via {@link #encode(Resource)}.
+   *
+   * @param payload The encoded resource (either on heap or a slice of a mapped snapshot).
+   * @return The parsed FHIR resource.
+   */
+  static Resource decode(MemorySegment payload) {
+    byte[] json = new byte[payload.get(INT_BE, 0)];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(payload.asSlice(LENGTH_PREFIX).toArray(JAVA_BYTE));
+      int offset = 0;
+      while (offset < json.length && !inflater.finished()) {
+        offset += inflater.inflate(json, offset, json.length - offset);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupt resource payload", e);
+    } finally {
+      inflater.end();
+    }
+    return (Resource)
+        MiiResourceTypes.newJsonParser(FhirContextHolder.FHIR_CONTEXT)
+            .parseResource(new String(json, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes a string as unsigned short length followed by the UTF-8 bytes; <code>null</code> is
+   * written as empty string.
+   */
+  static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /** Reads a string that was written via {@link #writeString}. */
+  static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedShort()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
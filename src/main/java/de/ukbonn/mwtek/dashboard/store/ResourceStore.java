@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.INT_BE;
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.writeString;
+import static de.ukbonn.mwtek.dashboardlogic.logic.CoronaResultFunctionality.extractIdFromReference;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Consent;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Procedure;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Embedded, file-based store of the (slimmed) FHIR resources of one retrieval stage (e.g. the COVID
+ * observations), used for the incremental data retrieval. Both FHIR resources and their converted
+ * Mii* counterparts can be stored.
+ *
+ * <p>The resources are held in a {@link ResourceCodec compact binary encoding} and are indexed by
+ * resource id, patient id and encounter id. The persisted data is read via a memory-mapped
+ * snapshot, so the payloads of unchanged resources stay off-heap and are only decoded when needed.
+ * Changes are kept on heap until the next {@link #save}.
+ *
+ * <p>Each save writes a new snapshot generation (<code>key-timestamp.snap</code>) and then
+ * atomically switches the pointer file <code>key.current</code> to it. A crash during the save
+ * leaves the former snapshot intact, and readers of the old mapping are never affected.
+ *
+ * <p>A {@link #createRunScoped run-scoped} store is never persisted and serves as the cache of the
+ * resources that are shared by the data item contexts of a single run.
+ *
+ * <p>Snapshot format (big-endian): magic, version, config hash, high-water mark, timestamp of the
+ * last full retrieval, the covered patient ids and one record <code>
+ * id|patientId|encounterId|payloadLength|payload</code> per resource. Strings are written as
+ * unsigned short length followed by the UTF-8 bytes; an empty string stands for "not given".
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class ResourceStore {
+
+  private static final int MAGIC = 0x44445053; // "DDPS"
+  private static final int VERSION = 1;
+  private static final String POINTER_SUFFIX = ".current";
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+  private static final ValueLayout.OfShort SHORT_BE =
+      ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+  private static final ValueLayout.OfLong LONG_BE =
+      ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+  @Getter private final String key;
+  private final Path directory;
+  private final Map<String, StoredResource> resources = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> idsByPatientId = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> idsByEncounterId = new ConcurrentHashMap<>();
+  private final Set<String> coveredPatientIds = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Timestamp of the start of the last successful run. <code>null</code> if the stored data can't
+   * be reused and a full retrieval is necessary.
+   */
+  @Getter private Instant highWaterMark;
+
+  /** Timestamp of the start of the last run that retrieved the stage completely. */
+  @Getter private Instant lastFullRetrieval;
+
+  private ResourceStore(String key, Path directory) {
+    this.key = key;
+    this.directory = directory;
+  }
+
+  /**
+   * Creates an empty store that just lives for the current run and can't be saved. Patients
+   * marked as covered are complete, so their resources don't need to be queried again.
+   *
+   * @param key The key of the cached stage (e.g. "Run_Patient").
+   * @return An empty, heap-only store.
+   */
+  public static ResourceStore createRunScoped(String key) {
+    return new ResourceStore(key, null);
+  }
+
+  /**
+   * Loads the current snapshot of a retrieval stage. If there is none or it is unreadable, created
+   * with a different configuration or older than the full refresh interval, an empty store is
+   * returned that requires a full retrieval.
+   *
+   * @param key The key of the retrieval stage (e.g. "COVID_Observation").
+   * @param directory The directory of the stores.
+   * @param configHash The current {@link
+   *     de.ukbonn.mwtek.dashboard.configuration.ConfigurationFingerprint configuration hash}.
+   * @param fullRetrievalNeededBefore Stores whose last full retrieval was before this timestamp
+   *     are discarded.
+   * @return The store of the retrieval stage.
+   */
+  public static ResourceStore load(
+      String key, Path directory, String configHash, Instant fullRetrievalNeededBefore) {
+    ResourceStore store = new ResourceStore(key, directory);
+    Path pointerFile = directory.resolve(key + POINTER_SUFFIX);
+    if (!Files.exists(pointerFile)) {
+      return store;
+    }
+    try {
+      Path snapshotFile = directory.resolve(Files.readString(pointerFile).trim());
+      String storedConfigHash = store.readSnapshot(snapshotFile);
+      if (!storedConfigHash.equals(configHash)) {
+        log.info("Configuration of the store {} changed; starting a full retrieval.", key);
+        store.clear();
+      } else if (store.lastFullRetrieval.isBefore(fullRetrievalNeededBefore)) {
+        log.info("Full refresh interval of the store {} reached.", key);
+        store.clear();
+      } else {
+        log.debug("Loaded {} resources of the store {}", store.resources.size(), key);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to read the store {}; starting a full retrieval: {}", key, e.getMessage());
+      store.clear();
+    }
+    return store;
+  }
+
+  /** Is the store just a cache of the current run that doesn't get persisted? */
+  public boolean isRunScoped() {
+    return directory == null;
+  }
+
+  /** Can the stored data be reused, so only the changes since the last run need to be fetched? */
+  public boolean isDeltaRetrieval() {
+    return highWaterMark != null;
+  }
+
+  /**
+   * Adds or replaces a resource by its id. Resources with an invalid status (e.g. entered-in-error)
+   * are stored as well, since they replace the former version and get filtered in the processing.
+   */
+  public void put(Resource resource) {
+    String id = resource.getIdElement().getIdPart();
+    if (id == null) {
+      return;
+    }
+    StoredResource storedResource =
+        new StoredResource(
+            id,
+            extractPatientId(resource),
+            extractEncounterId(resource),
+            ResourceCodec.encode(resource));
+    unindex(resources.put(id, storedResource));
+    index(storedResource);
+  }
+
+  /** Removes a resource by its id (e.g. if it was deleted on the server). */
+  public void remove(String id) {
+    unindex(resources.remove(id));
+  }
+
+  /** Marks patients whose resources of this stage were queried completely. */
+  public void addCoveredPatientIds(Collection<String> patientIds) {
+    coveredPatientIds.addAll(patientIds);
+  }
+
+  /** Patients whose resources of this stage were queried completely in a former run. */
+  public Set<String> getCoveredPatientIds() {
+    return coveredPatientIds;
+  }
+
+  public int size() {
+    return resources.size();
+  }
+
+  /** The ids of all stored resources. */
+  public Set<String> getIds() {
+    return Collections.unmodifiableSet(resources.keySet());
+  }
+
+  /** Is a resource with the given id stored? */
+  public boolean containsId(String id) {
+    return resources.containsKey(id);
+  }
+
+  /**
+   * Reads a single resource.
+   *
+   * @param id The logical id of the resource.
+   * @param converter Conversion of the FHIR resource (e.g. via {@link
+   *     de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter}).
+   * @return The converted resource or <code>null</code> if the id is unknown.
+   */
+  public <T> T getById(String id, Function<Resource, T> converter) {
+    StoredResource storedResource = resources.get(id);
+    return storedResource == null
+        ? null
+        : converter.apply(ResourceCodec.decode(storedResource.payload()));
+  }
+
+  /** Reads all stored resources. */
+  public <T> List<T> getAll(Function<Resource, T> converter) {
+    return decode(resources.values(), converter);
+  }
+
+  /** Reads all resources that reference one of the given patients. */
+  public <T> List<T> getByPatientIds(
+      Collection<String> patientIds, Function<Resource, T> converter) {
+    return decode(lookup(idsByPatientId, patientIds), converter);
+  }
+
+  /** Reads all resources that reference one of the given encounters. */
+  public <T> List<T> getByEncounterIds(
+      Collection<String> encounterIds, Function<Resource, T> converter) {
+    return decode(lookup(idsByEncounterId, encounterIds), converter);
+  }
+
+  /**
+   * Creates a bundle with the stored resources as the input of the usual bundle processing.
+   *
+   * @param patientIds If given, just resources of these patients are returned.
+   * @return A search set bundle with the (decoded) resources.
+   */
+  public Bundle toBundle(Collection<String> patientIds) {
+    Collection<StoredResource> storedResources =
+        patientIds == null ? resources.values() : lookup(idsByPatientId, patientIds);
+    Bundle bundle = new Bundle();
+    bundle.setType(Bundle.BundleType.SEARCHSET);
+    bundle.setEntry(
+        new ArrayList<>(
+            decode(
+                storedResources,
+                resource -> new Bundle.BundleEntryComponent().setResource(resource))));
+    bundle.setTotal(bundle.getEntry().size());
+    return bundle;
+  }
+
+  /**
+   * Writes a new snapshot of the store and atomically switches to it. Afterward, the store reads
+   * from the new snapshot, so the changes of the run no longer occupy heap memory.
+   *
+   * @param configHash The configuration hash the data was retrieved with.
+   * @param runStart The start of the current run, which becomes the new high-water mark.
+   */
+  public void save(String configHash, Instant runStart) throws IOException {
+    if (isRunScoped()) {
+      throw new IllegalStateException("The run-scoped store " + key + " can't be saved.");
+    }
+    Instant fullRetrieval = isDeltaRetrieval() ? lastFullRetrieval : runStart;
+    Files.createDirectories(directory);
+    // Named by the time of the save, since a store may be saved repeatedly with the same mark. The
+    // current snapshot may still be mapped, so it must never be overwritten.
+    long saveTime = Instant.now().toEpochMilli();
+    String snapshotName;
+    Path snapshotFile;
+    do {
+      snapshotName = key + "-" + saveTime++ + SNAPSHOT_SUFFIX;
+      snapshotFile = directory.resolve(snapshotName);
+    } while (Files.exists(snapshotFile));
+    List<StoredResource> storedResources = new ArrayList<>(resources.values());
+    try (FileChannel channel =
+        FileChannel.open(
+            snapshotFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, configHash);
+      out.writeLong(runStart.toEpochMilli());
+      out.writeLong(fullRetrieval.toEpochMilli());
+      out.writeInt(coveredPatientIds.size());
+      for (String patientId : coveredPatientIds) {
+        writeString(out, patientId);
+      }
+      out.writeInt(storedResources.size());
+      for (StoredResource storedResource : storedResources) {
+        writeString(out, storedResource.id());
+        writeString(out, storedResource.patientId());
+        writeString(out, storedResource.encounterId());
+        out.writeInt((int) storedResource.payload().byteSize());
+        out.write(storedResource.payload().toArray(JAVA_BYTE));
+      }
+      out.flush();
+      channel.force(true);
+    }
+    // Switch over to the new snapshot
+    Path pointerFile = directory.resolve(key + POINTER_SUFFIX);
+    Path tempPointerFile = directory.resolve(key + POINTER_SUFFIX + ".tmp");
+    Files.writeString(tempPointerFile, snapshotName);
+    Files.move(
+        tempPointerFile,
+        pointerFile,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    clear();
+    readSnapshot(snapshotFile);
+    deleteFormerSnapshots(snapshotName);
+    log.debug("Saved {} resources of the store {}", resources.size(), key);
+  }
+
+  /**
+   * Maps a snapshot file and builds the indexes. The payloads remain in the mapped file.
+   *
+   * @return The configuration hash of the snapshot.
+   */
+  private String readSnapshot(Path snapshotFile) throws IOException {
+    MemorySegment segment;
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      // The mapping is released as soon as no resource references it anymore
+      segment = channel.map(MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+    }
+    SnapshotReader reader = new SnapshotReader(segment);
+    if (reader.readInt() != MAGIC || reader.readInt() != VERSION) {
+      throw new IOException("Unknown snapshot format of " + snapshotFile);
+    }
+    String configHash = reader.readString();
+    Instant storedHighWaterMark = Instant.ofEpochMilli(reader.readLong());
+    Instant storedLastFullRetrieval = Instant.ofEpochMilli(reader.readLong());
+    int patientCount = reader.readInt();
+    for (int i = 0; i < patientCount; i++) {
+      coveredPatientIds.add(reader.readString());
+    }
+    int resourceCount = reader.readInt();
+    for (int i = 0; i < resourceCount; i++) {
+      StoredResource storedResource =
+          new StoredResource(
+              reader.readString(),
+              reader.readOptionalString(),
+              reader.readOptionalString(),
+              reader.readSlice(reader.readInt()));
+      resources.put(storedResource.id(), storedResource);
+      index(storedResource);
+    }
+    highWaterMark = storedHighWaterMark;
+    lastFullRetrieval = storedLastFullRetrieval;
+    return configHash;
+  }
+
+  /**
+   * Deletes the snapshots that were replaced. Files that are still mapped can't be deleted on some
+   * platforms; they are removed with the next save.
+   */
+  private void deleteFormerSnapshots(String currentSnapshotName) {
+    try (DirectoryStream<Path> snapshots =
+        Files.newDirectoryStream(directory, key + "-*" + SNAPSHOT_SUFFIX)) {
+      for (Path snapshot : snapshots) {
+        if (!snapshot.getFileName().toString().equals(currentSnapshotName)) {
+          try {
+            Files.deleteIfExists(snapshot);
+          } catch (IOException e) {
+            log.debug("Former snapshot {} can't be deleted yet: {}", snapshot, e.getMessage());
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Unable to list the snapshots of the store {}: {}", key, e.getMessage());
+    }
+  }
+
+  private void clear() {
+    resources.clear();
+    idsByPatientId.clear();
+    idsByEncounterId.clear();
+    coveredPatientIds.clear();
+    highWaterMark = null;
+    lastFullRetrieval = null;
+  }
+
+  private void index(StoredResource storedResource) {
+    if (storedResource.patientId() != null) {
+      idsByPatientId
+          .computeIfAbsent(storedResource.patientId(), k -> ConcurrentHashMap.newKeySet())
+          .add(storedResource.id());
+    }
+    if (storedResource.encounterId() != null) {
+      idsByEncounterId
+          .computeIfAbsent(storedResource.encounterId(), k -> ConcurrentHashMap.newKeySet())
+          .add(storedResource.id());
+    }
+  }
+
+  private void unindex(StoredResource storedResource) {
+    if (storedResource == null) {
+      return;
+    }
+    removeFromIndex(idsByPatientId, storedResource.patientId(), storedResource.id());
+    removeFromIndex(idsByEncounterId, storedResource.encounterId(), storedResource.id());
+  }
+
+  private static void removeFromIndex(
+      Map<String, Set<String>> index, String indexKey, String id) {
+    if (indexKey != null) {
+      index.computeIfPresent(indexKey, (k, ids) -> ids.remove(id) && ids.isEmpty() ? null : ids);
+    }
+  }
+
+  private List<StoredResource> lookup(Map<String, Set<String>> index, Collection<String> keys) {
+    return keys.stream()
+        .distinct()
+        .flatMap(indexKey -> index.getOrDefault(indexKey, Set.of()).stream())
+        .map(resources::get)
+        .filter(Objects::nonNull)
+        .toList();
+  }
+
+  private static <T> List<T> decode(
+      Collection<StoredResource> storedResources, Function<Resource, T> converter) {
+    // Decoding (inflating and parsing) is the expensive part
+    return storedResources.parallelStream()
+        .map(storedResource -> converter.apply(ResourceCodec.decode(storedResource.payload())))
+        .toList();
+  }
+
+  private static String extractPatientId(Resource resource) {
+    if (resource instanceof Patient) {
+      return resource.getIdElement().getIdPart();
+    }
+    return extractId(
+        switch (resource) {
+          case Observation observation -> observation.getSubject();
+          case Condition condition -> condition.getSubject();
+          case Encounter encounter -> encounter.getSubject();
+          case Procedure procedure -> procedure.getSubject();
+          case Consent consent -> consent.getPatient();
+          default -> null;
+        });
+  }
+
+  private static String extractEncounterId(Resource resource) {
+    if (resource instanceof Encounter) {
+      return resource.getIdElement().getIdPart();
+    }
+    return extractId(
+        switch (resource) {
+          case Observation observation -> observation.getEncounter();
+          case Condition condition -> condition.getEncounter();
+          case Procedure procedure -> procedure.getEncounter();
+          default -> null;
+        });
+  }
+
+  private static String extractId(Reference reference) {
+    return reference != null && reference.hasReference()
+        ? extractIdFromReference(reference)
+        : null;
+  }
+
+  /** Sequential reader of a mapped snapshot. */
+  private static final class SnapshotReader {
+
+    private final MemorySegment segment;
+    private long position;
+
+    private SnapshotReader(MemorySegment segment) {
+      this.segment = segment;
+    }
+
+    private int readInt() {
+      int value = segment.get(INT_BE, position);
+      position += Integer.BYTES;
+      return value;
+    }
+
+    private long readLong() {
+      long value = segment.get(LONG_BE, position);
+      position += Long.BYTES;
+      return value;
+    }
+
+    private String readString() {
+      int length = Short.toUnsignedInt(segment.get(SHORT_BE, position));
+      position += Short.BYTES;
+      return new String(readSlice(length).toArray(JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    private String readOptionalString() {
+      String value = readString();
+      return value.isEmpty() ? null : value;
+    }
+
+    private MemorySegment readSlice(int length) {
+      MemorySegment slice = segment.asSlice(position, length);
+      position += length;
+      return slice;
+    }
+  }
+}
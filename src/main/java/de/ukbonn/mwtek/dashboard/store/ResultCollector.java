@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Collects the resources of the parallel batches of a retrieval. Each thread adds to a buffer of
+ * its own, so the batches don't contend on a shared set, and the buffers are merged once when the
+ * result list is taken.
+ *
+ * <p>The merge removes duplicates by the resource type and the logical id, which occur when batches
+ * overlap (e.g. a resource that references ids of two batches). Of the duplicates the one with the
+ * most recent {@link org.hl7.fhir.r4.model.Meta#getLastUpdated() lastUpdated} is kept; if they
+ * don't differ in it, the first one collected is kept. Resources without an id are all kept.
+ *
+ * <p>If a {@link SpillableResourceSet} is given (i.e. the memory governor is activated), the thread
+ * buffers are moved to it whenever they reach {@link #SPILL_BATCH_SIZE} resources, so the set can
+ * still spill under memory pressure.
+ *
+ * @param <T> The type of the resources (e.g. {@link
+ *     de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter}).
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class ResultCollector<T extends Resource> {
+
+  /** The number of buffered resources of a thread that are moved to the spillable set at once. */
+  static final int SPILL_BATCH_SIZE = 500;
+
+  private final Queue<ArrayList<T>> buffers = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<ArrayList<T>> threadBuffer =
+      ThreadLocal.withInitial(
+          () -> {
+            ArrayList<T> buffer = new ArrayList<>();
+            buffers.add(buffer);
+            return buffer;
+          });
+  private final SpillableResourceSet<T> spillableSet;
+
+  public ResultCollector() {
+    this(null);
+  }
+
+  /**
+   * @param spillableSet The set that takes the buffered resources under memory pressure; <code>
+   *     null</code> if all resources are kept in the thread buffers.
+   */
+  public ResultCollector(SpillableResourceSet<T> spillableSet) {
+    this.spillableSet = spillableSet;
+  }
+
+  /** Adds a resource to the buffer of the current thread. */
+  public void add(T resource) {
+    ArrayList<T> buffer = threadBuffer.get();
+    buffer.add(resource);
+    if (spillableSet != null && buffer.size() >= SPILL_BATCH_SIZE) {
+      spillableSet.addAll(buffer);
+      buffer.clear();
+    }
+  }
+
+  /** Adds resources to the buffer of the current thread. */
+  public void addAll(Collection<? extends T> resources) {
+    resources.forEach(this::add);
+  }
+
+  /**
+   * Merges the buffers into the result list. It's called once, after all batches are finished; the
+   * buffers (and a possible spill file) are released afterwards.
+   *
+   * @return The collected resources without duplicates.
+   */
+  public List<T> toList() {
+    Map<String, T> resourcesById = new LinkedHashMap<>();
+    List<T> resourcesWithoutId = new ArrayList<>();
+    Consumer<T> merge =
+        resource -> {
+          String id = resource.getIdElement().getIdPart();
+          if (id == null) {
+            resourcesWithoutId.add(resource);
+          } else {
+            resourcesById.merge(resource.fhirType() + "/" + id, resource, ResultCollector::newer);
+          }
+        };
+    if (spillableSet != null) {
+      spillableSet.forEach(merge);
+      spillableSet.close();
+    }
+    for (ArrayList<T> buffer : buffers) {
+      buffer.forEach(merge);
+      // The buffers stay referenced by the threads of the pool until they are cleaned up
+      buffer.clear();
+      buffer.trimToSize();
+    }
+    buffers.clear();
+    List<T> result = new ArrayList<>(resourcesById.size() + resourcesWithoutId.size());
+    result.addAll(resourcesById.values());
+    result.addAll(resourcesWithoutId);
+    return result;
+  }
+
+  /** The merge rule of duplicates: the more recently updated one, otherwise the kept one. */
+  static <T extends Resource> T newer(T kept, T duplicate) {
+    Date keptUpdated = kept.hasMeta() ? kept.getMeta().getLastUpdated() : null;
+    Date duplicateUpdated = duplicate.hasMeta() ? duplicate.getMeta().getLastUpdated() : null;
+    if (duplicateUpdated != null && (keptUpdated == null || duplicateUpdated.after(keptUpdated))) {
+      return duplicate;
+    }
+    return kept;
+  }
+}
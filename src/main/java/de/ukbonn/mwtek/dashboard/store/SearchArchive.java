@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.INT_BE;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Append-only archive of server responses, used to record all searches of a run and to replay them
+ * later without a server (e.g. for offline reruns with a different configuration or for
+ * benchmarks).
+ *
+ * <p>Each record consists of the hash of the request, the payload length and the response in the
+ * {@link ResourceCodec compact binary encoding}. Records are appended and flushed one by one, so an
+ * interrupted recording stays readable up to the last complete record. For a replay, the archive
+ * is memory-mapped and only the requested responses get decoded. If a request was recorded
+ * repeatedly, the last response wins.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class SearchArchive implements Closeable {
+
+  private static final int MAGIC = 0x44445341; // "DDSA"
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+  private static final int KEY_LENGTH = 32;
+
+  private final Path file;
+  private final DataOutputStream out;
+  private final Map<String, MemorySegment> responses = new ConcurrentHashMap<>();
+
+  private SearchArchive(Path file, DataOutputStream out) {
+    this.file = file;
+    this.out = out;
+  }
+
+  /**
+   * Opens an archive for recording. New records are appended to an existing archive.
+   *
+   * @param file The archive file.
+   * @return The archive in recording mode.
+   */
+  public static SearchArchive openForRecording(Path file) throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    boolean newFile = !Files.exists(file) || Files.size(file) == 0;
+    DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(
+                    file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    if (newFile) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.flush();
+    }
+    log.info("Recording the server responses to {}", file);
+    return new SearchArchive(file, out);
+  }
+
+  /**
+   * Opens an archive for replay by mapping the file and indexing the records.
+   *
+   * @param file The archive file.
+   * @return The archive in replay mode.
+   */
+  public static SearchArchive openForReplay(Path file) throws IOException {
+    MemorySegment segment;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping is released as soon as no response references it anymore
+      segment = channel.map(MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+    }
+    if (segment.byteSize() < HEADER_LENGTH
+        || segment.get(INT_BE, 0) != MAGIC
+        || segment.get(INT_BE, Integer.BYTES) != VERSION) {
+      throw new IOException("Unknown archive format of " + file);
+    }
+    SearchArchive archive = new SearchArchive(file, null);
+    long position = HEADER_LENGTH;
+    while (position + KEY_LENGTH + Integer.BYTES <= segment.byteSize()) {
+      String key =
+          HexFormat.of().formatHex(segment.asSlice(position, KEY_LENGTH).toArray(JAVA_BYTE));
+      int payloadLength = segment.get(INT_BE, position + KEY_LENGTH);
+      long payloadStart = position + KEY_LENGTH + Integer.BYTES;
+      if (payloadStart + payloadLength > segment.byteSize()) {
+        log.warn("Ignoring the incomplete last record of the archive {}", file);
+        break;
+      }
+      archive.responses.put(key, segment.asSlice(payloadStart, payloadLength));
+      position = payloadStart + payloadLength;
+    }
+    log.info("Replaying {} recorded server responses from {}", archive.responses.size(), file);
+    return archive;
+  }
+
+  /**
+   * Creates the key of a request.
+   *
+   * @param requestParts The parts that identify the request (e.g. http method and query).
+   * @return The hex-encoded SHA-256 hash of the request.
+   */
+  public static String key(Object... requestParts) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (Object requestPart : requestParts) {
+        digest.update(String.valueOf(requestPart).getBytes(StandardCharsets.UTF_8));
+        // Separator, so the parts can't be shifted into each other
+        digest.update((byte) 0);
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /** Was the archive opened for replay (instead of recording)? */
+  public boolean isReplay() {
+    return out == null;
+  }
+
+  /** Appends the response of a request. */
+  public synchronized void record(String key, Resource response) {
+    MemorySegment payload = ResourceCodec.encode(response);
+    try {
+      out.write(HexFormat.of().parseHex(key));
+      out.writeInt((int) payload.byteSize());
+      out.write(payload.toArray(JAVA_BYTE));
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to the search archive " + file, e);
+    }
+  }
+
+  /**
+   * Reads the recorded response of a request.
+   *
+   * @param key The key of the request.
+   * @return The decoded response or <code>null</code> if the request was not recorded.
+   */
+  public Resource replay(String key) {
+    MemorySegment payload = responses.get(key);
+    return payload == null ? null : ResourceCodec.decode(payload);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * A thread-safe result set of the data retrieval that spills its content to a temporary file when
+ * the spill decision (usually the memory governor) asks for it. The spilled resources are kept in
+ * the {@link ResourceCodec compact binary encoding} and are streamed back when the set is iterated.
+ *
+ * <p>Within the memory buffer the set behaves like {@link ConcurrentHashMap#newKeySet()}. Spilled
+ * resources are not compared again, which is fine for the retrieval, where each parsed resource is
+ * a new instance anyway.
+ *
+ * @param <T> The type of the resources (e.g. {@link
+ *     de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter}).
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+@Slf4j
+public class SpillableResourceSet<T extends Resource> extends AbstractSet<T>
+    implements AutoCloseable {
+
+  private final Set<T> buffer = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger spilledResources = new AtomicInteger(0);
+  private final IntPredicate spillDecision;
+  private final Path spillDirectory;
+  private final Function<Resource, T> restore;
+  private Path spillFile;
+  private DataOutputStream spillOutput;
+
+  /**
+   * @param spillDecision Decides whether the given number of buffered resources should be spilled.
+   * @param spillDirectory The directory of the temporary spill file.
+   * @param restore Restores a spilled FHIR resource into the type of the set (e.g. via {@link
+   *     de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter}).
+   */
+  public SpillableResourceSet(
+      IntPredicate spillDecision, Path spillDirectory, Function<Resource, T> restore) {
+    this.spillDecision = spillDecision;
+    this.spillDirectory = spillDirectory;
+    this.restore = restore;
+  }
+
+  @Override
+  public boolean add(T resource) {
+    boolean added = buffer.add(resource);
+    if (added && spillDecision.test(buffer.size())) {
+      spill();
+    }
+    return added;
+  }
+
+  @Override
+  public int size() {
+    return spilledResources.get() + buffer.size();
+  }
+
+  /** Iterates over the spilled resources (read back from disk) and the buffered ones. */
+  @Override
+  public synchronized Iterator<T> iterator() {
+    if (spillOutput == null) {
+      return buffer.iterator();
+    }
+    try {
+      spillOutput.flush();
+      return new SpillIterator(
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile))),
+          buffer.iterator());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the spill file " + spillFile, e);
+    }
+  }
+
+  /** Deletes the spill file. */
+  @Override
+  public synchronized void close() {
+    if (spillOutput == null) {
+      return;
+    }
+    try {
+      spillOutput.close();
+      Files.deleteIfExists(spillFile);
+    } catch (IOException e) {
+      log.warn("Unable to delete the spill file {}: {}", spillFile, e.getMessage());
+    }
+    spillOutput = null;
+  }
+
+  /** Moves the buffered resources to the spill file. */
+  private synchronized void spill() {
+    // Another thread might have spilled in the meantime
+    if (!spillDecision.test(buffer.size())) {
+      return;
+    }
+    try {
+      if (spillOutput == null) {
+        Files.createDirectories(spillDirectory);
+        spillFile = Files.createTempFile(spillDirectory, "spill-", ".bin");
+        spillFile.toFile().deleteOnExit();
+        spillOutput =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+      }
+      int spilled = 0;
+      for (Iterator<T> iterator = buffer.iterator(); iterator.hasNext(); ) {
+        T resource = iterator.next();
+        byte[] payload = ResourceCodec.encode(resource).toArray(JAVA_BYTE);
+        spillOutput.writeInt(payload.length);
+        spillOutput.write(payload);
+        iterator.remove();
+        spilledResources.incrementAndGet();
+        spilled++;
+      }
+      log.debug("Spilled {} resources to {}", spilled, spillFile);
+    } catch (IOException e) {
+      // The resources just stay in memory
+      log.warn("Unable to spill resources to disk: {}", e.getMessage());
+    }
+  }
+
+  /** Streams the spilled resources back and continues with the buffered ones. */
+  private class SpillIterator implements Iterator<T> {
+
+    private final DataInputStream input;
+    private final Iterator<T> bufferIterator;
+    private int remaining = spilledResources.get();
+
+    private SpillIterator(DataInputStream input, Iterator<T> bufferIterator) {
+      this.input = input;
+      this.bufferIterator = bufferIterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (remaining > 0) {
+        return true;
+      }
+      closeInput();
+      return bufferIterator.hasNext();
+    }
+
+    @Override
+    public T next() {
+      if (remaining <= 0) {
+        return bufferIterator.next();
+      }
+      try {
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        remaining--;
+        return restore.apply(ResourceCodec.decode(MemorySegment.ofArray(payload)));
+      } catch (EOFException e) {
+        throw new NoSuchElementException("Spill file " + spillFile + " ended unexpectedly");
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to read the spill file " + spillFile, e);
+      }
+    }
+
+    private void closeInput() {
+      try {
+        input.close();
+      } catch (IOException e) {
+        log.debug("Unable to close the spill file {}: {}", spillFile, e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe dictionary that encodes strings (e.g. resource ids or codes) as dense int values,
+ * starting at <code>0</code>, so they can be held in primitive columns.
+ *
+ * @author <a href="mailto:david.meyers@ukbonn.de">David Meyers</a>
+ */
+public class StringDictionary {
+
+  /** The code of <code>null</code> and of unknown strings. */
+  public static final int NONE = -1;
+
+  private final Map<String, Integer> codesByValue = new ConcurrentHashMap<>();
+  private volatile String[] values = new String[64];
+  private int size;
+
+  /** The code of the given string, which gets added if it's not known yet. */
+  public int encode(String value) {
+    if (value == null) {
+      return NONE;
+    }
+    Integer code = codesByValue.get(value);
+    return code != null ? code : add(value);
+  }
+
+  /** The code of the given string; {@link #NONE} if it's not known. */
+  public int lookup(String value) {
+    if (value == null) {
+      return NONE;
+    }
+    return codesByValue.getOrDefault(value, NONE);
+  }
+
+  /** The string of the given code; <code>null</code> for {@link #NONE}. */
+  public String decode(int code) {
+    return code == NONE ? null : values[code];
+  }
+
+  public int size() {
+    return codesByValue.size();
+  }
+
+  private synchronized int add(String value) {
+    Integer code = codesByValue.get(value);
+    if (code != null) {
+      return code;
+    }
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+    }
+    // The value is published before its code, so a code can always be decoded
+    values[size] = value;
+    codesByValue.put(value, size);
+    return size++;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Checks that the prefilter only drops the entries its predicate rejects. */
+public class BundlePrefilterTests {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static final String BUNDLE =
+      """
+      {"resourceType":"Bundle","type":"searchset","entry":[
+        {"resource":{"resourceType":"Condition","id":"c1",
+          "code":{"coding":[{"system":"http://fhir.de/CodeSystem/bfarm/icd-10-gm",
+            "code":"U07.1!"}]}}},
+        {"resource":{"resourceType":"Condition","id":"c2",
+          "code":{"coding":[{"code":"J12.8"}]}}},
+        {"resource":{"resourceType":"Condition","id":"c3"}},
+        {"resource":{"resourceType":"Encounter","id":"e1","status":"cancelled"}}
+      ],"link":[{"relation":"self","url":"http://localhost/Condition"}]}
+      """;
+
+  private static List<String> entryIds(String bundleJson) throws Exception {
+    List<String> ids = new ArrayList<>();
+    for (JsonNode entry : MAPPER.readTree(bundleJson).get("entry")) {
+      ids.add(entry.get("resource").get("id").asText());
+    }
+    return ids;
+  }
+
+  @Test
+  @DisplayName("Conditions without a needed icd code are dropped, all others are kept")
+  void testCodePrefixes() throws Exception {
+    BundlePrefilter prefilter =
+        new BundlePrefilter(
+            "test", "Condition", BundlePrefilter.anyCodeStartsWith("code", List.of("U07.1")));
+    String filtered = prefilter.apply(BUNDLE);
+    assertEquals(List.of("c1", "c3", "e1"), entryIds(filtered));
+    // The remaining bundle is left as it is
+    assertEquals(MAPPER.readTree(BUNDLE).get("link"), MAPPER.readTree(filtered).get("link"));
+  }
+
+  @Test
+  @DisplayName("Rejected states are dropped and unchanged bundles are returned as they are")
+  void testStatus() throws Exception {
+    BundlePrefilter encounterPrefilter =
+        new BundlePrefilter(
+            "test", "Encounter", BundlePrefilter.statusNotIn(false, Set.of("cancelled")));
+    assertEquals(List.of("c1", "c2", "c3"), entryIds(encounterPrefilter.apply(BUNDLE)));
+
+    BundlePrefilter conditionPrefilter =
+        new BundlePrefilter("test", "Condition", BundlePrefilter.statusNotIn(false, Set.of()));
+    assertSame(BUNDLE, conditionPrefilter.apply(BUNDLE));
+    String malformed = BUNDLE.substring(0, BUNDLE.length() / 2);
+    assertSame(malformed, encounterPrefilter.apply(malformed));
+  }
+
+  @Test
+  @DisplayName("Just the codings of the checked element are scanned")
+  void testScannedElement() throws Exception {
+    String bundle =
+        """
+        {"resourceType":"Bundle","entry":[
+          {"fullUrl":"Condition/c1","resource":{"id":"c1",
+            "category":[{"coding":[{"code":"U07.1"}]}],
+            "code":{"coding":[{"code":"J12.8",
+              "extension":[{"url":"x","valueCoding":{"code":"U07.1"}}]}]},
+            "resourceType":"Condition"}},
+          {"resource":{"resourceType":"Condition","id":"c2",
+            "code":{"coding":[{"code":"U07.2"},{"code":"U07.1!"}]}}}
+        ]}
+        """;
+    BundlePrefilter prefilter =
+        new BundlePrefilter(
+            "test", "Condition", BundlePrefilter.anyCodeStartsWith("code", List.of("U07.1")));
+    assertEquals(List.of("c2"), entryIds(prefilter.apply(bundle)));
+    assertEquals(2, prefilter.getScannedEntries());
+    assertEquals(1, prefilter.getSkippedEntries());
+
+    // Codings with an unexpected structure keep the bundle as it is
+    String malformed = bundle.replace("[{\"code\":\"U07.2\"}", "[\"U07.2\"");
+    assertSame(malformed, prefilter.apply(malformed));
+  }
+
+  @Test
+  @DisplayName("Parsed bundles drop the same entries as their raw json")
+  void testParsedBundle() throws Exception {
+    IParser parser = FhirContext.forR4().newJsonParser();
+    for (BundlePrefilter prefilter :
+        List.of(
+            new BundlePrefilter(
+                "test", "Condition", BundlePrefilter.anyCodeStartsWith("code", List.of("U07.1"))),
+            new BundlePrefilter(
+                "test", "Encounter", BundlePrefilter.statusNotIn(false, Set.of("cancelled"))))) {
+      List<String> expectedIds = entryIds(prefilter.apply(BUNDLE));
+      Bundle bundle = prefilter.apply(parser.parseResource(Bundle.class, BUNDLE));
+      assertEquals(
+          expectedIds,
+          bundle.getEntry().stream().map(entry -> entry.getResource().getIdPart()).toList());
+    }
+  }
+}
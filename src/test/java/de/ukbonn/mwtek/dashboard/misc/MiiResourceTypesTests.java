@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static de.ukbonn.mwtek.dashboard.misc.StreamingBundleReaderTests.SAMPLE_FILES;
+import static de.ukbonn.mwtek.dashboard.misc.StreamingBundleReaderTests.generateDataItems;
+import static de.ukbonn.mwtek.dashboard.misc.StreamingBundleReaderTests.readSample;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import de.ukbonn.mwtek.utilities.fhir.misc.ResourceConverter;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiCondition;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
+import java.io.IOException;
+import java.util.Map;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that resources parsed straight into the Mii classes are equivalent to parsed and
+ * converted ones, including the ids that the converter derives from the references.
+ */
+public class MiiResourceTypesTests {
+
+  private static final FhirContext FHIR_CTX = FhirContext.forR4();
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Test
+  @DisplayName("Parsed and converted resources derive the same ids")
+  void testSameDerivedIds() throws IOException {
+    for (String sampleFile : SAMPLE_FILES.keySet()) {
+      String json = readSample(sampleFile);
+      Bundle converted = FHIR_CTX.newJsonParser().parseResource(Bundle.class, json);
+      Bundle parsed = MiiResourceTypes.newJsonParser(FHIR_CTX).parseResource(Bundle.class, json);
+
+      assertEquals(converted.getEntry().size(), parsed.getEntry().size(), sampleFile);
+      for (int i = 0; i < converted.getEntry().size(); i++) {
+        Resource expected =
+            ResourceConverter.convert((DomainResource) converted.getEntry().get(i).getResource());
+        Resource actual = parsed.getEntry().get(i).getResource();
+        String message = sampleFile + ": " + expected.getId();
+        assertEquals(expected.getIdPart(), actual.getIdPart(), message);
+        switch (expected) {
+          case MiiObservation observation -> {
+            MiiObservation parsedObservation = assertInstanceOf(MiiObservation.class, actual);
+            assertEquals(observation.getPatientId(), parsedObservation.getPatientId(), message);
+            assertEquals(observation.getCaseId(), parsedObservation.getCaseId(), message);
+          }
+          case MiiCondition condition -> {
+            MiiCondition parsedCondition = assertInstanceOf(MiiCondition.class, actual);
+            assertEquals(condition.getPatientId(), parsedCondition.getPatientId(), message);
+            assertEquals(condition.getCaseId(), parsedCondition.getCaseId(), message);
+          }
+          case MiiEncounter encounter -> {
+            MiiEncounter parsedEncounter = assertInstanceOf(MiiEncounter.class, actual);
+            assertEquals(encounter.getPatientId(), parsedEncounter.getPatientId(), message);
+            assertEquals(
+                encounter.getFacilityContactId(), parsedEncounter.getFacilityContactId(), message);
+          }
+          default -> {}
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("The data items of parsed and converted resources are equal")
+  void testSameDataItems() throws IOException {
+    for (Map.Entry<String, DataItemContext> sample : SAMPLE_FILES.entrySet()) {
+      String json = readSample(sample.getKey());
+      // The plain parser creates HAPI resources, which get converted into the Mii classes
+      Bundle converted = FHIR_CTX.newJsonParser().parseResource(Bundle.class, json);
+      Bundle parsed = MiiResourceTypes.newJsonParser(FHIR_CTX).parseResource(Bundle.class, json);
+      JsonNode expected = MAPPER.valueToTree(generateDataItems(converted, sample));
+      JsonNode actual = MAPPER.valueToTree(generateDataItems(parsed, sample));
+      assertFalse(expected.isEmpty(), sample.getKey());
+      assertEquals(expected, actual, sample.getKey());
+    }
+  }
+}
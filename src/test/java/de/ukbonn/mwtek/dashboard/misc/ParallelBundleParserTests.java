@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_KIDS_RADAR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Checks that the parallel parse of the chunks delivers the same bundle as a single parse. */
+public class ParallelBundleParserTests {
+
+  private static final FhirContext FHIR_CTX = FhirContext.forR4();
+
+  private static Bundle parse(String json) {
+    return FHIR_CTX.newJsonParser().parseResource(Bundle.class, json);
+  }
+
+  @Test
+  @DisplayName("Chunks are parsed separately and the entries keep their order")
+  void testSameBundle() throws IOException {
+    String json = Files.readString(Path.of(SAMPLE_FILE_KIDS_RADAR), StandardCharsets.UTF_8);
+    AtomicInteger parsedPieces = new AtomicInteger();
+    ParallelBundleParser parser =
+        new ParallelBundleParser(
+            piece -> {
+              parsedPieces.incrementAndGet();
+              return parse(piece);
+            },
+            10);
+
+    Bundle expected = parse(json);
+    Bundle actual = parser.parse(json);
+
+    // The bundle without its entries and one piece per started ten entries
+    assertEquals(1 + (expected.getEntry().size() + 9) / 10, parsedPieces.get());
+    assertEquals(expected.getEntry().size(), actual.getEntry().size());
+    for (int i = 0; i < expected.getEntry().size(); i++) {
+      assertTrue(expected.getEntry().get(i).equalsDeep(actual.getEntry().get(i)), "Entry " + i);
+    }
+    assertTrue(expected.equalsShallow(actual));
+    assertEquals(expected.getType(), actual.getType());
+  }
+
+  @Test
+  @DisplayName("Small and malformed pages are parsed in one piece")
+  void testNoSplit() throws IOException {
+    String json = Files.readString(Path.of(SAMPLE_FILE_KIDS_RADAR), StandardCharsets.UTF_8);
+    AtomicInteger parsedPieces = new AtomicInteger();
+    ParallelBundleParser parser =
+        new ParallelBundleParser(
+            piece -> {
+              parsedPieces.incrementAndGet();
+              return new Bundle();
+            },
+            Integer.MAX_VALUE);
+    parser.parse(json);
+    parser.parse(json.substring(0, json.length() / 2));
+    assertEquals(2, parsedPieces.get());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Checks that the interner shares the strings of the resources, but none of their elements. */
+public class ResourceInternerTests {
+
+  private static final String LOINC = "http://loinc.org";
+
+  @AfterEach
+  void finish() {
+    ResourceInterner.finish();
+  }
+
+  /** An observation whose strings are separate instances, like the ones of a parsed resource. */
+  private static Observation observation(String code) {
+    Observation observation = new Observation();
+    observation.setCode(new CodeableConcept(new Coding(new String(LOINC), new String(code), null)));
+    observation.setSubject(new Reference(new String("Patient/1")));
+    return observation;
+  }
+
+  @Test
+  @DisplayName("Equal strings of different resources are shared")
+  void testSharedStrings() {
+    Observation first = observation("94309-2");
+    Observation second = observation("94309-2");
+    ResourceInterner.intern(first.getCode());
+    ResourceInterner.intern(first.getSubject());
+    ResourceInterner.intern(second.getCode());
+    ResourceInterner.intern(second.getSubject());
+
+    Coding firstCoding = first.getCode().getCodingFirstRep();
+    Coding secondCoding = second.getCode().getCodingFirstRep();
+    assertSame(firstCoding.getSystem(), secondCoding.getSystem());
+    assertSame(firstCoding.getCode(), secondCoding.getCode());
+    assertSame(first.getSubject().getReference(), second.getSubject().getReference());
+    assertEquals(3, ResourceInterner.getDeduplicatedStrings());
+    assertTrue(ResourceInterner.getSavedBytes() > 0);
+  }
+
+  @Test
+  @DisplayName("Codings stay separate instances that can be modified independently")
+  void testNoSharedCodings() {
+    Observation first = observation("94309-2");
+    Observation second = observation("94309-2");
+    ResourceInterner.intern(first.getCode());
+    ResourceInterner.intern(second.getCode());
+
+    Coding firstCoding = first.getCode().getCodingFirstRep();
+    Coding secondCoding = second.getCode().getCodingFirstRep();
+    assertNotSame(firstCoding, secondCoding);
+    assertNotSame(firstCoding.getCodeElement(), secondCoding.getCodeElement());
+
+    firstCoding.setCode("94500-6");
+    firstCoding.setDisplay("modified");
+    assertEquals("94309-2", secondCoding.getCode());
+    assertNull(secondCoding.getDisplay());
+  }
+
+  @Test
+  @DisplayName("The canonical strings are released at the end of a run")
+  void testFinish() {
+    ResourceInterner.intern(observation("94309-2").getCode());
+    ResourceInterner.intern(observation("94309-2").getCode());
+    assertTrue(ResourceInterner.getDeduplicatedStrings() > 0);
+
+    ResourceInterner.finish();
+    assertEquals(0, ResourceInterner.getDeduplicatedStrings());
+    assertEquals(0, ResourceInterner.getSavedBytes());
+  }
+}
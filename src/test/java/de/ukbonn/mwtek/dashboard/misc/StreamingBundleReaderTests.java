@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.misc;
+
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_ACRIBIS;
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_BCT;
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_COVID;
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_INFLUENZA;
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_KIDS_RADAR;
+import static de.ukbonn.mwtek.dashboard.examples.InputCodeSettingsExampleData.getExampleData;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ukbonn.mwtek.dashboard.examples.GlobalConfigurationExamples;
+import de.ukbonn.mwtek.dashboardlogic.AcribisDataItemGenerator;
+import de.ukbonn.mwtek.dashboardlogic.BctDataItemGenerator;
+import de.ukbonn.mwtek.dashboardlogic.DataItemGenerator;
+import de.ukbonn.mwtek.dashboardlogic.KidsRadarDataItemGenerator;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import de.ukbonn.mwtek.dashboardlogic.models.DiseaseDataItem;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiCondition;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiConsent;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiEncounter;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiLocation;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiPatient;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiProcedure;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiQuestionnaireResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Checks that the streaming reader delivers the same resources (and thus the same data items) as
+ * the HAPI parser for all sample bundles.
+ */
+@Slf4j
+public class StreamingBundleReaderTests {
+
+  private static final FhirContext FHIR_CTX = FhirContext.forR4();
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  static final Map<String, DataItemContext> SAMPLE_FILES =
+      Map.of(
+          SAMPLE_FILE_COVID, DataItemContext.COVID,
+          SAMPLE_FILE_INFLUENZA, DataItemContext.INFLUENZA,
+          SAMPLE_FILE_KIDS_RADAR, DataItemContext.KIDS_RADAR,
+          SAMPLE_FILE_ACRIBIS, DataItemContext.ACRIBIS,
+          SAMPLE_FILE_BCT, DataItemContext.BCT);
+
+  static String readSample(String sampleFile) throws IOException {
+    return Files.readString(Path.of(sampleFile), StandardCharsets.UTF_8);
+  }
+
+  private static Bundle parseWithHapi(String json) {
+    Bundle bundle = MiiResourceTypes.newJsonParser(FHIR_CTX).parseResource(Bundle.class, json);
+    // The streaming reader skips the narrative, which isn't used by any data item
+    bundle.getEntry().stream()
+        .map(BundleEntryComponent::getResource)
+        .filter(DomainResource.class::isInstance)
+        .forEach(resource -> ((DomainResource) resource).setText(null));
+    return bundle;
+  }
+
+  @Test
+  @DisplayName("The streaming reader delivers the same resources as the HAPI parser")
+  void testSameResources() throws IOException {
+    StreamingBundleReader reader = new StreamingBundleReader(FHIR_CTX);
+    for (String sampleFile : SAMPLE_FILES.keySet()) {
+      String json = readSample(sampleFile);
+      Bundle expected = parseWithHapi(json);
+      Bundle actual = reader.read(json);
+
+      assertEquals(expected.getEntry().size(), actual.getEntry().size(), sampleFile);
+      for (int i = 0; i < expected.getEntry().size(); i++) {
+        BundleEntryComponent expectedEntry = expected.getEntry().get(i);
+        BundleEntryComponent actualEntry = actual.getEntry().get(i);
+        Resource expectedResource = expectedEntry.getResource();
+        Resource actualResource = actualEntry.getResource();
+        String message = sampleFile + ": " + expectedResource.getId();
+        assertEquals(expectedResource.getClass(), actualResource.getClass(), message);
+        assertEquals(expectedResource.getId(), actualResource.getId(), message);
+        assertTrue(expectedEntry.equalsDeep(actualEntry), message);
+      }
+      assertTrue(expected.equalsShallow(actual), sampleFile);
+    }
+    assertEquals(0, reader.getDelegatedPages());
+    assertTrue(reader.getReadResources() > reader.getDelegatedResources());
+  }
+
+  @Test
+  @DisplayName("The data items of both parsers are equal")
+  void testSameDataItems() throws IOException {
+    StreamingBundleReader reader = new StreamingBundleReader(FHIR_CTX);
+    for (Map.Entry<String, DataItemContext> sample : SAMPLE_FILES.entrySet()) {
+      String json = readSample(sample.getKey());
+      JsonNode expected = MAPPER.valueToTree(generateDataItems(parseWithHapi(json), sample));
+      JsonNode actual = MAPPER.valueToTree(generateDataItems(reader.read(json), sample));
+      assertFalse(expected.isEmpty(), sample.getKey());
+      assertEquals(expected, actual, sample.getKey());
+    }
+  }
+
+  static List<DiseaseDataItem> generateDataItems(
+      Bundle bundle, Map.Entry<String, DataItemContext> sample) {
+    List<MiiPatient> patients = new ArrayList<>();
+    List<MiiEncounter> encounters = new ArrayList<>();
+    List<MiiCondition> conditions = new ArrayList<>();
+    List<MiiObservation> observations = new ArrayList<>();
+    List<MiiProcedure> procedures = new ArrayList<>();
+    List<MiiLocation> locations = new ArrayList<>();
+    List<MiiConsent> consents = new ArrayList<>();
+    List<MiiQuestionnaireResponse> questionnaireResponses = new ArrayList<>();
+    for (BundleEntryComponent entry : bundle.getEntry()) {
+      Resource resource = MiiResourceTypes.toMii(entry.getResource());
+      switch (resource) {
+        case MiiPatient patient -> patients.add(patient);
+        case MiiEncounter encounter -> encounters.add(encounter);
+        case MiiCondition condition -> conditions.add(condition);
+        case MiiObservation observation -> observations.add(observation);
+        case MiiProcedure procedure -> procedures.add(procedure);
+        case MiiLocation location -> locations.add(location);
+        case MiiConsent consent -> consents.add(consent);
+        case MiiQuestionnaireResponse questionnaireResponse ->
+            questionnaireResponses.add(questionnaireResponse);
+        default -> {}
+      }
+    }
+    DataItemGenerator generator =
+        switch (sample.getValue()) {
+          case KIDS_RADAR ->
+              new KidsRadarDataItemGenerator(
+                  conditions, observations, patients, encounters, procedures, locations);
+          case ACRIBIS ->
+              new AcribisDataItemGenerator(
+                  consents, conditions, patients, encounters, procedures, questionnaireResponses);
+          case BCT -> new BctDataItemGenerator(consents);
+          default ->
+              new DataItemGenerator(
+                  conditions, observations, patients, encounters, procedures, locations);
+        };
+    return generator.getDataItems(
+        null,
+        null,
+        getExampleData(),
+        null,
+        sample.getValue(),
+        GlobalConfigurationExamples.getExampleSettings());
+  }
+
+  /**
+   * Compares the parse throughput and the allocated bytes of both parsers. It's only run on demand
+   * via {@code -Dbenchmark=true}, since the numbers depend on the machine.
+   */
+  @Test
+  @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+  @DisplayName("Benchmark of the HAPI parser and the streaming reader")
+  void benchmarkParsers() throws IOException {
+    List<String> samples = new ArrayList<>();
+    for (String sampleFile : SAMPLE_FILES.keySet()) {
+      samples.add(readSample(sampleFile));
+    }
+    StreamingBundleReader reader = new StreamingBundleReader(FHIR_CTX);
+    Function<String, Bundle> hapi =
+        json -> {
+          IParser parser = MiiResourceTypes.newJsonParser(FHIR_CTX);
+          return parser.parseResource(Bundle.class, json);
+        };
+    int iterations = Integer.getInteger("benchmark.iterations", 200);
+    // Warm-up of both paths before the measured runs
+    measure("HAPI parser", hapi, samples, iterations / 4, false);
+    measure("Streaming reader", reader::read, samples, iterations / 4, false);
+    measure("HAPI parser", hapi, samples, iterations, true);
+    measure("Streaming reader", reader::read, samples, iterations, true);
+  }
+
+  private static void measure(
+      String name,
+      Function<String, Bundle> parser,
+      List<String> samples,
+      int iterations,
+      boolean report) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().threadId();
+    long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    long resources = 0;
+    for (int i = 0; i < iterations; i++) {
+      for (String json : samples) {
+        resources += parser.apply(json).getEntry().size();
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+    if (report) {
+      log.info(
+          "{}: {} resources/s, {} bytes allocated per resource",
+          name,
+          resources * 1_000_000_000L / Math.max(nanos, 1),
+          bytes / Math.max(resources, 1));
+    }
+  }
+}
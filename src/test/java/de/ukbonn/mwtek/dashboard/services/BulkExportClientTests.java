@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.ukbonn.mwtek.dashboard.configuration.BulkExportConfiguration;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/** Runs the bulk export client against a minimal local stand-in of a bulk data server. */
+public class BulkExportClientTests {
+
+  private static final String OBSERVATIONS =
+      """
+      {"resourceType":"Observation","id":"obs-1","subject":{"reference":"Patient/p1"}}
+      {"resourceType":"Observation","id":"obs-2","subject":{"reference":"Patient/p2"}}
+
+      {"resourceType":"Observation","id":"obs-3","subject":{"reference":"Patient/p2"}}
+      """;
+  private static final String PATIENTS =
+      """
+      {"resourceType":"Patient","id":"p1","birthDate":"2015-03-01"}
+      {"resourceType":"Patient","id":"p2","birthDate":"2017-11-20"}
+      """;
+
+  private HttpServer server;
+  private String baseUrl;
+  private final Map<String, String> kickOffParameters = new ConcurrentHashMap<>();
+  private final AtomicInteger statusRequests = new AtomicInteger();
+  private final AtomicInteger deleteRequests = new AtomicInteger();
+  private volatile String preferHeader;
+  private volatile int kickOffStatus = 202;
+  private volatile boolean failStatusPoll;
+  private volatile boolean failDownload;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    baseUrl = "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    server.createContext("/fhir/$export", this::handleKickOff);
+    server.createContext("/fhir/status/1", this::handleStatus);
+    server.createContext(
+        "/fhir/files/observations.ndjson",
+        exchange -> send(exchange, failDownload ? 500 : 200, failDownload ? "" : OBSERVATIONS));
+    server.createContext("/fhir/files/patients.ndjson", exchange -> send(exchange, 200, PATIENTS));
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  @DisplayName("All resources of the export files are passed to the consumer")
+  void testExport() {
+    List<Resource> resources = new CopyOnWriteArrayList<>();
+    long exported =
+        createClient()
+            .export(
+                List.of(ResourceType.Observation, ResourceType.Patient),
+                List.of("Observation?code=1234-5&_count=500", "Patient?birthdate=ge2010"),
+                resources::add);
+
+    assertEquals(5, exported);
+    assertEquals(5, resources.size());
+    Map<ResourceType, Long> countByType =
+        resources.stream()
+            .collect(Collectors.groupingBy(Resource::getResourceType, Collectors.counting()));
+    assertEquals(3, countByType.get(ResourceType.Observation));
+    assertEquals(2, countByType.get(ResourceType.Patient));
+    // The first status request got answered with 'in progress'
+    assertEquals(2, statusRequests.get());
+    assertEquals(1, deleteRequests.get());
+  }
+
+  @Test
+  @DisplayName("The kick-off request is asynchronous and carries the types and type filters")
+  void testKickOffRequest() {
+    createClient()
+        .export(
+            List.of(ResourceType.Observation, ResourceType.Patient),
+            List.of("Observation?code=1234-5&_count=500"),
+            resource -> {});
+
+    assertEquals(BulkExportClient.PREFER_RESPOND_ASYNC, preferHeader);
+    assertEquals("Observation,Patient", kickOffParameters.get("_type"));
+    assertEquals("Observation?code=1234-5", kickOffParameters.get("_typeFilter"));
+    assertEquals(BulkExportClient.FHIR_NDJSON.toString(), kickOffParameters.get("_outputFormat"));
+  }
+
+  @Test
+  @DisplayName("A kick-off that isn't accepted fails the export")
+  void testRejectedKickOff() {
+    kickOffStatus = 200;
+    assertThrows(
+        RestClientException.class,
+        () -> createClient().export(List.of(ResourceType.Patient), List.of(), resource -> {}));
+    // Without an accepted export there is nothing to delete
+    assertEquals(0, deleteRequests.get());
+  }
+
+  @Test
+  @DisplayName("The export is deleted on the server if the status poll or a download fails")
+  void testDeleteOnFailure() {
+    failStatusPoll = true;
+    assertThrows(
+        RestClientException.class,
+        () -> createClient().export(List.of(ResourceType.Patient), List.of(), resource -> {}));
+    assertEquals(1, deleteRequests.get());
+
+    failStatusPoll = false;
+    failDownload = true;
+    assertThrows(
+        RestClientException.class,
+        () ->
+            createClient()
+                .export(List.of(ResourceType.Observation), List.of(), resource -> {}));
+    assertEquals(2, deleteRequests.get());
+  }
+
+  @Test
+  @DisplayName("Result parameters are removed from the type filters")
+  void testToTypeFilter() {
+    assertEquals(
+        "Observation?code=1234-5&date=ge2024",
+        BulkExportClient.toTypeFilter("Observation?_count=500&code=1234-5&date=ge2024&_sort=_id"));
+    assertEquals("Patient?", BulkExportClient.toTypeFilter("Patient?_summary=count"));
+  }
+
+  private BulkExportClient createClient() {
+    BulkExportConfiguration configuration = new BulkExportConfiguration();
+    configuration.setPollInterval(Duration.ofMillis(10));
+    configuration.setParallelDownloads(2);
+    RestTemplate restTemplate = new RestTemplate();
+    return new BulkExportClient(() -> restTemplate, baseUrl + "/", configuration);
+  }
+
+  private void handleKickOff(HttpExchange exchange) throws IOException {
+    preferHeader = exchange.getRequestHeaders().getFirst("Prefer");
+    String query = exchange.getRequestURI().getRawQuery();
+    kickOffParameters.putAll(
+        List.of(query.split("&")).stream()
+            .map(parameter -> parameter.split("=", 2))
+            .collect(
+                Collectors.toMap(
+                    parameter -> parameter[0],
+                    parameter -> URLDecoder.decode(parameter[1], StandardCharsets.UTF_8),
+                    (first, second) -> first + "|" + second)));
+    exchange.getResponseHeaders().set("Content-Location", baseUrl + "/status/1");
+    send(exchange, kickOffStatus, "");
+  }
+
+  private void handleStatus(HttpExchange exchange) throws IOException {
+    if ("DELETE".equals(exchange.getRequestMethod())) {
+      deleteRequests.incrementAndGet();
+      send(exchange, 202, "");
+      return;
+    }
+    if (failStatusPoll) {
+      send(exchange, 500, "");
+      return;
+    }
+    if (statusRequests.incrementAndGet() == 1) {
+      exchange.getResponseHeaders().set("X-Progress", "50%");
+      send(exchange, 202, "");
+      return;
+    }
+    String manifest =
+        """
+        {"transactionTime":"2024-01-01T00:00:00Z","request":"%1$s/$export",
+        "requiresAccessToken":false,"error":[],"output":[
+        {"type":"Observation","url":"%1$s/files/observations.ndjson"},
+        {"type":"Patient","url":"%1$s/files/patients.ndjson"}]}
+        """
+            .formatted(baseUrl);
+    send(exchange, 200, manifest);
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(bytes);
+    }
+  }
+}
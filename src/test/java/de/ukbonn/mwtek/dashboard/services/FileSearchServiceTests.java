@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.POST;
+
+import de.ukbonn.mwtek.dashboard.configuration.FileSourceConfiguration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.SearchEntryMode;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks the evaluation of the FHIR search parameters on the resources of the file source. */
+public class FileSearchServiceTests {
+
+  private static final String OBSERVATIONS =
+      """
+      {"resourceType":"Observation","id":"o1","meta":{"lastUpdated":"2024-01-10T00:00:00Z"},\
+      "status":"final","category":[{"coding":[{"code":"laboratory"}]}],\
+      "code":{"coding":[{"system":"http://loinc.org","code":"94500-6"}]},\
+      "subject":{"reference":"Patient/p1"},"encounter":{"reference":"Encounter/e1"},\
+      "effectiveDateTime":"2021-03-01"}
+      {"resourceType":"Observation","id":"o2","meta":{"lastUpdated":"2023-01-01T00:00:00Z"},\
+      "status":"final","code":{"coding":[{"system":"http://loinc.org","code":"94558-4"}]},\
+      "subject":{"reference":"Patient/p2"},"encounter":{"reference":"Encounter/e2"},\
+      "effectiveDateTime":"2020-01-15"}
+      """;
+
+  private static final String CONDITIONS =
+      """
+      {"resourceType":"Condition","id":"c1","code":{"coding":[{"code":"U07.1"}]},\
+      "subject":{"reference":"Patient/p1"},"encounter":{"reference":"Encounter/e1"},\
+      "recordedDate":"2021-03-01"}
+      {"resourceType":"Condition","id":"c2","code":{"coding":[{"code":"J12.8"}]},\
+      "subject":{"reference":"Patient/p2"},"recordedDate":"2020-01-12"}
+      """;
+
+  private static final String ENCOUNTERS =
+      """
+      {"resourceType":"Bundle","type":"collection","entry":[
+        {"resource":{"resourceType":"Encounter","id":"e1","status":"finished",
+          "subject":{"reference":"Patient/p1"},
+          "period":{"start":"2021-02-28","end":"2021-03-05"},
+          "diagnosis":[{"condition":{"reference":"Condition/c1"}}]}},
+        {"resource":{"resourceType":"Encounter","id":"e2","status":"in-progress",
+          "subject":{"reference":"Patient/p2"},"period":{"start":"2020-01-10"}}}
+      ]}
+      """;
+
+  private static final String PATIENTS =
+      """
+      {"resourceType":"Patient","id":"p1","birthDate":"1980-05-01"}
+      {"resourceType":"Patient","id":"p2","birthDate":"1995-07-01"}
+      """;
+
+  @TempDir Path directory;
+
+  private FileSearchService searchService;
+
+  @BeforeEach
+  void writeFiles() throws IOException {
+    Path resources = Files.createDirectories(directory.resolve("resources"));
+    Files.writeString(resources.resolve("Observation.ndjson"), OBSERVATIONS);
+    Files.writeString(resources.resolve("Condition.ndjson"), CONDITIONS);
+    Files.writeString(resources.resolve("encounters.json"), ENCOUNTERS);
+    Files.writeString(resources.resolve("Patient.ndjson"), PATIENTS);
+    FileSourceConfiguration configuration = new FileSourceConfiguration();
+    configuration.setDirectory(resources.toString());
+    configuration.setIndexDirectory(directory.resolve("index").toString());
+    searchService = new FileSearchService(configuration);
+  }
+
+  /** The ids of the entries with the given search mode, sorted. */
+  private static List<String> ids(Bundle bundle, SearchEntryMode mode) {
+    return bundle.getEntry().stream()
+        .filter(entry -> entry.getSearch().getMode() == mode)
+        .map(BundleEntryComponent::getResource)
+        .map(Resource::getIdPart)
+        .sorted()
+        .toList();
+  }
+
+  private List<String> search(String querySuffix) {
+    return ids(searchService.getInitialBundle(querySuffix, GET, null), SearchEntryMode.MATCH);
+  }
+
+  @Test
+  @DisplayName("Resources are found by id, patient and encounter")
+  void testReferences() {
+    assertEquals(List.of("o1"), search("Observation?_id=o1,o3"));
+    assertEquals(List.of("o1"), search("Observation?subject=Patient/p1"));
+    assertEquals(List.of("c2"), search("Condition?patient=p2"));
+    assertEquals(List.of("o2"), search("Observation?encounter=Encounter/e2"));
+    assertEquals(List.of("o1", "o2"), search("Observation?subject=p1,p2&_count=500"));
+    assertEquals(List.of(), search("Observation?_id=o1&subject=p2"));
+  }
+
+  @Test
+  @DisplayName("Codes and categories match by code or by system and code")
+  void testCodes() {
+    assertEquals(List.of("o1"), search("Observation?code=http://loinc.org|94500-6"));
+    assertEquals(List.of("o2"), search("Observation?code=94558-4,1234-5"));
+    assertEquals(List.of(), search("Observation?code=http://other.org|94500-6"));
+    assertEquals(List.of("c1"), search("Condition?code=U07.1"));
+    assertEquals(List.of("o1"), search("Observation?category=laboratory"));
+  }
+
+  @Test
+  @DisplayName("Date parameters compare the dates and periods with their prefixes")
+  void testDates() {
+    assertEquals(List.of("o1"), search("Observation?date=ge2021-01-01"));
+    assertEquals(List.of("o2"), search("Observation?date=lt2021-01-01"));
+    assertEquals(List.of("o1"), search("Observation?date=2021-03-01"));
+    // The open end of e2 matches every later date
+    assertEquals(List.of("e1", "e2"), search("Encounter?date=ge2021-01-01"));
+    assertEquals(List.of("e2"), search("Encounter?date=lt2020-06-01"));
+    assertEquals(List.of("c2"), search("Condition?recorded-date=le2020-12-31"));
+    assertEquals(List.of("p2"), search("Patient?birthdate=ge1990-01-01&birthdate=le2000-12-31"));
+    assertEquals(List.of("o1"), search("Observation?_lastUpdated=ge2024-01-01T00:00:00Z"));
+  }
+
+  @Test
+  @DisplayName("POST bodies are evaluated for the given resource type")
+  void testPostBody() {
+    Bundle bundle = searchService.getInitialBundle("code=94500-6&_count=500", POST, "Observation");
+    assertEquals(List.of("o1"), ids(bundle, SearchEntryMode.MATCH));
+  }
+
+  @Test
+  @DisplayName("Summary count searches just return the total")
+  void testSummaryCount() {
+    Bundle bundle = searchService.getInitialBundle("Observation?_summary=count", GET, null);
+    assertEquals(2, bundle.getTotal());
+    assertTrue(bundle.getEntry().isEmpty());
+  }
+
+  @Test
+  @DisplayName("Encounter diagnoses are included and rev-included")
+  void testIncludes() {
+    Bundle bundle =
+        searchService.getInitialBundle("Encounter?_id=e1&_include=Encounter:diagnosis", GET, null);
+    assertEquals(List.of("e1"), ids(bundle, SearchEntryMode.MATCH));
+    assertEquals(List.of("c1"), ids(bundle, SearchEntryMode.INCLUDE));
+
+    bundle =
+        searchService.getInitialBundle(
+            "Condition?patient=p1,p2&_revinclude=Encounter:diagnosis", GET, null);
+    assertEquals(List.of("c1", "c2"), ids(bundle, SearchEntryMode.MATCH));
+    assertEquals(List.of("e1"), ids(bundle, SearchEntryMode.INCLUDE));
+  }
+
+  @Test
+  @DisplayName("Unsupported parameters are rejected instead of ignored")
+  void testUnsupportedParameters() {
+    assertThrows(IllegalArgumentException.class, () -> search("Observation?status=final"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> search("Encounter?_has:Condition:encounter:code=U07.1"));
+    assertThrows(
+        IllegalArgumentException.class, () -> search("Encounter?_include=Encounter:location"));
+    assertThrows(IllegalArgumentException.class, () -> search("Observation?_summary=data"));
+    assertEquals(List.of("o1", "o2"), search("Observation?_count=10&_pretty=false"));
+    assertThrows(
+        IllegalStateException.class, () -> searchService.getBundlePart("Observation?page=2", GET));
+  }
+}
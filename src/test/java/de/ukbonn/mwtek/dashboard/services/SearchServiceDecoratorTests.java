@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.springframework.http.HttpMethod.GET;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.ukbonn.mwtek.dashboard.interfaces.SearchService;
+import de.ukbonn.mwtek.dashboard.misc.BundlePrefilter;
+import de.ukbonn.mwtek.dashboard.store.SearchArchive;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpMethod;
+
+/** Checks that the search service decorators pass the prefilter of a search on. */
+public class SearchServiceDecoratorTests {
+
+  private static final FhirContext FHIR_CTX = FhirContext.forR4();
+  private static final String STAGE = "COVID_Encounter";
+  private static final String QUERY = "Encounter?patient=p1";
+  private static final String NEXT_PAGE = "http://localhost/fhir?_getpages=1";
+
+  private static final String BUNDLE =
+      """
+      {"resourceType":"Bundle","type":"searchset","entry":[
+        {"resource":{"resourceType":"Encounter","id":"e1","status":"finished"}},
+        {"resource":{"resourceType":"Encounter","id":"e2","status":"cancelled"}},
+        {"resource":{"resourceType":"Encounter","id":"e3"}}
+      ]}
+      """;
+
+  @TempDir Path directory;
+
+  /** Server stand-in that applies the prefilter to the raw response, like the FHIR search. */
+  private static class RawSearchService implements SearchService {
+
+    private final List<BundlePrefilter> receivedPrefilters = new ArrayList<>();
+
+    @Override
+    public List<BundleEntryComponent> getBundleData(
+        String querySuffix, HttpMethod httpMethod, String resourceType) {
+      return parse(null).getEntry();
+    }
+
+    @Override
+    public Bundle getInitialBundle(String querySuffix, HttpMethod httpMethod, String resourceType) {
+      return getInitialBundle(querySuffix, httpMethod, resourceType, null);
+    }
+
+    @Override
+    public Bundle getInitialBundle(
+        String querySuffix, HttpMethod httpMethod, String resourceType, BundlePrefilter prefilter) {
+      return parse(prefilter);
+    }
+
+    @Override
+    public Bundle getBundlePart(String linkToNextPart, HttpMethod httpMethod) {
+      return getBundlePart(linkToNextPart, httpMethod, null);
+    }
+
+    @Override
+    public Bundle getBundlePart(
+        String linkToNextPart, HttpMethod httpMethod, BundlePrefilter prefilter) {
+      return parse(prefilter);
+    }
+
+    @Override
+    public CapabilityStatement getCapabilityStatement(
+        String querySuffix, HttpMethod httpMethod, String resourceType) {
+      return null;
+    }
+
+    private Bundle parse(BundlePrefilter prefilter) {
+      receivedPrefilters.add(prefilter);
+      String json = prefilter == null ? BUNDLE : prefilter.apply(BUNDLE);
+      return FHIR_CTX.newJsonParser().parseResource(Bundle.class, json);
+    }
+  }
+
+  private static BundlePrefilter prefilter(boolean statusRequired) {
+    return new BundlePrefilter(
+        STAGE, "Encounter", BundlePrefilter.statusNotIn(statusRequired, Set.of("cancelled")));
+  }
+
+  private static List<String> entryIds(Bundle bundle) {
+    return bundle.getEntry().stream().map(entry -> entry.getResource().getIdPart()).toList();
+  }
+
+  @Test
+  @DisplayName("Prefiltered searches are prefiltered through recording and replay")
+  void testPrefilterChain() throws IOException {
+    Path archiveFile = directory.resolve("searches.archive");
+    RawSearchService server = new RawSearchService();
+    BundlePrefilter prefilter = prefilter(false);
+    try (SearchArchive archive = SearchArchive.openForRecording(archiveFile)) {
+      SearchService searchService =
+          new CoalescingSearchService(new RecordingSearchService(server, archive));
+      assertEquals(
+          List.of("e1", "e3"),
+          entryIds(searchService.getInitialBundle(QUERY, GET, "Encounter", prefilter)));
+      assertEquals(
+          List.of("e1", "e3"), entryIds(searchService.getBundlePart(NEXT_PAGE, GET, prefilter)));
+      assertEquals(
+          List.of("e1", "e2", "e3"),
+          entryIds(searchService.getInitialBundle(QUERY, GET, "Encounter")));
+    }
+    assertEquals(3, server.receivedPrefilters.size());
+    assertSame(prefilter, server.receivedPrefilters.get(0));
+    assertSame(prefilter, server.receivedPrefilters.get(1));
+
+    SearchService replayService =
+        new CoalescingSearchService(
+            new ReplaySearchService(SearchArchive.openForReplay(archiveFile)));
+    // The prefiltered and the unfiltered responses were recorded separately
+    assertEquals(
+        List.of("e1", "e3"),
+        entryIds(replayService.getInitialBundle(QUERY, GET, "Encounter", prefilter)));
+    assertEquals(
+        List.of("e1", "e2", "e3"),
+        entryIds(replayService.getInitialBundle(QUERY, GET, "Encounter")));
+    // The prefilter of the replaying run is applied to the recorded response
+    BundlePrefilter stricterPrefilter = prefilter(true);
+    assertEquals(
+        List.of("e1"),
+        entryIds(replayService.getBundlePart(NEXT_PAGE, GET, stricterPrefilter)));
+    assertEquals(1, stricterPrefilter.getSkippedEntries());
+  }
+}
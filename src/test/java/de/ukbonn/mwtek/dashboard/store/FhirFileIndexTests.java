@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks the reading of the resource files and the reuse of the saved index. */
+public class FhirFileIndexTests {
+
+  private static final int OBSERVATION_COUNT = 2_000;
+
+  @TempDir Path directory;
+
+  private Path resources;
+  private Path indexDirectory;
+
+  private static String patient(String id) {
+    return "{\"resourceType\":\"Patient\",\"id\":\"" + id + "\"}";
+  }
+
+  @BeforeEach
+  void writeFiles() throws IOException {
+    resources = Files.createDirectories(directory.resolve("resources"));
+    indexDirectory = directory.resolve("index");
+    // Blank lines, CRLF line ends and a missing final line break
+    Files.writeString(
+        resources.resolve("Patient.ndjson"),
+        patient("p1") + "\r\n\n" + patient("p2") + "\n   \n" + patient("p3"));
+    // Enough lines to be split over several parser threads
+    Files.writeString(
+        resources.resolve("Observation.ndjson"),
+        IntStream.range(0, OBSERVATION_COUNT)
+            .mapToObj(
+                i ->
+                    "{\"resourceType\":\"Observation\",\"id\":\"o"
+                        + i
+                        + "\",\"status\":\"final\",\"subject\":{\"reference\":\"Patient/p"
+                        + (i % 3 + 1)
+                        + "\"}}\n")
+            .collect(Collectors.joining()));
+    Path subdirectory = Files.createDirectories(resources.resolve("bundles"));
+    Files.writeString(
+        subdirectory.resolve("encounters.json"),
+        """
+        {"resourceType":"Bundle","type":"collection","entry":[
+          {"resource":{"resourceType":"Encounter","id":"e1","status":"finished",
+            "subject":{"reference":"Patient/p1"}}},
+          {"resource":{"resourceType":"Encounter","id":"e2","status":"finished",
+            "subject":{"reference":"Patient/p2"}}}
+        ]}
+        """);
+    Files.writeString(
+        resources.resolve("condition.json"),
+        """
+        {"resourceType":"Condition","id":"c1","subject":{"reference":"Patient/p1"}}
+        """);
+    Files.writeString(resources.resolve("readme.txt"), "Not a resource file");
+  }
+
+  private FhirFileIndex load() throws IOException {
+    return FhirFileIndex.load(resources, indexDirectory);
+  }
+
+  @Test
+  @DisplayName("NDJSON lines, bundle entries and single resources are indexed per type")
+  void testReadFiles() throws IOException {
+    FhirFileIndex index = load();
+    assertEquals(Set.of("p1", "p2", "p3"), index.getStore(ResourceType.Patient).getIds());
+    assertEquals(Set.of("e1", "e2"), index.getStore(ResourceType.Encounter).getIds());
+    assertEquals(Set.of("c1"), index.getStore(ResourceType.Condition).getIds());
+    ResourceStore observations = index.getStore(ResourceType.Observation);
+    assertEquals(OBSERVATION_COUNT, observations.size());
+    assertEquals(
+        OBSERVATION_COUNT / 3 + 1,
+        observations.getByPatientIds(Set.of("p1"), resource -> resource).size());
+    assertNull(index.getStore(ResourceType.Procedure));
+  }
+
+  @Test
+  @DisplayName("The saved index is reused for unchanged files and rebuilt for changed ones")
+  void testIndexReuse() throws IOException {
+    load();
+    Path patientFile = resources.resolve("Patient.ndjson");
+    FileTime modified = Files.getLastModifiedTime(patientFile);
+
+    // Same name, size and modification time: the index is reused without reading the file
+    Files.writeString(patientFile, Files.readString(patientFile).replace("p3", "p9"));
+    Files.setLastModifiedTime(patientFile, modified);
+    assertEquals(Set.of("p1", "p2", "p3"), load().getStore(ResourceType.Patient).getIds());
+
+    // A changed modification time invalidates the index
+    Files.setLastModifiedTime(patientFile, FileTime.fromMillis(modified.toMillis() + 60_000));
+    assertEquals(Set.of("p1", "p2", "p9"), load().getStore(ResourceType.Patient).getIds());
+
+    // So does an added file
+    Files.writeString(resources.resolve("more.ndjson"), patient("p4"));
+    FhirFileIndex index = load();
+    assertEquals(Set.of("p1", "p2", "p4", "p9"), index.getStore(ResourceType.Patient).getIds());
+    assertEquals(OBSERVATION_COUNT, index.getStore(ResourceType.Observation).size());
+  }
+}
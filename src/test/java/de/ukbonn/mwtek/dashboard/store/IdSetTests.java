@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Checks the set algebra of the id sets against the one of plain hash sets. */
+public class IdSetTests {
+
+  private final StringDictionary dictionary = new StringDictionary();
+
+  /** Ids that fill both sparse and dense bitmap containers. */
+  private static Set<String> ids(int from, int to, int step) {
+    return IntStream.range(from, to)
+        .filter(i -> i % step == 0)
+        .mapToObj(i -> "id-" + i)
+        .collect(Collectors.toSet());
+  }
+
+  @Test
+  @DisplayName("Intersection, union and difference match the ones of hash sets")
+  void testSetAlgebra() {
+    // Encoding the ids in ascending order spreads them over several containers
+    IntStream.range(0, 200_000).forEach(i -> dictionary.encode("id-" + i));
+    Set<String> dense = ids(0, 150_000, 1);
+    Set<String> sparse = ids(50_000, 200_000, 97);
+    IdSet denseIds = IdSet.of(dictionary, dense);
+    IdSet sparseIds = IdSet.of(dictionary, sparse);
+
+    Set<String> expected = new HashSet<>(dense);
+    expected.retainAll(sparse);
+    assertEquals(expected, denseIds.intersection(sparseIds));
+
+    expected = new HashSet<>(dense);
+    expected.addAll(sparse);
+    assertEquals(expected, denseIds.union(sparseIds));
+
+    expected = new HashSet<>(dense);
+    expected.removeAll(sparse);
+    assertEquals(expected, denseIds.difference(sparseIds));
+
+    // The operands stay untouched
+    assertEquals(dense, denseIds);
+    assertEquals(sparse, sparseIds);
+  }
+
+  @Test
+  @DisplayName("Mutations keep the set consistent")
+  void testMutations() {
+    IdSet idSet = IdSet.of(dictionary, ids(0, 10_000, 1));
+    assertEquals(10_000, idSet.size());
+
+    // Shrinks a dense container below the threshold of a sparse one
+    ids(0, 10_000, 1).stream().filter(id -> !id.endsWith("7")).forEach(idSet::remove);
+    assertEquals(1_000, idSet.size());
+    assertTrue(idSet.contains("id-17"));
+    assertFalse(idSet.contains("id-18"));
+    assertFalse(idSet.contains("unknown"));
+
+    idSet.retainAll(List.of("id-17", "id-27", "id-28"));
+    assertEquals(Set.of("id-17", "id-27"), idSet);
+
+    idSet.removeAll(IdSet.of(dictionary, List.of("id-17")));
+    assertEquals(Set.of("id-27"), idSet);
+  }
+
+  @Test
+  @DisplayName("Sets of different dictionaries are combined by their ids")
+  void testDifferentDictionaries() {
+    IdSet idSet = IdSet.of(dictionary, List.of("a", "b", "c"));
+    IdSet otherIdSet = IdSet.of(new StringDictionary(), List.of("c", "d"));
+    assertEquals(Set.of("c"), idSet.intersection(otherIdSet));
+    assertEquals(Set.of("a", "b", "c", "d"), idSet.union(otherIdSet));
+  }
+
+  @Test
+  @DisplayName("The collector gathers ids of a parallel stream")
+  void testCollector() {
+    Set<String> expected = ids(0, 50_000, 3);
+    IdSet collected = expected.parallelStream().collect(IdSet.collector(dictionary));
+    assertEquals(expected, collected);
+  }
+
+  @Test
+  @DisplayName("Missing ids are skipped on creation and collection, but rejected on add")
+  void testNullIds() {
+    List<String> caseIds = Arrays.asList("case-1", null, "case-2", null);
+    assertEquals(Set.of("case-1", "case-2"), IdSet.of(dictionary, caseIds));
+    IdSet collected = caseIds.parallelStream().collect(IdSet.collector(dictionary));
+    assertEquals(Set.of("case-1", "case-2"), collected);
+    assertFalse(collected.contains(null));
+    assertThrows(NullPointerException.class, () -> collected.add(null));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_COVID;
+import static de.ukbonn.mwtek.dashboard.controller.ResultFunctionalityTests.SAMPLE_FILE_INFLUENZA;
+import static de.ukbonn.mwtek.dashboard.examples.InputCodeSettingsExampleData.getExampleData;
+import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.DEFAULT_PCR_LOINC_COVID;
+import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.DEFAULT_PCR_LOINC_COVID_VARIANTS;
+import static de.ukbonn.mwtek.dashboard.misc.ConfigurationTransformer.DEFAULT_PCR_LOINC_INFLUENZA;
+import static de.ukbonn.mwtek.utilities.enums.TerminologySystems.SNOMED;
+import static de.ukbonn.mwtek.utilities.generic.collections.ListTools.commaSeparatedStringIntoList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.ukbonn.mwtek.dashboard.enums.ServerTypeEnum;
+import de.ukbonn.mwtek.dashboard.misc.MiiResourceTypes;
+import de.ukbonn.mwtek.dashboard.misc.ResourceHandler;
+import de.ukbonn.mwtek.dashboardlogic.enums.DataItemContext;
+import de.ukbonn.mwtek.dashboardlogic.logic.CoronaResultFunctionality;
+import de.ukbonn.mwtek.dashboardlogic.settings.QualitativeLabCodesSettings;
+import de.ukbonn.mwtek.utilities.fhir.resources.MiiObservation;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Observation.ObservationStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that scanning the observation table finds the same patients with a positive finding as
+ * the check of the observation list.
+ */
+public class ObservationTableTests {
+
+  private static final FhirContext FHIR_CTX = FhirContext.forR4();
+
+  private static final String POSITIVE = "10828004";
+  private static final String BORDERLINE = "419984006";
+  private static final String NEGATIVE = "260385009";
+
+  private static final QualitativeLabCodesSettings QUALITATIVE_LAB_CODES =
+      new QualitativeLabCodesSettings(
+          List.of(POSITIVE), List.of(BORDERLINE), List.of(NEGATIVE), List.of(SNOMED));
+
+  private static Observation observation(String patientId, List<String> codes, Coding... values) {
+    Observation observation = new Observation();
+    observation.setStatus(ObservationStatus.FINAL);
+    observation.getSubject().setReference("Patient/" + patientId);
+    CodeableConcept code = new CodeableConcept();
+    codes.forEach(value -> code.addCoding().setSystem("http://loinc.org").setCode(value));
+    observation.setCode(code);
+    CodeableConcept value = new CodeableConcept();
+    List.of(values).forEach(value::addCoding);
+    observation.setValue(value);
+    return observation;
+  }
+
+  @Test
+  @DisplayName("Each coding of an observation can be selected")
+  void testAllCodings() {
+    ObservationTable table = new ObservationTable();
+    table.add(
+        observation(
+            "1",
+            List.of("94309-2", "94500-6"),
+            new Coding(SNOMED, NEGATIVE, null),
+            new Coding(SNOMED, POSITIVE, null)),
+        "1",
+        null);
+    table.add(observation("2", List.of("94500-6"), new Coding(SNOMED, NEGATIVE, null)), "2", null);
+    table.add(observation("3", List.of()), "3", null);
+
+    assertEquals(Set.of("1"), patientIds(table, null, List.of(SNOMED), List.of(POSITIVE)));
+    assertEquals(Set.of("1"), patientIds(table, List.of("94309-2"), null, null));
+    assertEquals(Set.of("1", "2"), patientIds(table, List.of("94500-6"), null, null));
+    assertEquals(Set.of("1", "2", "3"), patientIds(table, null, null, null));
+  }
+
+  @Test
+  @DisplayName("The table and the observation list deliver the same positive patients")
+  void testSamePatientIds() throws IOException {
+    assertSamePatientIds(
+        SAMPLE_FILE_COVID,
+        DataItemContext.COVID,
+        DEFAULT_PCR_LOINC_COVID + "," + DEFAULT_PCR_LOINC_COVID_VARIANTS);
+    assertSamePatientIds(
+        SAMPLE_FILE_INFLUENZA, DataItemContext.INFLUENZA, DEFAULT_PCR_LOINC_INFLUENZA);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void assertSamePatientIds(
+      String sampleFile, DataItemContext dataItemContext, String stageCodes) throws IOException {
+    Bundle bundle =
+        MiiResourceTypes.newJsonParser(FHIR_CTX)
+            .parseResource(
+                Bundle.class, Files.readString(Path.of(sampleFile), StandardCharsets.UTF_8));
+    // Just the observations that the observation stage of the context queries
+    Set<String> codes = new HashSet<>(commaSeparatedStringIntoList(stageCodes));
+    bundle
+        .getEntry()
+        .removeIf(
+            entry ->
+                !(entry.getResource() instanceof Observation obs)
+                    || obs.getCode().getCoding().stream()
+                        .noneMatch(coding -> codes.contains(coding.getCode())));
+
+    // The observation stage fills the list and the table alike
+    List<Observation> observations = new ArrayList<>();
+    ObservationTable table = new ObservationTable();
+    ResourceHandler.handleObservationEntries(
+        bundle, observations, table, new HashSet<>(), new HashSet<>(), ServerTypeEnum.FHIR);
+    List<MiiObservation> miiObservations =
+        (List<MiiObservation>) MiiResourceTypes.toMii(observations);
+
+    Set<String> expected =
+        CoronaResultFunctionality.getPidsPosFinding(
+            miiObservations, List.of(), getExampleData(), dataItemContext, QUALITATIVE_LAB_CODES);
+    Set<String> actual =
+        patientIds(
+            table,
+            null,
+            QUALITATIVE_LAB_CODES.getCodeSystems(),
+            QUALITATIVE_LAB_CODES.getPositiveCodes());
+    actual.addAll(
+        CoronaResultFunctionality.getPidsPosFinding(
+            List.of(), List.of(), getExampleData(), dataItemContext, QUALITATIVE_LAB_CODES));
+
+    assertFalse(expected.isEmpty(), sampleFile);
+    assertEquals(expected, actual, sampleFile);
+  }
+
+  private static Set<String> patientIds(
+      ObservationTable table,
+      List<String> observationCodes,
+      List<String> valueSystems,
+      List<String> valueCodes) {
+    return new HashSet<>(
+        table.getPatientIds(
+            table.select(observationCodes, valueSystems, valueCodes, ObservationTable.NO_DATE)));
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static de.ukbonn.mwtek.dashboard.store.ResourceCodec.INT_BE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Encounter.EncounterStatus;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Observation.ObservationStatus;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks the resource encoding and the round trip of the store snapshots. */
+public class ResourceStoreTests {
+
+  private static final String KEY = "COVID_Observation";
+  private static final String CONFIG_HASH = "config-hash";
+  private static final Instant FIRST_RUN = Instant.ofEpochMilli(1_700_000_000_000L);
+  private static final Instant SECOND_RUN = FIRST_RUN.plusSeconds(3600);
+
+  @TempDir Path directory;
+
+  private static Observation observation(String id, String patientId, String encounterId) {
+    Observation observation = new Observation();
+    observation.setId(id);
+    observation.setStatus(ObservationStatus.FINAL);
+    observation.setCode(new CodeableConcept(new Coding("http://loinc.org", "94500-6", null)));
+    observation.setSubject(new Reference("Patient/" + patientId));
+    observation.setEncounter(new Reference("Encounter/" + encounterId));
+    return observation;
+  }
+
+  private static Encounter encounter(String id, String patientId) {
+    Encounter encounter = new Encounter();
+    encounter.setId(id);
+    encounter.setStatus(EncounterStatus.FINISHED);
+    encounter.setSubject(new Reference("Patient/" + patientId));
+    return encounter;
+  }
+
+  private static Patient patient(String id) {
+    Patient patient = new Patient();
+    patient.setId(id);
+    return patient;
+  }
+
+  private static Set<String> ids(Collection<String> ids) {
+    return new HashSet<>(ids);
+  }
+
+  /** A saved store with resources of two patients, where the first one is covered completely. */
+  private ResourceStore savedStore() throws IOException {
+    ResourceStore store = ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH);
+    store.put(observation("o1", "p1", "e1"));
+    store.put(observation("o2", "p2", "e2"));
+    store.put(encounter("e1", "p1"));
+    store.put(patient("p1"));
+    store.addCoveredPatientIds(List.of("p1"));
+    store.save(CONFIG_HASH, FIRST_RUN);
+    return store;
+  }
+
+  private Path currentSnapshot() throws IOException {
+    return directory.resolve(Files.readString(directory.resolve(KEY + ".current")).trim());
+  }
+
+  @Test
+  @DisplayName("Encoded resources decode to the same content")
+  void testCodecRoundTrip() {
+    Observation observation = observation("o1", "p1", "e1");
+    MemorySegment payload = ResourceCodec.encode(observation);
+
+    // The payload is prefixed with the length of the uncompressed json
+    String json = FhirContext.forR4().newJsonParser().encodeResourceToString(observation);
+    assertEquals(json.getBytes(StandardCharsets.UTF_8).length, payload.get(INT_BE, 0));
+
+    Observation decoded = assertInstanceOf(Observation.class, ResourceCodec.decode(payload));
+    assertEquals("o1", decoded.getIdPart());
+    assertEquals(ObservationStatus.FINAL, decoded.getStatus());
+    assertEquals("94500-6", decoded.getCode().getCodingFirstRep().getCode());
+    assertEquals("Patient/p1", decoded.getSubject().getReference());
+    assertEquals("Encounter/e1", decoded.getEncounter().getReference());
+  }
+
+  @Test
+  @DisplayName("Strings are written with their length and null as empty string")
+  void testStringRoundTrip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    ResourceCodec.writeString(out, "Müller");
+    ResourceCodec.writeString(out, null);
+    ResourceCodec.writeString(out, "");
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("Müller", ResourceCodec.readString(in));
+    assertEquals("", ResourceCodec.readString(in));
+    assertEquals("", ResourceCodec.readString(in));
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  @DisplayName("A saved snapshot starts with the magic and the version")
+  void testSnapshotHeader() throws IOException {
+    savedStore();
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(currentSnapshot()))) {
+      byte[] magic = new byte[4];
+      in.readFully(magic);
+      assertEquals("DDPS", new String(magic, StandardCharsets.US_ASCII));
+      assertEquals(1, in.readInt());
+      assertEquals(CONFIG_HASH, ResourceCodec.readString(in));
+      assertEquals(FIRST_RUN.toEpochMilli(), in.readLong());
+      assertEquals(FIRST_RUN.toEpochMilli(), in.readLong());
+    }
+  }
+
+  @Test
+  @DisplayName("A loaded snapshot has the marks, indexes and resources that were saved")
+  void testSnapshotRoundTrip() throws IOException {
+    savedStore();
+    ResourceStore store = ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH);
+
+    assertTrue(store.isDeltaRetrieval());
+    assertEquals(FIRST_RUN, store.getHighWaterMark());
+    assertEquals(FIRST_RUN, store.getLastFullRetrieval());
+    assertEquals(Set.of("p1"), store.getCoveredPatientIds());
+    assertEquals(Set.of("o1", "o2", "e1", "p1"), store.getIds());
+
+    // Patient and encounter index
+    assertEquals(
+        Set.of("o1", "e1", "p1"), ids(store.getByPatientIds(List.of("p1"), Resource::getIdPart)));
+    assertEquals(Set.of("o2"), ids(store.getByPatientIds(List.of("p2"), Resource::getIdPart)));
+    assertEquals(
+        Set.of("o1", "e1"), ids(store.getByEncounterIds(List.of("e1"), Resource::getIdPart)));
+    assertTrue(store.getByEncounterIds(List.of("e3"), Resource::getIdPart).isEmpty());
+
+    // Records
+    Observation observation = store.getById("o2", Observation.class::cast);
+    assertEquals("Patient/p2", observation.getSubject().getReference());
+    assertEquals("Encounter/e2", observation.getEncounter().getReference());
+    assertNull(store.getById("o3", Observation.class::cast));
+    assertEquals(4, store.toBundle(null).getTotal());
+  }
+
+  @Test
+  @DisplayName("A delta save moves the high-water mark and keeps the last full retrieval")
+  void testDeltaSave() throws IOException {
+    savedStore();
+    ResourceStore store = ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH);
+    store.remove("o2");
+    store.put(observation("o1", "p1", "e2"));
+    store.save(CONFIG_HASH, SECOND_RUN);
+
+    store = ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH);
+    assertEquals(SECOND_RUN, store.getHighWaterMark());
+    assertEquals(FIRST_RUN, store.getLastFullRetrieval());
+    assertEquals(Set.of("o1", "e1", "p1"), store.getIds());
+    assertTrue(store.getByPatientIds(List.of("p2"), Resource::getIdPart).isEmpty());
+    // The replaced observation moved to the other encounter
+    assertEquals(Set.of("e1"), ids(store.getByEncounterIds(List.of("e1"), Resource::getIdPart)));
+    assertEquals(Set.of("o1"), ids(store.getByEncounterIds(List.of("e2"), Resource::getIdPart)));
+    // The former snapshot was replaced
+    try (var snapshots = Files.list(directory)) {
+      assertEquals(1, snapshots.filter(file -> file.toString().endsWith(".snap")).count());
+    }
+  }
+
+  @Test
+  @DisplayName("A changed configuration or an expired full retrieval discards the snapshot")
+  void testDiscardedSnapshot() throws IOException {
+    savedStore();
+    ResourceStore store = ResourceStore.load(KEY, directory, "other-hash", Instant.EPOCH);
+    assertFalse(store.isDeltaRetrieval());
+    assertEquals(0, store.size());
+
+    store = ResourceStore.load(KEY, directory, CONFIG_HASH, FIRST_RUN.plusMillis(1));
+    assertFalse(store.isDeltaRetrieval());
+    assertTrue(store.getCoveredPatientIds().isEmpty());
+  }
+
+  @Test
+  @DisplayName("A truncated or foreign snapshot leads to a full retrieval")
+  void testUnreadableSnapshot() throws IOException {
+    savedStore();
+    Path snapshot = currentSnapshot();
+    byte[] content = Files.readAllBytes(snapshot);
+
+    // Cut within the records, within the header and within the magic
+    for (int length : new int[] {content.length - 10, 20, 2}) {
+      Files.write(snapshot, Arrays.copyOf(content, length));
+      ResourceStore store = ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH);
+      assertFalse(store.isDeltaRetrieval(), "Length " + length);
+      assertEquals(0, store.size(), "Length " + length);
+      assertTrue(store.getCoveredPatientIds().isEmpty(), "Length " + length);
+    }
+
+    byte[] foreign = content.clone();
+    foreign[0] = 'X';
+    Files.write(snapshot, foreign);
+    assertFalse(ResourceStore.load(KEY, directory, CONFIG_HASH, Instant.EPOCH).isDeltaRetrieval());
+  }
+}
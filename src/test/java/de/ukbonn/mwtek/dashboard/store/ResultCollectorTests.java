@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021 University Hospital Bonn - All Rights Reserved You may use, distribute and
+ * modify this code under the GPL 3 license. THERE IS NO WARRANTY FOR THE PROGRAM, TO THE EXTENT
+ * PERMITTED BY APPLICABLE LAW. EXCEPT WHEN OTHERWISE STATED IN WRITING THE COPYRIGHT HOLDERS AND/OR
+ * OTHER PARTIES PROVIDE THE PROGRAM “AS IS” WITHOUT WARRANTY OF ANY KIND, EITHER EXPRESSED OR
+ * IMPLIED, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE. THE ENTIRE RISK AS TO THE QUALITY AND PERFORMANCE OF THE PROGRAM IS WITH
+ * YOU. SHOULD THE PROGRAM PROVE DEFECTIVE, YOU ASSUME THE COST OF ALL NECESSARY SERVICING, REPAIR
+ * OR CORRECTION. IN NO EVENT UNLESS REQUIRED BY APPLICABLE LAW OR AGREED TO IN WRITING WILL ANY
+ * COPYRIGHT HOLDER, OR ANY OTHER PARTY WHO MODIFIES AND/OR CONVEYS THE PROGRAM AS PERMITTED ABOVE,
+ * BE LIABLE TO YOU FOR DAMAGES, INCLUDING ANY GENERAL, SPECIAL, INCIDENTAL OR CONSEQUENTIAL DAMAGES
+ * ARISING OUT OF THE USE OR INABILITY TO USE THE PROGRAM (INCLUDING BUT NOT LIMITED TO LOSS OF DATA
+ * OR DATA BEING RENDERED INACCURATE OR LOSSES SUSTAINED BY YOU OR THIRD PARTIES OR A FAILURE OF THE
+ * PROGRAM TO OPERATE WITH ANY OTHER PROGRAMS), EVEN IF SUCH HOLDER OR OTHER PARTY HAS BEEN ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGES. You should have received a copy of the GPL 3 license with *
+ * this file. If not, visit http://www.gnu.de/documents/gpl-3.0.en.html
+ */
+
+package de.ukbonn.mwtek.dashboard.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Checks the merge of the thread buffers of the result collector. */
+public class ResultCollectorTests {
+
+  private static Encounter encounter(String id, Date lastUpdated) {
+    Encounter encounter = new Encounter();
+    encounter.setId(id);
+    if (lastUpdated != null) {
+      encounter.getMeta().setLastUpdated(lastUpdated);
+    }
+    return encounter;
+  }
+
+  @Test
+  @DisplayName("Resources of overlapping parallel batches are collected once")
+  void testParallelDuplicates() {
+    ResultCollector<Encounter> collector = new ResultCollector<>();
+    // Each batch overlaps with the next one by 50 resources
+    IntStream.range(0, 20)
+        .parallel()
+        .forEach(
+            batch ->
+                IntStream.range(batch * 100, batch * 100 + 150)
+                    .forEach(i -> collector.add(encounter("Encounter/" + i, null))));
+    // Resources without an id can't be compared, so they are all kept
+    collector.add(new Encounter());
+    collector.add(new Encounter());
+
+    List<Encounter> encounters = collector.toList();
+    assertEquals(2050 + 2, encounters.size());
+    Set<String> ids =
+        encounters.stream()
+            .filter(Resource::hasId)
+            .map(encounter -> encounter.getIdElement().getIdPart())
+            .collect(Collectors.toSet());
+    assertEquals(2050, ids.size());
+  }
+
+  @Test
+  @DisplayName("The most recently updated duplicate is kept, otherwise the first one")
+  void testMergeRule() {
+    Encounter older = encounter("Encounter/1/_history/1", new Date(1_000));
+    Encounter newer = encounter("Encounter/1/_history/2", new Date(2_000));
+    Encounter withoutMeta = encounter("Encounter/1", null);
+    ResultCollector<Encounter> collector = new ResultCollector<>();
+    collector.addAll(List.of(older, newer, withoutMeta));
+    assertSame(newer, collector.toList().getFirst());
+
+    Encounter first = encounter("Encounter/2", null);
+    Encounter second = encounter("Encounter/2", null);
+    assertSame(first, ResultCollector.newer(first, second));
+    assertSame(newer, ResultCollector.newer(withoutMeta, newer));
+  }
+}